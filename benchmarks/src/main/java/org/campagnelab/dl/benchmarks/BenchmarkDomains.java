@@ -0,0 +1,84 @@
+package org.campagnelab.dl.benchmarks;
+
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.genotype.learning.GenotypeTrainingArguments;
+import org.campagnelab.dl.genotype.learning.domains.GenotypeDomainDescriptor;
+import org.campagnelab.dl.genotype.mappers.GenotypeMapperV38;
+import org.campagnelab.dl.somatic.learning.SomaticTrainingArguments;
+import org.campagnelab.dl.somatic.learning.domains.SomaticMutationDomainDescriptor;
+import org.campagnelab.dl.somatic.mappers.FeatureMapperV25;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Domains measured by the benchmarks, each a representative feature mapper configuration over synthetic records.
+ */
+final class BenchmarkDomains {
+    static final String GENOTYPE_V38 = "GenotypeMapperV38";
+    static final String SOMATIC_V25 = "FeatureMapperV25";
+
+    private BenchmarkDomains() {
+    }
+
+    /**
+     * Number of samples in the records of a domain: genotype records have one sample, somatic records a germline
+     * and a somatic sample.
+     */
+    static int numSamples(String featureMapper) {
+        switch (featureMapper) {
+            case GENOTYPE_V38:
+                return 1;
+            case SOMATIC_V25:
+                return 2;
+            default:
+                throw new IllegalArgumentException("Unknown feature mapper configuration: " + featureMapper);
+        }
+    }
+
+    /**
+     * Write synthetic records for a domain to an .sbi file of a directory.
+     *
+     * @return the records written.
+     */
+    static List<BaseInformationRecords.BaseInformation> writeDataset(String featureMapper, File directory,
+                                                                     int numRecords) throws IOException {
+        List<BaseInformationRecords.BaseInformation> records = SyntheticDataset.records(numRecords,
+                numSamples(featureMapper), 1234);
+        SyntheticDataset.write(sbiPath(directory), records);
+        return records;
+    }
+
+    static String sbiPath(File directory) {
+        return new File(directory, "synthetic.sbi").getPath();
+    }
+
+    /**
+     * Create the domain of a feature mapper configuration, as training would, with the .sbi file as training set.
+     */
+    static DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor(String featureMapper,
+                                                                                   String sbiPath, int miniBatchSize) {
+        switch (featureMapper) {
+            case GENOTYPE_V38: {
+                GenotypeTrainingArguments arguments = new GenotypeTrainingArguments();
+                arguments.trainingSets.add(sbiPath);
+                arguments.featureMapperClassname = GenotypeMapperV38.class.getCanonicalName();
+                arguments.genomicContextLength = SyntheticDataset.GENOMIC_CONTEXT_LENGTH;
+                arguments.miniBatchSize = miniBatchSize;
+                return new GenotypeDomainDescriptor(arguments);
+            }
+            case SOMATIC_V25: {
+                SomaticTrainingArguments arguments = new SomaticTrainingArguments();
+                arguments.trainingSets.add(sbiPath);
+                arguments.featureMapperClassname = FeatureMapperV25.class.getCanonicalName();
+                arguments.genomicContextLength = SyntheticDataset.GENOMIC_CONTEXT_LENGTH;
+                arguments.miniBatchSize = miniBatchSize;
+                return new SomaticMutationDomainDescriptor(arguments);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown feature mapper configuration: " + featureMapper);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.campagnelab.dl.benchmarks;
+
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.somatic.mappers.FeatureMapperV25;
+import org.campagnelab.dl.somatic.tools.MapFeaturesS;
+import org.campagnelab.dl.somatic.tools.SomaticMapFeaturesArguments;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to write a .cf feature cache for a synthetic .sbi file with {@link MapFeaturesS}, and to read all the
+ * minibatches of the cache back with {@link MultiDatasetMappedFeaturesIterator}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FeatureCacheBenchmark {
+    private static final int NUM_RECORDS = 10000;
+
+    @Param({"32", "128"})
+    public int miniBatchSize;
+
+    private File directory;
+    private MultiDatasetMappedFeaturesIterator cache;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("cache-benchmark").toFile();
+        BenchmarkDomains.writeDataset(BenchmarkDomains.SOMATIC_V25, directory, NUM_RECORDS);
+        mapFeatures(new File(directory, "read").getPath());
+        cache = new MultiDatasetMappedFeaturesIterator(new File(directory, "read").getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public int write() {
+        return mapFeatures(new File(directory, "write").getPath());
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) {
+        cache.reset();
+        while (cache.hasNext()) {
+            blackhole.consume(cache.next());
+        }
+    }
+
+    private int mapFeatures(String outputBasename) {
+        MapFeaturesS tool = new MapFeaturesS();
+        SomaticMapFeaturesArguments arguments = tool.createArguments();
+        arguments.trainingSets.add(BenchmarkDomains.sbiPath(directory));
+        arguments.featureMapperClassname = FeatureMapperV25.class.getCanonicalName();
+        arguments.miniBatchSize = miniBatchSize;
+        arguments.outputBasename = outputBasename;
+        tool.setArguments(arguments);
+        tool.execute();
+        return tool.getNumRecordsWritten();
+    }
+}
@@ -0,0 +1,61 @@
+package org.campagnelab.dl.benchmarks;
+
+import com.google.common.collect.Iterables;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of mapping minibatches of records to features and labels. Records are cycled from memory, so the
+ * measure excludes reading and parsing the .sbi file. Scores are minibatches per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MultiDataSetIteratorAdapterBenchmark {
+    @Param({BenchmarkDomains.GENOTYPE_V38, BenchmarkDomains.SOMATIC_V25})
+    public String featureMapper;
+
+    @Param({"32", "128"})
+    public int miniBatchSize;
+
+    private File directory;
+    private MultiDataSetIteratorAdapter<BaseInformationRecords.BaseInformation> adapter;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("adapter-benchmark").toFile();
+        List<BaseInformationRecords.BaseInformation> records = BenchmarkDomains.writeDataset(featureMapper, directory, 10000);
+        DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor =
+                BenchmarkDomains.domainDescriptor(featureMapper, BenchmarkDomains.sbiPath(directory), miniBatchSize);
+        adapter = new MultiDataSetIteratorAdapter<BaseInformationRecords.BaseInformation>(Iterables.cycle(records),
+                miniBatchSize, domainDescriptor) {
+            @Override
+            public String getBasename() {
+                return "synthetic";
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public MultiDataSet next() {
+        return adapter.next();
+    }
+}
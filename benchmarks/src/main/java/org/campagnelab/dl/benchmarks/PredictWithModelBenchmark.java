@@ -0,0 +1,88 @@
+package org.campagnelab.dl.benchmarks;
+
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.framework.architecture.graphs.ComputationGraphAssembler;
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.tools.PredictWithModel;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to run a freshly initialized somatic model on one minibatch and interpret its outputs, as predict does
+ * for each minibatch. The parameters of the model are random, which does not change the cost of a prediction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PredictWithModelBenchmark {
+    @Param({"32", "512"})
+    public int miniBatchSize;
+
+    private File directory;
+    private ComputationGraph graph;
+    private PredictWithModel<BaseInformationRecords.BaseInformation> predictWithModel;
+    private MultiDataSet dataSet;
+    private List<BaseInformationRecords.BaseInformation> records;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("predict-benchmark").toFile();
+        List<BaseInformationRecords.BaseInformation> dataset = BenchmarkDomains.writeDataset(BenchmarkDomains.SOMATIC_V25,
+                directory, miniBatchSize);
+        DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor = BenchmarkDomains.domainDescriptor(
+                BenchmarkDomains.SOMATIC_V25, BenchmarkDomains.sbiPath(directory), miniBatchSize);
+        graph = assemble(domainDescriptor);
+        predictWithModel = new PredictWithModel<>(domainDescriptor);
+        dataSet = new MultiDataSetIteratorAdapter<BaseInformationRecords.BaseInformation>(dataset, miniBatchSize,
+                domainDescriptor) {
+            @Override
+            public String getBasename() {
+                return "synthetic";
+            }
+        }.next();
+        records = dataset;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public int predict(Blackhole blackhole) {
+        return predictWithModel.makePredictions(dataSet, records, graph, blackhole::consume, index -> false, 0);
+    }
+
+    /**
+     * Assemble and initialize the graph of a domain, sized as TrainModel sizes it.
+     */
+    private static ComputationGraph assemble(DomainDescriptor<BaseInformationRecords.BaseInformation> domainDescriptor) {
+        ComputationGraphAssembler assembler = domainDescriptor.getComputationalGraph();
+        for (String inputName : assembler.getInputNames()) {
+            assembler.setNumInputs(inputName, domainDescriptor.getNumInputs(inputName));
+        }
+        for (String outputName : assembler.getOutputNames()) {
+            assembler.setNumOutputs(outputName, domainDescriptor.getNumOutputs(outputName));
+            assembler.setLossFunction(outputName, domainDescriptor.getOutputLoss(outputName));
+        }
+        for (String componentName : assembler.getComponentNames()) {
+            assembler.setNumHiddenNodes(componentName, domainDescriptor.getNumHiddenNodes(componentName));
+        }
+        ComputationGraph graph = assembler.createComputationalGraph(domainDescriptor);
+        graph.init();
+        return graph;
+    }
+}
@@ -0,0 +1,71 @@
+package org.campagnelab.dl.benchmarks;
+
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.genotype.learning.architecture.graphs.GenotypeSegmentsLSTM;
+import org.campagnelab.dl.genotype.learning.domains.GenotypeDomainDescriptor;
+import org.campagnelab.dl.genotype.mappers.NumDistinctAllelesLabelMapper;
+import org.campagnelab.dl.genotype.segments.*;
+import org.campagnelab.dl.genotype.tools.SBIToSSIConverterArguments;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build the segments of 10,000 records with {@link SegmentHelper}, configured as SBIToSSIConverter
+ * configures it. A segment is closed every segmentLength records.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SegmentHelperBenchmark {
+    private static final int PLOIDY = 2;
+
+    @Param({"10", "100"})
+    public int segmentLength;
+
+    @Param({"false", "true"})
+    public boolean mapFeatures;
+
+    private List<BaseInformationRecords.BaseInformation> records;
+    private SBIToSSIConverterArguments arguments;
+    private FillInFeaturesFunction fillInFeatures;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        records = SyntheticDataset.records(10000, 1, 1234);
+        arguments = new SBIToSSIConverterArguments();
+        arguments.mapFeatures = mapFeatures;
+        Properties domainProperties = new Properties();
+        domainProperties.put("net.architecture.classname", GenotypeSegmentsLSTM.class.getCanonicalName());
+        domainProperties.put(NumDistinctAllelesLabelMapper.PLOIDY_PROPERTY, Integer.toString(PLOIDY));
+        domainProperties.put("input.featureMapper", arguments.featureMapperClassName);
+        domainProperties.put("genomicContextLength", Integer.toString(arguments.genomicContextLength));
+        domainProperties.put("indelSequenceLength", "1");
+        GenotypeDomainDescriptor domainDescriptor = new GenotypeDomainDescriptor(domainProperties,
+                SyntheticDataset.statistics());
+        FeatureMapper featureMapper = domainDescriptor.newFeatureMapper("input");
+        fillInFeatures = new MyFillInFeaturesFunction(featureMapper, new SegmentLabelMapper(PLOIDY), arguments);
+    }
+
+    @Benchmark
+    public void construct(Blackhole blackhole) {
+        SegmentHelper helper = new SegmentHelper(new WithIndelsPostProcessSegmentFunction(), fillInFeatures,
+                blackhole::consume, arguments.getStrategy(), false);
+        int index = 0;
+        for (BaseInformationRecords.BaseInformation record : records) {
+            if (index++ % segmentLength == 0) {
+                helper.newSegment(record);
+            } else {
+                helper.add(record);
+            }
+        }
+        helper.close();
+    }
+}
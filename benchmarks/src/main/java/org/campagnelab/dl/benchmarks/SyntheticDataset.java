@@ -0,0 +1,146 @@
+package org.campagnelab.dl.benchmarks;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.util.XorShift1024StarRandom;
+import org.campagnelab.dl.genotype.tools.SBISimulator;
+import org.campagnelab.dl.somatic.storage.RecordWriter;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Synthetic records for benchmarks, built with {@link SBISimulator#makeRecord}. Most sites match the reference,
+ * some are heterozygous or homozygous SNPs, and every count has the per-read distributions that the simulator
+ * fills in. Records are generated from a seed, so successive runs measure the same data.
+ */
+public class SyntheticDataset {
+    /**
+     * Length of the genomic context of each record. Matches the default --genomic-context-length of training.
+     */
+    public static final int GENOMIC_CONTEXT_LENGTH = 29;
+    private static final String BASES = "ACGT";
+
+    /**
+     * Make records with one sample (germline), or two samples (germline then somatic) where some sites carry a
+     * somatic mutation.
+     *
+     * @param numRecords number of records, at consecutive positions of one reference.
+     * @param numSamples 1 or 2.
+     * @param seed       seed of the random generator.
+     */
+    public static List<BaseInformationRecords.BaseInformation> records(int numRecords, int numSamples, long seed) {
+        Random random = new XorShift1024StarRandom(seed);
+        List<BaseInformationRecords.BaseInformation> records = new ObjectArrayList<>(numRecords);
+        StringBuilder context = new StringBuilder(GENOMIC_CONTEXT_LENGTH);
+        for (int position = 0; position < numRecords; position++) {
+            context.setLength(0);
+            for (int i = 0; i < GENOMIC_CONTEXT_LENGTH; i++) {
+                context.append(BASES.charAt(random.nextInt(4)));
+            }
+            final char reference = context.charAt((GENOMIC_CONTEXT_LENGTH - 1) / 2);
+            final char alternate = BASES.charAt((BASES.indexOf(reference) + 1 + random.nextInt(3)) % 4);
+            final double kind = random.nextDouble();
+            final String genotype;
+            if (kind < 0.9) {
+                genotype = reference + "/" + reference;
+            } else if (kind < 0.97) {
+                genotype = reference + "/" + alternate;
+            } else {
+                genotype = alternate + "/" + alternate;
+            }
+            BaseInformationRecords.BaseInformation record = SBISimulator.makeRecord(0, "chr1", position, genotype,
+                    context.toString(), counts(random, reference, genotype));
+            if (numSamples == 2) {
+                BaseInformationRecords.BaseInformation.Builder builder = record.toBuilder();
+                final boolean mutated = random.nextDouble() < 0.05;
+                if (mutated) {
+                    final String somaticGenotype = reference + "/" + alternate;
+                    builder.addSamples(SBISimulator.makeRecord(0, "chr1", position, somaticGenotype,
+                            context.toString(), counts(random, reference, somaticGenotype)).getSamples(0));
+                    builder.setMutated(true);
+                    builder.setMutatedBase(Character.toString(alternate));
+                    builder.setFrequencyOfMutation(0.5f);
+                } else {
+                    builder.addSamples(record.getSamples(0));
+                }
+                record = builder.build();
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * Write records to an .sbi file, with the statistics that feature mappers are configured with.
+     */
+    public static void write(String sbiPath, List<BaseInformationRecords.BaseInformation> records) throws IOException {
+        try (RecordWriter writer = new RecordWriter(sbiPath)) {
+            for (BaseInformationRecords.BaseInformation record : records) {
+                writer.writeRecord(record);
+            }
+            writer.setCustomProperties(statistics());
+        }
+    }
+
+    /**
+     * Statistics of the synthetic records, in the format of the properties of an .sbi file.
+     */
+    public static Properties statistics() {
+        Properties properties = new Properties();
+        try {
+            properties.load(new StringReader(
+                    "genotypes.ploidy=2\n" +
+                    "stats.genomicContextSize.min=" + GENOMIC_CONTEXT_LENGTH + "\n" +
+                    "stats.genomicContextSize.max=" + GENOMIC_CONTEXT_LENGTH + "\n" +
+                    "stats.baseQuality.forward.min=0.0\n" +
+                    "stats.baseQuality.forward.max=127.0\n" +
+                    "stats.baseQuality.reverse.min=0.0\n" +
+                    "stats.baseQuality.reverse.max=127.0\n" +
+                    "stats.readMappingQuality.forward.min=0.0\n" +
+                    "stats.readMappingQuality.forward.max=70.0\n" +
+                    "stats.readMappingQuality.reverse.min=0.0\n" +
+                    "stats.readMappingQuality.reverse.max=70.0\n" +
+                    "stats.numVariationsInRead.min=0.0\n" +
+                    "stats.numVariationsInRead.max=170.0\n" +
+                    "stats.insertSizes.min=-1000.0\n" +
+                    "stats.insertSizes.max=1000.0\n" +
+                    "stats.queryPosition.min=0.0\n" +
+                    "stats.queryPosition.max=150.0\n" +
+                    "stats.distancesToReadVariations.forward.min=-150.0\n" +
+                    "stats.distancesToReadVariations.forward.max=150.0\n" +
+                    "stats.distancesToReadVariations.reverse.min=-150.0\n" +
+                    "stats.distancesToReadVariations.reverse.max=150.0\n" +
+                    "stats.distanceToStartOfRead.min=0.0\n" +
+                    "stats.distanceToStartOfRead.max=150.0\n" +
+                    "stats.distanceToEndOfRead.min=0.0\n" +
+                    "stats.distanceToEndOfRead.max=150.0\n" +
+                    "stats.targetAlignedLength.min=0.0\n" +
+                    "stats.targetAlignedLength.max=150.0\n" +
+                    "stats.queryAlignedLength.min=0.0\n" +
+                    "stats.queryAlignedLength.max=150.0\n"));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return properties;
+    }
+
+    /**
+     * Count instructions for one sample: reads support the alleles of the genotype, and the other bases have
+     * zero counts, as in the simulator.
+     */
+    private static String[] counts(Random random, char reference, String genotype) {
+        String[] counts = new String[BASES.length()];
+        for (int i = 0; i < BASES.length(); i++) {
+            final char base = BASES.charAt(i);
+            final boolean supported = genotype.indexOf(base) >= 0;
+            final int forward = supported ? 10 + random.nextInt(30) : 0;
+            final int reverse = supported ? 10 + random.nextInt(30) : 0;
+            counts[i] = String.format("%c/%c=%d+%d", reference, base, forward, reverse);
+        }
+        return counts;
+    }
+}
@@ -284,6 +284,29 @@ public abstract class DomainDescriptor<RecordType> {
         return getFeatureMapper(inputName);
     }
 
+    /**
+     * Create a new feature mapper for a graph input. In contrast to getFeatureMapper(inputName), the instance returned
+     * must not be shared with other callers. Mappers keep per-record state, so each thread that maps features
+     * concurrently needs its own instances. The default implementation relies on getFeatureMapper(inputName, 0).
+     * Domains where that method is not supported, or returns cached instances, must override this method.
+     *
+     * @param inputName The name of a graph input. Must match an input of the computational graph.
+     * @return A feature mapper owned by the caller.
+     */
+    public FeatureMapper newFeatureMapper(String inputName) {
+        return getFeatureMapper(inputName, 0);
+    }
+
+    /**
+     * Create a new label mapper for a graph output, not shared with other callers. See newFeatureMapper.
+     *
+     * @param outputName The name of a graph output. Must match an output of the computational graph.
+     * @return A label mapper owned by the caller.
+     */
+    public LabelMapper newLabelMapper(String outputName) {
+        return getLabelMapper(outputName, 0);
+    }
+
     public LabelMapper[] labelMappers() {
         LabelMapper[] mappers = new LabelMapper[getNumModelOutputs()];
         int i = 0;
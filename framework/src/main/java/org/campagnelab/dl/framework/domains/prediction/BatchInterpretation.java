@@ -0,0 +1,72 @@
+package org.campagnelab.dl.framework.domains.prediction;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Primitive results of interpreting the outputs of a minibatch with a {@link BatchPredictionInterpreter}. Buffers
+ * grow to the largest minibatch seen and are reused for the next ones. Each interpreter documents what it stores
+ * in them.
+ */
+public class BatchInterpretation {
+    /**
+     * Index of the class predicted for each example.
+     */
+    public int[] predictedIndex = new int[0];
+    /**
+     * Probability of the prediction of each example.
+     */
+    public float[] probability = new float[0];
+    /**
+     * A second value per example, for interpreters that need one.
+     */
+    public float[] score = new float[0];
+
+    private int numExamples;
+
+    /**
+     * Prepare the buffers for a minibatch.
+     */
+    public void reset(int numExamples) {
+        if (predictedIndex.length < numExamples) {
+            predictedIndex = new int[numExamples];
+            probability = new float[numExamples];
+            score = new float[numExamples];
+        }
+        this.numExamples = numExamples;
+    }
+
+    public int numExamples() {
+        return numExamples;
+    }
+
+    /**
+     * Store the index and value of the largest of the first numClasses values of each example in predictedIndex and
+     * probability. The first largest value wins ties. The index is -1 when all values are NaN.
+     */
+    public void argMax(float[] output, int numColumns, int numClasses) {
+        for (int example = 0; example < numExamples; example++) {
+            final int offset = example * numColumns;
+            float max = Float.NEGATIVE_INFINITY;
+            int maxIndex = -1;
+            for (int i = 0; i < numClasses; i++) {
+                final float value = output[offset + i];
+                if (max < value) {
+                    maxIndex = i;
+                    max = value;
+                }
+            }
+            predictedIndex[example] = maxIndex;
+            probability[example] = max;
+        }
+    }
+
+    /**
+     * Return the values of a 2-d model output as contiguous floats, one row per example. The data buffer of the
+     * output is read directly when the output is in row-major order and not a view.
+     */
+    public static float[] toFloats(INDArray output) {
+        INDArray rowMajor = output.ordering() == 'c' && output.offset() == 0 && output.data().length() == output.length()
+                ? output : output.dup('c');
+        return rowMajor.data().asFloat();
+    }
+}
@@ -0,0 +1,30 @@
+package org.campagnelab.dl.framework.domains.prediction;
+
+/**
+ * A prediction interpreter that interprets the output of a whole minibatch at once. The numeric part of the
+ * interpretation reads the output matrix as contiguous floats and fills primitive buffers for all the examples,
+ * then predictions are made for each record from these buffers, without slicing the output.
+ */
+public interface BatchPredictionInterpreter<RecordType, PredictionType extends Prediction>
+        extends PredictionInterpreter<RecordType, PredictionType> {
+    /**
+     * Interpret the outputs of a minibatch.
+     *
+     * @param output      Model output, in row-major order: the numColumns values of example i start at
+     *                    i*numColumns. See {@link BatchInterpretation#toFloats}.
+     * @param numExamples Number of examples in the minibatch.
+     * @param numColumns  Number of values per example.
+     * @param results     Buffers to fill, already sized for numExamples.
+     */
+    void interpret(float[] output, int numExamples, int numColumns, BatchInterpretation results);
+
+    /**
+     * Make the prediction of one example of the minibatch.
+     *
+     * @param record       The record of the example.
+     * @param results      Buffers filled by interpret for the minibatch.
+     * @param exampleIndex Index of the example in the minibatch.
+     * @return Interpreted prediction.
+     */
+    PredictionType prediction(RecordType record, BatchInterpretation results, int exampleIndex);
+}
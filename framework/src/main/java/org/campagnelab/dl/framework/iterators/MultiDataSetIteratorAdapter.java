@@ -3,6 +3,8 @@ package org.campagnelab.dl.framework.iterators;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectList;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.mappers.BulkFeatureMapper;
+import org.campagnelab.dl.framework.mappers.BulkLabelMapper;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.campagnelab.dl.framework.mappers.LabelMapper;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -13,6 +15,7 @@ import org.nd4j.linalg.factory.Nd4j;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -20,7 +23,7 @@ import java.util.NoSuchElementException;
  */
 public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDataSetIterator, Iterable<MultiDataSet> {
 
-    private final DomainDescriptor domainDescriptor;
+    protected final DomainDescriptor domainDescriptor;
     private final Iterable<RecordType> iterable;
     private Iterator<RecordType> recordIterator;
     private boolean isPretrained;
@@ -50,11 +53,36 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
     abstract public String getBasename();
 
     public MultiDataSet next(int batchSize) {
-        ObjectList<RecordType> buffer = new ObjectArrayList<RecordType>();
-        // allocate a new dataset with batchSize records and fill it with features and labels.
+        final MultiDataSet result = assemble(nextRecords(), domainDescriptor.featureMappers(), domainDescriptor.labelMappers());
+        if (preProcessor != null) preProcessor.preProcess(result);
+        return result;
+    }
+
+    /**
+     * Read the records of the next minibatch from the record iterator.
+     *
+     * @return a list of at most batchSize records.
+     */
+    protected ObjectList<RecordType> nextRecords() {
+        ObjectList<RecordType> buffer = new ObjectArrayList<RecordType>(batchSize);
         while (recordIterator.hasNext() && buffer.size() < this.batchSize) {
             buffer.add(recordIterator.next());
         }
+        return buffer;
+    }
+
+    /**
+     * Allocate a new dataset for the records in buffer and fill it with features and labels. The mappers must be
+     * given in the order of the graph inputs and outputs. The preprocessor is not applied. Two-dimensional inputs and
+     * labels whose mapper implements BulkFeatureMapper or BulkLabelMapper are written to a primitive array, one row
+     * per record, and copied to the INDArray in one operation when the minibatch is complete.
+     *
+     * @param buffer         records of the minibatch.
+     * @param featureMappers one feature mapper per graph input.
+     * @param labelMappers   one label mapper per graph output.
+     * @return the minibatch.
+     */
+    protected MultiDataSet assemble(List<RecordType> buffer, FeatureMapper[] featureMappers, LabelMapper[] labelMappers) {
         int size = buffer.size();
 
         // allocate features and labels for the entire dataset:
@@ -70,8 +98,11 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
         INDArray inputMasks[] = new INDArray[numInputs];
         INDArray labels[] = new INDArray[numLabels];
         INDArray labelMasks[] = new INDArray[numLabels];
-        FeatureMapper[] featureMappers = new FeatureMapper[numInputs];
-        LabelMapper[] labelMappers = new LabelMapper[numOutputs];
+        // column-major content of bulk-mapped inputs and labels, and the row each record is mapped to:
+        float[][] bulkInputs = new float[numInputs][];
+        float[][] inputRows = new float[numInputs][];
+        float[][] bulkLabels = new float[numLabels][];
+        float[][] labelRows = new float[numLabels][];
         int index = 0;
         boolean hasFeatureMask = false;
         boolean hasLabelMask = false;
@@ -85,7 +116,10 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
                 inputShape[1]++;
             }
             inputs[index] = Nd4j.createUninitializedDetached(inputShape, 'f');
-            featureMappers[index] = domainDescriptor.getFeatureMapper(input);
+            if (!padEos && size > 0 && inputShape.length == 2 && featureMappers[index] instanceof BulkFeatureMapper) {
+                inputRows[index] = new float[inputShape[1]];
+                bulkInputs[index] = new float[size * inputShape[1]];
+            }
             boolean needMask = featureMappers[index].hasMask();
             inputMasks[index] = needMask ? Nd4j.createUninitializedDetached(domainDescriptor.getInputMaskShape(size, input), 'f') : null;
 
@@ -94,9 +128,12 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
         }
         index = 0;
         for (String label : domainDescriptor.getComputationalGraph().getOutputNames()) {
-            labels[index] = Nd4j.createUninitializedDetached(domainDescriptor.getLabelShape(size, label), 'f');
-
-            labelMappers[index] = domainDescriptor.getLabelMapper(label);
+            int[] labelShape = domainDescriptor.getLabelShape(size, label);
+            labels[index] = Nd4j.createUninitializedDetached(labelShape, 'f');
+            if (size > 0 && labelShape.length == 2 && labelMappers[index] instanceof BulkLabelMapper) {
+                labelRows[index] = new float[labelShape[1]];
+                bulkLabels[index] = new float[size * labelShape[1]];
+            }
             boolean needMask = labelMappers[index].hasMask();
             if (needMask) {
                 labelMasks[index] = Nd4j.createUninitializedDetached(domainDescriptor.getLabelMaskShape(size, label), 'f');
@@ -109,14 +146,24 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
 
             for (int j = 0; j < numInputs; j++) {
                 featureMappers[j].prepareToNormalize(record, recordIndexInBatch);
-                featureMappers[j].mapFeatures(record, inputs[j], recordIndexInBatch);
+                if (bulkInputs[j] != null) {
+                    ((BulkFeatureMapper) featureMappers[j]).mapFeatures(record, inputRows[j], 0, recordIndexInBatch);
+                    copyRow(inputRows[j], bulkInputs[j], recordIndexInBatch, size);
+                } else {
+                    featureMappers[j].mapFeatures(record, inputs[j], recordIndexInBatch);
+                }
                 if (featureMappers[j].hasMask()) {
                     featureMappers[j].maskFeatures(record, inputMasks[j], recordIndexInBatch);
                 }
             }
             for (int j = 0; j < numOutputs; j++) {
                 labelMappers[j].prepareToNormalize(record, recordIndexInBatch);
-                labelMappers[j].mapLabels(record, labels[j], recordIndexInBatch);
+                if (bulkLabels[j] != null) {
+                    ((BulkLabelMapper) labelMappers[j]).mapLabels(record, labelRows[j], 0, recordIndexInBatch);
+                    copyRow(labelRows[j], bulkLabels[j], recordIndexInBatch, size);
+                } else {
+                    labelMappers[j].mapLabels(record, labels[j], recordIndexInBatch);
+                }
                 if (labelMappers[j].hasMask()) {
                     labelMappers[j].maskLabels(record, labelMasks[j], recordIndexInBatch);
                 }
@@ -124,6 +171,17 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
             recordIndexInBatch += 1;
 
         }
+        // arrays are allocated in 'f' order, so the column-major content can be copied as is:
+        for (int j = 0; j < numInputs; j++) {
+            if (bulkInputs[j] != null) {
+                inputs[j].data().setData(bulkInputs[j]);
+            }
+        }
+        for (int j = 0; j < numOutputs; j++) {
+            if (bulkLabels[j] != null) {
+                labels[j].data().setData(bulkLabels[j]);
+            }
+        }
         // Necessary for mixed datasets (i.e., where some mappers have masks and others don't) - will raise NPE otherwise
         if (hasFeatureMask) {
             for (int i = 0; i < inputMasks.length; i++) {
@@ -155,11 +213,18 @@ public abstract class MultiDataSetIteratorAdapter<RecordType> implements MultiDa
                 }
             }
         }
-        final MultiDataSet result = new org.nd4j.linalg.dataset.MultiDataSet(inputs, labels,
+        return new org.nd4j.linalg.dataset.MultiDataSet(inputs, labels,
                 hasFeatureMask ? inputMasks : null,
                 hasLabelMask ? labelMasks : null);
-        if (preProcessor != null) preProcessor.preProcess(result);
-        return result;
+    }
+
+    /**
+     * Copy the row of a record to its position in the column-major content of a minibatch.
+     */
+    private static void copyRow(float[] row, float[] columnMajor, int recordIndex, int numRecords) {
+        for (int column = 0; column < row.length; column++) {
+            columnMajor[column * numRecords + recordIndex] = row[column];
+        }
     }
 
     @Override
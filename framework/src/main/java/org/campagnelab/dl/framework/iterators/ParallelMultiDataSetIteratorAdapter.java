@@ -0,0 +1,143 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import it.unimi.dsi.fastutil.objects.ObjectList;
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.LabelMapper;
+import org.campagnelab.dl.framework.utils.DaemonThreadFactory;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A multi dataset iterator that maps the features and labels of several minibatches in parallel. Records are read
+ * sequentially on the calling thread and grouped into minibatches. Each minibatch is then assembled by one of
+ * numThreads worker threads. Each worker has its own feature and label mapper instances, obtained with
+ * DomainDescriptor.newFeatureMapper/newLabelMapper, since mappers keep per-record state. Minibatches are returned in
+ * the order of the records, so the output is identical to that of MultiDataSetIteratorAdapter. With one thread,
+ * this adapter behaves exactly as MultiDataSetIteratorAdapter. Callers must close the adapter to stop the worker
+ * threads.
+ */
+public abstract class ParallelMultiDataSetIteratorAdapter<RecordType> extends MultiDataSetIteratorAdapter<RecordType>
+        implements Closeable {
+
+    private final int numThreads;
+    private final int maxPending;
+    private ExecutorService executor;
+    private ThreadLocal<FeatureMapper[]> featureMappers;
+    private ThreadLocal<LabelMapper[]> labelMappers;
+    private ObjectArrayFIFOQueue<Future<MultiDataSet>> pending = new ObjectArrayFIFOQueue<>();
+
+    public ParallelMultiDataSetIteratorAdapter(Iterable<RecordType> iterable, int batchSize, DomainDescriptor domainDescriptor,
+                                               int numThreads) throws IOException {
+        this(iterable, batchSize, domainDescriptor, false, null, numThreads);
+    }
+
+    public ParallelMultiDataSetIteratorAdapter(Iterable<RecordType> iterable, int batchSize, DomainDescriptor domainDescriptor,
+                                               boolean isPretrained, Integer eosIndex, int numThreads) throws IOException {
+        super(iterable, batchSize, domainDescriptor, isPretrained, eosIndex);
+        this.numThreads = Math.max(1, numThreads);
+        this.maxPending = 2 * this.numThreads;
+        if (this.numThreads > 1) {
+            // create the shared mappers on this thread. Workers call methods of the domain descriptor that rely on them
+            // to determine input and output shapes:
+            domainDescriptor.featureMappers();
+            domainDescriptor.labelMappers();
+            featureMappers = ThreadLocal.withInitial(this::createFeatureMappers);
+            labelMappers = ThreadLocal.withInitial(this::createLabelMappers);
+            executor = Executors.newFixedThreadPool(this.numThreads, new DaemonThreadFactory("minibatch-mapper"));
+        }
+    }
+
+    private FeatureMapper[] createFeatureMappers() {
+        String[] inputNames = domainDescriptor.getComputationalGraph().getInputNames();
+        FeatureMapper[] mappers = new FeatureMapper[inputNames.length];
+        // domain descriptors are not thread-safe, create mappers one thread at a time:
+        synchronized (domainDescriptor) {
+            for (int i = 0; i < inputNames.length; i++) {
+                mappers[i] = domainDescriptor.newFeatureMapper(inputNames[i]);
+            }
+        }
+        return mappers;
+    }
+
+    private LabelMapper[] createLabelMappers() {
+        String[] outputNames = domainDescriptor.getComputationalGraph().getOutputNames();
+        LabelMapper[] mappers = new LabelMapper[outputNames.length];
+        synchronized (domainDescriptor) {
+            for (int i = 0; i < outputNames.length; i++) {
+                mappers[i] = domainDescriptor.newLabelMapper(outputNames[i]);
+            }
+        }
+        return mappers;
+    }
+
+    @Override
+    public MultiDataSet next(int batchSize) {
+        if (numThreads == 1) {
+            return super.next(batchSize);
+        }
+        fill();
+        if (pending.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        final MultiDataSet result;
+        try {
+            result = pending.dequeue().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a minibatch.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to map features and labels for minibatch.", e.getCause());
+        }
+        // schedule more work before returning, to keep workers busy while the caller consumes the minibatch:
+        fill();
+        if (getPreProcessor() != null) getPreProcessor().preProcess(result);
+        return result;
+    }
+
+    /**
+     * Submit minibatches to workers until maxPending minibatches are scheduled or records are exhausted.
+     */
+    private void fill() {
+        while (pending.size() < maxPending && super.hasNext()) {
+            final ObjectList<RecordType> records = nextRecords();
+            pending.enqueue(executor.submit(() -> assemble(records, featureMappers.get(), labelMappers.get())));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !pending.isEmpty() || super.hasNext();
+    }
+
+    @Override
+    public void reset() {
+        while (!pending.isEmpty()) {
+            pending.dequeue().cancel(true);
+        }
+        super.reset();
+    }
+
+    /**
+     * Stop the worker threads. The adapter cannot be used after this method is called. Calling this method more than
+     * once has no effect.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            while (!pending.isEmpty()) {
+                pending.dequeue().cancel(true);
+            }
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
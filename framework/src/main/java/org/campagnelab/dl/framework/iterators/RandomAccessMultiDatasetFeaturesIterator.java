@@ -0,0 +1,152 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.io.ByteBufferInputStream;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+/**
+ * An iterator over mapped features (.cf/.cfp files) that also have a .cfi offset index. The .cf file is memory-mapped
+ * and each minibatch is read from the mapped pages, without a buffered copy of the file, then deserialized into new
+ * arrays. Any minibatch can be accessed with
+ * {@link #get(int)}, from several threads concurrently, and sequential iteration can start at any minibatch with
+ * {@link #seek(int)}.
+ */
+public class RandomAccessMultiDatasetFeaturesIterator implements MultiDataSetIterator {
+    static private Logger LOG = LoggerFactory.getLogger(RandomAccessMultiDatasetFeaturesIterator.class);
+
+    private final int miniBatchSize;
+    private final CacheIndex index;
+    private final ByteBufferInputStream mapped;
+    /**
+     * Each thread reads through its own copy of the mapped stream. Copies share the mapped buffers, but have an
+     * independent position.
+     */
+    private final ThreadLocal<ByteBufferInputStream> streams;
+    private final int numMinibatches;
+    private int nextMinibatch;
+    private MultiDataSetPreProcessor preProcessor;
+
+    public RandomAccessMultiDatasetFeaturesIterator(String basename) {
+        this(basename, Integer.MAX_VALUE);
+    }
+
+    public RandomAccessMultiDatasetFeaturesIterator(String basename, int cacheN) {
+        try {
+            Properties cfProperties = new Properties();
+            cfProperties.load(new FileReader(basename + ".cfp"));
+            miniBatchSize = Integer.parseInt(cfProperties.getProperty("miniBatchSize", "0"));
+            index = CacheIndex.load(basename);
+            try (FileInputStream input = new FileInputStream(basename + ".cf")) {
+                // mapped buffers remain valid after the channel is closed:
+                mapped = ByteBufferInputStream.map(input.getChannel(), FileChannel.MapMode.READ_ONLY);
+            }
+            streams = ThreadLocal.withInitial(mapped::copy);
+            numMinibatches = index.minibatchesForExamples(cacheN);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to create RandomAccessMultiDatasetFeaturesIterator ", e);
+        }
+    }
+
+    /**
+     * @return the number of minibatches this iterator will return in one pass.
+     */
+    public int numMinibatches() {
+        return numMinibatches;
+    }
+
+    /**
+     * @return the number of examples in a given minibatch.
+     */
+    public int numExamples(int minibatchIndex) {
+        return index.numExamples(minibatchIndex);
+    }
+
+    /**
+     * Load a minibatch by index. This method is thread-safe. The preprocessor, if any, is applied to the result.
+     *
+     * @param minibatchIndex index of the minibatch, between 0 and numMinibatches()-1
+     * @return the minibatch.
+     */
+    public MultiDataSet get(int minibatchIndex) {
+        if (minibatchIndex < 0 || minibatchIndex >= numMinibatches) {
+            throw new NoSuchElementException("No minibatch at index " + minibatchIndex);
+        }
+        ByteBufferInputStream stream = streams.get();
+        MultiDataSet ds = new org.nd4j.linalg.dataset.MultiDataSet();
+        try {
+            // skip the length prefix, the index already knows where the minibatch ends:
+            stream.position(index.offset(minibatchIndex) + 4);
+            ds.load(stream);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to load dataset at index " + minibatchIndex, e);
+        }
+        if (preProcessor != null) {
+            preProcessor.preProcess(ds);
+        }
+        return ds;
+    }
+
+    /**
+     * Position the iterator such that the next call to next() returns the minibatch at the given index.
+     */
+    public void seek(int minibatchIndex) {
+        nextMinibatch = minibatchIndex;
+    }
+
+    @Override
+    public MultiDataSet next(int miniBatchSize) {
+        if (miniBatchSize != this.miniBatchSize) {
+            throw new IllegalArgumentException("numExamples must match the cached minibatchSize: " + miniBatchSize);
+        }
+        return next();
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public MultiDataSetPreProcessor getPreProcessor() {
+        return this.preProcessor;
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        nextMinibatch = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextMinibatch < numMinibatches;
+    }
+
+    @Override
+    public MultiDataSet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return get(nextMinibatch++);
+    }
+}
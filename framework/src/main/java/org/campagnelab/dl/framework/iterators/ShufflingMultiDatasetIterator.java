@@ -0,0 +1,192 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import it.unimi.dsi.util.XorShift1024StarRandom;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the minibatches of a random-access cache in a different order each epoch. The order of
+ * minibatches is a permutation drawn from the seed and the epoch number, so that training runs are reproducible.
+ * When the window size is larger than one, examples are also mixed across consecutive windows of minibatches
+ * (in permuted order). Only one window of minibatches is held in memory at any time. Mixing examples requires
+ * all minibatches of the cache to have the same shape, except for the number of examples.
+ */
+public class ShufflingMultiDatasetIterator implements MultiDataSetIterator {
+    private final RandomAccessMultiDatasetFeaturesIterator source;
+    private final long seed;
+    private final int windowSize;
+    private final int[] order;
+    private int epoch = -1;
+    private int nextMinibatch;
+    private XorShift1024StarRandom random;
+    private ObjectArrayFIFOQueue<MultiDataSet> window = new ObjectArrayFIFOQueue<>();
+    private MultiDataSetPreProcessor preProcessor;
+
+    /**
+     * @param source     random-access iterator over the cache.
+     * @param seed       seed used to draw the permutation of each epoch.
+     * @param windowSize number of minibatches over which examples are mixed. Use 1 to permute minibatches only.
+     */
+    public ShufflingMultiDatasetIterator(RandomAccessMultiDatasetFeaturesIterator source, long seed, int windowSize) {
+        assert windowSize >= 1 : "window size must be at least 1";
+        this.source = source;
+        this.seed = seed;
+        this.windowSize = windowSize;
+        this.order = new int[source.numMinibatches()];
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        epoch++;
+        random = new XorShift1024StarRandom(seed + epoch);
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        IntArrays.shuffle(order, random);
+        nextMinibatch = 0;
+        window.clear();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !window.isEmpty() || nextMinibatch < order.length;
+    }
+
+    @Override
+    public MultiDataSet next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (window.isEmpty()) {
+            fillWindow();
+        }
+        MultiDataSet ds = window.dequeue();
+        if (preProcessor != null) {
+            preProcessor.preProcess(ds);
+        }
+        return ds;
+    }
+
+    private void fillWindow() {
+        int n = Math.min(windowSize, order.length - nextMinibatch);
+        MultiDataSet[] loaded = new MultiDataSet[n];
+        for (int i = 0; i < n; i++) {
+            loaded[i] = source.get(order[nextMinibatch++]);
+        }
+        if (n == 1) {
+            window.enqueue(loaded[0]);
+            return;
+        }
+        // global example index -> (minibatch, row):
+        int numExamples = 0;
+        for (MultiDataSet ds : loaded) {
+            numExamples += ds.getFeatures(0).size(0);
+        }
+        int[] fromMinibatch = new int[numExamples];
+        int[] fromRow = new int[numExamples];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            final int size = loaded[i].getFeatures(0).size(0);
+            for (int row = 0; row < size; row++) {
+                fromMinibatch[k] = i;
+                fromRow[k] = row;
+                k++;
+            }
+        }
+        int[] permutation = new int[numExamples];
+        for (int i = 0; i < numExamples; i++) {
+            permutation[i] = i;
+        }
+        IntArrays.shuffle(permutation, random);
+
+        int exampleIndex = 0;
+        for (int i = 0; i < n; i++) {
+            final MultiDataSet template = loaded[i];
+            final int size = template.getFeatures(0).size(0);
+            INDArray[] features = mix(loaded, template.getFeatures(), exampleIndex, size, permutation, fromMinibatch, fromRow, Kind.FEATURES);
+            INDArray[] labels = mix(loaded, template.getLabels(), exampleIndex, size, permutation, fromMinibatch, fromRow, Kind.LABELS);
+            INDArray[] featureMasks = mix(loaded, template.getFeaturesMaskArrays(), exampleIndex, size, permutation, fromMinibatch, fromRow, Kind.FEATURE_MASKS);
+            INDArray[] labelMasks = mix(loaded, template.getLabelsMaskArrays(), exampleIndex, size, permutation, fromMinibatch, fromRow, Kind.LABEL_MASKS);
+            window.enqueue(new org.nd4j.linalg.dataset.MultiDataSet(features, labels, featureMasks, labelMasks));
+            exampleIndex += size;
+        }
+    }
+
+    private enum Kind {
+        FEATURES, LABELS, FEATURE_MASKS, LABEL_MASKS
+    }
+
+    private static INDArray[] arrays(MultiDataSet ds, Kind kind) {
+        switch (kind) {
+            case FEATURES:
+                return ds.getFeatures();
+            case LABELS:
+                return ds.getLabels();
+            case FEATURE_MASKS:
+                return ds.getFeaturesMaskArrays();
+            case LABEL_MASKS:
+                return ds.getLabelsMaskArrays();
+            default:
+                throw new IllegalArgumentException("Unsupported kind: " + kind);
+        }
+    }
+
+    /**
+     * Build the arrays of one output minibatch by copying the examples selected by the permutation.
+     */
+    private static INDArray[] mix(MultiDataSet[] loaded, INDArray[] template, int firstExample, int size,
+                                  int[] permutation, int[] fromMinibatch, int[] fromRow, Kind kind) {
+        if (template == null) {
+            return null;
+        }
+        INDArray[] result = new INDArray[template.length];
+        for (int arrayIndex = 0; arrayIndex < template.length; arrayIndex++) {
+            if (template[arrayIndex] == null) {
+                continue;
+            }
+            int[] shape = template[arrayIndex].shape().clone();
+            shape[0] = size;
+            INDArray mixed = Nd4j.create(shape);
+            for (int row = 0; row < size; row++) {
+                final int example = permutation[firstExample + row];
+                INDArray[] from = arrays(loaded[fromMinibatch[example]], kind);
+                mixed.slice(row).assign(from[arrayIndex].slice(fromRow[example]));
+            }
+            result[arrayIndex] = mixed;
+        }
+        return result;
+    }
+
+    @Override
+    public MultiDataSet next(int num) {
+        return next();
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public MultiDataSetPreProcessor getPreProcessor() {
+        return preProcessor;
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        return true;
+    }
+}
@@ -4,6 +4,7 @@ import org.apache.commons.io.FilenameUtils;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
 import org.campagnelab.dl.framework.iterators.MultiDatasetMappedFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.RandomAccessMultiDatasetFeaturesIterator;
 import org.campagnelab.dl.framework.tools.MapMultiDatasetFeatures;
 import org.campagnelab.dl.framework.tools.MapMultiDatasetFeaturesArguments;
 import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
@@ -57,6 +58,10 @@ public class CacheHelper<RecordType> {
         }
         assert cacheExists(cacheName, cacheN, true) : "A cache must exist at this point.";
         System.out.println("Using cache: "+cacheName);
+        if (CacheIndex.exists(cacheName)) {
+            return new RandomAccessMultiDatasetFeaturesIterator(cacheName, cacheN);
+        }
+        // caches built before offset indices were introduced can only be read sequentially:
         return new MultiDatasetMappedFeaturesIterator(cacheName, cacheN);
     }
 
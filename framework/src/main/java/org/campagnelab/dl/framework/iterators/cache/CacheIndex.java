@@ -0,0 +1,145 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.*;
+
+/**
+ * An offset index over the minibatches stored in a .cf file. The index is stored in a .cfi sidecar file next to
+ * the .cf/.cfp files. For each minibatch, the index records the offset of the minibatch length prefix in the .cf
+ * file and the cumulative number of examples stored before this minibatch. This makes it possible to seek to any
+ * minibatch without reading the minibatches that precede it.
+ */
+public class CacheIndex {
+    private static final int MAGIC = 0xCF1D0001;
+    /**
+     * Offsets of each minibatch in the .cf file. The last element is the offset just past the last minibatch.
+     */
+    private final LongArrayList offsets;
+    /**
+     * Number of examples stored in the cache before each minibatch. The last element is the total number of examples.
+     */
+    private final LongArrayList examplesBefore;
+
+    public CacheIndex() {
+        offsets = new LongArrayList();
+        examplesBefore = new LongArrayList();
+        offsets.add(0);
+        examplesBefore.add(0);
+    }
+
+    private CacheIndex(LongArrayList offsets, LongArrayList examplesBefore) {
+        this.offsets = offsets;
+        this.examplesBefore = examplesBefore;
+    }
+
+    /**
+     * Record a minibatch that was just appended to the .cf file.
+     *
+     * @param numBytes    number of bytes written for the minibatch, including its 4-byte length prefix.
+     * @param numExamples number of examples in the minibatch.
+     */
+    public void append(long numBytes, int numExamples) {
+        offsets.add(offsets.getLong(offsets.size() - 1) + numBytes);
+        examplesBefore.add(examplesBefore.getLong(examplesBefore.size() - 1) + numExamples);
+    }
+
+    /**
+     * @return the number of minibatches in the cache.
+     */
+    public int numMinibatches() {
+        return offsets.size() - 1;
+    }
+
+    /**
+     * @return the total number of examples stored in the cache.
+     */
+    public long numExamples() {
+        return examplesBefore.getLong(examplesBefore.size() - 1);
+    }
+
+    /**
+     * Return the offset of the length prefix of a minibatch in the .cf file.
+     */
+    public long offset(int minibatchIndex) {
+        return offsets.getLong(minibatchIndex);
+    }
+
+    /**
+     * Return the number of bytes stored for a minibatch, excluding the 4-byte length prefix.
+     */
+    public int length(int minibatchIndex) {
+        return (int) (offsets.getLong(minibatchIndex + 1) - offsets.getLong(minibatchIndex) - 4);
+    }
+
+    /**
+     * Return the number of examples in a minibatch.
+     */
+    public int numExamples(int minibatchIndex) {
+        return (int) (examplesBefore.getLong(minibatchIndex + 1) - examplesBefore.getLong(minibatchIndex));
+    }
+
+    /**
+     * Return the number of minibatches needed to provide at least n examples, or all minibatches if the cache holds
+     * fewer than n examples.
+     */
+    public int minibatchesForExamples(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        if (n >= numExamples()) {
+            return numMinibatches();
+        }
+        // binary search for the first minibatch boundary with at least n examples before it:
+        int low = 0;
+        int high = numMinibatches();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (examplesBefore.getLong(mid + 1) < n) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low + 1;
+    }
+
+    public static String indexFilename(String basename) {
+        return basename + ".cfi";
+    }
+
+    public static boolean exists(String basename) {
+        return new File(indexFilename(basename)).exists();
+    }
+
+    public void save(String basename) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new FastBufferedOutputStream(
+                new FileOutputStream(indexFilename(basename))))) {
+            output.writeInt(MAGIC);
+            output.writeInt(numMinibatches());
+            for (int i = 0; i < offsets.size(); i++) {
+                output.writeLong(offsets.getLong(i));
+                output.writeLong(examplesBefore.getLong(i));
+            }
+        }
+    }
+
+    public static CacheIndex load(String basename) throws IOException {
+        try (DataInputStream input = new DataInputStream(new FastBufferedInputStream(
+                new FileInputStream(indexFilename(basename))))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("File is not a valid cache index: " + indexFilename(basename));
+            }
+            int numMinibatches = input.readInt();
+            LongArrayList offsets = new LongArrayList(numMinibatches + 1);
+            LongArrayList examplesBefore = new LongArrayList(numMinibatches + 1);
+            for (int i = 0; i <= numMinibatches; i++) {
+                offsets.add(input.readLong());
+                examplesBefore.add(input.readLong());
+            }
+            return new CacheIndex(offsets, examplesBefore);
+        }
+    }
+}
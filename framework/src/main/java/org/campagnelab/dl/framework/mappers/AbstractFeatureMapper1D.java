@@ -7,7 +7,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  *
  * @author Remi Torracinta
  */
-public abstract class AbstractFeatureMapper1D<RecordType> implements FeatureNameMapper<RecordType> {
+public abstract class AbstractFeatureMapper1D<RecordType> implements FeatureNameMapper<RecordType>, BulkFeatureMapper<RecordType> {
     private int[] indices = new int[]{0,0};
 
     /**
@@ -0,0 +1,27 @@
+package org.campagnelab.dl.framework.mappers;
+
+/**
+ * A feature mapper that can write all the features of a record into a primitive array. Adapters use this method to
+ * fill a reusable row for each record and copy whole minibatches into an INDArray at once, instead of calling
+ * INDArray.putScalar for each feature. Only meaningful for mappers that produce 1-d features.
+ */
+public interface BulkFeatureMapper<RecordType> extends FeatureMapper<RecordType> {
+
+    /**
+     * Fill in the features of a record into a float array. prepareToNormalize must have been called for the record.
+     * The default implementation writes each feature obtained with produceFeature. Mappers that can calculate all
+     * features at once should override this method.
+     *
+     * @param record        The record to convert to features.
+     * @param inputs        The array to write features to.
+     * @param offset        Index in inputs where the first feature must be written. Features are written at
+     *                      offset..offset+numberOfFeatures()-1.
+     * @param indexOfRecord Index of the record in the destination dataset.
+     */
+    default void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+        final int numberOfFeatures = numberOfFeatures();
+        for (int featureIndex = 0; featureIndex < numberOfFeatures; featureIndex++) {
+            inputs[offset + featureIndex] = produceFeature(record, featureIndex);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.campagnelab.dl.framework.mappers;
+
+/**
+ * A label mapper that can write all the labels of a record into a primitive array. See {@link BulkFeatureMapper}.
+ */
+public interface BulkLabelMapper<RecordType> extends LabelMapper<RecordType> {
+
+    /**
+     * Fill in the labels of a record into a float array. prepareToNormalize must have been called for the record.
+     * The default implementation writes each label obtained with produceLabel.
+     *
+     * @param record        The record to convert to labels.
+     * @param labels        The array to write labels to.
+     * @param offset        Index in labels where the first label must be written. Labels are written at
+     *                      offset..offset+numberOfLabels()-1.
+     * @param indexOfRecord Index of the record in the destination dataset.
+     */
+    default void mapLabels(RecordType record, float[] labels, int offset, int indexOfRecord) {
+        final int numberOfLabels = numberOfLabels();
+        for (int labelIndex = 0; labelIndex < numberOfLabels; labelIndex++) {
+            labels[offset + labelIndex] = produceLabel(record, labelIndex);
+        }
+    }
+}
@@ -9,7 +9,7 @@ import java.util.Arrays;
  * Concatenate features from different mappers.
  * Created by fac2003 on 5/24/16.
  */
-public class ConcatFeatureMapper<RecordType> implements FeatureMapper<RecordType> {
+public class ConcatFeatureMapper<RecordType> implements BulkFeatureMapper<RecordType> {
 
     protected FeatureMapper<RecordType>[] mappers;
     protected int numFeatures = 0;
@@ -94,6 +94,36 @@ public class ConcatFeatureMapper<RecordType> implements FeatureMapper<RecordType
         }
     }
 
+    /**
+     * Write the features of each delegate at its offset in inputs. Delegates that implement BulkFeatureMapper write
+     * their features directly, others are asked for each feature with produceFeature. Subclasses that wrap a
+     * delegate mapper instead of passing mappers to the constructor get the produceFeature implementation, unless
+     * they override this method.
+     */
+    @Override
+    public void mapFeatures(RecordType record, float[] inputs, int offset, int indexOfRecord) {
+        if (mappers == null) {
+            final int numberOfFeatures = numberOfFeatures();
+            for (int featureIndex = 0; featureIndex < numberOfFeatures; featureIndex++) {
+                inputs[offset + featureIndex] = produceFeature(record, featureIndex);
+            }
+            return;
+        }
+        assert normalizedCalled : "prepareToNormalize must be called before mapFeatures.";
+        for (int i = 0; i < mappers.length; i++) {
+            final FeatureMapper<RecordType> delegate = mappers[i];
+            final int delegateOffset = offset + offsets[i];
+            if (delegate instanceof BulkFeatureMapper) {
+                ((BulkFeatureMapper<RecordType>) delegate).mapFeatures(record, inputs, delegateOffset, indexOfRecord);
+            } else {
+                final int delNumFeatures = delegate.numberOfFeatures();
+                for (int j = 0; j < delNumFeatures; j++) {
+                    inputs[delegateOffset + j] = delegate.produceFeature(record, j);
+                }
+            }
+        }
+    }
+
     @Override
     public boolean hasMask() {
 
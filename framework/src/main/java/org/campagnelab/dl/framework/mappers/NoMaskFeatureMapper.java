@@ -5,7 +5,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 /**
  * Created by fac2003 on 11/11/16.
  */
-public abstract class NoMaskFeatureMapper<RecordType> implements FeatureMapper<RecordType> {
+public abstract class NoMaskFeatureMapper<RecordType> implements BulkFeatureMapper<RecordType> {
     @Override
     public MappedDimensions dimensions() {
         return new MappedDimensions(numberOfFeatures());
@@ -1,16 +1,18 @@
 package org.campagnelab.dl.framework.performance;
 
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
-import it.unimi.dsi.fastutil.doubles.DoubleList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrays;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
 
 /**
- * AUC Calculator. This class was adapted from the BDVAl project. The calculation is straightforward, but has
- * complexity n square, so won't scale with very large number of examples.
- * See http://www.cs.waikato.ac.nz/~remco/roc.pdf for an alternative.
+ * AUC Calculator. This class was adapted from the BDVAl project. The AUC is the fraction of (positive, negative)
+ * pairs where the positive has the larger decision value, ties counting half. Decision values of each class are
+ * sorted, and the pairs are counted in one merge pass over the two sorted arrays, so the calculation has complexity
+ * n log n. NaN decision values are always interpreted as wrong predictions.
+ * See {@link StreamingAreaUnderTheROCCurve} for an estimate in bounded memory.
  * Created by fac2003 on 7/15/16.
  *
  * @author Fabien Campagne
@@ -22,9 +24,9 @@ public class AreaUnderTheROCCurve {
     private boolean clipObservations;
     private DoubleArrayList positiveDecisions;
     private DoubleArrayList negativeDecisions;
-    private double estimatedAUC;
-    private int numPositive;
-    private int numNegative;
+    protected double estimatedAUC;
+    protected long numPositive;
+    protected long numNegative;
 
     public AreaUnderTheROCCurve() {
         positiveDecisions = new DoubleArrayList();
@@ -67,12 +69,7 @@ public class AreaUnderTheROCCurve {
         if (clipObservations) {
             clipObservations();
         }
-        for (final double decisionPositive : positiveDecisions) {
-            for (final double decisionNegative : negativeDecisions) {
-                sum += decisionPositive > decisionNegative ? 1 : 0;
-                sum += decisionPositive == decisionNegative ? 0.5 : 0;
-            }
-        }
+        sum = countPairs(positiveDecisions.toDoubleArray(), negativeDecisions.toDoubleArray());
 
         numPositive = positiveDecisions.size();
         numNegative = negativeDecisions.size();
@@ -107,8 +104,8 @@ public class AreaUnderTheROCCurve {
     }
 
     /**
-     * Shuffle observations, then clip to the max number. This reduces the precision of the estimate,
-     * but ensures computation will finish in a reasonable time (we use a n^2 algorithm).
+     * Shuffle observations, then clip to the max number. This reduces the precision of the estimate. It is no longer
+     * needed to bound the calculation time, and only bounds the number of observations that are compared.
      */
     private void clipObservations() {
         boolean needToClip = positiveDecisions.size() > maxObservations ||
@@ -132,8 +129,8 @@ public class AreaUnderTheROCCurve {
         double numPositive = 0;
         double numNegative = 0;
 
-        final DoubleList truePositiveDecisions = new DoubleArrayList();
-        final DoubleList trueNegativeDecisions = new DoubleArrayList();
+        final DoubleArrayList truePositiveDecisions = new DoubleArrayList();
+        final DoubleArrayList trueNegativeDecisions = new DoubleArrayList();
         for (int i = 0; i < decisionValues.length; i++) {
             if (decisionValues[i] != decisionValues[i]) {
                 // decision value is NaN:
@@ -146,12 +143,7 @@ public class AreaUnderTheROCCurve {
             }
         }
 
-        for (final double decisionPositive : truePositiveDecisions) {
-            for (final double decisionNegative : trueNegativeDecisions) {
-                sum += decisionPositive > decisionNegative ? 1 : 0;
-                sum += decisionPositive == decisionNegative ? 0.5 : 0;
-            }
-        }
+        sum = countPairs(truePositiveDecisions.toDoubleArray(), trueNegativeDecisions.toDoubleArray());
 
         numPositive = truePositiveDecisions.size();
         numNegative = trueNegativeDecisions.size();
@@ -159,4 +151,41 @@ public class AreaUnderTheROCCurve {
         final double auc = sum / numPositive / numNegative;
         return auc;
     }
+
+    /**
+     * Count the (positive, negative) pairs where the positive decision value is larger, counting ties as half a pair.
+     * The arrays are sorted in place. NaN values sort last and never win a comparison, as with the
+     * quadratic comparison of every pair.
+     *
+     * @return the number of pairs won by the positive decision.
+     */
+    static double countPairs(double[] positives, double[] negatives) {
+        DoubleArrays.parallelQuickSort(positives);
+        DoubleArrays.parallelQuickSort(negatives);
+        int numNegatives = negatives.length;
+        while (numNegatives > 0 && negatives[numNegatives - 1] != negatives[numNegatives - 1]) {
+            numNegatives--;
+        }
+        double sum = 0;
+        // negatives[0..below) are smaller than the current positive, negatives[below..notAbove) are equal to it:
+        int below = 0;
+        int notAbove = 0;
+        for (final double decisionPositive : positives) {
+            if (decisionPositive != decisionPositive) {
+                // NaN sort last, all remaining positives are NaN:
+                break;
+            }
+            while (below < numNegatives && negatives[below] < decisionPositive) {
+                below++;
+            }
+            if (notAbove < below) {
+                notAbove = below;
+            }
+            while (notAbove < numNegatives && negatives[notAbove] == decisionPositive) {
+                notAbove++;
+            }
+            sum += below + 0.5 * (notAbove - below);
+        }
+        return sum;
+    }
 }
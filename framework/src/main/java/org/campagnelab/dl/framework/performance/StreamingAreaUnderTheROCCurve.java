@@ -0,0 +1,106 @@
+package org.campagnelab.dl.framework.performance;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * AUC estimated in bounded memory. Decision values are counted in a fixed number of equal-width bins over
+ * [minimum, maximum], one histogram for positives and one for negatives. Values outside the range are counted in the
+ * first or last bin. A positive wins against every negative of a lower bin, and pairs that fall in the same bin count
+ * as ties, so the estimate differs from the exact AUC by at most half the fraction of pairs that share a bin.
+ * Calculators built with the same bins can be merged, for instance to combine the estimates of several threads.
+ */
+public class StreamingAreaUnderTheROCCurve extends AreaUnderTheROCCurve {
+    static private Logger LOG = LoggerFactory.getLogger(StreamingAreaUnderTheROCCurve.class);
+    private final double minimum;
+    private final double maximum;
+    private final long[] positiveCounts;
+    private final long[] negativeCounts;
+
+    /**
+     * Create a calculator for decision values that are probabilities.
+     *
+     * @param numBins number of bins between 0 and 1.
+     */
+    public StreamingAreaUnderTheROCCurve(int numBins) {
+        this(numBins, 0, 1);
+    }
+
+    public StreamingAreaUnderTheROCCurve(int numBins, double minimum, double maximum) {
+        if (numBins < 1 || !(maximum > minimum)) {
+            throw new IllegalArgumentException("At least one bin and a non empty range are required.");
+        }
+        this.minimum = minimum;
+        this.maximum = maximum;
+        positiveCounts = new long[numBins];
+        negativeCounts = new long[numBins];
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        Arrays.fill(positiveCounts, 0);
+        Arrays.fill(negativeCounts, 0);
+        numPositive = 0;
+        numNegative = 0;
+    }
+
+    @Override
+    public void observe(double decisionValue, double label) {
+        if (!foundNan && decisionValue != decisionValue) {
+            LOG.warn("NaN found instead of a decision value. NaN are always interpreted as wrong predictions. ");
+            foundNan = true;
+        }
+        if (label >= 0) {
+            numPositive++;
+            if (decisionValue == decisionValue) {
+                // NaN positives never win:
+                positiveCounts[bin(decisionValue)]++;
+            }
+        } else {
+            numNegative++;
+            if (decisionValue == decisionValue) {
+                // NaN negatives are never beaten:
+                negativeCounts[bin(decisionValue)]++;
+            }
+        }
+    }
+
+    /**
+     * Add the observations of another calculator to this one.
+     *
+     * @param other a calculator with the same number of bins and range.
+     */
+    public void merge(StreamingAreaUnderTheROCCurve other) {
+        if (other.positiveCounts.length != positiveCounts.length || other.minimum != minimum || other.maximum != maximum) {
+            throw new IllegalArgumentException("Only calculators with the same bins can be merged.");
+        }
+        for (int i = 0; i < positiveCounts.length; i++) {
+            positiveCounts[i] += other.positiveCounts[i];
+            negativeCounts[i] += other.negativeCounts[i];
+        }
+        numPositive += other.numPositive;
+        numNegative += other.numNegative;
+        foundNan |= other.foundNan;
+    }
+
+    @Override
+    public double evaluateStatistic() {
+        double sum = 0;
+        long negativesBelow = 0;
+        for (int i = 0; i < positiveCounts.length; i++) {
+            sum += positiveCounts[i] * (negativesBelow + 0.5 * negativeCounts[i]);
+            negativesBelow += negativeCounts[i];
+        }
+        final double auc = sum / numPositive / numNegative;
+        this.estimatedAUC = auc;
+        return auc;
+    }
+
+    private int bin(double decisionValue) {
+        final int bin = (int) ((decisionValue - minimum) / (maximum - minimum) * positiveCounts.length);
+        return Math.max(0, Math.min(positiveCounts.length - 1, bin));
+    }
+}
@@ -0,0 +1,234 @@
+package org.campagnelab.dl.framework.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads files written by {@link VectorWriterColumnar}. The .vecc file is mapped once, in regions of at most
+ * {@link #MAX_REGION_LENGTH} bytes that each hold whole chunks. Blocks of uncompressed chunks are returned as slices
+ * of these regions; compressed chunks are inflated on the heap.
+ */
+public class ColumnarVectorReader implements Closeable {
+    /**
+     * Largest number of bytes mapped in one region, the limit of a MappedByteBuffer.
+     */
+    static final long MAX_REGION_LENGTH = Integer.MAX_VALUE;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int[] columnSamples;
+    private final int[] columnVectorIds;
+    private final int[] columnElements;
+    private final long[] chunkOffsets;
+    private final int[] storedLengths;
+    private final int[] rawLengths;
+    private final int[] chunkExamples;
+    private final int[] codecs;
+    /**
+     * Mapped regions of the data file, and the region and offset within it of each chunk.
+     */
+    private final MappedByteBuffer[] regions;
+    private final int[] chunkRegions;
+    private final int[] regionOffsets;
+
+    public ColumnarVectorReader(String basename) throws IOException {
+        this(basename, MAX_REGION_LENGTH);
+    }
+
+    ColumnarVectorReader(String basename, long maxRegionLength) throws IOException {
+        final String indexFilename = VectorWriterColumnar.indexFilename(basename);
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(Paths.get(indexFilename))).order(ByteOrder.LITTLE_ENDIAN);
+        if (index.getInt() != VectorWriterColumnar.MAGIC) {
+            throw new IOException("File is not a valid columnar vector index: " + indexFilename);
+        }
+        final int version = index.getInt();
+        if (version != VectorWriterColumnar.VERSION) {
+            throw new IOException(String.format("Unsupported columnar vector index version %d in %s", version,
+                    indexFilename));
+        }
+        final int numColumns = index.getInt();
+        columnSamples = new int[numColumns];
+        columnVectorIds = new int[numColumns];
+        columnElements = new int[numColumns];
+        for (int column = 0; column < numColumns; column++) {
+            columnSamples[column] = index.getInt();
+            columnVectorIds[column] = index.getInt();
+            columnElements[column] = index.getInt();
+        }
+        final int numChunks = index.getInt();
+        chunkOffsets = new long[numChunks];
+        storedLengths = new int[numChunks];
+        rawLengths = new int[numChunks];
+        chunkExamples = new int[numChunks];
+        codecs = new int[numChunks];
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+            chunkOffsets[chunk] = index.getLong();
+            storedLengths[chunk] = index.getInt();
+            rawLengths[chunk] = index.getInt();
+            chunkExamples[chunk] = index.getInt();
+            codecs[chunk] = index.getInt();
+        }
+        file = new RandomAccessFile(VectorWriterColumnar.dataFilename(basename), "r");
+        channel = file.getChannel();
+        chunkRegions = new int[numChunks];
+        regionOffsets = new int[numChunks];
+        regions = mapRegions(maxRegionLength);
+    }
+
+    /**
+     * Map consecutive chunks together, starting a new region when the next chunk would make the current one longer
+     * than maxRegionLength.
+     */
+    private MappedByteBuffer[] mapRegions(long maxRegionLength) throws IOException {
+        List<MappedByteBuffer> mapped = new ArrayList<>();
+        int firstChunk = 0;
+        while (firstChunk < chunkOffsets.length) {
+            final long regionStart = chunkOffsets[firstChunk];
+            int lastChunk = firstChunk;
+            while (lastChunk + 1 < chunkOffsets.length
+                    && chunkOffsets[lastChunk + 1] + storedLengths[lastChunk + 1] - regionStart <= maxRegionLength) {
+                lastChunk++;
+            }
+            for (int chunk = firstChunk; chunk <= lastChunk; chunk++) {
+                chunkRegions[chunk] = mapped.size();
+                regionOffsets[chunk] = (int) (chunkOffsets[chunk] - regionStart);
+            }
+            mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, regionStart,
+                    chunkOffsets[lastChunk] + storedLengths[lastChunk] - regionStart));
+            firstChunk = lastChunk + 1;
+        }
+        return mapped.toArray(new MappedByteBuffer[mapped.size()]);
+    }
+
+    /**
+     * Return the stored bytes of a chunk, as a slice of its mapped region.
+     */
+    private ByteBuffer stored(int chunk, int offset, int length) {
+        ByteBuffer region = regions[chunkRegions[chunk]].duplicate();
+        region.position(regionOffsets[chunk] + offset);
+        region.limit(regionOffsets[chunk] + offset + length);
+        return region.slice();
+    }
+
+    public int numChunks() {
+        return chunkOffsets.length;
+    }
+
+    public int numColumns() {
+        return columnSamples.length;
+    }
+
+    public long numExamples() {
+        long numExamples = 0;
+        for (int n : chunkExamples) {
+            numExamples += n;
+        }
+        return numExamples;
+    }
+
+    public int numExamples(int chunk) {
+        return chunkExamples[chunk];
+    }
+
+    /**
+     * Return the sample index of a column.
+     */
+    public int sampleIndex(int column) {
+        return columnSamples[column];
+    }
+
+    /**
+     * Return the id of the vector of a column, the index of the vector in the .vecp properties.
+     */
+    public int vectorId(int column) {
+        return columnVectorIds[column];
+    }
+
+    /**
+     * Return the number of float elements stored per example in a column.
+     */
+    public int elementsPerExample(int column) {
+        return columnElements[column];
+    }
+
+    /**
+     * Return the column of a sample and vector, or -1 when the file does not have it.
+     */
+    public int column(int sampleIndex, int vectorId) {
+        for (int column = 0; column < columnSamples.length; column++) {
+            if (columnSamples[column] == sampleIndex && columnVectorIds[column] == vectorId) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the values of a column for all the examples of a chunk, numExamples(chunk) x elementsPerExample(column)
+     * floats in C order.
+     */
+    public FloatBuffer read(int chunk, int column) throws IOException {
+        int blockOffset = 0;
+        for (int previous = 0; previous < column; previous++) {
+            blockOffset += chunkExamples[chunk] * columnElements[previous] * Float.BYTES;
+        }
+        final int blockLength = chunkExamples[chunk] * columnElements[column] * Float.BYTES;
+        ByteBuffer block;
+        switch (codecs[chunk]) {
+            case VectorWriterColumnar.CODEC_NONE:
+                block = stored(chunk, blockOffset, blockLength);
+                break;
+            case VectorWriterColumnar.CODEC_DEFLATE:
+                block = ByteBuffer.wrap(inflate(chunk), blockOffset, blockLength).slice();
+                break;
+            default:
+                throw new IOException(String.format("Unknown codec %d for chunk %d", codecs[chunk], chunk));
+        }
+        return block.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    private byte[] inflate(int chunk) throws IOException {
+        ByteBuffer compressed = stored(chunk, 0, storedLengths[chunk]);
+        byte[] input = new byte[storedLengths[chunk]];
+        compressed.get(input);
+        byte[] raw = new byte[rawLengths[chunk]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                final int n = inflater.inflate(raw, length, raw.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != raw.length) {
+                throw new IOException(String.format("Chunk %d is truncated", chunk));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(String.format("Chunk %d is corrupted", chunk), e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+}
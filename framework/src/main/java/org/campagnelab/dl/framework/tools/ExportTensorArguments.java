@@ -80,9 +80,17 @@ public class ExportTensorArguments implements ToolArguments {
         return result;
     }
 
-    @Parameter(names = "--vector-file-type", description = "Type of .vec file to write out. Can be 'text' or 'binary' vec format. " +
+    @Parameter(names = "--vector-file-type", description = "Type of .vec file to write out. Can be 'text', 'binary' or 'columnar' vec format. " +
             "Text format is compressed with gzip and smaller for storage and transport. Binary format is useful for random access and is used for " +
-            "caching data for faster training with shuffled datasets.")
+            "caching data for faster training with shuffled datasets. Columnar format stores each minibatch as a chunk of little-endian float " +
+            "blocks, one per input/output and sample, indexed in a .veci file, and can be memory-mapped without parsing.")
     public String vecFileType = "text";
 
+    @Parameter(names = "--compression", description = "Compression of the chunks of columnar files: 'none' or 'deflate'. " +
+            "Deflated chunks are smaller, but must be inflated before they can be read.")
+    public String compression = "none";
+
+    @Parameter(names = "--num-threads", description = "Number of threads used to encode the chunks of columnar files.")
+    public int numThreads = Runtime.getRuntime().availableProcessors();
+
 }
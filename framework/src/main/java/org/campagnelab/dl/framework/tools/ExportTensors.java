@@ -146,9 +146,12 @@ public abstract class ExportTensors<RecordType> extends AbstractTool<ExportTenso
             case "binary":
                 vectorWriter = new VectorWriterBinary(args().outputBasename);
                 break;
+            case "columnar":
+                vectorWriter = new VectorWriterColumnar(args().outputBasename, args().compression, args().numThreads);
+                break;
             default:
                 throw new IllegalArgumentException(
-                        String.format("Unknown vector file type %s; choices are text and binary.",
+                        String.format("Unknown vector file type %s; choices are text, binary and columnar.",
                                 args().vecFileType)
                 );
         }
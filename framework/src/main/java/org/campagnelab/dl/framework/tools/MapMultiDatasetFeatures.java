@@ -5,6 +5,7 @@ import it.unimi.dsi.logging.ProgressLogger;
 import org.apache.commons.io.FilenameUtils;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
 import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
 import org.deeplearning4j.datasets.iterator.AsyncMultiDataSetIterator;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
@@ -18,7 +19,8 @@ import java.util.List;
 import java.util.Properties;
 
 /**
- * A tool to cache DL4J's multidatasets into in a .cf (cached features) file.
+ * A tool to cache DL4J's multidatasets into in a .cf (cached features) file. An offset index is written
+ * to a .cfi file, next to the cache, to support random access to individual minibatches.
  *
  * @author Fabien Campagne
  */
@@ -94,6 +96,8 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
             long numDatasets = 0;
             long writeAtMostN = args().writeAtMostN;
             numRecordsWritten = 0;
+            // sidecar index with the offset of each minibatch in the .cf file:
+            CacheIndex index = new CacheIndex();
 
             while (iterator.hasNext()) {
                 MultiDataSet mds = iterator.next();
@@ -108,6 +112,7 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
                 outputStream.write((bytes.length >> 8) & 0xFF);
                 outputStream.write(bytes.length & 0xFF);
                 outputStream.write(bytes);
+                index.append(bytes.length + 4, mds.getFeatures()[0].size(0));
                 pg.lightUpdate();
                 if (numRecordsWritten > writeAtMostN) {
                     break;
@@ -120,6 +125,7 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
                 }
             }
             outputStream.close();
+            index.save(args().outputBasename);
             pg.stop();
 
             long numRecords = domainDescriptor.getNumRecords(args().getTrainingSets());
@@ -136,6 +142,7 @@ public abstract class MapMultiDatasetFeatures<RecordType> extends AbstractTool<M
             cfpProperties.put("isTrio", Boolean.toString(args().isTrio));
             cfpProperties.put("numRecords", Long.toString(numRecordsWritten));
             cfpProperties.put("numDatasets", Long.toString(numDatasets));
+            cfpProperties.put("indexed", "true");
             String[] inputNames = domainDescriptor.getComputationalGraph().getInputNames();
             for (String inputName : inputNames) {
                 int dimIndex = 0;
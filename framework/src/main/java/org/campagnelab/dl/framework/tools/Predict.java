@@ -1,14 +1,16 @@
 package org.campagnelab.dl.framework.tools;
 
 import com.google.common.collect.Iterables;
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectList;
 import it.unimi.dsi.logging.ProgressLogger;
 import org.apache.commons.io.FilenameUtils;
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.domains.DomainDescriptorLoader;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
 import org.campagnelab.dl.framework.gpu.InitializeGpu;
-import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.ParallelMultiDataSetIteratorAdapter;
 import org.campagnelab.dl.framework.iterators.cache.CacheHelper;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.campagnelab.dl.framework.models.ModelLoader;
@@ -26,6 +28,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * A generic Predict tool. Sub-class this abstract class and define a few methods in order to make predictions and
@@ -130,28 +133,48 @@ public abstract class Predict<RecordType> extends ConditionRecordingTool<Predict
 
         PredictWithModel<RecordType> predictor = new PredictWithModel<RecordType>(domainDescriptor);
 
-        Iterable<RecordType> apply = domainDescriptor.getRecordIterable().apply(evaluationDataFilename);
-        Iterable<RecordType> itAdapter = Iterables.limit(apply, args().scoreN);
         Iterable<RecordType> recordsIterable = Iterables.limit(domainDescriptor.getRecordIterable().apply(evaluationDataFilename), args().scoreN);
 
         initializeStats(prefix);
         writeHeader(resutsWriter);
         final int miniBatchSize = args().miniBatchSize;
-        MultiDataSetIteratorAdapter<RecordType> adapter = new MultiDataSetIteratorAdapter<RecordType>(itAdapter,
-                miniBatchSize, domainDescriptor, false, null) {
+        // without a cache, the records of each minibatch are kept when they are read by the adapter, so that the
+        // input is only decoded once:
+        final ObjectArrayFIFOQueue<List<RecordType>> recordBatches = args().noCache ? new ObjectArrayFIFOQueue<>() : null;
+        ParallelMultiDataSetIteratorAdapter<RecordType> adapter = new ParallelMultiDataSetIteratorAdapter<RecordType>(recordsIterable,
+                miniBatchSize, domainDescriptor, false, null, args().mappingThreads) {
             @Override
             public String getBasename() {
                 return FilenameUtils.getBaseName(args().testSet);
             }
+
+            @Override
+            protected ObjectList<RecordType> nextRecords() {
+                ObjectList<RecordType> records = super.nextRecords();
+                if (recordBatches != null) {
+                    recordBatches.enqueue(records);
+                }
+                return records;
+            }
         };
         MultiDataSetIterator adapterCached = args().noCache ? adapter :
                 cacheHelper.cache(domainDescriptor,
                         adapter, adapter.getBasename(),
                         args().scoreN, args().miniBatchSize);
-        List<RecordType> records = new ObjectArrayList<RecordType>(miniBatchSize);
-        Iterator<RecordType> recordIterator = recordsIterable.iterator();
-        int index = 0;
-        int adapterIndex = 0;
+        Iterator<PredictionPipeline.Minibatch<RecordType>> minibatches = args().noCache ?
+                new Iterator<PredictionPipeline.Minibatch<RecordType>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return adapter.hasNext();
+                    }
+
+                    @Override
+                    public PredictionPipeline.Minibatch<RecordType> next() {
+                        MultiDataSet dataset = adapter.next();
+                        return new PredictionPipeline.Minibatch<>(recordBatches.dequeue(), dataset);
+                    }
+                } :
+                cachedMinibatches(adapterCached, recordsIterable.iterator());
         ProgressLogger pgReadWrite = new ProgressLogger(LOG);
         pgReadWrite.itemsName = "sites";
         final long totalRecords = domainDescriptor.getNumRecords(new String[]{args().testSet});
@@ -160,35 +183,17 @@ public abstract class Predict<RecordType> extends ConditionRecordingTool<Predict
         pgReadWrite.displayFreeMemory = false;
         pgReadWrite.displayLocalSpeed = true;
         pgReadWrite.start();
-        while (adapterCached.hasNext() && recordIterator.hasNext()) {
-
-            MultiDataSet dataset = adapterCached.next();
-            final int datasetSize = dataset.getFeatures(0).size(0);
-            adapterIndex++;
-            records.clear();
-            for (int exampleIndex = 0; exampleIndex < datasetSize; exampleIndex++) {
-                if (!recordIterator.hasNext()) {
-                    break;
-                }
-                records.add(recordIterator.next());
-            }
-
-            if (records.size() == datasetSize) {
-                index = predictor.makePredictions(dataset,
-                        records, model,
-                        recordPredictions -> {
-                            processPredictions(resutsWriter, recordPredictions.record,
-                                    recordPredictions.predictions);
-                        },
-                /* stop if */ nProcessed -> nProcessed > args().scoreN, index
-                );
-                pgReadWrite.update(records.size());
-            } else {
-                System.out.printf("dataset #examples %d and # records (%d) must match. Unable to obtain records for some examples in minibatch. Aborting. ",
-                        datasetSize, records.size());
-                break;
-            }
-
+        PredictionPipeline<RecordType> pipeline = new PredictionPipeline<>(predictor, model, args().deviceIndex);
+        try {
+            pipeline.predict(minibatches,
+                    recordPredictions -> {
+                        processPredictions(resutsWriter, recordPredictions.record,
+                                recordPredictions.predictions);
+                        pgReadWrite.lightUpdate();
+                    },
+                    /* stop if */ nProcessed -> nProcessed > args().scoreN);
+        } finally {
+            adapter.close();
         }
 
 
@@ -206,6 +211,48 @@ public abstract class Predict<RecordType> extends ConditionRecordingTool<Predict
         modelLoader.writeTestCount(totalRecords);
     }
 
+    /**
+     * Pair minibatches read from the cache with the records they were mapped from.
+     */
+    private Iterator<PredictionPipeline.Minibatch<RecordType>> cachedMinibatches(MultiDataSetIterator datasets,
+                                                                                  Iterator<RecordType> recordIterator) {
+        return new Iterator<PredictionPipeline.Minibatch<RecordType>>() {
+            PredictionPipeline.Minibatch<RecordType> next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && datasets.hasNext() && recordIterator.hasNext()) {
+                    MultiDataSet dataset = datasets.next();
+                    final int datasetSize = dataset.getFeatures(0).size(0);
+                    List<RecordType> records = new ObjectArrayList<RecordType>(datasetSize);
+                    for (int exampleIndex = 0; exampleIndex < datasetSize; exampleIndex++) {
+                        if (!recordIterator.hasNext()) {
+                            break;
+                        }
+                        records.add(recordIterator.next());
+                    }
+                    if (records.size() == datasetSize) {
+                        next = new PredictionPipeline.Minibatch<>(records, dataset);
+                    } else {
+                        System.out.printf("dataset #examples %d and # records (%d) must match. Unable to obtain records for some examples in minibatch. Aborting. ",
+                                datasetSize, records.size());
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public PredictionPipeline.Minibatch<RecordType> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                PredictionPipeline.Minibatch<RecordType> result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
     /**
      * This method is called after the test set has been observed and statistics evaluated via processPredictions.
      * It sets statistics on the whole test set, which are then written tab-delimited to a file.
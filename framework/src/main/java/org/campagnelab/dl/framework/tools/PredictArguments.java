@@ -29,8 +29,11 @@ public class PredictArguments extends RecordingToolArguments {
     @Parameter(names = {"--mini-batch-size"}, description = "Number of records in minibatch.")
     public int miniBatchSize = 512;
 
-    @Parameter(names = {"--records-for-auc"}, description = "Number of records to use when evaluating AUC. Precision increases with larger values, but calculation is O(n^2) on this number.")
-    public int numRecordsForAUC = 50000;
+    @Parameter(names = {"--records-for-auc"}, description = "Maximum number of records of each class to use when evaluating AUC. All records are used by default. Calculation is O(n log n) on this number.")
+    public int numRecordsForAUC = Integer.MAX_VALUE;
+
+    @Parameter(names = {"--auc-bins"}, description = "When provided, estimate the AUC in bounded memory with this number of histogram bins over the predicted probabilities, instead of keeping every observation. ")
+    public int aucBins = 0;
 
     @Parameter(names = {"--correctness-filter"},
             description = "When provided, filter output by correctness. For instance --correctness-filter wrong will only print wrong predictions. Alternatively --correctness-filter correct prings only correct predictions. ")
@@ -58,4 +61,8 @@ public class PredictArguments extends RecordingToolArguments {
 
     @Parameter(names = "--no-cache", description = "Do not create a cache (.cf/.cfp) when this flag is provided.")
     public boolean noCache;
+
+    @Parameter(names = "--mapping-threads", description = "Number of threads used to map features and labels of minibatches " +
+            "in parallel. Most useful with --no-cache, when mapping features would otherwise run on a single core.")
+    public int mappingThreads = 1;
 }
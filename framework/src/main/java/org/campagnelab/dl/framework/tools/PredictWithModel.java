@@ -1,6 +1,8 @@
 package org.campagnelab.dl.framework.tools;
 
 import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.domains.prediction.BatchInterpretation;
+import org.campagnelab.dl.framework.domains.prediction.BatchPredictionInterpreter;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.framework.domains.prediction.RecordPredictions;
@@ -23,6 +25,10 @@ public class PredictWithModel<RecordType> {
     protected DomainDescriptor<RecordType> domainDescriptor;
     ModelOutputHelper outputHelper;
     protected PredictionInterpreter[] interpretors;
+    /**
+     * Buffers reused across minibatches by the interpreters that interpret whole minibatches.
+     */
+    private BatchInterpretation[] batchResults;
 
     public PredictWithModel(DomainDescriptor<RecordType> domainDescriptor) {
         this.domainDescriptor = domainDescriptor;
@@ -34,6 +40,12 @@ public class PredictWithModel<RecordType> {
         for (String outputName : outputNames) {
             interpretors[outputIndex++] = domainDescriptor.getPredictionInterpreter(outputName);
         }
+        batchResults = new BatchInterpretation[interpretors.length];
+        for (int i = 0; i < interpretors.length; i++) {
+            if (interpretors[i] instanceof BatchPredictionInterpreter) {
+                batchResults[i] = new BatchInterpretation();
+            }
+        }
     }
 
     public void makePredictions(Iterator<RecordType> iterator,
@@ -51,11 +63,44 @@ public class PredictWithModel<RecordType> {
                                 Model model,
                                 Consumer<RecordPredictions<RecordType>> doForEachPrediction,
                                 Predicate<Integer> stopIfTrue, int index) {
+        return interpret(output(dataSet, model), records, doForEachPrediction, stopIfTrue, index);
+    }
+
+    /**
+     * Run the model on the features of a minibatch.
+     *
+     * @return one array of predictions per model output.
+     */
+    public INDArray[] output(MultiDataSet dataSet, Model model) {
         assert model instanceof ComputationGraph : "MultiDataSet only work with ComputationGraph";
         ComputationGraph graph=(ComputationGraph)model;
-        INDArray[] outputPredictions = graph.output(false,dataSet.getFeatures());
-        List<Prediction> predictions = new ArrayList<>();
+        return graph.output(false,dataSet.getFeatures());
+    }
 
+    /**
+     * Interpret the model outputs for the records of a minibatch, in order.
+     *
+     * @param outputPredictions model outputs, as returned by output.
+     * @param records           the records the minibatch was mapped from.
+     * @param index             index of the first record of the minibatch.
+     * @return the index of the record after the last interpreted one.
+     */
+    public int interpret(INDArray[] outputPredictions, List<RecordType> records,
+                         Consumer<RecordPredictions<RecordType>> doForEachPrediction,
+                         Predicate<Integer> stopIfTrue, int index) {
+        List<Prediction> predictions = new ArrayList<>();
+        // interpret the 2-d outputs of whole-minibatch interpreters up front, other outputs are sliced per example:
+        final boolean[] interpretedBatch = new boolean[interpretors.length];
+        for (int outputIndex = 0; outputIndex < domainDescriptor.getNumModelOutputs(); outputIndex++) {
+            INDArray output = outputPredictions[outputIndex];
+            if (batchResults[outputIndex] != null && output.rank() == 2) {
+                final int numExamples = output.rows();
+                batchResults[outputIndex].reset(numExamples);
+                ((BatchPredictionInterpreter) interpretors[outputIndex]).interpret(BatchInterpretation.toFloats(output),
+                        numExamples, output.columns(), batchResults[outputIndex]);
+                interpretedBatch[outputIndex] = true;
+            }
+        }
         RecordType currentRecord;
         for (int exampleIndex = 0; exampleIndex<records.size(); exampleIndex++) {
             predictions.clear();
@@ -64,8 +109,11 @@ public class PredictWithModel<RecordType> {
 
 
                 if (interpretors[outputIndex] != null) {
-                    Prediction prediction = interpretors[outputIndex].interpret(currentRecord,
-                                                    outputPredictions[outputIndex].slice(exampleIndex));
+                    Prediction prediction = interpretedBatch[outputIndex]
+                            ? ((BatchPredictionInterpreter) interpretors[outputIndex]).prediction(currentRecord,
+                            batchResults[outputIndex], exampleIndex)
+                            : interpretors[outputIndex].interpret(currentRecord,
+                            outputPredictions[outputIndex].slice(exampleIndex));
                     prediction.outputIndex = outputIndex;
                     prediction.index = index;
                     predictions.add(prediction);
@@ -0,0 +1,138 @@
+package org.campagnelab.dl.framework.tools;
+
+import org.campagnelab.dl.framework.domains.prediction.RecordPredictions;
+import org.campagnelab.dl.framework.utils.DaemonThreadFactory;
+import org.deeplearning4j.nn.api.Model;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Predicts with a model in three stages that run in parallel: minibatches are decoded and mapped on one thread, the
+ * model is run on another, and predictions are interpreted and consumed on the calling thread. Stages are connected
+ * by bounded queues, so at most a few minibatches are in flight. Minibatches go through every stage in order, so
+ * predictions are consumed in the order of the records.
+ */
+public class PredictionPipeline<RecordType> {
+    private static final int QUEUE_CAPACITY = 4;
+    private static final Minibatch END = new Minibatch<>(null, null);
+
+    private final PredictWithModel<RecordType> predictor;
+    private final Model model;
+    private final Integer deviceIndex;
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    /**
+     * @param predictor   interprets the model outputs.
+     * @param model       the model to predict with.
+     * @param deviceIndex index of the GPU the model runs on, or null to use the default device.
+     */
+    public PredictionPipeline(PredictWithModel<RecordType> predictor, Model model, Integer deviceIndex) {
+        this.predictor = predictor;
+        this.model = model;
+        this.deviceIndex = deviceIndex;
+    }
+
+    /**
+     * Records of a minibatch and the features mapped from them.
+     */
+    public static class Minibatch<RecordType> {
+        final List<RecordType> records;
+        final MultiDataSet dataset;
+        INDArray[] outputs;
+
+        public Minibatch(List<RecordType> records, MultiDataSet dataset) {
+            this.records = records;
+            this.dataset = dataset;
+        }
+    }
+
+    /**
+     * Predict all the minibatches.
+     *
+     * @param minibatches         minibatches to predict. The iterator is consumed on the decoding thread.
+     * @param doForEachPrediction called on the calling thread with the predictions of each record, in record order.
+     * @param stopIfTrue          called with the number of records processed so far, stops when it returns true.
+     * @return the number of records processed.
+     */
+    public int predict(Iterator<Minibatch<RecordType>> minibatches,
+                       Consumer<RecordPredictions<RecordType>> doForEachPrediction,
+                       Predicate<Integer> stopIfTrue) {
+        BlockingQueue<Minibatch<RecordType>> decoded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Minibatch<RecordType>> predicted = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        Thread decoder = start("predict-decode", decoded, () -> {
+            while (minibatches.hasNext()) {
+                decoded.put(minibatches.next());
+            }
+        });
+        Thread runner = start("predict-model", predicted, () -> {
+            if (deviceIndex != null) {
+                Nd4j.getAffinityManager().attachThreadToDevice(Thread.currentThread(), deviceIndex);
+            }
+            Minibatch<RecordType> minibatch;
+            while ((minibatch = decoded.take()) != END) {
+                INDArray[] outputs = predictor.output(minibatch.dataset, model);
+                for (int i = 0; i < outputs.length; i++) {
+                    outputs[i] = outputs[i].detach();
+                }
+                minibatch.outputs = outputs;
+                predicted.put(minibatch);
+            }
+        });
+        int index = 0;
+        try {
+            Minibatch<RecordType> minibatch;
+            while ((minibatch = predicted.take()) != END) {
+                index = predictor.interpret(minibatch.outputs, minibatch.records, doForEachPrediction, stopIfTrue, index);
+                if (stopIfTrue.test(index)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for predictions.", e);
+        } finally {
+            decoder.interrupt();
+            runner.interrupt();
+        }
+        if (error.get() != null) {
+            throw new RuntimeException("Unable to make predictions.", error.get());
+        }
+        return index;
+    }
+
+    private interface Stage {
+        void run() throws InterruptedException;
+    }
+
+    /**
+     * Start a stage on a new thread. The stage signals the next one with END when it finishes or fails. When it is
+     * interrupted, the stage that consumes the predictions has stopped, and no END is needed.
+     */
+    private Thread start(String name, BlockingQueue<Minibatch<RecordType>> next, Stage stage) {
+        Thread thread = new DaemonThreadFactory(name).newThread(() -> {
+            try {
+                stage.run();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+            }
+            try {
+                next.put(END);
+            } catch (InterruptedException e) {
+                // the pipeline was stopped
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
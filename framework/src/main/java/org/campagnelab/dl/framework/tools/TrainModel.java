@@ -12,6 +12,9 @@ import org.campagnelab.dl.framework.domains.DomainDescriptor;
 import org.campagnelab.dl.framework.gpu.InitializeGpu;
 import org.campagnelab.dl.framework.gpu.ParameterPrecision;
 import org.campagnelab.dl.framework.iterators.MultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.ParallelMultiDataSetIteratorAdapter;
+import org.campagnelab.dl.framework.iterators.RandomAccessMultiDatasetFeaturesIterator;
+import org.campagnelab.dl.framework.iterators.ShufflingMultiDatasetIterator;
 import org.campagnelab.dl.framework.iterators.cache.CacheHelper;
 import org.campagnelab.dl.framework.iterators.cache.FullyInMemoryCache;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
@@ -23,6 +26,7 @@ import org.campagnelab.dl.framework.performance.Metric;
 import org.campagnelab.dl.framework.performance.PerformanceLogger;
 import org.campagnelab.dl.framework.performance.PerformanceMetricDescriptor;
 import org.campagnelab.dl.framework.tools.arguments.ConditionRecordingTool;
+import org.campagnelab.dl.framework.training.ParallelTrainerOnCPU;
 import org.campagnelab.dl.framework.training.ParallelTrainerOnGPU;
 import org.campagnelab.dl.framework.training.SequentialTrainer;
 import org.campagnelab.dl.framework.training.Trainer;
@@ -306,8 +310,8 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
                         Collectors.toList()));
         Iterable<RecordType> recordIterable = Iterables.limit(inputIterable, args().numTraining);
         final int miniBatchSize = args().miniBatchSize;
-        MultiDataSetIteratorAdapter<RecordType> adapter = new MultiDataSetIteratorAdapter<RecordType>(recordIterable,
-                miniBatchSize, domainDescriptor, args().previousModelPretraining, args().eosIndex) {
+        ParallelMultiDataSetIteratorAdapter<RecordType> adapter = new ParallelMultiDataSetIteratorAdapter<RecordType>(recordIterable,
+                miniBatchSize, domainDescriptor, args().previousModelPretraining, args().eosIndex, args().mappingThreads) {
             @Override
             public String getBasename() {
                 return buildBaseName(args().trainingSets);
@@ -319,6 +323,10 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
                 adapter, adapter.getBasename(),
                 args().numTraining, args().miniBatchSize) :
                 adapter;
+        if (useCache) {
+            // the adapter was only needed to build the cache, stop its mapping threads:
+            adapter.close();
+        }
 
         if (args().memoryCacheTraining()) {
             iterator = new FullyInMemoryCache(iterator);
@@ -326,6 +334,13 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
             LOG.warn("Loading training set in memory.");
             iterator.reset();
             LOG.warn("Done.");
+        } else if (args().shuffleEpochs) {
+            if (iterator instanceof RandomAccessMultiDatasetFeaturesIterator) {
+                iterator = new ShufflingMultiDatasetIterator((RandomAccessMultiDatasetFeaturesIterator) iterator,
+                        args().seed, args().shuffleWindow);
+            } else {
+                LOG.warn("--shuffle-epochs requires an indexed cache. Rebuild the cache to shuffle minibatches each epoch.");
+            }
         }
 
         if (args().mixupAlpha != null) {
@@ -361,7 +376,8 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
 
         Trainer trainer = args().parallel ? new ParallelTrainerOnGPU(computationGraph, args().miniBatchSize,
                 (int) numRecords) :
-                new SequentialTrainer();
+                args().cpuWorkers > 1 ? new ParallelTrainerOnCPU(args().cpuWorkers, args().averagingFrequency) :
+                        new SequentialTrainer();
         trainer.setLogSpeed(args().trackingStyle == TrainingArguments.TrackStyle.SPEED);
         // only wrap the iterator in async for sequential trainer:
         iterator=args().parallel?iterator:WrapInAsyncAttach.wrap(iterator);
@@ -436,6 +452,7 @@ public abstract class TrainModel<RecordType> extends ConditionRecordingTool<Trai
             //addCustomOption("--num-errors-added", args().numErrorsAdded);
         }
         pgEpoch.stop();
+        adapter.close();
         return new EarlyStoppingResult<ComputationGraph>(EarlyStoppingResult.TerminationReason.EpochTerminationCondition,
                 "not early stopping", scoreMap, performanceLogger.getBestEpoch(bestMetricName), bestScore, args().maxEpochs, computationGraph);
     }
@@ -80,6 +80,15 @@ public abstract class TrainingArguments extends RecordingToolArguments {
             "only the validation set. Use none to disable caching entirely.")
     public String memoryCache = "validation";
 
+    @Parameter(names = "--shuffle-epochs", description = "When provided, iterate over the minibatches of the training cache in a " +
+            "different random order each epoch (seeded with --random-seed). Requires an indexed cache (.cfi file) and is ignored " +
+            "when the training set is cached in memory.")
+    public boolean shuffleEpochs = false;
+
+    @Parameter(names = "--shuffle-window", description = "Number of consecutive (shuffled) minibatches whose examples are mixed " +
+            "when --shuffle-epochs is provided. The default (1) only permutes the order of minibatches.")
+    public int shuffleWindow = 1;
+
     @Parameter(names = "--label-smoothing-epsilon", description = "Value of epsilon for label smoothing. Zero (default) is no smoothing. Try small values (<0.1).")
     public float labelSmoothingEpsilon = 0;
 
@@ -115,6 +124,18 @@ public abstract class TrainingArguments extends RecordingToolArguments {
     @Parameter(names = "--parallel", description = "When provided, trains on several GPUs in parallel.")
     public boolean parallel;
 
+    @Parameter(names = "--cpu-workers", description = "When larger than one, trains on the CPU with this number of worker " +
+            "threads, each training a replica of the model on its own share of the minibatches.")
+    public int cpuWorkers = 1;
+
+    @Parameter(names = "--averaging-frequency", description = "Number of minibatches each CPU worker trains on between " +
+            "two averaging steps of the replica parameters. Only used with --cpu-workers.")
+    public int averagingFrequency = 3;
+
+    @Parameter(names = "--mapping-threads", description = "Number of threads used to map features and labels of training " +
+            "minibatches in parallel, when minibatches are not read from a cache.")
+    public int mappingThreads = 1;
+
     protected abstract String defaultArchitectureClassname();
 
     @Parameter(names = "--build-cache-then-stop", description = "When provided, build the caches, then immediately stop.")
@@ -0,0 +1,123 @@
+package org.campagnelab.dl.framework.tools;
+
+import org.nd4j.linalg.api.iter.NdIndexIterator;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Writes minibatches as one line per example, sample and vector.
+ */
+public abstract class VectorLineWriter extends VectorWriter {
+    private Map<String, Integer> vectorNameToId;
+    private Map<Integer, int[]> vectorIdToDimension;
+
+    public VectorLineWriter(String basename) throws IOException {
+        super(basename);
+        vectorNameToId = new HashMap<>();
+        vectorIdToDimension = new HashMap<>();
+    }
+
+    @Override
+    public void appendMdsList(List<MultiDataSet> multiDataSetList, int[] inputIndices, int[] outputIndices,
+                              String[] inputNames, String[] outputNames, long startExampleIndex) {
+        int numExamplesInBatch = multiDataSetList.get(0).getFeatures(inputIndices[0]).rows();
+        if (startExampleIndex + numExamplesInBatch > getNumRecords()) {
+            throw new IllegalArgumentException("Example ID exceeds number of records");
+        }
+        for (int currExampleInBatch = 0; currExampleInBatch < numExamplesInBatch; currExampleInBatch++) {
+            int sampleMdsIndex = 0;
+            for (MultiDataSet multiDataSetAtSample : multiDataSetList) {
+                writeLinesForExample(multiDataSetAtSample, inputIndices, inputNames, sampleMdsIndex,
+                        startExampleIndex, currExampleInBatch, numExamplesInBatch, true);
+                writeLinesForExample(multiDataSetAtSample, outputIndices, outputNames, sampleMdsIndex,
+                        startExampleIndex, currExampleInBatch, numExamplesInBatch, false);
+                sampleMdsIndex++;
+            }
+        }
+    }
+
+    private int[] getShape(INDArray values) {
+        // Store row and column vectors as 1-dimensional
+        if (values.isRowVector()) {
+            return new int[]{values.columns()};
+        } else if (values.isColumnVector()) {
+            return new int[]{values.rows()};
+        } else {
+            return values.shape();
+        }
+    }
+
+    private void writeLinesForExample(MultiDataSet multiDataSet, int[] indices, String[] names,
+                                      int sampleIndex, long startExampleIndex,
+                                      int currExampleIndexInBatch, int numExamplesInBatch,
+                                      boolean isForFeatures) {
+        for (int index : indices) {
+            INDArray allValuesAtIndex = isForFeatures
+                    ? multiDataSet.getFeatures(index)
+                    : multiDataSet.getLabels(index);
+            if (allValuesAtIndex.rows() != numExamplesInBatch) {
+                throw new RuntimeException("Mismatched mds dimensions for batch size");
+            }
+            INDArray currExampleValuesAtIndex = allValuesAtIndex.getRow(currExampleIndexInBatch);
+            String vectorName = names[index];
+            Integer vectorId = vectorNameToId.get(vectorName);
+            if (vectorId == null) {
+                vectorId = vectorNameToId.size();
+                vectorNameToId.put(vectorName, vectorId);
+                vectorIdToDimension.put(vectorId, getShape(currExampleValuesAtIndex));
+                addVectorInfo(vectorName, "float32", getShape(currExampleValuesAtIndex));
+            } else {
+                int[] vectorCachedDimensions = vectorIdToDimension.get(vectorId);
+                if (!Arrays.equals(getShape(currExampleValuesAtIndex), vectorCachedDimensions)) {
+                    throw new RuntimeException(String.format("Vector dimension mismatch for vector id %d", vectorId));
+                }
+            }
+            writeVectorLine(new VectorLine(sampleIndex, startExampleIndex + currExampleIndexInBatch, vectorId,
+                        getVectorElementsFromArray(currExampleValuesAtIndex)));
+        }
+    }
+
+    private List<Float> getVectorElementsFromArray(INDArray vectorArray) {
+        List<Float> vectorElements = new LinkedList<>();
+        NdIndexIterator ndIndexIterator = new NdIndexIterator('c', vectorArray.shape());
+        while (ndIndexIterator.hasNext()) {
+            vectorElements.add(vectorArray.getFloat(ndIndexIterator.next()));
+        }
+        return vectorElements;
+    }
+
+    public abstract void writeVectorLine(VectorLine vectorLine);
+
+    static class VectorLine {
+        private int sampleId;
+        private long exampleId;
+        private int vectorId;
+        private List<Float> vectorElements;
+
+        public VectorLine(int sampleId, long exampleId, int vectorId, List<Float> vectorElements) {
+            this.sampleId = sampleId;
+            this.exampleId = exampleId;
+            this.vectorId = vectorId;
+            this.vectorElements = vectorElements;
+        }
+
+        public int getSampleId() {
+            return sampleId;
+        }
+
+        public long getExampleId() {
+            return exampleId;
+        }
+
+        public int getVectorId() {
+            return vectorId;
+        }
+
+        public List<Float> getVectorElements() {
+            return vectorElements;
+        }
+    }
+}
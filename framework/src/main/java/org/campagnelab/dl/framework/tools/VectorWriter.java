@@ -2,8 +2,6 @@ package org.campagnelab.dl.framework.tools;
 
 import com.google.gson.Gson;
 import com.google.gson.stream.JsonWriter;
-import org.nd4j.linalg.api.iter.NdIndexIterator;
-import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 
 import java.io.Closeable;
@@ -18,11 +16,6 @@ public abstract class VectorWriter implements Closeable {
     private int numRecords = -1;
     private List<VectorProperties.VectorPropertiesSample> sampleInfos;
     private List<VectorProperties.VectorPropertiesVector> vectorInfos;
-    private Map<String, Integer> vectorNameToId;
-    private Map<Integer, String> vectorIdToName;
-    private Map<Integer, int[]> vectorIdToDimension;
-    private int currVectorIndex = 0;
-    private boolean addVectorInfoCalled = false;
     private String domainDescriptor;
     private String featureMapper;
     private String[] inputFiles;
@@ -33,9 +26,6 @@ public abstract class VectorWriter implements Closeable {
         outputFileVectorProperties.setIndent("    ");
         sampleInfos = new LinkedList<>();
         vectorInfos = new LinkedList<>();
-        vectorNameToId = new HashMap<>();
-        vectorIdToName = new HashMap<>();
-        vectorIdToDimension = new HashMap<>();
     }
 
     @Override
@@ -44,19 +34,9 @@ public abstract class VectorWriter implements Closeable {
         VectorProperties.VectorPropertiesSample[] sampleInfoArray = new VectorProperties.VectorPropertiesSample[
                 sampleInfos.size()];
         sampleInfoArray = sampleInfos.toArray(sampleInfoArray);
-        VectorProperties.VectorPropertiesVector[] vectorInfoArray;
-        if (addVectorInfoCalled) {
-            vectorInfoArray = new VectorProperties.VectorPropertiesVector[
-                    vectorInfos.size()];
-            vectorInfoArray = vectorInfos.toArray(vectorInfoArray);
-        } else {
-            vectorInfoArray = new VectorProperties.VectorPropertiesVector[
-                    currVectorIndex];
-            for (int i = 0; i < currVectorIndex; i++) {
-                vectorInfoArray[i] = new VectorProperties.VectorPropertiesVector(vectorIdToName.get(i),
-                        "float32", vectorIdToDimension.get(i));
-            }
-        }
+        VectorProperties.VectorPropertiesVector[] vectorInfoArray = new VectorProperties.VectorPropertiesVector[
+                vectorInfos.size()];
+        vectorInfoArray = vectorInfos.toArray(vectorInfoArray);
         VectorProperties vectorProperties = new VectorProperties(getFileType(), majorVersion, minorVersion,
                 numRecords, sampleInfoArray, vectorInfoArray, domainDescriptor, featureMapper, inputFiles);
         gson.toJson(vectorProperties, VectorProperties.class, outputFileVectorProperties);
@@ -67,6 +47,10 @@ public abstract class VectorWriter implements Closeable {
         this.numRecords = numRecords;
     }
 
+    int getNumRecords() {
+        return numRecords;
+    }
+
     public void setDomainDescriptor(String domainDescriptor) {
         this.domainDescriptor = domainDescriptor;
     }
@@ -83,120 +67,24 @@ public abstract class VectorWriter implements Closeable {
         this.sampleInfos.add(new VectorProperties.VectorPropertiesSample(sampleType, sampleName));
     }
 
+    /**
+     * Describe the next vector in the .vecp properties. Vector ids are assigned in the order vectors are added.
+     */
     public void addVectorInfo(String vectorName, String vectorType, int[] vectorDimension) {
-        addVectorInfoCalled = true;
-        vectorNameToId.put(vectorName, vectorInfos.size());
         this.vectorInfos.add(new VectorProperties.VectorPropertiesVector(vectorName, vectorType, vectorDimension));
     }
 
-    public void appendMdsList(List<MultiDataSet> multiDataSetList, int[] inputIndices, int[] outputIndices,
-                              String[] inputNames, String[] outputNames, long startExampleIndex) {
-        int numExamplesInBatch = multiDataSetList.get(0).getFeatures(inputIndices[0]).rows();
-        if (startExampleIndex + numExamplesInBatch > numRecords) {
-            throw new IllegalArgumentException("Example ID exceeds number of records");
-        }
-        for (int currExampleInBatch = 0; currExampleInBatch < numExamplesInBatch; currExampleInBatch++) {
-            int sampleMdsIndex = 0;
-            for (MultiDataSet multiDataSetAtSample : multiDataSetList) {
-                writeLinesForExample(multiDataSetAtSample, inputIndices, inputNames, sampleMdsIndex,
-                        startExampleIndex, currExampleInBatch, numExamplesInBatch, true);
-                writeLinesForExample(multiDataSetAtSample, outputIndices, outputNames, sampleMdsIndex,
-                        startExampleIndex, currExampleInBatch, numExamplesInBatch, false);
-                sampleMdsIndex++;
-            }
-        }
-    }
-
-    private int[] getShape(INDArray values) {
-        // Store row and column vectors as 1-dimensional
-        if (values.isRowVector()) {
-            return new int[]{values.columns()};
-        } else if (values.isColumnVector()) {
-            return new int[]{values.rows()};
-        } else {
-            return values.shape();
-        }
-    }
-
-    private void writeLinesForExample(MultiDataSet multiDataSet, int[] indices, String[] names,
-                                      int sampleIndex, long startExampleIndex,
-                                      int currExampleIndexInBatch, int numExamplesInBatch,
-                                      boolean isForFeatures) {
-        for (int index : indices) {
-            INDArray allValuesAtIndex = isForFeatures
-                    ? multiDataSet.getFeatures(index)
-                    : multiDataSet.getLabels(index);
-            if (allValuesAtIndex.rows() != numExamplesInBatch) {
-                throw new RuntimeException("Mismatched mds dimensions for batch size");
-            }
-            INDArray currExampleValuesAtIndex = allValuesAtIndex.getRow(currExampleIndexInBatch);
-            String vectorName = names[index];
-            int vectorId;
-            if (vectorNameToId.get(vectorName) == null) {
-                vectorNameToId.put(vectorName, currVectorIndex);
-                vectorIdToName.put(currVectorIndex, vectorName);
-                vectorIdToDimension.put(currVectorIndex, getShape(currExampleValuesAtIndex));
-
-                vectorId = currVectorIndex++;
-            } else {
-                vectorId = vectorNameToId.get(vectorName);
-                String vectorCachedName = vectorIdToName.get(vectorId);
-                if (!vectorName.equals(vectorCachedName)) {
-                    throw new RuntimeException(String.format("Vector name mismatch for vector id %d", vectorId));
-                }
-                int[] vectorCachedDimensions = vectorIdToDimension.get(vectorId);
-                if (!Arrays.equals(getShape(currExampleValuesAtIndex), vectorCachedDimensions)) {
-                    throw new RuntimeException(String.format("Vector dimension mismatch for vector id %d", vectorId));
-                }
-            }
-            writeVectorLine(new VectorLine(sampleIndex, startExampleIndex + currExampleIndexInBatch, vectorId,
-                        getVectorElementsFromArray(currExampleValuesAtIndex)));
-        }
-    }
-
-    private List<Float> getVectorElementsFromArray(INDArray vectorArray) {
-        List<Float> vectorElements = new LinkedList<>();
-        NdIndexIterator ndIndexIterator = new NdIndexIterator('c', vectorArray.shape());
-        while (ndIndexIterator.hasNext()) {
-            vectorElements.add(vectorArray.getFloat(ndIndexIterator.next()));
-        }
-        return vectorElements;
-    }
+    /**
+     * Write the vectors of a minibatch. Each MultiDataSet of the list holds the features and labels of one sample for
+     * the same examples.
+     *
+     * @param startExampleIndex index of the first example of the minibatch in the file.
+     */
+    public abstract void appendMdsList(List<MultiDataSet> multiDataSetList, int[] inputIndices, int[] outputIndices,
+                                       String[] inputNames, String[] outputNames, long startExampleIndex);
 
     public abstract String getFileType();
 
-    public abstract void writeVectorLine(VectorLine vectorLine);
-
-    static class VectorLine {
-        private int sampleId;
-        private long exampleId;
-        private int vectorId;
-        private List<Float> vectorElements;
-
-        public VectorLine(int sampleId, long exampleId, int vectorId, List<Float> vectorElements) {
-            this.sampleId = sampleId;
-            this.exampleId = exampleId;
-            this.vectorId = vectorId;
-            this.vectorElements = vectorElements;
-        }
-
-        public int getSampleId() {
-            return sampleId;
-        }
-
-        public long getExampleId() {
-            return exampleId;
-        }
-
-        public int getVectorId() {
-            return vectorId;
-        }
-
-        public List<Float> getVectorElements() {
-            return vectorElements;
-        }
-    }
-
     static class VectorProperties {
         private int majorVersion;
         private int minorVersion;
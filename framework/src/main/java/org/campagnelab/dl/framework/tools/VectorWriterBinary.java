@@ -8,7 +8,7 @@ import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
-public class VectorWriterBinary extends VectorWriter {
+public class VectorWriterBinary extends VectorLineWriter {
     // Size in bytes of different fields needed for binary format
     private static final int EXAMPLE_ID_SIZE = 8;
     private static final int VECTOR_ID_SIZE = 4;
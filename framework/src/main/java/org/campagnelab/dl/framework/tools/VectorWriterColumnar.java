@@ -0,0 +1,269 @@
+package org.campagnelab.dl.framework.tools;
+
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import org.campagnelab.dl.framework.utils.DaemonThreadFactory;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.Deflater;
+
+/**
+ * Writes tensors in a chunked columnar format that can be memory-mapped and read without parsing. Each minibatch
+ * becomes a chunk. A chunk stores one block per column, where a column is a vector (input or output) of a sample.
+ * A block holds the little-endian float32 values of all the examples of the chunk for this vector, in C order
+ * (examples first, then the dimensions of the vector). Chunks start on 64-byte boundaries of the .vecc file.
+ * <p>
+ * The .veci index (little-endian) lists the columns, then the offset, stored length, raw length, example count
+ * and codec of each chunk:
+ * <pre>
+ * int magic, int version, int numColumns,
+ * numColumns x (int sampleIndex, int vectorId, int elementsPerExample),
+ * int numChunks,
+ * numChunks x (long offset, int storedLength, int rawLength, int numExamples, int codec)
+ * </pre>
+ * With compression, a chunk is deflated as a whole and stored compressed only when this makes it smaller, so that
+ * chunks that do not compress stay mappable. Chunks are encoded on several threads and written in order.
+ */
+public class VectorWriterColumnar extends VectorWriter {
+    static final int MAGIC = 0x7EC1D001;
+    static final int VERSION = 1;
+    static final int CHUNK_ALIGNMENT = 64;
+    static final int CODEC_NONE = 0;
+    static final int CODEC_DEFLATE = 1;
+
+    private final String basename;
+    private final FastBufferedOutputStream outputStream;
+    private final boolean compress;
+    private final ExecutorService encoders;
+    private final int maxPending;
+    private final ObjectArrayFIFOQueue<Future<EncodedChunk>> pending = new ObjectArrayFIFOQueue<>();
+    private final List<EncodedChunk> chunks = new ArrayList<>();
+    private long position;
+
+    /**
+     * Sample index, vector id and number of elements per example of each column, set from the first minibatch.
+     */
+    private IntArrayList columnSamples;
+    private IntArrayList columnVectorIds;
+    private IntArrayList columnElements;
+
+    /**
+     * @param compression none or deflate.
+     * @param numThreads  number of threads that encode chunks.
+     */
+    public VectorWriterColumnar(String basename, String compression, int numThreads) throws IOException {
+        super(basename);
+        switch (compression) {
+            case "none":
+                compress = false;
+                break;
+            case "deflate":
+                compress = true;
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        String.format("Unknown compression %s; choices are none and deflate.", compression));
+        }
+        this.basename = basename;
+        outputStream = new FastBufferedOutputStream(new FileOutputStream(dataFilename(basename)));
+        numThreads = Math.max(1, numThreads);
+        maxPending = 2 * numThreads;
+        encoders = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory("export-tensors-encode"));
+    }
+
+    public static String dataFilename(String basename) {
+        return basename + ".vecc";
+    }
+
+    public static String indexFilename(String basename) {
+        return basename + ".veci";
+    }
+
+    @Override
+    public String getFileType() {
+        return "columnar";
+    }
+
+    @Override
+    public void appendMdsList(List<MultiDataSet> multiDataSetList, int[] inputIndices, int[] outputIndices,
+                              String[] inputNames, String[] outputNames, long startExampleIndex) {
+        List<INDArray> columns = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (MultiDataSet multiDataSetAtSample : multiDataSetList) {
+            for (int index : inputIndices) {
+                columns.add(multiDataSetAtSample.getFeatures(index));
+                names.add(inputNames[index]);
+            }
+            for (int index : outputIndices) {
+                columns.add(multiDataSetAtSample.getLabels(index));
+                names.add(outputNames[index]);
+            }
+        }
+        final int numExamples = columns.get(0).size(0);
+        if (startExampleIndex + numExamples > getNumRecords()) {
+            throw new IllegalArgumentException("Example ID exceeds number of records");
+        }
+        if (columnSamples == null) {
+            defineColumns(columns, names, multiDataSetList.size());
+        }
+        for (int column = 0; column < columns.size(); column++) {
+            INDArray values = columns.get(column);
+            if (values.size(0) != numExamples) {
+                throw new RuntimeException("Mismatched mds dimensions for batch size");
+            }
+            if (values.length() != (long) numExamples * columnElements.getInt(column)) {
+                throw new RuntimeException(String.format("Vector dimension mismatch for vector %s", names.get(column)));
+            }
+        }
+        try {
+            while (pending.size() >= maxPending) {
+                write(pending.dequeue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for encoded chunks.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to encode chunk.", e.getCause());
+        }
+        pending.enqueue(encoders.submit(() -> encode(columns, numExamples)));
+    }
+
+    /**
+     * Register one column per sample and vector, in the order of the minibatch, and the vectors with their
+     * per-example dimensions in the .vecp properties.
+     */
+    private void defineColumns(List<INDArray> columns, List<String> names, int numSamples) {
+        columnSamples = new IntArrayList();
+        columnVectorIds = new IntArrayList();
+        columnElements = new IntArrayList();
+        Map<String, Integer> vectorIds = new HashMap<>();
+        final int columnsPerSample = columns.size() / numSamples;
+        for (int column = 0; column < columns.size(); column++) {
+            INDArray values = columns.get(column);
+            String name = names.get(column);
+            Integer vectorId = vectorIds.get(name);
+            if (vectorId == null) {
+                vectorId = vectorIds.size();
+                vectorIds.put(name, vectorId);
+                addVectorInfo(name, "float32", Arrays.copyOfRange(values.shape(), 1, values.rank()));
+            }
+            columnSamples.add(column / columnsPerSample);
+            columnVectorIds.add(vectorId);
+            columnElements.add(values.length() / values.size(0));
+        }
+    }
+
+    private EncodedChunk encode(List<INDArray> columns, int numExamples) {
+        int rawLength = 0;
+        for (int column = 0; column < columns.size(); column++) {
+            rawLength += numExamples * columnElements.getInt(column) * Float.BYTES;
+        }
+        ByteBuffer raw = ByteBuffer.allocate(rawLength).order(ByteOrder.LITTLE_ENDIAN);
+        for (INDArray values : columns) {
+            raw.asFloatBuffer().put(values.dup('c').data().asFloat());
+            raw.position(raw.position() + values.length() * Float.BYTES);
+        }
+        if (compress) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(raw.array());
+            deflater.finish();
+            byte[] compressed = new byte[rawLength];
+            int compressedLength = 0;
+            while (!deflater.finished() && compressedLength < rawLength) {
+                compressedLength += deflater.deflate(compressed, compressedLength, rawLength - compressedLength);
+            }
+            final boolean smaller = deflater.finished() && compressedLength < rawLength;
+            deflater.end();
+            if (smaller) {
+                return new EncodedChunk(compressed, compressedLength, rawLength, numExamples, CODEC_DEFLATE);
+            }
+        }
+        return new EncodedChunk(raw.array(), rawLength, rawLength, numExamples, CODEC_NONE);
+    }
+
+    private void write(EncodedChunk chunk) {
+        try {
+            final int padding = (int) ((CHUNK_ALIGNMENT - position % CHUNK_ALIGNMENT) % CHUNK_ALIGNMENT);
+            for (int i = 0; i < padding; i++) {
+                outputStream.write(0);
+            }
+            position += padding;
+            chunk.offset = position;
+            outputStream.write(chunk.bytes, 0, chunk.storedLength);
+            position += chunk.storedLength;
+            // the bytes are not needed after this point:
+            chunk.bytes = null;
+            chunks.add(chunk);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write chunk to file", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                write(pending.dequeue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for encoded chunks.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to encode chunk.", e.getCause());
+        } finally {
+            encoders.shutdownNow();
+            outputStream.close();
+        }
+        writeIndex();
+        super.close();
+    }
+
+    private void writeIndex() throws IOException {
+        final int numColumns = columnSamples == null ? 0 : columnSamples.size();
+        ByteBuffer index = ByteBuffer.allocate(4 * Integer.BYTES + numColumns * 3 * Integer.BYTES
+                + chunks.size() * (Long.BYTES + 4 * Integer.BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        index.putInt(MAGIC);
+        index.putInt(VERSION);
+        index.putInt(numColumns);
+        for (int column = 0; column < numColumns; column++) {
+            index.putInt(columnSamples.getInt(column));
+            index.putInt(columnVectorIds.getInt(column));
+            index.putInt(columnElements.getInt(column));
+        }
+        index.putInt(chunks.size());
+        for (EncodedChunk chunk : chunks) {
+            index.putLong(chunk.offset);
+            index.putInt(chunk.storedLength);
+            index.putInt(chunk.rawLength);
+            index.putInt(chunk.numExamples);
+            index.putInt(chunk.codec);
+        }
+        try (FileOutputStream output = new FileOutputStream(indexFilename(basename))) {
+            output.write(index.array());
+        }
+    }
+
+    private static class EncodedChunk {
+        private byte[] bytes;
+        private final int storedLength;
+        private final int rawLength;
+        private final int numExamples;
+        private final int codec;
+        private long offset;
+
+        EncodedChunk(byte[] bytes, int storedLength, int rawLength, int numExamples, int codec) {
+            this.bytes = bytes;
+            this.storedLength = storedLength;
+            this.rawLength = rawLength;
+            this.numExamples = numExamples;
+            this.codec = codec;
+        }
+    }
+}
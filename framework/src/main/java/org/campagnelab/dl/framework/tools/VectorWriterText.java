@@ -6,7 +6,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 
-public class VectorWriterText extends VectorWriter {
+public class VectorWriterText extends VectorLineWriter {
     private PrintWriter outputFileVector;
 
     public VectorWriterText(String basename) throws IOException {
@@ -0,0 +1,281 @@
+package org.campagnelab.dl.framework.training;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.logging.ProgressLogger;
+import org.campagnelab.dl.framework.iterators.MDSHelper;
+import org.campagnelab.dl.framework.utils.DaemonThreadFactory;
+import org.deeplearning4j.nn.conf.WorkspaceMode;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.indexing.BooleanIndexing;
+import org.nd4j.linalg.indexing.conditions.Conditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Data-parallel trainer for hosts without GPUs. Each worker thread trains its own replica of the graph. Minibatches
+ * are read in rounds of numWorkers x averagingFrequency minibatches and dealt round-robin to the workers, so each
+ * worker sees its own shard of the iterator. At the end of a round, parameters and updater state are averaged across
+ * the replicas and copied back to the graph and to every replica.
+ * <p>
+ * Worker threads live as long as the trainer and each one always trains the same replica, so the ND4J workspaces
+ * of a replica, which belong to the thread that uses them, are allocated once and reused for every minibatch. The
+ * next round is read and detached from workspaces while the workers train on the current one.
+ */
+public class ParallelTrainerOnCPU implements Trainer {
+    static private Logger LOG = LoggerFactory.getLogger(ParallelTrainerOnCPU.class);
+    private static final int MAX_CONSECUTIVE_NANS = 100;
+
+    private final int averagingFrequency;
+    private final Worker[] workers;
+    private boolean logSpeed;
+    private volatile boolean stop;
+
+    /**
+     * @param numWorkers         number of worker threads, each training a replica of the graph.
+     * @param averagingFrequency number of minibatches that each worker fits between two parameter averaging steps.
+     */
+    public ParallelTrainerOnCPU(int numWorkers, int averagingFrequency) {
+        this.averagingFrequency = Math.max(1, averagingFrequency);
+        workers = new Worker[Math.max(1, numWorkers)];
+        DaemonThreadFactory threads = new DaemonThreadFactory("cpu-trainer");
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+            threads.newThread(workers[i]).start();
+        }
+    }
+
+    @Override
+    public int train(ComputationGraph graph, MultiDataSetIterator iterator, ProgressLogger pg) {
+        stop = false;
+        // replicas set up their workspaces from the configuration they are cloned with:
+        graph.getConfiguration().setTrainingWorkspaceMode(WorkspaceMode.SEPARATE);
+        for (Worker worker : workers) {
+            // clone at each epoch to pick up changes made to the graph, such as learning rate decreases:
+            worker.startEpoch(graph.clone());
+        }
+        int numExamplesUsed = 0;
+        ObjectArrayList<MultiDataSet> round = readRound(iterator);
+        while (!round.isEmpty() && !stop) {
+            Round current = dispatch(round);
+            // read the next round while the workers train:
+            round = readRound(iterator);
+            current.await();
+            average(graph, Math.min(workers.length, current.numMinibatches));
+            numExamplesUsed += current.numExamples;
+            if (logSpeed) {
+                pg.update(current.numMinibatches);
+            }
+        }
+        if (stop) {
+            LOG.error("Nan score encountered too many consecutive times");
+        }
+        for (int i = 0; i < workers.length; i++) {
+            LOG.info(String.format("Worker %d trained on %d examples, %.1f examples/s", i, workers[i].numExamples,
+                    workers[i].examplesPerSecond()));
+        }
+        return numExamplesUsed;
+    }
+
+    private ObjectArrayList<MultiDataSet> readRound(MultiDataSetIterator iterator) {
+        final int size = workers.length * averagingFrequency;
+        ObjectArrayList<MultiDataSet> round = new ObjectArrayList<>(size);
+        while (round.size() < size && iterator.hasNext()) {
+            MultiDataSet ds = iterator.next();
+            // workers run on other threads and must not see arrays that live in a workspace of this thread:
+            MDSHelper.attach(ds);
+            round.add(ds);
+        }
+        return round;
+    }
+
+    private Round dispatch(ObjectArrayList<MultiDataSet> minibatches) {
+        final int numActive = Math.min(workers.length, minibatches.size());
+        Round round = new Round(numActive, minibatches.size());
+        for (int i = 0; i < numActive; i++) {
+            ObjectArrayList<MultiDataSet> shard = new ObjectArrayList<>(averagingFrequency);
+            for (int j = i; j < minibatches.size(); j += workers.length) {
+                MultiDataSet ds = minibatches.get(j);
+                shard.add(ds);
+                round.numExamples += ds.getFeatures(0).size(0);
+            }
+            workers[i].shards.add(new Shard(shard, round));
+        }
+        return round;
+    }
+
+    /**
+     * Average the parameters and updater state of the first numActive replicas, and copy the result to the graph and
+     * to all the replicas. Replicas whose parameters or updater state are no longer finite are left out of the
+     * average. When no replica is left, the graph keeps the parameters of the previous round and the replicas start
+     * over from them.
+     */
+    private void average(ComputationGraph graph, int numActive) {
+        final boolean hasUpdaterState = graph.getUpdater() != null && graph.getUpdater().getStateViewArray() != null;
+        IntArrayList finite = new IntArrayList(numActive);
+        for (int i = 0; i < numActive; i++) {
+            final ComputationGraph replica = workers[i].replica;
+            if (isFinite(replica.params()) && (!hasUpdaterState || isFinite(replica.getUpdater().getStateViewArray()))) {
+                finite.add(i);
+            }
+        }
+        if (finite.size() < numActive) {
+            LOG.warn(String.format("Left %d of %d replicas with NaN or infinite parameters out of the average",
+                    numActive - finite.size(), numActive));
+        }
+        if (!finite.isEmpty()) {
+            INDArray params = workers[finite.getInt(0)].replica.params().dup();
+            for (int i = 1; i < finite.size(); i++) {
+                params.addi(workers[finite.getInt(i)].replica.params());
+            }
+            params.divi(finite.size());
+            graph.setParams(params);
+            if (hasUpdaterState) {
+                INDArray state = workers[finite.getInt(0)].replica.getUpdater().getStateViewArray().dup();
+                for (int i = 1; i < finite.size(); i++) {
+                    state.addi(workers[finite.getInt(i)].replica.getUpdater().getStateViewArray());
+                }
+                state.divi(finite.size());
+                graph.getUpdater().getStateViewArray().assign(state);
+            }
+        }
+        for (Worker worker : workers) {
+            worker.replica.setParams(graph.params());
+            if (hasUpdaterState) {
+                worker.replica.getUpdater().getStateViewArray().assign(graph.getUpdater().getStateViewArray());
+            }
+        }
+    }
+
+    private static boolean isFinite(INDArray array) {
+        return !BooleanIndexing.or(array, Conditions.isNan()) && !BooleanIndexing.or(array, Conditions.isInfinite());
+    }
+
+    @Override
+    public void setLogSpeed(boolean logSpeed) {
+        this.logSpeed = logSpeed;
+    }
+
+    @Override
+    public double getScore() {
+        double score = 0;
+        int n = 0;
+        for (Worker worker : workers) {
+            score += worker.score;
+            n += worker.n;
+        }
+        return score / (double) n;
+    }
+
+    /**
+     * Examples fitted per second by each worker over the last call to train.
+     */
+    public double[] getExamplesPerSecond() {
+        double[] speeds = new double[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            speeds[i] = workers[i].examplesPerSecond();
+        }
+        return speeds;
+    }
+
+    private static class Round {
+        final CountDownLatch done;
+        final int numMinibatches;
+        int numExamples;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Round(int numShards, int numMinibatches) {
+            this.done = new CountDownLatch(numShards);
+            this.numMinibatches = numMinibatches;
+        }
+
+        void await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for training workers.", e);
+            }
+            if (error.get() != null) {
+                throw new RuntimeException("Unable to train on minibatch.", error.get());
+            }
+        }
+    }
+
+    private static class Shard {
+        final ObjectArrayList<MultiDataSet> minibatches;
+        final Round round;
+
+        Shard(ObjectArrayList<MultiDataSet> minibatches, Round round) {
+            this.minibatches = minibatches;
+            this.round = round;
+        }
+    }
+
+    private class Worker implements Runnable {
+        final BlockingQueue<Shard> shards = new LinkedBlockingQueue<>();
+        volatile ComputationGraph replica;
+        volatile long numExamples;
+        volatile long nanos;
+        volatile double score;
+        volatile int n;
+        private int numNanFoundConsecutively;
+
+        void startEpoch(ComputationGraph replica) {
+            this.replica = replica;
+            numExamples = 0;
+            nanos = 0;
+            score = 0;
+            n = 0;
+            numNanFoundConsecutively = 0;
+        }
+
+        double examplesPerSecond() {
+            return nanos == 0 ? 0 : numExamples / (nanos / 1e9);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Shard shard;
+                try {
+                    shard = shards.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    final long start = System.nanoTime();
+                    for (MultiDataSet ds : shard.minibatches) {
+                        replica.fit(ds);
+                        double score = replica.score();
+                        if (score != score) {
+                            // NaN
+                            numNanFoundConsecutively++;
+                        } else {
+                            numNanFoundConsecutively = 0;
+                            this.score += score;
+                            this.n++;
+                        }
+                        numExamples += ds.getFeatures(0).size(0);
+                        if (numNanFoundConsecutively > MAX_CONSECUTIVE_NANS) {
+                            stop = true;
+                        }
+                    }
+                    nanos += System.nanoTime() - start;
+                } catch (Throwable t) {
+                    shard.round.error.compareAndSet(null, t);
+                } finally {
+                    shard.round.done.countDown();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.campagnelab.dl.framework.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named name-0, name-1, and so on. Worker threads of tools are daemons so that a tool that
+ * fails on its main thread still exits.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger numThreads = new AtomicInteger();
+
+    public DaemonThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + numThreads.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
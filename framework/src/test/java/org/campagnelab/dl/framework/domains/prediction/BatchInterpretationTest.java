@@ -0,0 +1,51 @@
+package org.campagnelab.dl.framework.domains.prediction;
+
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the buffers filled by batch interpreters.
+ */
+public class BatchInterpretationTest {
+    @Test
+    public void argMax() {
+        float[] output = {
+                0.1f, 0.7f, 0.2f, 9f,
+                0.5f, 0.5f, 0.0f, 9f,
+                0.0f, 0.1f, 0.9f, 9f};
+        BatchInterpretation results = new BatchInterpretation();
+        results.reset(3);
+        // the last column is not a class:
+        results.argMax(output, 4, 3);
+        assertArrayEquals(new int[]{1, 0, 2}, Arrays.copyOf(results.predictedIndex, 3));
+        assertEquals(0.7f, results.probability[0], 0);
+        assertEquals(0.5f, results.probability[1], 0);
+        assertEquals(0.9f, results.probability[2], 0);
+    }
+
+    @Test
+    public void buffersAreReused() {
+        BatchInterpretation results = new BatchInterpretation();
+        results.reset(10);
+        int[] predictedIndex = results.predictedIndex;
+        results.reset(4);
+        assertSame(predictedIndex, results.predictedIndex);
+        assertEquals(4, results.numExamples());
+    }
+
+    @Test
+    public void toFloatsIsRowMajor() {
+        INDArray columnMajor = Nd4j.create(new float[]{1, 2, 3, 4, 5, 6}, new int[]{2, 3}, 'f');
+        // column-major data 1..6 is the matrix [[1, 3, 5], [2, 4, 6]]:
+        assertArrayEquals(new float[]{1, 3, 5, 2, 4, 6}, BatchInterpretation.toFloats(columnMajor), 0);
+        INDArray rows = Nd4j.create(new float[]{1, 2, 3, 4, 5, 6}, new int[]{3, 2}, 'c');
+        assertArrayEquals(new float[]{3, 4, 5, 6}, BatchInterpretation.toFloats(rows.get(NDArrayIndex.interval(1, 3),
+                NDArrayIndex.all())), 0);
+    }
+}
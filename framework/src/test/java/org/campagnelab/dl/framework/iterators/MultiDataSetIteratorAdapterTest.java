@@ -0,0 +1,280 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.architecture.graphs.ComputationGraphAssembler;
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.mappers.BulkFeatureMapper;
+import org.campagnelab.dl.framework.mappers.BulkLabelMapper;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.LabelMapper;
+import org.campagnelab.dl.framework.mappers.MappedDimensions;
+import org.campagnelab.dl.framework.models.ModelPropertiesHelper;
+import org.campagnelab.dl.framework.tools.TrainingArguments;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.lossfunctions.ILossFunction;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check that minibatches assembled from bulk mappers, row by row into a primitive array, hold the same features and
+ * labels as those assembled with putScalar.
+ */
+public class MultiDataSetIteratorAdapterTest {
+    private static final int NUM_RECORDS = 103;
+    private static final int MINIBATCH_SIZE = 10;
+
+    @Test
+    public void bulkMappersMatchPutScalar() throws IOException {
+        List<Integer> records = IntStream.range(0, NUM_RECORDS).boxed().collect(Collectors.toList());
+        List<MultiDataSet> expected = minibatches(records, new IntegerDomain(false));
+        List<MultiDataSet> bulk = minibatches(records, new IntegerDomain(true));
+        assertEquals((NUM_RECORDS + MINIBATCH_SIZE - 1) / MINIBATCH_SIZE, expected.size());
+        assertEquals(expected.size(), bulk.size());
+        for (int index = 0; index < expected.size(); index++) {
+            assertArrayEquals(expected.get(index).getFeatures(0).shape(), bulk.get(index).getFeatures(0).shape());
+            assertEquals("features of minibatch " + index, expected.get(index).getFeatures(0),
+                    bulk.get(index).getFeatures(0));
+            assertArrayEquals(expected.get(index).getLabels(0).shape(), bulk.get(index).getLabels(0).shape());
+            assertEquals("labels of minibatch " + index, expected.get(index).getLabels(0),
+                    bulk.get(index).getLabels(0));
+        }
+    }
+
+    private List<MultiDataSet> minibatches(List<Integer> records, IntegerDomain domain) throws IOException {
+        MultiDataSetIteratorAdapter<Integer> adapter = new MultiDataSetIteratorAdapter<Integer>(records,
+                MINIBATCH_SIZE, domain) {
+            @Override
+            public String getBasename() {
+                return "adapter";
+            }
+        };
+        List<MultiDataSet> minibatches = new ObjectArrayList<>();
+        while (adapter.hasNext()) {
+            minibatches.add(adapter.next());
+        }
+        return minibatches;
+    }
+
+    /**
+     * Writes distinct values for each record and feature or label with putScalar.
+     */
+    private static class ScalarMapper implements FeatureMapper<Integer>, LabelMapper<Integer> {
+        private final int width;
+        private int record;
+
+        ScalarMapper(int width) {
+            this.width = width;
+        }
+
+        @Override
+        public void prepareToNormalize(Integer record, int indexOfRecord) {
+            this.record = record;
+        }
+
+        private void map(INDArray array, int indexOfRecord) {
+            for (int i = 0; i < width; i++) {
+                array.putScalar(indexOfRecord, i, value(i));
+            }
+        }
+
+        private float value(int index) {
+            return record * width + index + 0.5f;
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return width;
+        }
+
+        @Override
+        public int numberOfLabels() {
+            return width;
+        }
+
+        @Override
+        public MappedDimensions dimensions() {
+            return new MappedDimensions(width);
+        }
+
+        @Override
+        public void mapFeatures(Integer record, INDArray inputs, int indexOfRecord) {
+            map(inputs, indexOfRecord);
+        }
+
+        @Override
+        public void mapLabels(Integer record, INDArray labels, int indexOfRecord) {
+            map(labels, indexOfRecord);
+        }
+
+        @Override
+        public float produceFeature(Integer record, int featureIndex) {
+            return value(featureIndex);
+        }
+
+        @Override
+        public float produceLabel(Integer record, int labelIndex) {
+            return value(labelIndex);
+        }
+
+        @Override
+        public boolean hasMask() {
+            return false;
+        }
+
+        @Override
+        public void maskFeatures(Integer record, INDArray mask, int indexOfRecord) {
+        }
+
+        @Override
+        public void maskLabels(Integer record, INDArray mask, int indexOfRecord) {
+        }
+
+        @Override
+        public boolean isMasked(Integer record, int featureIndex) {
+            return false;
+        }
+    }
+
+    /**
+     * The same mapper, mapped in bulk with the default methods of the bulk interfaces.
+     */
+    private static class BulkMapper extends ScalarMapper implements BulkFeatureMapper<Integer>, BulkLabelMapper<Integer> {
+        BulkMapper(int width) {
+            super(width);
+        }
+    }
+
+    private static class IntegerDomain extends DomainDescriptor<Integer> {
+        private final ScalarMapper featureMapper;
+        private final ScalarMapper labelMapper;
+
+        IntegerDomain(boolean bulk) {
+            featureMapper = bulk ? new BulkMapper(3) : new ScalarMapper(3);
+            labelMapper = bulk ? new BulkMapper(2) : new ScalarMapper(2);
+        }
+
+        @Override
+        public FeatureMapper getFeatureMapper(String inputName) {
+            return featureMapper;
+        }
+
+        @Override
+        public FeatureMapper getFeatureMapper(String inputName, int sampleIndex) {
+            return featureMapper;
+        }
+
+        @Override
+        public LabelMapper getLabelMapper(String outputName) {
+            return labelMapper;
+        }
+
+        @Override
+        public LabelMapper getLabelMapper(String outputName, int sampleIndex) {
+            return labelMapper;
+        }
+
+        @Override
+        public PredictionInterpreter getPredictionInterpreter(String outputName) {
+            return null;
+        }
+
+        @Override
+        public Function<String, ? extends Iterable<Integer>> getRecordIterable() {
+            return null;
+        }
+
+        @Override
+        public ComputationGraphAssembler getComputationalGraph() {
+            return new ComputationGraphAssembler() {
+                @Override
+                public void setArguments(TrainingArguments arguments) {
+                }
+
+                @Override
+                public ComputationGraph createComputationalGraph(DomainDescriptor domainDescriptor) {
+                    return null;
+                }
+
+                @Override
+                public void setNumInputs(String inputName, int... dimension) {
+                }
+
+                @Override
+                public void setNumOutputs(String outputName, int... dimension) {
+                }
+
+                @Override
+                public void setNumHiddenNodes(String componentName, int numHiddenNodes) {
+                }
+
+                @Override
+                public String[] getInputNames() {
+                    return new String[]{"input"};
+                }
+
+                @Override
+                public String[] getOutputNames() {
+                    return new String[]{"label"};
+                }
+
+                @Override
+                public String[] getComponentNames() {
+                    return new String[0];
+                }
+
+                @Override
+                public void setLossFunction(String outputName, ILossFunction lossFunction) {
+                }
+
+                @Override
+                public void saveProperties(ModelPropertiesHelper helper) {
+                }
+            };
+        }
+
+        @Override
+        public int[] getNumInputs(String inputName) {
+            return new int[]{3};
+        }
+
+        @Override
+        public int[] getNumOutputs(String outputName) {
+            return new int[]{2};
+        }
+
+        @Override
+        public int[] getNumMaskInputs(String inputName) {
+            return new int[]{1};
+        }
+
+        @Override
+        public int[] getNumMaskOutputs(String outputName) {
+            return new int[]{1};
+        }
+
+        @Override
+        public int getNumHiddenNodes(String componentName) {
+            return 0;
+        }
+
+        @Override
+        public ILossFunction getOutputLoss(String outputName) {
+            return null;
+        }
+
+        @Override
+        public long getNumRecords(String[] recordFiles) {
+            return NUM_RECORDS;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.architecture.graphs.ComputationGraphAssembler;
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.LabelMapper;
+import org.campagnelab.dl.framework.mappers.MappedDimensions;
+import org.campagnelab.dl.framework.models.ModelPropertiesHelper;
+import org.campagnelab.dl.framework.tools.TrainingArguments;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.lossfunctions.ILossFunction;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compare minibatches mapped on several threads with those of MultiDataSetIteratorAdapter.
+ */
+public class ParallelMultiDataSetIteratorAdapterTest {
+    private static final int NUM_RECORDS = 1003;
+    private static final int MINIBATCH_SIZE = 10;
+
+    @Test
+    public void sameMinibatchesInSameOrder() throws IOException {
+        List<Integer> records = IntStream.range(0, NUM_RECORDS).boxed().collect(Collectors.toList());
+        List<MultiDataSet> expected = new ObjectArrayList<>();
+        IntegerDomain sequentialDomain = new IntegerDomain();
+        MultiDataSetIteratorAdapter<Integer> sequential = new MultiDataSetIteratorAdapter<Integer>(records,
+                MINIBATCH_SIZE, sequentialDomain) {
+            @Override
+            public String getBasename() {
+                return "sequential";
+            }
+        };
+        while (sequential.hasNext()) {
+            expected.add(sequential.next());
+        }
+        assertEquals((NUM_RECORDS + MINIBATCH_SIZE - 1) / MINIBATCH_SIZE, expected.size());
+
+        for (int numThreads : new int[]{1, 4}) {
+            IntegerDomain domain = new IntegerDomain();
+            try (ParallelMultiDataSetIteratorAdapter<Integer> parallel = new ParallelMultiDataSetIteratorAdapter<Integer>(
+                    records, MINIBATCH_SIZE, domain, numThreads) {
+                @Override
+                public String getBasename() {
+                    return "parallel";
+                }
+            }) {
+                // two passes, to check that reset restarts from the first record:
+                for (int pass = 0; pass < 2; pass++) {
+                    int index = 0;
+                    while (parallel.hasNext()) {
+                        MultiDataSet minibatch = parallel.next();
+                        assertEquals("features of minibatch " + index + " with " + numThreads + " threads",
+                                expected.get(index).getFeatures(0), minibatch.getFeatures(0));
+                        assertEquals("labels of minibatch " + index + " with " + numThreads + " threads",
+                                expected.get(index).getLabels(0), minibatch.getLabels(0));
+                        index++;
+                    }
+                    assertEquals(expected.size(), index);
+                    parallel.reset();
+                }
+            }
+            assertEquals("a mapper was used by more than one thread", 0, domain.sharedMapperUses.get());
+            if (numThreads > 1) {
+                assertTrue("each worker needs its own mappers", domain.newMappers.get() > 0);
+                assertTrue("workers must not create more mappers than threads",
+                        domain.newMappers.get() <= 2 * numThreads);
+            }
+        }
+    }
+
+    /**
+     * A mapper that keeps per-record state between prepareToNormalize and the mapping methods, as most mappers do,
+     * and checks that it is only called from one thread.
+     */
+    private static class StatefulMapper implements FeatureMapper<Integer>, LabelMapper<Integer> {
+        private final int width;
+        private final AtomicInteger sharedUses;
+        private Thread owner;
+        private int record;
+
+        StatefulMapper(int width, AtomicInteger sharedUses) {
+            this.width = width;
+            this.sharedUses = sharedUses;
+        }
+
+        @Override
+        public void prepareToNormalize(Integer record, int indexOfRecord) {
+            if (owner == null) {
+                owner = Thread.currentThread();
+            } else if (owner != Thread.currentThread()) {
+                sharedUses.incrementAndGet();
+            }
+            this.record = record;
+        }
+
+        private void map(INDArray array, int indexOfRecord) {
+            for (int i = 0; i < width; i++) {
+                array.putScalar(indexOfRecord, i, value(i));
+            }
+        }
+
+        private float value(int index) {
+            return record * width + index;
+        }
+
+        @Override
+        public int numberOfFeatures() {
+            return width;
+        }
+
+        @Override
+        public int numberOfLabels() {
+            return width;
+        }
+
+        @Override
+        public MappedDimensions dimensions() {
+            return new MappedDimensions(width);
+        }
+
+        @Override
+        public void mapFeatures(Integer record, INDArray inputs, int indexOfRecord) {
+            map(inputs, indexOfRecord);
+        }
+
+        @Override
+        public void mapLabels(Integer record, INDArray labels, int indexOfRecord) {
+            map(labels, indexOfRecord);
+        }
+
+        @Override
+        public float produceFeature(Integer record, int featureIndex) {
+            return value(featureIndex);
+        }
+
+        @Override
+        public float produceLabel(Integer record, int labelIndex) {
+            return value(labelIndex);
+        }
+
+        @Override
+        public boolean hasMask() {
+            return false;
+        }
+
+        @Override
+        public void maskFeatures(Integer record, INDArray mask, int indexOfRecord) {
+        }
+
+        @Override
+        public void maskLabels(Integer record, INDArray mask, int indexOfRecord) {
+        }
+
+        @Override
+        public boolean isMasked(Integer record, int featureIndex) {
+            return false;
+        }
+    }
+
+    private static class IntegerDomain extends DomainDescriptor<Integer> {
+        final AtomicInteger sharedMapperUses = new AtomicInteger();
+        final AtomicInteger newMappers = new AtomicInteger();
+        private final StatefulMapper featureMapper = new StatefulMapper(3, sharedMapperUses);
+        private final StatefulMapper labelMapper = new StatefulMapper(2, sharedMapperUses);
+
+        @Override
+        public FeatureMapper getFeatureMapper(String inputName) {
+            return featureMapper;
+        }
+
+        @Override
+        public FeatureMapper getFeatureMapper(String inputName, int sampleIndex) {
+            return featureMapper;
+        }
+
+        @Override
+        public FeatureMapper newFeatureMapper(String inputName) {
+            newMappers.incrementAndGet();
+            return new StatefulMapper(3, sharedMapperUses);
+        }
+
+        @Override
+        public LabelMapper getLabelMapper(String outputName) {
+            return labelMapper;
+        }
+
+        @Override
+        public LabelMapper getLabelMapper(String outputName, int sampleIndex) {
+            return labelMapper;
+        }
+
+        @Override
+        public LabelMapper newLabelMapper(String outputName) {
+            newMappers.incrementAndGet();
+            return new StatefulMapper(2, sharedMapperUses);
+        }
+
+        @Override
+        public PredictionInterpreter getPredictionInterpreter(String outputName) {
+            return null;
+        }
+
+        @Override
+        public Function<String, ? extends Iterable<Integer>> getRecordIterable() {
+            return null;
+        }
+
+        @Override
+        public ComputationGraphAssembler getComputationalGraph() {
+            return new ComputationGraphAssembler() {
+                @Override
+                public void setArguments(TrainingArguments arguments) {
+                }
+
+                @Override
+                public ComputationGraph createComputationalGraph(DomainDescriptor domainDescriptor) {
+                    return null;
+                }
+
+                @Override
+                public void setNumInputs(String inputName, int... dimension) {
+                }
+
+                @Override
+                public void setNumOutputs(String outputName, int... dimension) {
+                }
+
+                @Override
+                public void setNumHiddenNodes(String componentName, int numHiddenNodes) {
+                }
+
+                @Override
+                public String[] getInputNames() {
+                    return new String[]{"input"};
+                }
+
+                @Override
+                public String[] getOutputNames() {
+                    return new String[]{"label"};
+                }
+
+                @Override
+                public String[] getComponentNames() {
+                    return new String[0];
+                }
+
+                @Override
+                public void setLossFunction(String outputName, ILossFunction lossFunction) {
+                }
+
+                @Override
+                public void saveProperties(ModelPropertiesHelper helper) {
+                }
+            };
+        }
+
+        @Override
+        public int[] getNumInputs(String inputName) {
+            return new int[]{3};
+        }
+
+        @Override
+        public int[] getNumOutputs(String outputName) {
+            return new int[]{2};
+        }
+
+        @Override
+        public int[] getNumMaskInputs(String inputName) {
+            return new int[]{1};
+        }
+
+        @Override
+        public int[] getNumMaskOutputs(String outputName) {
+            return new int[]{1};
+        }
+
+        @Override
+        public int getNumHiddenNodes(String componentName) {
+            return 0;
+        }
+
+        @Override
+        public ILossFunction getOutputLoss(String outputName) {
+            return null;
+        }
+
+        @Override
+        public long getNumRecords(String[] recordFiles) {
+            return NUM_RECORDS;
+        }
+    }
+}
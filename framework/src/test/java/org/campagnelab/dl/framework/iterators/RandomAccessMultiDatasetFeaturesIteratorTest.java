@@ -0,0 +1,98 @@
+package org.campagnelab.dl.framework.iterators;
+
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.framework.iterators.cache.CacheIndex;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compare random access to a .cf cache with a sequential pass over the same cache.
+ */
+public class RandomAccessMultiDatasetFeaturesIteratorTest {
+    private static final int MINIBATCH_SIZE = 4;
+
+    @Test
+    public void getMatchesSequentialPass() throws IOException {
+        String basename = writeCache("test-results/random-access-cache", 10, 3);
+        MultiDatasetMappedFeaturesIterator sequential = new MultiDatasetMappedFeaturesIterator(basename);
+        RandomAccessMultiDatasetFeaturesIterator randomAccess = new RandomAccessMultiDatasetFeaturesIterator(basename);
+        assertEquals(10, randomAccess.numMinibatches());
+        int i = 0;
+        while (sequential.hasNext()) {
+            MultiDataSet expected = sequential.next();
+            assertSameMinibatch(expected, randomAccess.get(i));
+            assertEquals(expected.getFeatures(0).size(0), randomAccess.numExamples(i));
+            i++;
+        }
+        assertEquals(10, i);
+        // out of order, and again after a seek:
+        MultiDataSet last = randomAccess.get(9);
+        assertSameMinibatch(last, randomAccess.get(9));
+        randomAccess.seek(9);
+        assertSameMinibatch(last, randomAccess.next());
+        assertFalse(randomAccess.hasNext());
+    }
+
+    @Test
+    public void truncatesByMinibatch() throws IOException {
+        String basename = writeCache("test-results/random-access-cache-n", 5, 2);
+        // 5 examples need two minibatches of 4:
+        assertEquals(2, new RandomAccessMultiDatasetFeaturesIterator(basename, 5).numMinibatches());
+        assertEquals(5, new RandomAccessMultiDatasetFeaturesIterator(basename).numMinibatches());
+    }
+
+    private static void assertSameMinibatch(MultiDataSet expected, MultiDataSet actual) {
+        assertEquals(expected.getFeatures(0), actual.getFeatures(0));
+        assertEquals(expected.getLabels(0), actual.getLabels(0));
+    }
+
+    /**
+     * Write a cache the way MapMultiDatasetFeatures does, with full minibatches except the last one. Features and
+     * labels of each example are derived from the index of the example in the cache: features are (i, i+0.5, i+0.25)
+     * and labels are (i, -i).
+     */
+    static String writeCache(String basename, int numMinibatches, int lastMinibatchSize) throws IOException {
+        FileUtils.forceMkdir(new File("test-results"));
+        CacheIndex index = new CacheIndex();
+        int numRecords = 0;
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(basename + ".cf"))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int i = 0; i < numMinibatches; i++) {
+                final int size = i == numMinibatches - 1 ? lastMinibatchSize : MINIBATCH_SIZE;
+                INDArray features = Nd4j.create(size, 3);
+                INDArray labels = Nd4j.create(size, 2);
+                for (int row = 0; row < size; row++) {
+                    final int example = numRecords + row;
+                    features.putRow(row, Nd4j.create(new double[]{example, example + 0.5, example + 0.25}));
+                    labels.putRow(row, Nd4j.create(new double[]{example, -example}));
+                }
+                bytes.reset();
+                new org.nd4j.linalg.dataset.MultiDataSet(features, labels).save(bytes);
+                output.writeInt(bytes.size());
+                bytes.writeTo(output);
+                index.append(bytes.size() + 4, size);
+                numRecords += size;
+            }
+        }
+        index.save(basename);
+        Properties properties = new Properties();
+        properties.setProperty("miniBatchSize", Integer.toString(MINIBATCH_SIZE));
+        properties.setProperty("numRecords", Integer.toString(numRecords));
+        try (FileWriter writer = new FileWriter(basename + ".cfp")) {
+            properties.store(writer, "");
+        }
+        return basename;
+    }
+}
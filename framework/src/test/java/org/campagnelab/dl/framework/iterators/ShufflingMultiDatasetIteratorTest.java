@@ -0,0 +1,86 @@
+package org.campagnelab.dl.framework.iterators;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check that shuffled epochs cover every cached example once, are reproducible, and keep features aligned with
+ * labels when examples are mixed across minibatches.
+ */
+public class ShufflingMultiDatasetIteratorTest {
+    private static final int NUM_EXAMPLES = 9 * 4 + 3;
+
+    @Test
+    public void epochsArePermutationsOfMinibatches() throws IOException {
+        checkEpochs(1);
+    }
+
+    @Test
+    public void epochsArePermutationsOfMixedExamples() throws IOException {
+        checkEpochs(3);
+    }
+
+    @Test
+    public void sameSeedSameOrder() throws IOException {
+        String basename = RandomAccessMultiDatasetFeaturesIteratorTest.writeCache("test-results/shuffling-cache-seed", 10, 3);
+        ShufflingMultiDatasetIterator first = new ShufflingMultiDatasetIterator(new RandomAccessMultiDatasetFeaturesIterator(basename), 42, 3);
+        ShufflingMultiDatasetIterator second = new ShufflingMultiDatasetIterator(new RandomAccessMultiDatasetFeaturesIterator(basename), 42, 3);
+        for (int epoch = 0; epoch < 3; epoch++) {
+            assertEquals(epochOrder(first), epochOrder(second));
+            first.reset();
+            second.reset();
+        }
+        ShufflingMultiDatasetIterator other = new ShufflingMultiDatasetIterator(new RandomAccessMultiDatasetFeaturesIterator(basename), 43, 3);
+        first = new ShufflingMultiDatasetIterator(new RandomAccessMultiDatasetFeaturesIterator(basename), 42, 3);
+        assertNotEquals(epochOrder(first), epochOrder(other));
+    }
+
+    private void checkEpochs(int windowSize) throws IOException {
+        String basename = RandomAccessMultiDatasetFeaturesIteratorTest.writeCache("test-results/shuffling-cache-" + windowSize, 10, 3);
+        ShufflingMultiDatasetIterator iterator = new ShufflingMultiDatasetIterator(new RandomAccessMultiDatasetFeaturesIterator(basename), 1, windowSize);
+        int[] identity = new int[NUM_EXAMPLES];
+        for (int i = 0; i < NUM_EXAMPLES; i++) {
+            identity[i] = i;
+        }
+        IntArrayList previous = null;
+        for (int epoch = 0; epoch < 3; epoch++) {
+            IntArrayList order = epochOrder(iterator);
+            int[] sorted = order.toIntArray();
+            Arrays.sort(sorted);
+            assertArrayEquals("epoch " + epoch + " must contain every example once", identity, sorted);
+            assertNotEquals("consecutive epochs should not have the same order", previous, order);
+            previous = order;
+            iterator.reset();
+        }
+    }
+
+    /**
+     * Iterate over one epoch and return the index of each example in the cache, in the order returned. Also checks
+     * that the labels of each example are those of its features.
+     */
+    private static IntArrayList epochOrder(ShufflingMultiDatasetIterator iterator) {
+        IntArrayList order = new IntArrayList();
+        while (iterator.hasNext()) {
+            MultiDataSet ds = iterator.next();
+            INDArray features = ds.getFeatures(0);
+            INDArray labels = ds.getLabels(0);
+            assertEquals(features.size(0), labels.size(0));
+            for (int row = 0; row < features.size(0); row++) {
+                final double example = features.getDouble(row, 0);
+                assertEquals(example + 0.5, features.getDouble(row, 1), 1E-6);
+                assertEquals(example + 0.25, features.getDouble(row, 2), 1E-6);
+                assertEquals(example, labels.getDouble(row, 0), 1E-6);
+                assertEquals(-example, labels.getDouble(row, 1), 1E-6);
+                order.add((int) example);
+            }
+        }
+        return order;
+    }
+}
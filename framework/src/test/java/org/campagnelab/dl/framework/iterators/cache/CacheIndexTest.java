@@ -0,0 +1,59 @@
+package org.campagnelab.dl.framework.iterators.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the .cfi offset index.
+ */
+public class CacheIndexTest {
+    @Test
+    public void offsetsAndCounts() throws Exception {
+        CacheIndex index = new CacheIndex();
+        index.append(104, 32);
+        index.append(204, 32);
+        index.append(54, 10);
+        assertEquals(3, index.numMinibatches());
+        assertEquals(74, index.numExamples());
+        assertEquals(0, index.offset(0));
+        assertEquals(104, index.offset(1));
+        assertEquals(308, index.offset(2));
+        assertEquals(200, index.length(1));
+        assertEquals(10, index.numExamples(2));
+    }
+
+    @Test
+    public void minibatchesForExamples() throws Exception {
+        CacheIndex index = new CacheIndex();
+        index.append(104, 32);
+        index.append(104, 32);
+        index.append(104, 32);
+        assertEquals(0, index.minibatchesForExamples(0));
+        assertEquals(1, index.minibatchesForExamples(1));
+        assertEquals(1, index.minibatchesForExamples(32));
+        assertEquals(2, index.minibatchesForExamples(33));
+        assertEquals(3, index.minibatchesForExamples(96));
+        assertEquals(3, index.minibatchesForExamples(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        FileUtils.forceMkdir(new File("test-results"));
+        String basename = "test-results/cache-index";
+        CacheIndex index = new CacheIndex();
+        index.append(104, 32);
+        index.append(54, 10);
+        index.save(basename);
+        assertTrue(CacheIndex.exists(basename));
+        CacheIndex loaded = CacheIndex.load(basename);
+        assertEquals(2, loaded.numMinibatches());
+        assertEquals(42, loaded.numExamples());
+        assertEquals(104, loaded.offset(1));
+        assertEquals(50, loaded.length(1));
+    }
+}
@@ -6,6 +6,7 @@ import org.nd4j.linalg.factory.Nd4j;
 
 import java.util.function.Function;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -27,4 +28,19 @@ public class ConcatFeatureMapperTest {
         concatCalculator.mapFeatures(record, labels, 0);
         assertEquals(labels.toString(), expectedLabels);
     }
+
+    @Test
+    public void concatFeaturesBulk() {
+        String record = "012";
+        FeatureMapper<String>[] calculators = new FeatureMapper[record.length()];
+        for (int i = 0; i < record.length(); i++) {
+            calculators[i] = new OneHotBaseFeatureMapper<>(i, Function.identity(),
+                    (r, idx) -> Character.getNumericValue(r.charAt(idx)), 3);
+        }
+        ConcatFeatureMapper<String> concatCalculator = new ConcatFeatureMapper<>(calculators);
+        float[] features = new float[concatCalculator.numberOfFeatures() + 2];
+        concatCalculator.prepareToNormalize(record, 0);
+        concatCalculator.mapFeatures(record, features, 1, 0);
+        assertArrayEquals(new float[]{0, 1, 0, 0, 0, 1, 0, 0, 0, 1, 0}, features, 0f);
+    }
 }
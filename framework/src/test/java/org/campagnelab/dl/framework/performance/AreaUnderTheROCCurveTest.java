@@ -0,0 +1,70 @@
+package org.campagnelab.dl.framework.performance;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class AreaUnderTheROCCurveTest {
+
+    @Test
+    public void matchesPairwiseComparison() {
+        Random random = new Random(12);
+        double[] decisions = new double[2000];
+        double[] labels = new double[decisions.length];
+        for (int i = 0; i < decisions.length; i++) {
+            labels[i] = random.nextBoolean() ? 1 : -1;
+            // round to create ties between positives and negatives:
+            decisions[i] = Math.round((random.nextDouble() + (labels[i] > 0 ? 0.3 : 0)) * 20) / 20.0;
+        }
+        decisions[3] = Double.NaN;
+        decisions[7] = Double.NaN;
+        AreaUnderTheROCCurve calculator = new AreaUnderTheROCCurve();
+        for (int i = 0; i < decisions.length; i++) {
+            calculator.observe(decisions[i], labels[i]);
+        }
+        final double expected = pairwiseAUC(decisions, labels);
+        assertEquals(expected, calculator.evaluateStatistic(), 1E-12);
+        assertEquals(expected, AreaUnderTheROCCurve.evaluateStatistic(decisions, labels), 1E-12);
+    }
+
+    @Test
+    public void streamingEstimate() {
+        Random random = new Random(12);
+        AreaUnderTheROCCurve exact = new AreaUnderTheROCCurve();
+        StreamingAreaUnderTheROCCurve first = new StreamingAreaUnderTheROCCurve(1000);
+        StreamingAreaUnderTheROCCurve second = new StreamingAreaUnderTheROCCurve(1000);
+        for (int i = 0; i < 100000; i++) {
+            final double label = random.nextBoolean() ? 1 : -1;
+            final double decision = Math.min(1, Math.max(0, random.nextGaussian() * 0.2 + (label > 0 ? 0.6 : 0.4)));
+            exact.observe(decision, label);
+            (i % 2 == 0 ? first : second).observe(decision, label);
+        }
+        first.merge(second);
+        final double auc = exact.evaluateStatistic();
+        assertEquals(auc, first.evaluateStatistic(), 1E-3);
+        assertEquals(exact.confidenceInterval95()[0], first.confidenceInterval95()[0], 1E-3);
+        assertEquals(exact.confidenceInterval95()[1], first.confidenceInterval95()[1], 1E-3);
+    }
+
+    private double pairwiseAUC(double[] decisions, double[] labels) {
+        double sum = 0;
+        long numPositive = 0;
+        long numNegative = 0;
+        for (int i = 0; i < decisions.length; i++) {
+            if (labels[i] >= 0) {
+                numPositive++;
+                for (int j = 0; j < decisions.length; j++) {
+                    if (labels[j] < 0) {
+                        sum += decisions[i] > decisions[j] ? 1 : 0;
+                        sum += decisions[i] == decisions[j] ? 0.5 : 0;
+                    }
+                }
+            } else {
+                numNegative++;
+            }
+        }
+        return sum / numPositive / numNegative;
+    }
+}
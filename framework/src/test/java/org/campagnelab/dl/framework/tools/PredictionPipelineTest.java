@@ -0,0 +1,265 @@
+package org.campagnelab.dl.framework.tools;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.architecture.graphs.ComputationGraphAssembler;
+import org.campagnelab.dl.framework.domains.DomainDescriptor;
+import org.campagnelab.dl.framework.domains.prediction.Prediction;
+import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.domains.prediction.RecordPredictions;
+import org.campagnelab.dl.framework.mappers.FeatureMapper;
+import org.campagnelab.dl.framework.mappers.LabelMapper;
+import org.campagnelab.dl.framework.models.ModelPropertiesHelper;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.ILossFunction;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare predictions made by the pipeline with those of PredictWithModel on one thread.
+ */
+public class PredictionPipelineTest {
+    private static final int NUM_RECORDS = 203;
+    private static final int MINIBATCH_SIZE = 8;
+
+    @Test
+    public void sameAsSequentialInRecordOrder() {
+        ComputationGraph model = createGraph();
+        PredictWithModel<Integer> predictor = new PredictWithModel<>(new IntegerDomain());
+        List<ValuePrediction> expected = new ObjectArrayList<>();
+        Iterator<PredictionPipeline.Minibatch<Integer>> minibatches = minibatches();
+        int index = 0;
+        while (minibatches.hasNext()) {
+            PredictionPipeline.Minibatch<Integer> minibatch = minibatches.next();
+            index = predictor.makePredictions(minibatch.dataset, minibatch.records, model,
+                    predictions -> expected.add(only(predictions)), i -> false, index);
+        }
+        assertEquals(NUM_RECORDS, index);
+
+        List<ValuePrediction> predicted = new ObjectArrayList<>();
+        assertEquals(NUM_RECORDS, new PredictionPipeline<>(predictor, model, null).predict(minibatches(),
+                predictions -> predicted.add(only(predictions)), i -> false));
+        assertEquals(NUM_RECORDS, predicted.size());
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            assertEquals("records must be predicted in input order", i, predicted.get(i).record);
+            assertEquals(i, predicted.get(i).index);
+            assertArrayEquals(expected.get(i).values, predicted.get(i).values, 0);
+        }
+    }
+
+    @Test
+    public void stopsEarly() {
+        List<ValuePrediction> predicted = new ObjectArrayList<>();
+        assertEquals(21, new PredictionPipeline<>(new PredictWithModel<>(new IntegerDomain()), createGraph(), null)
+                .predict(minibatches(), predictions -> predicted.add(only(predictions)), i -> i >= 21));
+        assertEquals(21, predicted.size());
+        assertEquals(20, predicted.get(20).record);
+    }
+
+    private static ValuePrediction only(RecordPredictions<Integer> predictions) {
+        assertEquals(1, predictions.predictions.size());
+        return (ValuePrediction) predictions.predictions.get(0);
+    }
+
+    /**
+     * Minibatches of consecutive integer records, each with features (r, r/2, -r)/100.
+     */
+    private static Iterator<PredictionPipeline.Minibatch<Integer>> minibatches() {
+        return new Iterator<PredictionPipeline.Minibatch<Integer>>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < NUM_RECORDS;
+            }
+
+            @Override
+            public PredictionPipeline.Minibatch<Integer> next() {
+                final int size = Math.min(MINIBATCH_SIZE, NUM_RECORDS - next);
+                List<Integer> records = new ObjectArrayList<>(size);
+                INDArray features = Nd4j.create(size, 3);
+                for (int row = 0; row < size; row++) {
+                    final int record = next++;
+                    records.add(record);
+                    features.putRow(row, Nd4j.create(new double[]{record / 100.0, record / 200.0, -record / 100.0}));
+                }
+                MultiDataSet dataset = new org.nd4j.linalg.dataset.MultiDataSet(features, Nd4j.zeros(size, 2));
+                return new PredictionPipeline.Minibatch<>(records, dataset);
+            }
+        };
+    }
+
+    private static ComputationGraph createGraph() {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(1)
+                .weightInit(WeightInit.XAVIER)
+                .graphBuilder()
+                .addInputs("input")
+                .addLayer("dense", new DenseLayer.Builder().nIn(3).nOut(4).activation(Activation.TANH).build(),
+                        "input")
+                .addLayer("output", new OutputLayer.Builder(LossFunctions.LossFunction.MSE).nIn(4).nOut(2)
+                        .activation(Activation.IDENTITY).build(), "dense")
+                .setOutputs("output")
+                .build();
+        ComputationGraph graph = new ComputationGraph(conf);
+        graph.init();
+        return graph;
+    }
+
+    private static class ValuePrediction extends Prediction {
+        int record;
+        float[] values;
+    }
+
+    private static class ValueInterpreter implements PredictionInterpreter<Integer, ValuePrediction> {
+        @Override
+        public ValuePrediction interpret(INDArray trueLabels, INDArray output, int exampleIndex) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ValuePrediction interpret(Integer record, INDArray output) {
+            ValuePrediction prediction = new ValuePrediction();
+            prediction.record = record;
+            prediction.values = new float[output.length()];
+            for (int i = 0; i < prediction.values.length; i++) {
+                prediction.values[i] = output.getFloat(i);
+            }
+            return prediction;
+        }
+    }
+
+    /**
+     * A domain with one input and one output, where only the prediction interpreter is used.
+     */
+    private static class IntegerDomain extends DomainDescriptor<Integer> {
+        @Override
+        public FeatureMapper getFeatureMapper(String inputName) {
+            return null;
+        }
+
+        @Override
+        public FeatureMapper getFeatureMapper(String inputName, int sampleIndex) {
+            return null;
+        }
+
+        @Override
+        public LabelMapper getLabelMapper(String outputName) {
+            return null;
+        }
+
+        @Override
+        public LabelMapper getLabelMapper(String outputName, int sampleIndex) {
+            return null;
+        }
+
+        @Override
+        public PredictionInterpreter getPredictionInterpreter(String outputName) {
+            return new ValueInterpreter();
+        }
+
+        @Override
+        public Function<String, ? extends Iterable<Integer>> getRecordIterable() {
+            return null;
+        }
+
+        @Override
+        public ComputationGraphAssembler getComputationalGraph() {
+            return new ComputationGraphAssembler() {
+                @Override
+                public void setArguments(TrainingArguments arguments) {
+                }
+
+                @Override
+                public ComputationGraph createComputationalGraph(DomainDescriptor domainDescriptor) {
+                    return null;
+                }
+
+                @Override
+                public void setNumInputs(String inputName, int... dimension) {
+                }
+
+                @Override
+                public void setNumOutputs(String outputName, int... dimension) {
+                }
+
+                @Override
+                public void setNumHiddenNodes(String componentName, int numHiddenNodes) {
+                }
+
+                @Override
+                public String[] getInputNames() {
+                    return new String[]{"input"};
+                }
+
+                @Override
+                public String[] getOutputNames() {
+                    return new String[]{"output"};
+                }
+
+                @Override
+                public String[] getComponentNames() {
+                    return new String[0];
+                }
+
+                @Override
+                public void setLossFunction(String outputName, ILossFunction lossFunction) {
+                }
+
+                @Override
+                public void saveProperties(ModelPropertiesHelper helper) {
+                }
+            };
+        }
+
+        @Override
+        public int[] getNumInputs(String inputName) {
+            return new int[]{3};
+        }
+
+        @Override
+        public int[] getNumOutputs(String outputName) {
+            return new int[]{2};
+        }
+
+        @Override
+        public int[] getNumMaskInputs(String inputName) {
+            return new int[]{1};
+        }
+
+        @Override
+        public int[] getNumMaskOutputs(String outputName) {
+            return new int[]{1};
+        }
+
+        @Override
+        public int getNumHiddenNodes(String componentName) {
+            return 0;
+        }
+
+        @Override
+        public ILossFunction getOutputLoss(String outputName) {
+            return null;
+        }
+
+        @Override
+        public long getNumRecords(String[] recordFiles) {
+            return NUM_RECORDS;
+        }
+    }
+}
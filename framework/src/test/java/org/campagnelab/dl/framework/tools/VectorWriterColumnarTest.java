@@ -0,0 +1,94 @@
+package org.campagnelab.dl.framework.tools;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Write and read back columnar tensor files.
+ */
+public class VectorWriterColumnarTest {
+    private static final String[] INPUT_NAMES = {"input"};
+    private static final String[] OUTPUT_NAMES = {"label"};
+
+    @Test
+    public void roundTripUncompressed() throws IOException {
+        roundTrip("none");
+    }
+
+    @Test
+    public void roundTripDeflated() throws IOException {
+        roundTrip("deflate");
+    }
+
+    private void roundTrip(String compression) throws IOException {
+        FileUtils.forceMkdir(new File("test-results"));
+        String basename = "test-results/columnar-" + compression;
+        try (VectorWriterColumnar writer = new VectorWriterColumnar(basename, compression, 2)) {
+            writer.setNumRecords(5);
+            writer.appendMdsList(minibatch(0, 3), new int[]{0}, new int[]{0}, INPUT_NAMES, OUTPUT_NAMES, 0);
+            writer.appendMdsList(minibatch(3, 2), new int[]{0}, new int[]{0}, INPUT_NAMES, OUTPUT_NAMES, 3);
+        }
+        try (ColumnarVectorReader reader = new ColumnarVectorReader(basename)) {
+            checkContent(reader);
+        }
+        // each chunk in its own mapped region:
+        try (ColumnarVectorReader reader = new ColumnarVectorReader(basename, 1)) {
+            checkContent(reader);
+        }
+    }
+
+    private static void checkContent(ColumnarVectorReader reader) throws IOException {
+        assertEquals(2, reader.numChunks());
+        assertEquals(5, reader.numExamples());
+        assertEquals(2, reader.numExamples(1));
+        // one input and one output for each of two samples:
+        assertEquals(4, reader.numColumns());
+        final int labelOfSecondSample = reader.column(1, 1);
+        assertEquals(3, labelOfSecondSample);
+        assertEquals(4, reader.elementsPerExample(0));
+        assertEquals(2, reader.elementsPerExample(labelOfSecondSample));
+
+        FloatBuffer inputs = reader.read(1, reader.column(0, 0));
+        assertEquals(8, inputs.remaining());
+        // example 4, element 2 of the input of the first sample:
+        assertEquals(value(0, 4, 2), inputs.get(4 + 2), 0);
+        FloatBuffer labels = reader.read(0, labelOfSecondSample);
+        assertEquals(-value(1, 2, 1), labels.get(2 * 2 + 1), 0);
+    }
+
+    /**
+     * A minibatch of two samples with four input features and two labels per example.
+     */
+    private static List<MultiDataSet> minibatch(int firstExample, int numExamples) {
+        List<MultiDataSet> samples = new ArrayList<>();
+        for (int sample = 0; sample < 2; sample++) {
+            INDArray features = Nd4j.zeros(new int[]{numExamples, 4}, 'f');
+            INDArray labels = Nd4j.zeros(numExamples, 2);
+            for (int example = 0; example < numExamples; example++) {
+                for (int i = 0; i < 4; i++) {
+                    features.putScalar(example, i, value(sample, firstExample + example, i));
+                }
+                for (int i = 0; i < 2; i++) {
+                    labels.putScalar(example, i, -value(sample, firstExample + example, i));
+                }
+            }
+            samples.add(new org.nd4j.linalg.dataset.MultiDataSet(new INDArray[]{features}, new INDArray[]{labels}));
+        }
+        return samples;
+    }
+
+    private static float value(int sample, int example, int element) {
+        return sample * 100 + example * 10 + element;
+    }
+}
@@ -0,0 +1,151 @@
+package org.campagnelab.dl.framework.training;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.logging.ProgressLogger;
+import org.deeplearning4j.nn.api.OptimizationAlgorithm;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.Updater;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Train a small regression graph with two workers.
+ */
+public class ParallelTrainerOnCPUTest {
+    private static final int NUM_MINIBATCHES = 40;
+    private static final int MINIBATCH_SIZE = 8;
+
+    @Test
+    public void trainingReducesScore() {
+        Random random = new Random(1);
+        ObjectArrayList<MultiDataSet> minibatches = new ObjectArrayList<>();
+        INDArray allFeatures = Nd4j.create(NUM_MINIBATCHES * MINIBATCH_SIZE, 3);
+        INDArray allLabels = Nd4j.create(NUM_MINIBATCHES * MINIBATCH_SIZE, 1);
+        for (int i = 0; i < NUM_MINIBATCHES; i++) {
+            INDArray features = Nd4j.create(MINIBATCH_SIZE, 3);
+            INDArray labels = Nd4j.create(MINIBATCH_SIZE, 1);
+            for (int row = 0; row < MINIBATCH_SIZE; row++) {
+                double x1 = random.nextDouble(), x2 = random.nextDouble(), x3 = random.nextDouble();
+                features.putRow(row, Nd4j.create(new double[]{x1, x2, x3}));
+                labels.putScalar(row, 0, x1 + 2 * x2 - x3);
+            }
+            for (int row = 0; row < MINIBATCH_SIZE; row++) {
+                allFeatures.putRow(i * MINIBATCH_SIZE + row, features.getRow(row));
+                allLabels.putRow(i * MINIBATCH_SIZE + row, labels.getRow(row));
+            }
+            minibatches.add(new org.nd4j.linalg.dataset.MultiDataSet(features, labels));
+        }
+        MultiDataSet all = new org.nd4j.linalg.dataset.MultiDataSet(allFeatures, allLabels);
+
+        ComputationGraph graph = createGraph();
+        final double initialScore = graph.score(all);
+        ParallelTrainerOnCPU trainer = new ParallelTrainerOnCPU(2, 3);
+        ListIterator iterator = new ListIterator(minibatches);
+        for (int epoch = 0; epoch < 5; epoch++) {
+            iterator.reset();
+            assertEquals(NUM_MINIBATCHES * MINIBATCH_SIZE, trainer.train(graph, iterator, new ProgressLogger()));
+        }
+        INDArray params = graph.params();
+        for (int i = 0; i < params.length(); i++) {
+            assertTrue("parameters must be finite after averaging", Double.isFinite(params.getDouble(i)));
+        }
+        INDArray state = graph.getUpdater().getStateViewArray();
+        for (int i = 0; i < state.length(); i++) {
+            assertTrue("updater state must be finite after averaging", Double.isFinite(state.getDouble(i)));
+        }
+        final double finalScore = graph.score(all);
+        assertTrue(String.format("score must decrease, was %f, now %f", initialScore, finalScore),
+                finalScore < initialScore);
+        assertTrue(Double.isFinite(trainer.getScore()));
+    }
+
+    private static ComputationGraph createGraph() {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                .seed(1)
+                .iterations(1)
+                .optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT)
+                .learningRate(0.05)
+                .updater(Updater.ADAGRAD)
+                .weightInit(WeightInit.XAVIER)
+                .graphBuilder()
+                .addInputs("input")
+                .addLayer("dense", new DenseLayer.Builder().nIn(3).nOut(8).activation(Activation.TANH).build(),
+                        "input")
+                .addLayer("output", new OutputLayer.Builder(LossFunctions.LossFunction.MSE).nIn(8).nOut(1)
+                        .activation(Activation.IDENTITY).build(), "dense")
+                .setOutputs("output")
+                .build();
+        ComputationGraph graph = new ComputationGraph(conf);
+        graph.init();
+        return graph;
+    }
+
+    /**
+     * Iterates over minibatches held in memory.
+     */
+    private static class ListIterator implements MultiDataSetIterator {
+        private final ObjectArrayList<MultiDataSet> minibatches;
+        private MultiDataSetPreProcessor preProcessor;
+        private int index;
+
+        ListIterator(ObjectArrayList<MultiDataSet> minibatches) {
+            this.minibatches = minibatches;
+        }
+
+        @Override
+        public MultiDataSet next(int num) {
+            return next();
+        }
+
+        @Override
+        public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+            this.preProcessor = preProcessor;
+        }
+
+        @Override
+        public MultiDataSetPreProcessor getPreProcessor() {
+            return preProcessor;
+        }
+
+        @Override
+        public boolean resetSupported() {
+            return true;
+        }
+
+        @Override
+        public boolean asyncSupported() {
+            return false;
+        }
+
+        @Override
+        public void reset() {
+            index = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < minibatches.size();
+        }
+
+        @Override
+        public MultiDataSet next() {
+            return minibatches.get(index++);
+        }
+    }
+}
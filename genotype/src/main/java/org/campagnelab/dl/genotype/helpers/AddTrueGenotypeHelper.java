@@ -32,6 +32,7 @@ public class AddTrueGenotypeHelper implements AddTrueGenotypeHelperI {
     private RandomAccessSequenceInterface genome;
     Random random = new XorShift1024StarRandom();
     VariantMapHelper varMap;
+    TrueGenotypeIndex truthIndex;
     private int numIndelsIgnored;
     private int numIndelsAdded;
     private int numIndelsAddedAsRef;
@@ -79,6 +80,22 @@ public class AddTrueGenotypeHelper implements AddTrueGenotypeHelperI {
 
     }
 
+    /**
+     * Create a helper that looks up true genotypes in an index shared with other helpers.
+     *
+     * @param truthIndex true genotypes, indexed by position.
+     */
+    public void configure(TrueGenotypeIndex truthIndex, RandomAccessSequenceInterface genome,
+                          int sampleIndex, boolean considerIndels, boolean indelsAsRef, float referenceSamplingRate) {
+        this.truthIndex = truthIndex;
+        this.mapFilename = truthIndex.getMapFilename();
+        this.genome = genome;
+        this.considerIndels = considerIndels;
+        this.indelsAsRef = indelsAsRef;
+        this.referenceSamplingRate = referenceSamplingRate;
+        this.sampleIndex = sampleIndex;
+    }
+
     public void configure(String mapFilename, RandomAccessSequenceInterface genome,
                           int sampleIndex, boolean considerIndels, float referenceSamplingRate) {
         this.mapFilename = mapFilename;
@@ -104,7 +121,14 @@ public class AddTrueGenotypeHelper implements AddTrueGenotypeHelperI {
      * @return True if the record should be kept, i.e., written to the output, false otherwise.
      */
     public boolean addTrueGenotype(BaseInformationRecords.BaseInformation record) {
-        int position = record.getPosition();
+        return addTrueGenotype(willKeep(record.getPosition(), record.getReferenceId(), referenceBase(genome, record)),
+                record);
+    }
+
+    /**
+     * Return the base of the genome at the position of a record.
+     */
+    public static String referenceBase(RandomAccessSequenceInterface genome, BaseInformationRecords.BaseInformation record) {
         String chrom = record.getReferenceId();
         int genomeTargetIndex = genome.getReferenceIndex(chrom);
         if (genomeTargetIndex==-1 ) {
@@ -112,8 +136,7 @@ public class AddTrueGenotypeHelper implements AddTrueGenotypeHelperI {
             System.exit(1);
         }
         char referenceBaseChar = genome.get(genomeTargetIndex, record.getPosition());
-        String referenceBase = Character.toString(referenceBaseChar);
-        return addTrueGenotype(willKeep(position, chrom, referenceBase), record);
+        return Character.toString(referenceBaseChar);
     }
 
     // determine if a record will be kept
@@ -231,6 +254,25 @@ public class AddTrueGenotypeHelper implements AddTrueGenotypeHelperI {
         return numVariantsAdded;
     }
 
+    /**
+     * Add the counts of another helper to the counts of this helper, so that the statistics of helpers that labeled
+     * records on different threads can be printed once.
+     */
+    public void addCounts(AddTrueGenotypeHelper other) {
+        numIndelsIgnored += other.numIndelsIgnored;
+        numIndelsAdded += other.numIndelsAdded;
+        numIndelsAddedAsRef += other.numIndelsAddedAsRef;
+        numSnpsAdded += other.numSnpsAdded;
+        numVariantsAdded += other.numVariantsAdded;
+        numHomozygousAdded += other.numHomozygousAdded;
+        numHeterozygousAdded += other.numHeterozygousAdded;
+        numInMapAddedAsReference += other.numInMapAddedAsReference;
+        numRecords += other.numRecords;
+        numWrongTrueCount += other.numWrongTrueCount;
+        recordsLabeled += other.recordsLabeled;
+        distinctTrueGenotypes.addAll(other.distinctTrueGenotypes);
+    }
+
     public Properties getStatProperties() {
         Properties result = new Properties();
         result.put("addTrueGenotypes.numIndelsIgnored", Integer.toString(numIndelsIgnored));
@@ -238,7 +280,9 @@ public class AddTrueGenotypeHelper implements AddTrueGenotypeHelperI {
         result.put("addTrueGenotypes.input.numRecords", Integer.toString(numRecords));
         result.put("addTrueGenotypes.referenceSamplingRate", Float.toString(referenceSamplingRate));
         result.put("addTrueGenotypes.considerIndels", Boolean.toString(considerIndels));
-        result.put("addTrueGenotypes.mapFilename", mapFilename);
+        if (mapFilename != null) {
+            result.put("addTrueGenotypes.mapFilename", mapFilename);
+        }
         CommitPropertyHelper.appendCommitInfo(this.getClass(),"/VARIATION_COMMIT.properties",result);
 
         return result;
@@ -283,7 +327,13 @@ public class AddTrueGenotypeHelper implements AddTrueGenotypeHelperI {
             boolean isIndel = false;
             boolean isSNP = false;
             // The map contains Goby positions (zero-based).
-            Variant variant = varMap.getVariant(chrom,position);
+            final TrueGenotypeIndex.TrueGenotype variant;
+            if (truthIndex != null) {
+                variant = truthIndex.getTrueGenotype(chrom, position);
+            } else {
+                final Variant mapVariant = varMap.getVariant(chrom, position);
+                variant = mapVariant == null ? null : new TrueGenotypeIndex.TrueGenotype(mapVariant);
+            }
             if (variant != null) {
                 inMap = true;
             }
@@ -291,7 +341,7 @@ public class AddTrueGenotypeHelper implements AddTrueGenotypeHelperI {
 
                 isIndel = variant.isIndel();
                 isSNP= variant.isSNP();
-                trueAlleles = variant.trueAlleles;
+                trueAlleles = variant.getTrueAlleles();
                 if (!GenotypeHelper.isNoCall(GenotypeHelper.fromAlleles(GenotypeHelper.fromTosToAlleles(trueAlleles)))) {
                     isVariant = GenotypeHelper.isVariant(trueAlleles);
                     if (isVariant) {
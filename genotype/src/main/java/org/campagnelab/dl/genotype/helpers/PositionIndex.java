@@ -0,0 +1,70 @@
+package org.campagnelab.dl.genotype.helpers;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+/**
+ * Values indexed by chromosome and position. Each chromosome keeps its positions in a sorted int array and its values
+ * in a parallel array, so that a lookup is a binary search rather than a hash of a boxed position.
+ */
+class PositionIndex<T> {
+    private final Object2ObjectOpenHashMap<String, int[]> positions = new Object2ObjectOpenHashMap<>();
+    private final Object2ObjectOpenHashMap<String, Object[]> values = new Object2ObjectOpenHashMap<>();
+    private long size;
+
+    /**
+     * Index the values of a chromosome.
+     *
+     * @param chromosome          name of the chromosome.
+     * @param chromosomePositions position of each value, in any order.
+     * @param chromosomeValues    values, parallel to the positions.
+     */
+    void put(String chromosome, IntArrayList chromosomePositions, ObjectArrayList<T> chromosomeValues) {
+        assert chromosomePositions.size() == chromosomeValues.size() : "positions and values must be parallel";
+        final int[] sortedPositions = chromosomePositions.toIntArray();
+        final Object[] sortedValues = chromosomeValues.toArray();
+        Arrays.quickSort(0, sortedPositions.length, new AbstractIntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                return Integer.compare(sortedPositions[a], sortedPositions[b]);
+            }
+        }, (a, b) -> {
+            final int position = sortedPositions[a];
+            sortedPositions[a] = sortedPositions[b];
+            sortedPositions[b] = position;
+            final Object value = sortedValues[a];
+            sortedValues[a] = sortedValues[b];
+            sortedValues[b] = value;
+        });
+        final int[] previous = positions.put(chromosome, sortedPositions);
+        if (previous != null) {
+            size -= previous.length;
+        }
+        values.put(chromosome, sortedValues);
+        size += sortedPositions.length;
+    }
+
+    /**
+     * Return the value at a position, or null when none was indexed there.
+     */
+    @SuppressWarnings("unchecked")
+    T get(String chromosome, int position) {
+        final int[] chromosomePositions = positions.get(chromosome);
+        if (chromosomePositions == null) {
+            return null;
+        }
+        final int index = java.util.Arrays.binarySearch(chromosomePositions, position);
+        return index >= 0 ? (T) values.get(chromosome)[index] : null;
+    }
+
+    int numChromosomes() {
+        return positions.size();
+    }
+
+    long size() {
+        return size;
+    }
+}
@@ -0,0 +1,139 @@
+package org.campagnelab.dl.genotype.helpers;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import org.campagnelab.goby.util.Variant;
+import org.campagnelab.goby.util.VariantMapHelper;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * True genotypes of a genotype map, indexed by position in a {@link PositionIndex}. The index is immutable once built
+ * and can be shared by threads that label records concurrently, instead of each thread loading its own copy of the map.
+ * <p>
+ * The index does not keep the variants of the map. Each position refers to a {@link TrueGenotype}, which only holds
+ * what labeling needs, and positions with the same genotype share one instance, so the index costs little more than
+ * its positions once the map is released.
+ */
+public class TrueGenotypeIndex {
+    private final PositionIndex<TrueGenotype> genotypes = new PositionIndex<>();
+    private final String mapFilename;
+
+    /**
+     * Load a map produced by Goby's VCFToMapMode and index its variants. The map is released once indexed.
+     */
+    public TrueGenotypeIndex(String mapFilename) throws IOException, ClassNotFoundException {
+        this(new VariantMapHelper(mapFilename), mapFilename);
+    }
+
+    public TrueGenotypeIndex(VariantMapHelper varMap) {
+        this(varMap, null);
+    }
+
+    private TrueGenotypeIndex(VariantMapHelper varMap, String mapFilename) {
+        this.mapFilename = mapFilename;
+        final Object2ObjectOpenHashMap<String, TrueGenotype> distinct = new Object2ObjectOpenHashMap<>();
+        for (ObjectIterator<String> chromosomes = varMap.getAllChromosomes(); chromosomes.hasNext(); ) {
+            final String chromosome = chromosomes.next();
+            final IntArrayList chromosomePositions = new IntArrayList();
+            final ObjectArrayList<TrueGenotype> chromosomeGenotypes = new ObjectArrayList<>();
+            for (ObjectIterator<Variant> it = varMap.getAllVariants(chromosome); it.hasNext(); ) {
+                final Variant variant = it.next();
+                final TrueGenotype genotype = new TrueGenotype(variant);
+                final TrueGenotype shared = distinct.putIfAbsent(genotype.key(), genotype);
+                chromosomePositions.add(variant.position);
+                chromosomeGenotypes.add(shared != null ? shared : genotype);
+            }
+            genotypes.put(chromosome, chromosomePositions, chromosomeGenotypes);
+        }
+    }
+
+    /**
+     * Upper-case true alleles. Labeling threads upper-case the alleles they return; doing it once when the index is
+     * built keeps shared variants unchanged afterwards.
+     */
+    static void upperCase(Set<Variant.FromTo> trueAlleles) {
+        for (Variant.FromTo allele : trueAlleles) {
+            allele.makeUpperCase();
+        }
+    }
+
+    /**
+     * Return the true genotype at a position, or null when the map has no variant there.
+     *
+     * @param chromosome name of the chromosome.
+     * @param position   zero-based position, as stored in the map.
+     */
+    public TrueGenotype getTrueGenotype(String chromosome, int position) {
+        return genotypes.get(chromosome, position);
+    }
+
+    /**
+     * Return the filename of the map, or null when the index was built from a map already loaded.
+     */
+    public String getMapFilename() {
+        return mapFilename;
+    }
+
+    public int numChromosomes() {
+        return genotypes.numChromosomes();
+    }
+
+    public long numVariants() {
+        return genotypes.size();
+    }
+
+    /**
+     * The upper-cased true alleles of a variant, and whether the variant is an indel, a SNP and homozygous.
+     */
+    public static final class TrueGenotype {
+        private final Set<Variant.FromTo> trueAlleles;
+        private final boolean indel;
+        private final boolean snp;
+        private final boolean homozygous;
+
+        TrueGenotype(Variant variant) {
+            upperCase(variant.trueAlleles);
+            this.trueAlleles = variant.trueAlleles;
+            this.indel = variant.isIndel();
+            this.snp = variant.isSNP();
+            this.homozygous = variant.isHomozygous();
+        }
+
+        /**
+         * Return the true alleles. The set may be shared by several positions and must not be modified.
+         */
+        public Set<Variant.FromTo> getTrueAlleles() {
+            return trueAlleles;
+        }
+
+        public boolean isIndel() {
+            return indel;
+        }
+
+        public boolean isSNP() {
+            return snp;
+        }
+
+        public boolean isHomozygous() {
+            return homozygous;
+        }
+
+        /**
+         * Return a key equal for genotypes with the same alleles and properties.
+         */
+        String key() {
+            String[] alleles = new String[trueAlleles.size()];
+            int i = 0;
+            for (Variant.FromTo allele : trueAlleles) {
+                alleles[i++] = allele.getFrom() + ">" + allele.getTo();
+            }
+            Arrays.sort(alleles);
+            return (indel ? "I" : "-") + (snp ? "S" : "-") + (homozygous ? "H" : "-") + String.join(",", alleles);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.campagnelab.dl.genotype.learning.domains;
 
-import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.domains.prediction.BatchInterpretation;
+import org.campagnelab.dl.framework.domains.prediction.BatchPredictionInterpreter;
 import org.campagnelab.dl.genotype.helpers.GenotypeHelper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -9,7 +10,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * Interprets the output of NumDistinctAllelesLabelMapper.
  * Created by fac2003 on 12/20/16.
  */
-public class NumDistinctAllelesInterpreter implements PredictionInterpreter<BaseInformationRecords.BaseInformation,
+public class NumDistinctAllelesInterpreter implements BatchPredictionInterpreter<BaseInformationRecords.BaseInformation,
         NumDistinctAllelesOutputLayerPrediction> {
 
     int ploidy;
@@ -40,6 +41,24 @@ public class NumDistinctAllelesInterpreter implements PredictionInterpreter<Base
         return result;
     }
 
+    /**
+     * Store the predicted number of distinct alleles and its probability of each example.
+     */
+    @Override
+    public void interpret(float[] output, int numExamples, int numColumns, BatchInterpretation results) {
+        results.argMax(output, numColumns, ploidy + 1);
+    }
+
+    @Override
+    public NumDistinctAllelesOutputLayerPrediction prediction(BaseInformationRecords.BaseInformation record,
+                                                              BatchInterpretation results, int exampleIndex) {
+        NumDistinctAllelesOutputLayerPrediction result = new NumDistinctAllelesOutputLayerPrediction();
+        result.trueValue = GenotypeHelper.getAlleles(record.getTrueGenotype()).size();
+        result.predictedValue = results.predictedIndex[exampleIndex];
+        result.probability = results.probability[exampleIndex];
+        return result;
+    }
+
     private int readPredicted(INDArray output, NumDistinctAllelesOutputLayerPrediction result, int  predictionIndex) {
         maxProbability = -1;
         int maxIndex = -1;
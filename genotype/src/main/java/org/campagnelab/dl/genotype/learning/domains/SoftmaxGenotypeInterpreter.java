@@ -1,6 +1,7 @@
 package org.campagnelab.dl.genotype.learning.domains;
 
-import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.domains.prediction.BatchInterpretation;
+import org.campagnelab.dl.framework.domains.prediction.BatchPredictionInterpreter;
 import org.campagnelab.dl.genotype.predictions.SoftmaxGenotypePrediction;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -9,7 +10,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * Interprets the output of SoftmaxGenotype layer.
  * Created by fac2003 on 2/7/17.
  */
-public class SoftmaxGenotypeInterpreter implements PredictionInterpreter<BaseInformationRecords.BaseInformation,
+public class SoftmaxGenotypeInterpreter implements BatchPredictionInterpreter<BaseInformationRecords.BaseInformation,
         SoftmaxGenotypePrediction> {
 
     int maxCalledAlleles;
@@ -49,6 +50,25 @@ public class SoftmaxGenotypeInterpreter implements PredictionInterpreter<BaseInf
         return result;
     }
 
+    /**
+     * Store the predicted genotype index and its probability of each example.
+     */
+    @Override
+    public void interpret(float[] output, int numExamples, int numColumns, BatchInterpretation results) {
+        results.argMax(output, numColumns, numBits);
+    }
+
+    @Override
+    public SoftmaxGenotypePrediction prediction(BaseInformationRecords.BaseInformation record,
+                                               BatchInterpretation results, int exampleIndex) {
+        SoftmaxGenotypePrediction result = new SoftmaxGenotypePrediction();
+        result.numBits = numBits;
+        result.trueGenotype = record.getTrueGenotype();
+        result.predictedGenotypeIndex = results.predictedIndex[exampleIndex];
+        result.probability = results.probability[exampleIndex];
+        return result;
+    }
+
     private int readPredicted(INDArray output, SoftmaxGenotypePrediction result, int predictionIndex) {
         maxProbability = -1;
         int maxIndex = -1;
@@ -1,6 +1,7 @@
 package org.campagnelab.dl.genotype.learning.domains.predictions;
 
-import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.domains.prediction.BatchInterpretation;
+import org.campagnelab.dl.framework.domains.prediction.BatchPredictionInterpreter;
 import org.campagnelab.dl.genotype.mappers.CombinedLabelsMapper;
 import org.campagnelab.dl.genotype.predictions.CombinedOutputLayerPrediction;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
@@ -12,7 +13,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * Created by rct66 on 11/12/16.
  */
 public class CombinedOutputLayerInterpreter extends SortingCountInterpreter<CombinedOutputLayerPrediction>
-        implements PredictionInterpreter<BaseInformationRecords.BaseInformation, CombinedOutputLayerPrediction> {
+        implements BatchPredictionInterpreter<BaseInformationRecords.BaseInformation, CombinedOutputLayerPrediction> {
 
     private static final int MAX_GENOTYPES = CombinedLabelsMapper.NUM_LABELS;
     public static final String NO_CALL = ".";
@@ -51,12 +52,35 @@ public class CombinedOutputLayerInterpreter extends SortingCountInterpreter<Comb
         return pred;
     }
 
+    /**
+     * Store the index of the predicted label and its probability of each example.
+     */
+    @Override
+    public void interpret(float[] output, int numExamples, int numColumns, BatchInterpretation results) {
+        results.argMax(output, numColumns, CombinedLabelsMapper.NUM_LABELS);
+    }
+
+    @Override
+    public CombinedOutputLayerPrediction prediction(BaseInformationRecords.BaseInformation record,
+                                                    BatchInterpretation results, int exampleIndex) {
+        sortedCountRecord = sort(record);
+        CombinedOutputLayerPrediction pred = new CombinedOutputLayerPrediction();
+        pred.inspectRecord(sortedCountRecord);
+        setToSequences(sortedCountRecord);
+        pred.predictedGenotype = genotype(results.predictedIndex[exampleIndex]);
+        pred.overallProbability = results.probability[exampleIndex];
+        return pred;
+    }
+
     public String getPrediction(BaseInformationRecords.BaseInformation record, INDArray output) {
+        setToSequences(record);
+        return reconstructGenotype(output, 0);
+    }
 
+    private void setToSequences(BaseInformationRecords.BaseInformation record) {
         for (int genotypeIndex = 0; genotypeIndex < MAX_GENOTYPES; genotypeIndex++) {
             toSequences[genotypeIndex] = record.getSamples(0).getCounts(genotypeIndex).getToSequence();
         }
-        return reconstructGenotype(output, 0);
     }
 
     @NotNull
@@ -70,6 +94,14 @@ public class CombinedOutputLayerInterpreter extends SortingCountInterpreter<Comb
                 probability = outputDouble;
             }
         }
+        return genotype(maxIndex);
+    }
+
+    /**
+     * Return the genotype of a label of the combined output layer, using the current toSequences.
+     */
+    @NotNull
+    private String genotype(int maxIndex) {
         switch (maxIndex) {
             case 0:
                 String homozygAllele = toSequences[0];
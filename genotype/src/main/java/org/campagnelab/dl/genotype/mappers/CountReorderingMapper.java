@@ -1,6 +1,7 @@
 package org.campagnelab.dl.genotype.mappers;
 
 import org.campagnelab.dl.framework.mappers.AbstractFeatureMapper1D;
+import org.campagnelab.dl.framework.mappers.BulkFeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
@@ -40,4 +41,13 @@ public class CountReorderingMapper extends AbstractFeatureMapper1D<BaseInformati
     public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
         return delegate.produceFeature(sortedCountRecord, featureIndex);
     }
+
+    @Override
+    public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int offset, int indexOfRecord) {
+        if (delegate instanceof BulkFeatureMapper) {
+            ((BulkFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>) delegate).mapFeatures(sortedCountRecord, inputs, offset, indexOfRecord);
+        } else {
+            super.mapFeatures(record, inputs, offset, indexOfRecord);
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package org.campagnelab.dl.genotype.mappers;
 
+import org.campagnelab.dl.framework.mappers.BulkLabelMapper;
 import org.campagnelab.dl.somatic.mappers.NoMasksLabelMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -9,7 +10,8 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * Created by fac2003 on 12/20/16.
  *
  */
-public abstract class CountSortingLabelMapper extends NoMasksLabelMapper<BaseInformationRecords.BaseInformation> {
+public abstract class CountSortingLabelMapper extends NoMasksLabelMapper<BaseInformationRecords.BaseInformation>
+        implements BulkLabelMapper<BaseInformationRecords.BaseInformation> {
     int[] indices = new int[]{0, 0};
     private final boolean sortCounts;
     protected int sampleIndex;
@@ -31,6 +33,14 @@ public abstract class CountSortingLabelMapper extends NoMasksLabelMapper<BaseInf
         }
     }
 
+    @Override
+    public void mapLabels(BaseInformationRecords.BaseInformation record, float[] labels, int offset, int indexOfRecord) {
+        final int numberOfLabels = numberOfLabels();
+        for (int labelIndex = 0; labelIndex < numberOfLabels; labelIndex++) {
+            labels[offset + labelIndex] = produceLabel(sortedCountRecord, labelIndex);
+        }
+    }
+
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformation record, int indexOfRecord) {
         if (sortCounts) {
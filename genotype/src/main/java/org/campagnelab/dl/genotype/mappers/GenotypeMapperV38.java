@@ -1,5 +1,6 @@
 package org.campagnelab.dl.genotype.mappers;
 
+import org.campagnelab.dl.framework.mappers.BulkFeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 import org.campagnelab.dl.somatic.mappers.*;
 import org.campagnelab.dl.somatic.mappers.functional.TraversalHelper;
@@ -222,6 +223,15 @@ public class GenotypeMapperV38 extends GenotypeMapperV11 {
 
     }
 
+    @Override
+    public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int offset, int indexOfRecord) {
+        if (delegate instanceof BulkFeatureMapper) {
+            ((BulkFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>) delegate).mapFeatures(record, inputs, offset, indexOfRecord);
+        } else {
+            super.mapFeatures(record, inputs, offset, indexOfRecord);
+        }
+    }
+
     @Override
     public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
         return delegate.produceFeature(record, featureIndex);
@@ -1,5 +1,6 @@
 package org.campagnelab.dl.genotype.mappers;
 
+import org.campagnelab.dl.framework.mappers.BulkLabelMapper;
 import org.campagnelab.dl.somatic.mappers.NoMasksLabelMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
@@ -9,7 +10,8 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
  * to  the original count order.
  * Created by fac2003 on 2/21/17.
  */
-public abstract class RecordCountSortingLabelMapperImpl extends NoMasksLabelMapper<BaseInformationRecords.BaseInformation> {
+public abstract class RecordCountSortingLabelMapperImpl extends NoMasksLabelMapper<BaseInformationRecords.BaseInformation>
+        implements BulkLabelMapper<BaseInformationRecords.BaseInformation> {
     protected int[] indexPermutation;
     protected boolean sortCounts=true;
     protected BaseInformationRecords.BaseInformation sortedCountRecord;
@@ -19,6 +21,17 @@ public abstract class RecordCountSortingLabelMapperImpl extends NoMasksLabelMapp
         this.sortCounts = sortCounts;
     }
 
+    /**
+     * Write the labels of the sorted record, in the same way as the mapLabels implementations of subclasses.
+     */
+    @Override
+    public void mapLabels(BaseInformationRecords.BaseInformation record, float[] labels, int offset, int indexOfRecord) {
+        final int numberOfLabels = numberOfLabels();
+        for (int labelIndex = 0; labelIndex < numberOfLabels; labelIndex++) {
+            labels[offset + labelIndex] = produceLabel(sortedCountRecord, labelIndex);
+        }
+    }
+
     @Override
     public void prepareToNormalize(BaseInformationRecords.BaseInformation record, int indexOfRecord) {
         int sortedIndex = 0;
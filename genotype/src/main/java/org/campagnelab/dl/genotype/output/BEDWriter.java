@@ -0,0 +1,29 @@
+package org.campagnelab.dl.genotype.output;
+
+import java.io.IOException;
+
+/**
+ * Writes BED intervals with a name column. Compressed BED files are indexed as tabix -p bed would.
+ */
+public class BEDWriter extends GenomicTextWriter {
+
+    /**
+     * @param filename           name of the BED file, without the .gz extension.
+     * @param bgzip              compress with block gzip and index the file.
+     * @param compressionThreads number of threads that compress blocks.
+     */
+    public BEDWriter(String filename, boolean bgzip, int compressionThreads) throws IOException {
+        super(filename, bgzip, compressionThreads, TabixIndex.bed());
+    }
+
+    /**
+     * Write an interval.
+     *
+     * @param start zero-based start, inclusive.
+     * @param end   zero-based end, exclusive.
+     */
+    public void write(String referenceId, int start, int end, int name) {
+        append(referenceId).tab().append(start).tab().append(end).tab().append(name);
+        endLine(referenceId, start, end);
+    }
+}
@@ -0,0 +1,210 @@
+package org.campagnelab.dl.genotype.output;
+
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import org.campagnelab.dl.framework.utils.DaemonThreadFactory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the block gzip (BGZF) format of samtools/htslib: a series of gzip members, each compressing at most 65280
+ * bytes and at most 64KB long, followed by an empty end-of-file member. Files can be read with gzip and indexed
+ * with tabix. Blocks are compressed on background threads and written in order.
+ * <p>
+ * {@link #position()} reports positions in the uncompressed stream as (block number &lt;&lt; 16 | offset in block).
+ * After close, {@link #virtualOffset(long)} converts them to the virtual file offsets stored in BGZF indices,
+ * (compressed address of the block &lt;&lt; 16 | offset in block).
+ */
+public class BGZFOutputStream extends OutputStream {
+    static final int MAX_BLOCK_INPUT = 0xff00;
+    static final int MAX_BLOCK_SIZE = 0x10000;
+    private static final int BLOCK_HEADER_LENGTH = 18;
+    private static final int BLOCK_FOOTER_LENGTH = 8;
+    static final byte[] EOF_BLOCK = {
+            0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00,
+            0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
+
+    private final OutputStream output;
+    private final ExecutorService compressors;
+    private final int maxPending;
+    private final ObjectArrayFIFOQueue<Future<byte[]>> pending = new ObjectArrayFIFOQueue<>();
+    /**
+     * Compressed address of each block written so far.
+     */
+    private final LongArrayList blockAddresses = new LongArrayList();
+    private byte[] block = new byte[MAX_BLOCK_INPUT];
+    private int blockLength;
+    private int blockNumber;
+    private long address;
+    private boolean closed;
+
+    public BGZFOutputStream(String filename, int numThreads) throws IOException {
+        this(new FastBufferedOutputStream(new FileOutputStream(filename)), numThreads);
+    }
+
+    /**
+     * @param output     where compressed blocks are written. Closed with this stream.
+     * @param numThreads number of threads that compress blocks.
+     */
+    public BGZFOutputStream(OutputStream output, int numThreads) {
+        this.output = output;
+        numThreads = Math.max(1, numThreads);
+        maxPending = 2 * numThreads;
+        compressors = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory("bgzf-compress"));
+    }
+
+    /**
+     * Return the position of the next byte written, as (block number &lt;&lt; 16 | offset in block).
+     */
+    public long position() {
+        return ((long) blockNumber << 16) | blockLength;
+    }
+
+    /**
+     * Convert a position returned by {@link #position()} to a BGZF virtual file offset. Only valid after close.
+     */
+    public long virtualOffset(long position) {
+        if (!closed) {
+            throw new IllegalStateException("Virtual offsets are known once the stream is closed.");
+        }
+        final int blockIndex = (int) (position >>> 16);
+        // the position after the last byte is the start of the end-of-file block:
+        final long blockAddress = blockIndex < blockAddresses.size() ? blockAddresses.getLong(blockIndex) : address;
+        return (blockAddress << 16) | (position & 0xffff);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[blockLength++] = (byte) b;
+        if (blockLength == MAX_BLOCK_INPUT) {
+            flushBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            final int n = Math.min(length, MAX_BLOCK_INPUT - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            length -= n;
+            if (blockLength == MAX_BLOCK_INPUT) {
+                flushBlock();
+            }
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        drain(maxPending - 1);
+        final byte[] input = block;
+        final int length = blockLength;
+        pending.enqueue(compressors.submit(() -> compress(input, length)));
+        block = new byte[MAX_BLOCK_INPUT];
+        blockLength = 0;
+        blockNumber++;
+    }
+
+    /**
+     * Write compressed blocks, in order, until at most maxPending remain to be written.
+     */
+    private void drain(int maxPending) throws IOException {
+        try {
+            while (pending.size() > maxPending) {
+                final byte[] compressed = pending.dequeue().get();
+                blockAddresses.add(address);
+                output.write(compressed);
+                address += compressed.length;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for compressed blocks.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compress block.", e.getCause());
+        }
+    }
+
+    static byte[] compress(byte[] input, int length) {
+        byte[] compressed = new byte[MAX_BLOCK_SIZE];
+        int compressedLength = deflate(input, length, compressed, Deflater.DEFAULT_COMPRESSION);
+        if (compressedLength < 0) {
+            // incompressible input, which stored blocks always fit:
+            compressedLength = deflate(input, length, compressed, Deflater.NO_COMPRESSION);
+        }
+        final int blockSize = BLOCK_HEADER_LENGTH + compressedLength + BLOCK_FOOTER_LENGTH;
+        compressed[0] = 0x1f;
+        compressed[1] = (byte) 0x8b;
+        compressed[2] = 0x08;
+        // FEXTRA, with the BC subfield that holds the size of the block:
+        compressed[3] = 0x04;
+        compressed[9] = (byte) 0xff;
+        compressed[10] = 0x06;
+        compressed[12] = 'B';
+        compressed[13] = 'C';
+        compressed[14] = 0x02;
+        putShort(compressed, 16, blockSize - 1);
+        CRC32 crc = new CRC32();
+        crc.update(input, 0, length);
+        putInt(compressed, blockSize - BLOCK_FOOTER_LENGTH, (int) crc.getValue());
+        putInt(compressed, blockSize - 4, length);
+        return Arrays.copyOf(compressed, blockSize);
+    }
+
+    /**
+     * Deflate input after the block header, or return -1 when the result does not fit in a block.
+     */
+    private static int deflate(byte[] input, int length, byte[] compressed, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(input, 0, length);
+            deflater.finish();
+            final int capacity = MAX_BLOCK_SIZE - BLOCK_HEADER_LENGTH - BLOCK_FOOTER_LENGTH;
+            int compressedLength = 0;
+            while (!deflater.finished() && compressedLength < capacity) {
+                compressedLength += deflater.deflate(compressed, BLOCK_HEADER_LENGTH + compressedLength,
+                        capacity - compressedLength);
+            }
+            return deflater.finished() ? compressedLength : -1;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void putShort(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        putShort(bytes, offset, value);
+        putShort(bytes, offset + 2, value >>> 16);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (blockLength > 0) {
+                flushBlock();
+            }
+            drain(0);
+            output.write(EOF_BLOCK);
+        } finally {
+            closed = true;
+            compressors.shutdownNow();
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.campagnelab.dl.genotype.output;
+
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes tab-delimited lines about genomic intervals, such as VCF or BED records. Lines are formatted into a reusable
+ * byte buffer by the append methods, without printf, and written by {@link #endLine(String, int, int)}. With block
+ * gzip, the file is written with a .gz extension and a tabix index is written next to it (.gz.tbi) on close, unless
+ * the lines were not sorted by position.
+ */
+public class GenomicTextWriter implements Closeable {
+    static private Logger LOG = LoggerFactory.getLogger(GenomicTextWriter.class);
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000,
+            1000000000};
+
+    private final String filename;
+    private final OutputStream output;
+    /**
+     * The compressed stream, or null when the file is not compressed.
+     */
+    private final BGZFOutputStream bgzf;
+    private final TabixIndex index;
+    private byte[] line = new byte[256];
+    private int length;
+
+    /**
+     * @param filename           name of the uncompressed file.
+     * @param bgzip              compress with block gzip and index the file.
+     * @param compressionThreads number of threads that compress blocks.
+     * @param index              index to build when compressing.
+     */
+    protected GenomicTextWriter(String filename, boolean bgzip, int compressionThreads, TabixIndex index)
+            throws IOException {
+        if (bgzip) {
+            this.filename = filename + ".gz";
+            bgzf = new BGZFOutputStream(this.filename, compressionThreads);
+            output = bgzf;
+            this.index = index;
+        } else {
+            this.filename = filename;
+            bgzf = null;
+            output = new FastBufferedOutputStream(new FileOutputStream(filename));
+            this.index = null;
+        }
+    }
+
+    /**
+     * Name of the file written, including the .gz extension when compressed.
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    public static String indexFilename(String filename) {
+        return filename + ".tbi";
+    }
+
+    /**
+     * Write header lines, which must start with #, before any record.
+     */
+    public void writeHeader(CharSequence header) {
+        append(header);
+        flushLine();
+    }
+
+    public GenomicTextWriter append(CharSequence text) {
+        final int n = text.length();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            final char c = text.charAt(i);
+            if (c >= 0x80) {
+                // rare non-ASCII text, encode the remainder:
+                return append(text.subSequence(i, n).toString().getBytes(StandardCharsets.UTF_8));
+            }
+            line[length++] = (byte) c;
+        }
+        return this;
+    }
+
+    private GenomicTextWriter append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, line, length, bytes.length);
+        length += bytes.length;
+        return this;
+    }
+
+    /**
+     * Append values separated by a character. Appends nothing when there are no values.
+     */
+    public GenomicTextWriter append(Iterable<? extends CharSequence> values, char separator) {
+        boolean first = true;
+        for (CharSequence value : values) {
+            if (!first) {
+                append(separator);
+            }
+            append(value);
+            first = false;
+        }
+        return this;
+    }
+
+    /**
+     * Append an ASCII character.
+     */
+    public GenomicTextWriter append(char c) {
+        ensureCapacity(1);
+        line[length++] = (byte) c;
+        return this;
+    }
+
+    public GenomicTextWriter tab() {
+        return append('\t');
+    }
+
+    public GenomicTextWriter append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value));
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            line[length++] = '-';
+            value = -value;
+        }
+        final int start = length;
+        do {
+            line[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // digits were written from the least significant:
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            final byte digit = line[i];
+            line[i] = line[j];
+            line[j] = digit;
+        }
+        return this;
+    }
+
+    /**
+     * Append a value with a fixed number of decimals, as %.&lt;decimals&gt;f would. Values are rounded half up from
+     * their double approximation, so the last digit may differ from %f when a value is exactly halfway.
+     *
+     * @param decimals number of decimals, at most 9.
+     */
+    public GenomicTextWriter append(double value, int decimals) {
+        final double scaled = Math.abs(value) * POWERS_OF_TEN[decimals];
+        if (Double.isNaN(value) || Double.isInfinite(value) || scaled >= 1e18) {
+            return append(String.format("%." + decimals + "f", value));
+        }
+        final long rounded = Math.round(scaled);
+        if (Double.doubleToRawLongBits(value) < 0) {
+            append('-');
+        }
+        append(rounded / POWERS_OF_TEN[decimals]);
+        if (decimals > 0) {
+            append('.');
+            final long fraction = rounded % POWERS_OF_TEN[decimals];
+            for (int digits = decimals - 1; digits > 0 && fraction < POWERS_OF_TEN[digits]; digits--) {
+                append('0');
+            }
+            append(fraction);
+        }
+        return this;
+    }
+
+    /**
+     * End the current line and write it.
+     *
+     * @param referenceId reference sequence of the line.
+     * @param begin       zero-based start of the interval described by the line, inclusive.
+     * @param end         zero-based end of the interval, exclusive.
+     */
+    public void endLine(String referenceId, int begin, int end) {
+        append('\n');
+        if (index == null) {
+            flushLine();
+            return;
+        }
+        final long start = bgzf.position();
+        flushLine();
+        index.add(referenceId, begin, end, start, bgzf.position());
+    }
+
+    private void flushLine() {
+        try {
+            output.write(line, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write to " + filename, e);
+        }
+        length = 0;
+    }
+
+    private void ensureCapacity(int n) {
+        if (length + n > line.length) {
+            line = Arrays.copyOf(line, Math.max(2 * line.length, length + n));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+        if (index != null) {
+            if (index.isValid()) {
+                index.write(indexFilename(filename), bgzf::virtualOffset);
+            } else {
+                LOG.warn("Not indexing {}: {}.", filename, index.getInvalidReason());
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.campagnelab.dl.genotype.output;
+
+import com.google.common.io.LittleEndianDataOutputStream;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Builds the tabix index (.tbi) of a BGZF file as records are written. The index has the binning scheme and linear
+ * index of the SAM specification, with 16kb windows. Tabix needs the records of each reference sequence to be
+ * contiguous and sorted by start position. The index is marked invalid, and should not be written, when records
+ * arrive in another order.
+ */
+public class TabixIndex {
+    private static final int FORMAT_GENERIC = 0;
+    private static final int FORMAT_VCF = 2;
+    /**
+     * Flag of the format for zero-based, half-open intervals.
+     */
+    private static final int FORMAT_ZERO_BASED = 0x10000;
+    private static final int LINEAR_SHIFT = 14;
+    /**
+     * Positions past this limit cannot be binned in a tabix index.
+     */
+    private static final int MAX_POSITION = 1 << 29;
+    private static final long UNSET = -1;
+
+    private final int format;
+    private final int columnSequence;
+    private final int columnBegin;
+    private final int columnEnd;
+    private final ObjectArrayList<ReferenceIndex> references = new ObjectArrayList<>();
+    private final ObjectOpenHashSet<String> referenceIds = new ObjectOpenHashSet<>();
+    private ReferenceIndex current;
+    private int lastBegin;
+    private String invalidReason;
+
+    private TabixIndex(int format, int columnSequence, int columnBegin, int columnEnd) {
+        this.format = format;
+        this.columnSequence = columnSequence;
+        this.columnBegin = columnBegin;
+        this.columnEnd = columnEnd;
+    }
+
+    /**
+     * An index for VCF files, where the end of a record is determined by the length of its reference allele.
+     */
+    public static TabixIndex vcf() {
+        return new TabixIndex(FORMAT_VCF, 1, 2, 0);
+    }
+
+    /**
+     * An index for BED files, with zero-based start and end columns.
+     */
+    public static TabixIndex bed() {
+        return new TabixIndex(FORMAT_GENERIC | FORMAT_ZERO_BASED, 1, 2, 3);
+    }
+
+    public boolean isValid() {
+        return invalidReason == null;
+    }
+
+    /**
+     * Return why the index is not valid, or null when it is.
+     */
+    public String getInvalidReason() {
+        return invalidReason;
+    }
+
+    /**
+     * Index a record.
+     *
+     * @param referenceId the reference sequence of the record.
+     * @param begin       zero-based start of the record, inclusive.
+     * @param end         zero-based end of the record, exclusive.
+     * @param start       position of the record in the BGZF stream.
+     * @param stop        position after the record in the BGZF stream.
+     */
+    public void add(String referenceId, int begin, int end, long start, long stop) {
+        if (!isValid()) {
+            return;
+        }
+        end = Math.max(end, begin + 1);
+        if (current == null || !current.referenceId.equals(referenceId)) {
+            if (!referenceIds.add(referenceId)) {
+                invalidReason = String.format("records of reference %s are not contiguous", referenceId);
+                return;
+            }
+            current = new ReferenceIndex(referenceId);
+            references.add(current);
+        } else if (begin < lastBegin) {
+            invalidReason = String.format("records are not sorted by position at %s:%d", referenceId, begin + 1);
+            return;
+        }
+        if (begin < 0 || end > MAX_POSITION) {
+            invalidReason = String.format("position %s:%d is out of the range of tabix indices", referenceId, end);
+            return;
+        }
+        lastBegin = begin;
+        current.add(begin, end, start, stop);
+    }
+
+    /**
+     * Write the index, compressed with BGZF.
+     *
+     * @param filename      the .tbi file to write.
+     * @param virtualOffset converts positions given to add to virtual file offsets of the indexed file.
+     */
+    public void write(String filename, LongUnaryOperator virtualOffset) throws IOException {
+        if (!isValid()) {
+            throw new IllegalStateException("Cannot write an invalid index: " + invalidReason);
+        }
+        try (LittleEndianDataOutputStream output = new LittleEndianDataOutputStream(new BGZFOutputStream(filename, 1))) {
+            output.write(new byte[]{'T', 'B', 'I', 1});
+            output.writeInt(references.size());
+            output.writeInt(format);
+            output.writeInt(columnSequence);
+            output.writeInt(columnBegin);
+            output.writeInt(columnEnd);
+            // meta character, and number of lines to skip:
+            output.writeInt('#');
+            output.writeInt(0);
+            int namesLength = 0;
+            for (ReferenceIndex reference : references) {
+                namesLength += reference.referenceId.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+            output.writeInt(namesLength);
+            for (ReferenceIndex reference : references) {
+                output.write(reference.referenceId.getBytes(StandardCharsets.UTF_8));
+                output.write(0);
+            }
+            for (ReferenceIndex reference : references) {
+                reference.write(output, virtualOffset);
+            }
+        }
+    }
+
+    /**
+     * Bin of the SAM binning scheme that contains a zero-based, half-open interval.
+     */
+    static int reg2bin(int begin, int end) {
+        --end;
+        if (begin >> 14 == end >> 14) return ((1 << 15) - 1) / 7 + (begin >> 14);
+        if (begin >> 17 == end >> 17) return ((1 << 12) - 1) / 7 + (begin >> 17);
+        if (begin >> 20 == end >> 20) return ((1 << 9) - 1) / 7 + (begin >> 20);
+        if (begin >> 23 == end >> 23) return ((1 << 6) - 1) / 7 + (begin >> 23);
+        if (begin >> 26 == end >> 26) return ((1 << 3) - 1) / 7 + (begin >> 26);
+        return 0;
+    }
+
+    private static class ReferenceIndex {
+        private final String referenceId;
+        /**
+         * Chunks of each bin, as pairs of start and stop positions.
+         */
+        private final Int2ObjectOpenHashMap<LongArrayList> bins = new Int2ObjectOpenHashMap<>();
+        /**
+         * Position of the first record that overlaps each 16kb window.
+         */
+        private final LongArrayList linear = new LongArrayList();
+
+        ReferenceIndex(String referenceId) {
+            this.referenceId = referenceId;
+        }
+
+        void add(int begin, int end, long start, long stop) {
+            final int bin = reg2bin(begin, end);
+            LongArrayList chunks = bins.get(bin);
+            if (chunks == null) {
+                chunks = new LongArrayList();
+                bins.put(bin, chunks);
+            }
+            final int size = chunks.size();
+            if (size > 0 && chunks.getLong(size - 1) == start) {
+                // the record follows the last chunk of the bin, extend it:
+                chunks.set(size - 1, stop);
+            } else {
+                chunks.add(start);
+                chunks.add(stop);
+            }
+            final int lastWindow = (end - 1) >> LINEAR_SHIFT;
+            while (linear.size() <= lastWindow) {
+                linear.add(UNSET);
+            }
+            // records come sorted by start, so the first record seen in a window has the smallest offset:
+            for (int window = begin >> LINEAR_SHIFT; window <= lastWindow; window++) {
+                if (linear.getLong(window) == UNSET) {
+                    linear.set(window, start);
+                }
+            }
+        }
+
+        void write(LittleEndianDataOutputStream output, LongUnaryOperator virtualOffset) throws IOException {
+            final int[] binNumbers = bins.keySet().toIntArray();
+            IntArrays.quickSort(binNumbers);
+            output.writeInt(binNumbers.length);
+            for (int bin : binNumbers) {
+                final LongArrayList chunks = bins.get(bin);
+                output.writeInt(bin);
+                output.writeInt(chunks.size() / 2);
+                for (int i = 0; i < chunks.size(); i++) {
+                    output.writeLong(virtualOffset.applyAsLong(chunks.getLong(i)));
+                }
+            }
+            output.writeInt(linear.size());
+            // windows that no record overlaps take the offset of the window before:
+            long previous = 0;
+            for (int window = 0; window < linear.size(); window++) {
+                final long offset = linear.getLong(window);
+                if (offset != UNSET) {
+                    previous = virtualOffset.applyAsLong(offset);
+                }
+                output.writeLong(previous);
+            }
+        }
+    }
+}
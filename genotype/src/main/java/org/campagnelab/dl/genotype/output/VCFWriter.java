@@ -0,0 +1,30 @@
+package org.campagnelab.dl.genotype.output;
+
+import java.io.IOException;
+
+/**
+ * Writes VCF records. Fields are appended with the methods of {@link GenomicTextWriter}, then
+ * {@link #endRecord(String, int, String)} writes the record. Compressed VCF files are indexed as tabix -p vcf would.
+ */
+public class VCFWriter extends GenomicTextWriter {
+
+    /**
+     * @param filename           name of the VCF file, without the .gz extension.
+     * @param bgzip              compress with block gzip and index the file.
+     * @param compressionThreads number of threads that compress blocks.
+     */
+    public VCFWriter(String filename, boolean bgzip, int compressionThreads) throws IOException {
+        super(filename, bgzip, compressionThreads, TabixIndex.vcf());
+    }
+
+    /**
+     * End the current record.
+     *
+     * @param referenceId     the CHROM field.
+     * @param position        the one-based POS field.
+     * @param referenceAllele the REF field, which determines the interval that the record spans.
+     */
+    public void endRecord(String referenceId, int position, String referenceAllele) {
+        endLine(referenceId, position - 1, position - 1 + referenceAllele.length());
+    }
+}
@@ -1,51 +1,65 @@
 package org.campagnelab.dl.genotype.performance;
 
-import org.apache.commons.io.IOUtils;
+import org.campagnelab.dl.genotype.output.BEDWriter;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 
 /**
  * Helper to write bed file for observed regions, as well as TP, TN, FP, FN.
  * Created by fac2003 on 2/20/17.
  */
 public class BEDHelper {
-    private PrintWriter positionWriter;
-    private PrintWriter fpWriter;
-    private PrintWriter fnWriter;
-    private PrintWriter tpWriter;
-    private PrintWriter tnWriter;
+    private BEDWriter positionWriter;
+    private BEDWriter fpWriter;
+    private BEDWriter fnWriter;
+    private BEDWriter tpWriter;
+    private BEDWriter tnWriter;
 
     public BEDHelper(String basename) throws IOException {
-        positionWriter = new PrintWriter(new FileWriter(basename + "-observed-regions.bed"));
-        fpWriter = new PrintWriter(new FileWriter(basename + "-fp.bed"));
-        fnWriter = new PrintWriter(new FileWriter(basename + "-fn.bed"));
-        tpWriter = new PrintWriter(new FileWriter(basename + "-tp.bed"));
-        tnWriter = new PrintWriter(new FileWriter(basename + "-tn.bed"));
+        this(basename, false, 1);
+    }
+
+    /**
+     * @param bgzip              compress the bed files with block gzip and index them with tabix.
+     * @param compressionThreads number of threads that compress each bed file.
+     */
+    public BEDHelper(String basename, boolean bgzip, int compressionThreads) throws IOException {
+        positionWriter = new BEDWriter(basename + "-observed-regions.bed", bgzip, compressionThreads);
+        fpWriter = new BEDWriter(basename + "-fp.bed", bgzip, compressionThreads);
+        fnWriter = new BEDWriter(basename + "-fn.bed", bgzip, compressionThreads);
+        tpWriter = new BEDWriter(basename + "-tp.bed", bgzip, compressionThreads);
+        tnWriter = new BEDWriter(basename + "-tn.bed", bgzip, compressionThreads);
+    }
+
+    public String getObservedRegionsFilename() {
+        return positionWriter.getFilename();
     }
 
     public void close() {
-        IOUtils.closeQuietly(positionWriter);
-        IOUtils.closeQuietly(fpWriter);
-        IOUtils.closeQuietly(fnWriter);
-        IOUtils.closeQuietly(tpWriter);
-        IOUtils.closeQuietly(tnWriter);
+        try {
+            positionWriter.close();
+            fpWriter.close();
+            fnWriter.close();
+            tpWriter.close();
+            tnWriter.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to close bed files.", e);
+        }
     }
 
     public void add(String referenceId, int start, int end, int index, StatsAccumulator stats) {
-        positionWriter.printf("%s\t%d\t%d\t%d\n", referenceId, start, end, index);
+        positionWriter.write(referenceId, start, end, index);
         if (stats.observedWasFP()) {
-            fpWriter.printf("%s\t%d\t%d\t%d\n", referenceId, start, end, index);
+            fpWriter.write(referenceId, start, end, index);
         }
         if (stats.observedWasFN()) {
-            fnWriter.printf("%s\t%d\t%d\t%d\n", referenceId, start, end, index);
+            fnWriter.write(referenceId, start, end, index);
         }
         if (stats.observedWasTP()) {
-            tpWriter.printf("%s\t%d\t%d\t%d\n", referenceId, start, end, index);
+            tpWriter.write(referenceId, start, end, index);
         }
         if (stats.observedWasTN()) {
-            tnWriter.printf("%s\t%d\t%d\t%d\n", referenceId, start, end, index);
+            tnWriter.write(referenceId, start, end, index);
         }
 
 
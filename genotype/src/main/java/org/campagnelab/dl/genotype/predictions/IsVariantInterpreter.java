@@ -1,6 +1,7 @@
 package org.campagnelab.dl.genotype.predictions;
 
-import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.domains.prediction.BatchInterpretation;
+import org.campagnelab.dl.framework.domains.prediction.BatchPredictionInterpreter;
 import org.campagnelab.dl.framework.mappers.BooleanLabelMapper;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -9,7 +10,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * This interpreter extracts isVariant predictions (confidence in a genotype being a true variant).
  * Created by fac2003 on 12/22/16.
  */
-public class IsVariantInterpreter implements PredictionInterpreter<BaseInformationRecords.BaseInformation,
+public class IsVariantInterpreter implements BatchPredictionInterpreter<BaseInformationRecords.BaseInformation,
         IsVariantPrediction> {
 
     private double DECISION_THRESHOLD;
@@ -41,4 +42,28 @@ public class IsVariantInterpreter implements PredictionInterpreter<BaseInformati
 
         return p;
     }
+
+    /**
+     * Store 1 in predictedIndex when the example is predicted to be a variant, 0 otherwise, and the largest of the
+     * two class probabilities in probability.
+     */
+    @Override
+    public void interpret(float[] output, int numExamples, int numColumns, BatchInterpretation results) {
+        for (int example = 0; example < numExamples; example++) {
+            final float isTrue = output[example * numColumns + BooleanLabelMapper.IS_TRUE];
+            final float isFalse = output[example * numColumns + BooleanLabelMapper.IS_FALSE];
+            results.predictedIndex[example] = isTrue > DECISION_THRESHOLD ? 1 : 0;
+            results.probability[example] = Math.max(isTrue, isFalse);
+        }
+    }
+
+    @Override
+    public IsVariantPrediction prediction(BaseInformationRecords.BaseInformation record, BatchInterpretation results,
+                                          int exampleIndex) {
+        IsVariantPrediction p = new IsVariantPrediction();
+        p.isVariantTruth = record.getSamples(0).getIsVariant();
+        p.isVariantPredicted = results.predictedIndex[exampleIndex] == 1;
+        p.probability = results.probability[exampleIndex];
+        return p;
+    }
 }
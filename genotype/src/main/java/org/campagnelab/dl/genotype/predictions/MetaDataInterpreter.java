@@ -1,6 +1,7 @@
 package org.campagnelab.dl.genotype.predictions;
 
-import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.domains.prediction.BatchInterpretation;
+import org.campagnelab.dl.framework.domains.prediction.BatchPredictionInterpreter;
 import org.campagnelab.dl.genotype.helpers.GenotypeHelper;
 import org.campagnelab.dl.genotype.mappers.MetaDataLabelMapper;
 import org.campagnelab.dl.genotype.mappers.RecordCountSortHelper;
@@ -11,7 +12,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * This interpreter extracts meta-data (isVariant, isIndel, etc.) from the meta-data label.
  * Created by fac2003 on 12/22/16.
  */
-public class MetaDataInterpreter implements PredictionInterpreter<BaseInformationRecords.BaseInformation,
+public class MetaDataInterpreter implements BatchPredictionInterpreter<BaseInformationRecords.BaseInformation,
         MetadataPrediction> {
     private int sampleIndex;
     private RecordCountSortHelper sortHelper = new RecordCountSortHelper();
@@ -68,4 +69,17 @@ public class MetaDataInterpreter implements PredictionInterpreter<BaseInformatio
         };
         return p;
     }
+
+    /**
+     * Meta-data is read from the records, the output is not needed.
+     */
+    @Override
+    public void interpret(float[] output, int numExamples, int numColumns, BatchInterpretation results) {
+    }
+
+    @Override
+    public MetadataPrediction prediction(BaseInformationRecords.BaseInformation record, BatchInterpretation results,
+                                         int exampleIndex) {
+        return interpret(record, (INDArray) null);
+    }
 }
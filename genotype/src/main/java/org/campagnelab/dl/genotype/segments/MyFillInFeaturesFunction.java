@@ -1,8 +1,6 @@
 package org.campagnelab.dl.genotype.segments;
 
-import it.unimi.dsi.fastutil.floats.FloatArrayList;
-import it.unimi.dsi.fastutil.floats.FloatList;
-import it.unimi.dsi.fastutil.floats.FloatListIterator;
+import org.campagnelab.dl.framework.mappers.BulkFeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.campagnelab.dl.genotype.helpers.GenotypeHelper;
 import org.campagnelab.dl.genotype.tools.SBIToSSIConverterArguments;
@@ -15,11 +13,16 @@ import java.util.List;
  * Function used by the sbi to ssi converter to populate features and labels.
  */
 public class MyFillInFeaturesFunction implements FillInFeaturesFunction {
-    private final FeatureMapper featureMapper;
+    private final FeatureMapper<BaseInformationRecords.BaseInformation> featureMapper;
     private final SegmentLabelMapper labelMapper;
     private final SBIToSSIConverterArguments arguments;
+    /**
+     * Features of the current record, reused across records.
+     */
+    private float[] features;
 
-    public MyFillInFeaturesFunction(FeatureMapper featureMapper, SegmentLabelMapper labelMapper, SBIToSSIConverterArguments arguments) {
+    public MyFillInFeaturesFunction(FeatureMapper<BaseInformationRecords.BaseInformation> featureMapper,
+                                    SegmentLabelMapper labelMapper, SBIToSSIConverterArguments arguments) {
         this.featureMapper = featureMapper;
         this.labelMapper = labelMapper;
         this.arguments = arguments;
@@ -53,19 +56,22 @@ public class MyFillInFeaturesFunction implements FillInFeaturesFunction {
 
         builder.setOffset(maxOffset);
         if (args().mapFeatures) {
-            FloatList features = new FloatArrayList(featureMapper.numberOfFeatures());
-            featureMapper.prepareToNormalize(baseInformation, 0);
-            if (trueGenotype.length() > 3) {
-                //    System.out.println("Indel:" + baseInformation.getTrueGenotype());
+            final int numFeatures = featureMapper.numberOfFeatures();
+            if (features == null || features.length != numFeatures) {
+                features = new float[numFeatures];
             }
-            features.clear();
-            for (int featureIndex = 0; featureIndex < featureMapper.numberOfFeatures(); featureIndex++) {
-                features.add(featureMapper.produceFeature(baseInformation, featureIndex));
+            featureMapper.prepareToNormalize(baseInformation, 0);
+            if (featureMapper instanceof BulkFeatureMapper) {
+                ((BulkFeatureMapper<BaseInformationRecords.BaseInformation>) featureMapper).mapFeatures(baseInformation,
+                        features, 0, 0);
+            } else {
+                for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                    features[featureIndex] = featureMapper.produceFeature(baseInformation, featureIndex);
+                }
             }
             builder.clearFeatures();
-            for (FloatListIterator iterator = features.iterator(); iterator.hasNext(); ) {
-                float next =  iterator.nextFloat();
-                builder.addFeatures(next);
+            for (int featureIndex = 0; featureIndex < numFeatures; featureIndex++) {
+                builder.addFeatures(features[featureIndex]);
             }
         }
         if (args().mapLabels) {
@@ -1,9 +1,9 @@
 package org.campagnelab.dl.genotype.segments;
 
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
-import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
-import it.unimi.dsi.fastutil.objects.ObjectSet;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +14,11 @@ import java.util.List;
 import java.util.Spliterator;
 import java.util.function.Predicate;
 
+/**
+ * The records of a segment, in genomic order, with an overlay of hidden records and of records inserted after others.
+ * The records of a segment are on the same reference sequence, so the overlay is keyed by genomic position rather
+ * than by record, which would hash and compare whole protobuf messages.
+ */
 public class RecordList implements Iterable<BaseInformationRecords.BaseInformation> {
     static private Logger LOG = LoggerFactory.getLogger(RecordList.class);
 
@@ -23,12 +28,24 @@ public class RecordList implements Iterable<BaseInformationRecords.BaseInformati
     }
 
     ArrayList<BaseInformationRecords.BaseInformation> records = new ArrayList<>();
+    /**
+     * Records, keyed by position.
+     */
+    private Int2ObjectOpenHashMap<BaseInformationRecords.BaseInformation> recordAt = new Int2ObjectOpenHashMap<>();
     /*
-     * A map that contains list of records following a specific record. Use to combine indel position that are interleaved with
-     * original records. When we need the full list of record, we combine record a in records with the records following a in
-     * afterRecord.
+     * A map that contains list of records following the record at a specific position. Use to combine indel position that are interleaved with
+     * original records. When we need the full list of record, we combine record a in records with the records following
+     * the position of a in afterRecord.
+     */
+    public Int2ObjectOpenHashMap<List<BaseInformationRecords.BaseInformation>> afterRecord = new Int2ObjectOpenHashMap<>();
+    /**
+     * Positions of the records that are hidden from the full list.
+     */
+    public IntSet hideSet = new IntOpenHashSet();
+    /**
+     * Number of records in the full list: records that are not hidden, and the records that follow them.
      */
-    public Object2ObjectOpenHashMap<BaseInformationRecords.BaseInformation, List<BaseInformationRecords.BaseInformation>> afterRecord = new Object2ObjectOpenHashMap<>();
+    private int length;
 
     /**
      * Returns an iterator over elements of type {@code T}.
@@ -56,42 +73,76 @@ public class RecordList implements Iterable<BaseInformationRecords.BaseInformati
 
     public void add(BaseInformationRecords.BaseInformation record) {
         records.add(record);
+        recordAt.put(record.getPosition(), record);
+        length += fullLength(record.getPosition());
     }
 
-    public BaseInformationRecords.BaseInformation insertAfter(BaseInformationRecords.BaseInformation previous,
-                                                              BaseInformationRecords.BaseInformation buildFrom,
-                                                              char insertedDeleted, int offset) {
-        BaseInformationRecords.BaseInformation.Builder copy = buildFrom.toBuilder();
+    /**
+     * Get the record at a position, or null if the list has none.
+     */
+    public BaseInformationRecords.BaseInformation get(int position) {
+        return recordAt.get(position);
+    }
 
-        String trueFrom = previous.getTrueFrom();
-        if (trueFrom.length() > offset + 1) {
-            copy.setTrueFrom(previous.getTrueFrom().substring(offset, offset + 1));
-        } else {
-            copy.setTrueFrom("");
-        }
-        copy.setTrueGenotype(Character.toString(insertedDeleted));
-        final BaseInformationRecords.BaseInformation builtCopy = copy.build();
-        //  System.out.println("Adding builtCopy:"+FormatterCountHelper.format(builtCopy.getSamples(0)));
-        addToFollowing(previous, builtCopy);
-        //records.add(records.indexOf(previous) + 1, builtCopy);
-        return previous;
+    /**
+     * Return the number of records in the full list, updated as records are added, hidden, inserted or removed.
+     * Records inserted after, or hidden, are expected to be in the list.
+     */
+    public int length() {
+        return length;
+    }
 
+    /**
+     * Number of records that the record at a position contributes to the full list.
+     */
+    private int fullLength(int position) {
+        final List<BaseInformationRecords.BaseInformation> following = afterRecord.get(position);
+        return (hideSet.contains(position) ? 0 : 1) + (following == null ? 0 : following.size());
     }
 
     void addToFollowing(BaseInformationRecords.BaseInformation previous, BaseInformationRecords.BaseInformation builtCopy) {
-        List<BaseInformationRecords.BaseInformation> list = afterRecord.getOrDefault(previous, new ObjectArrayList<>());
+        List<BaseInformationRecords.BaseInformation> list = afterRecord.get(previous.getPosition());
+        if (list == null) {
+            list = new ObjectArrayList<>();
+            afterRecord.put(previous.getPosition(), list);
+        }
         list.add(builtCopy);
-        afterRecord.put(previous, list);
+        length++;
     }
 
     public void removeWhere(Predicate<BaseInformationRecords.BaseInformation> predicateIsTrue) {
-        records.removeIf(predicateIsTrue);
+        records.removeIf(record -> {
+            if (predicateIsTrue.test(record)) {
+                forget(record.getPosition());
+                return true;
+            }
+            return false;
+        });
+    }
 
+    /**
+     * Remove the record at the position of the given record.
+     */
+    public void remove(BaseInformationRecords.BaseInformation record) {
+        final int position = record.getPosition();
+        if (recordAt.containsKey(position)) {
+            removeWhere(candidate -> candidate.getPosition() == position);
+        }
     }
 
-    public ObjectSet<BaseInformationRecords.BaseInformation> hideSet = new ObjectOpenHashSet<>();
+    /**
+     * Drop the record at a position, and the records that follow it, from the overlay.
+     */
+    private void forget(int position) {
+        length -= fullLength(position);
+        recordAt.remove(position);
+        afterRecord.remove(position);
+        hideSet.remove(position);
+    }
 
     public void hideRecord(BaseInformationRecords.BaseInformation record) {
-        hideSet.add(record);
+        if (hideSet.add(record.getPosition())) {
+            length--;
+        }
     }
 }
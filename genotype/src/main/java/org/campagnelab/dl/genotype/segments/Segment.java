@@ -1,7 +1,7 @@
 package org.campagnelab.dl.genotype.segments;
 
-import com.google.common.collect.Iterators;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArraySet;
 import it.unimi.dsi.fastutil.objects.ObjectSet;
@@ -84,20 +84,22 @@ public class Segment {
         refBuilder.setReferenceId(this.getLastReferenceId());
         builder.setEndPosition(refBuilder.build());
 
-        final long[] segmentStats = {0L, 0L, 0L};
         int numSamples = getFirstRecord().getSamplesCount();
         SegmentInformationRecords.Sample.Builder sampleBuilder[] = new SegmentInformationRecords.Sample.Builder[numSamples];
         for (int sampleIndex = 0; sampleIndex < numSamples; sampleIndex++) {
             sampleBuilder[sampleIndex] = SegmentInformationRecords.Sample.newBuilder();
         }
-        getAllRecords().forEach(record -> {
-
+        int length = 0;
+        for (BaseInformationRecords.BaseInformation record : getAllRecords()) {
+            // features and labels are mapped from the first sample, so the base is the same for every sample.
+            // Map it once and share the immutable message:
+            final SegmentInformationRecords.Base base = fillInFeatures.apply(record).build();
             for (int sampleIndex = 0; sampleIndex < numSamples; sampleIndex++) {
-                SegmentInformationRecords.Base.Builder base = fillInFeatures.apply(record);
                 sampleBuilder[sampleIndex].addBase(base);
             }
-        });
-        builder.setLength(sampleBuilder[0].getBaseCount());
+            length++;
+        }
+        builder.setLength(length);
         for (int sampleIndex = 0; sampleIndex < numSamples; sampleIndex++) {
             builder.addSample(sampleBuilder[sampleIndex]);
         }
@@ -132,13 +134,12 @@ public class Segment {
                 getLastReferenceId(), getLastPosition(), actualLength());
     }
 
-    public int  actualLength() {
-        if (recordList.size() == 0)
-            return 0;
-        else {
-            //
-            return Iterators.size(getAllRecords().iterator());
-        }
+    /**
+     * Return the number of records of the segment, including the records inserted after others, and excluding hidden
+     * records.
+     */
+    public int actualLength() {
+        return recordList.length();
     }
     public String getFirstReferenceId() {
         return this.firstReferenceId;
@@ -186,12 +187,18 @@ public class Segment {
      */
     public Iterable<BaseInformationRecords.BaseInformation> getAllRecords(int startPosition, int endPosition) {
         ObjectArrayList<BaseInformationRecords.BaseInformation> list = new ObjectArrayList();
+        final IntSet hidden = getHiddenRecords();
+        final Int2ObjectOpenHashMap<List<BaseInformationRecords.BaseInformation>> after = getAfterRecords();
         for (BaseInformationRecords.BaseInformation record : recordList) {
-            if (record.getPosition() >= startPosition && record.getPosition() < endPosition) {
-                if (!getHiddenRecords().contains(record)) {
+            final int position = record.getPosition();
+            if (position >= startPosition && position < endPosition) {
+                if (!hidden.contains(position)) {
                     list.add(record);
                 }
-                list.addAll(getAfterRecords().getOrDefault(record, Collections.emptyList()));
+                final List<BaseInformationRecords.BaseInformation> following = after.get(position);
+                if (following != null) {
+                    list.addAll(following);
+                }
             }
         }
 
@@ -208,12 +215,18 @@ public class Segment {
      */
     public int actualLength(int startPosition, int endPosition) {
         int count = 0;
+        final IntSet hidden = getHiddenRecords();
+        final Int2ObjectOpenHashMap<List<BaseInformationRecords.BaseInformation>> after = getAfterRecords();
         for (BaseInformationRecords.BaseInformation record : recordList) {
-            if (record.getPosition() >= startPosition && record.getPosition() <= endPosition) {
-                if (!getHiddenRecords().contains(record)) {
+            final int position = record.getPosition();
+            if (position >= startPosition && position <= endPosition) {
+                if (!hidden.contains(position)) {
                     count += 1;
                 }
-                count += getAfterRecords().getOrDefault(record, Collections.emptyList()).size();
+                final List<BaseInformationRecords.BaseInformation> following = after.get(position);
+                if (following != null) {
+                    count += following.size();
+                }
             }
         }
         return count;
@@ -235,8 +248,6 @@ public class Segment {
         // we store counts in a map for easy access (map keyed on to sequence of the count):
         // we know we may need a gap count, so we add one, because none in the sbi:
 
-        int sampleIndex = 0;
-        int countIndex = 0;
         String recordTrueGenotype = expand(copy.getTrueGenotype(),longestReference);
 
         for (BaseInformationRecords.SampleInfo.Builder sample : copy.getSamplesBuilderList()) {
@@ -281,10 +292,7 @@ public class Segment {
             for (BaseInformationRecords.CountInfo.Builder count : countsToKeep) {
                 sample.addCounts(count);
             }
-            copy.setSamples(sampleIndex, sample);
-
-            sampleIndex++;
-
+            // sample is a live builder of copy, so there is no need to set it back (and rebuild it).
         }
         return copy;
     }
@@ -385,30 +393,46 @@ public class Segment {
     }
 
     public void remove(BaseInformationRecords.BaseInformation record) {
-        recordList.records.remove(record);
+        recordList.remove(record);
     }
 
     public void removeWhere(Predicate<BaseInformationRecords.BaseInformation> predicateIsTrue) {
-        recordList.records.removeIf(predicateIsTrue);
+        recordList.removeWhere(predicateIsTrue);
     }
 
+    /**
+     * Return the first record at a position in the complete list of records, or null if there is none.
+     */
     public BaseInformationRecords.BaseInformation getRecordAt(int position) {
-        for (BaseInformationRecords.BaseInformation record : getAllRecords()) {
-            if (record.getPosition() == position)
-                return record;
+        return firstRecordAt(recordList.get(position));
+    }
+
+    /**
+     * Return the record itself, or the first record inserted after it when it is hidden.
+     */
+    protected BaseInformationRecords.BaseInformation firstRecordAt(BaseInformationRecords.BaseInformation record) {
+        if (record == null || !getHiddenRecords().contains(record.getPosition())) {
+            return record;
         }
-        return null;
+        final List<BaseInformationRecords.BaseInformation> following = getAfterRecords().get(record.getPosition());
+        return following == null || following.isEmpty() ? null : following.get(0);
     }
 
     public void hideRecord(BaseInformationRecords.BaseInformation record) {
         this.recordList.hideRecord(record);
     }
 
-    public ObjectSet<BaseInformationRecords.BaseInformation> getHiddenRecords() {
+    /**
+     * Positions of the hidden records.
+     */
+    public IntSet getHiddenRecords() {
         return this.recordList.hideSet;
     }
 
-    public Object2ObjectOpenHashMap<BaseInformationRecords.BaseInformation, List<BaseInformationRecords.BaseInformation>> getAfterRecords() {
+    /**
+     * Records inserted after others, keyed by the position of the record they follow.
+     */
+    public Int2ObjectOpenHashMap<List<BaseInformationRecords.BaseInformation>> getAfterRecords() {
         return this.recordList.afterRecord;
     }
 
@@ -152,6 +152,15 @@ public class SegmentHelper {
         this.closeSegment();
     }
 
+    /**
+     * Add the indel counts of a helper that built other segments of the same output, so that printStats reports the
+     * totals. Statistics collected with --collect-statistics are already shared by all helpers.
+     */
+    public void addCounts(SegmentHelper other) {
+        segmentsWithCandidateIndel += other.segmentsWithCandidateIndel;
+        segmentsWithTrueIndel += other.segmentsWithTrueIndel;
+    }
+
     public void printStats() {
         System.out.printf("Segments with candidate indels: %d%n" +
                 "Segments with true indels: %d%n",segmentsWithCandidateIndel,segmentsWithTrueIndel);
@@ -1,13 +1,12 @@
 package org.campagnelab.dl.genotype.segments;
 
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
-import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
-import it.unimi.dsi.fastutil.objects.ObjectSet;
 import org.campagnelab.dl.genotype.segments.splitting.SingleCandidateIndelSplitStrategy;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 
-import java.util.Collections;
 import java.util.List;
 
 
@@ -22,8 +21,11 @@ public class SingleCandidateIndelSegment extends Segment {
     private final int windowSize;
     private final Segment parent;
     private boolean closed = false;
-    public ObjectSet<BaseInformationRecords.BaseInformation> hideSet = new ObjectOpenHashSet<>();
-    public Object2ObjectOpenHashMap<BaseInformationRecords.BaseInformation, List<BaseInformationRecords.BaseInformation>> afterRecord = new Object2ObjectOpenHashMap<>();
+    /**
+     * Overlay of the parent records in this sub-segment, keyed by position.
+     */
+    public IntSet hideSet = new IntOpenHashSet();
+    public Int2ObjectOpenHashMap<List<BaseInformationRecords.BaseInformation>> afterRecord = new Int2ObjectOpenHashMap<>();
 
     public SingleCandidateIndelSegment(final SingleCandidateIndelSplitStrategy.BasePositionList beforePositions,
                                           final Segment parent, final BaseInformationRecords.BaseInformation indel,
@@ -87,18 +89,22 @@ public class SingleCandidateIndelSegment extends Segment {
     public Iterable<BaseInformationRecords.BaseInformation> getAllRecords(int startPosition, int endPosition) {
         ObjectArrayList<BaseInformationRecords.BaseInformation> list = new ObjectArrayList(this.actualLength() * 3 / 2);
         for (BaseInformationRecords.BaseInformation record : parent.recordList) {
-            if (record.getPosition() >= startPosition && record.getPosition() <= endPosition) {
-                if (!getHiddenRecords().contains(record)) {
+            final int position = record.getPosition();
+            if (position >= startPosition && position <= endPosition) {
+                if (!hideSet.contains(position)) {
                     list.add(record);
                 }
-                list.addAll(getAfterRecords().getOrDefault(record, Collections.emptyList()));
+                final List<BaseInformationRecords.BaseInformation> following = afterRecord.get(position);
+                if (following != null) {
+                    list.addAll(following);
+                }
             }
         }
 
         return list;
     }
     @Override
-    public Object2ObjectOpenHashMap<BaseInformationRecords.BaseInformation, List<BaseInformationRecords.BaseInformation>> getAfterRecords() {
+    public Int2ObjectOpenHashMap<List<BaseInformationRecords.BaseInformation>> getAfterRecords() {
         return this.afterRecord;
     }
 
@@ -107,23 +113,34 @@ public class SingleCandidateIndelSegment extends Segment {
         return parent.getRecordAt(startPosition);
     }
 
+    @Override
+    public BaseInformationRecords.BaseInformation getRecordAt(int position) {
+        if (position < startPosition || position > endPosition) {
+            return null;
+        }
+        return firstRecordAt(parent.recordList.get(position));
+    }
 
     @Override
     public void hideRecord(BaseInformationRecords.BaseInformation record) {
-        this.hideSet.add(record);
+        this.hideSet.add(record.getPosition());
     }
 
     @Override
-    public ObjectSet<BaseInformationRecords.BaseInformation> getHiddenRecords() {
+    public IntSet getHiddenRecords() {
         return this.hideSet;
     }
 
 
     @Override
     public void insertAfter(BaseInformationRecords.BaseInformation record, BaseInformationRecords.BaseInformation.Builder copy) {
-        List<BaseInformationRecords.BaseInformation> list = afterRecord.getOrDefault(record, new ObjectArrayList<>());
+        List<BaseInformationRecords.BaseInformation> list = afterRecord.get(record.getPosition());
+        if (list == null) {
+            list = new ObjectArrayList<>();
+            afterRecord.put(record.getPosition(), list);
+        }
         list.add(copy.build());
-        afterRecord.put(record, list);    }
+    }
 
     /**
      * Decides if the base belongs to this subsegment
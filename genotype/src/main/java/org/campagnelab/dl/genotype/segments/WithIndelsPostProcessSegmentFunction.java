@@ -50,8 +50,8 @@ public class WithIndelsPostProcessSegmentFunction implements PostProcessSegmentF
                     copy.addAllCalledCountIndices(indices);
                     int sampleIndex = 0;
                     for (BaseInformationRecords.SampleInfo.Builder sampleInfo : copy.getSamplesBuilderList()) {
+                        // sampleInfo is a live builder of copy, setting it back would rebuild the sample:
                         sampleInfo.addAllCalledCountIndices(sampleIndicesList.get(sampleIndex));
-                        copy.setSamples(sampleIndex, sampleInfo);
                         sampleIndex++;
                     }
                     copy = segment.adjustCounts(copy, offset, longestReference);
@@ -1,11 +1,13 @@
 package org.campagnelab.dl.genotype.tools;
 
 
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.logging.ProgressLogger;
-import org.apache.commons.io.FilenameUtils;
 import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
+import org.campagnelab.dl.framework.utils.DaemonThreadFactory;
 import org.campagnelab.dl.genotype.helpers.AddTrueGenotypeHelper;
+import org.campagnelab.dl.genotype.helpers.TrueGenotypeIndex;
 import org.campagnelab.dl.somatic.storage.RecordReader;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.campagnelab.goby.baseinfo.SequenceBaseInformationWriter;
@@ -13,141 +15,262 @@ import org.campagnelab.goby.reads.RandomAccessSequenceCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
- * The addcalls object uses a map to create a new protobuf file with genotype calls.
+ * The addcalls object uses a map to create a new protobuf file with genotype calls. Records are read on the main
+ * thread and handed in batches to labeling threads. The genome is loaded once and only read by the main thread, which
+ * looks up the reference base of each record before handing it over, so that labeling threads never access the
+ * genome cache. The map is loaded once into a {@link TrueGenotypeIndex} shared by the helpers of all labeling threads.
+ * Labeled batches are written in input order to a single output file, so the output is sorted when the input is.
  * <p>
  * Created by rct66 on 5/18/16.
  *
  * @author rct66
  */
-public class AddTrueGenotypesMultiThreaded extends AbstractTool<AddTrueGenotypesArguments> implements Runnable{
+public class AddTrueGenotypesMultiThreaded extends AbstractTool<AddTrueGenotypesMultiThreadedArguments> {
 
+    /**
+     * Statistics that each helper counts for the records it labeled, summed across helpers.
+     */
+    private static final Set<String> SUMMED_STATS = new HashSet<>(Arrays.asList(
+            "addTrueGenotypes.numIndelsIgnored",
+            "addTrueGenotypes.numVariantsAdded",
+            "addTrueGenotypes.input.numRecords"));
 
     RandomAccessSequenceCache genome;
-    final static int THREAD_COUNT = 8;
-    final public static boolean PRINT_INDEL_ERROR_CONTEXT = false;
+    private TrueGenotypeIndex truthIndex;
+    private List<AddTrueGenotypeHelper> helpers = Collections.synchronizedList(new ArrayList<>());
 
     static private Logger LOG = LoggerFactory.getLogger(AddTrueGenotypesMultiThreaded.class);
 
     public static void main(String[] args) {
 
         AddTrueGenotypesMultiThreaded tool = new AddTrueGenotypesMultiThreaded();
-        tool.parseArguments(args, "AddTrueGenotypes", tool.createArguments());
-        tool.prepare();
-        for (int i = 0; i < THREAD_COUNT; i++ ){
-            new Thread(tool).start();
-        }
-        tool.finish();
+        tool.parseArguments(args, "AddTrueGenotypesMultiThreaded", tool.createArguments());
+        tool.execute();
 
     }
 
-    public void prepare(){
+    @Override
+    //only supports genotypes encoded with a bar (|) delimiter
+    public void execute() {
+        String genomePath = args().genomeFilename;
+        try {
+            System.err.println("Loading genome cache " + genomePath);
+            genome = new RandomAccessSequenceCache();
+            genome.load(genomePath, "min", "max");
+            System.err.println("Done loading genome. ");
+        } catch (ClassNotFoundException | IOException e) {
+            System.err.println("Could not load genome cache");
+            e.printStackTrace();
+            System.exit(1);
+        }
         try {
-            source = new RecordReader(args().inputFile);
-            iter =  source.iterator();
-            recordLogger = new ProgressLogger(LOG);
+            truthIndex = new TrueGenotypeIndex(args().genotypeMap);
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Unable to load true genotype map with filename " + args().genotypeMap, e);
+        }
+        System.out.printf("Indexed %d true genotypes on %d chromosomes%n", truthIndex.numVariants(),
+                truthIndex.numChromosomes());
+        try (RecordReader source = new RecordReader(args().inputFile)) {
+            SequenceBaseInformationWriter dest = new SequenceBaseInformationWriter(args().outputFilename);
+            ProgressLogger recordLogger = new ProgressLogger(LOG);
             recordLogger.expectedUpdates = source.numRecords();
             System.out.println(source.numRecords() + " records to label");
-            recordsLabeled = 0;
             recordLogger.start();
-            ObjectArrayList<BaseInformationRecords.BaseInformation> recContext = new ObjectArrayList<>(1000);
+            final long start = System.nanoTime();
+            label(source, record -> {
+                        recordLogger.lightUpdate();
+                        return AddTrueGenotypeHelper.referenceBase(genome, record);
+                    }, this::createHelper,
+                    Math.max(1, args().numThreads), Math.max(1, args().batchSize), dest::appendEntry);
+            recordLogger.done();
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            dest.setCustomProperties(mergeStatProperties(helpers));
+            dest.close();
+            if (!helpers.isEmpty()) {
+                for (int i = 1; i < helpers.size(); i++) {
+                    helpers.get(0).addCounts(helpers.get(i));
+                }
+                helpers.get(0).printStats();
+            }
+            System.out.printf("Labeled %d records in %.1f s (%.0f records/s) with %d threads, peak heap used %d MB%n",
+                    recordLogger.count, seconds, recordLogger.count / seconds, Math.max(1, args().numThreads),
+                    peakHeapUsed() >> 20);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    @Override
-    //only supports genotypes encoded with a bar (|) delimiter
-    public void run() {
-        AddTrueGenotypeHelper addTrueGenotypeHelper  = new AddTrueGenotypeHelper();
-        SequenceBaseInformationWriter dest = null;
-        genome = new RandomAccessSequenceCache();
-        try {
-            genome.load(args().genomeFilename, "min", "max");
-            dest = new SequenceBaseInformationWriter(FilenameUtils.getFullPath(args().outputFilename) + FilenameUtils.getBaseName(args().outputFilename) + Thread.currentThread().getId() + ".sbi");
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-        synchronized (this) {
-            writers.add(dest);
-        }
+    private AddTrueGenotypeHelper createHelper() {
+        AddTrueGenotypeHelper addTrueGenotypeHelper = new AddTrueGenotypeHelper();
+        // labeling threads are given reference bases and must not read the genome, so the helper has none:
         addTrueGenotypeHelper.configure(
-                args().genotypeMap,
-                genome,
+                truthIndex,
+                null,
                 args().sampleIndex,
                 args().considerIndels,
                 args().indelsAsRef,
                 args().referenceSamplingRate);
+        helpers.add(addTrueGenotypeHelper);
+        return addTrueGenotypeHelper;
+    }
+
+    /**
+     * Receives labeled records, in input order.
+     */
+    interface LabeledRecordWriter {
+        void appendEntry(BaseInformationRecords.BaseInformation entry) throws IOException;
+    }
+
+    /**
+     * Label records on parallel threads and write those kept in input order.
+     *
+     * @param source         records to label.
+     * @param referenceBases the reference base at the position of a record, called on the current thread only.
+     * @param helperFactory  creates the helper of each labeling thread.
+     * @param numThreads     number of labeling threads.
+     * @param batchSize      number of records labeled together by a thread.
+     * @param dest           receives the labeled records to keep, on the current thread.
+     */
+    static void label(Iterable<BaseInformationRecords.BaseInformation> source,
+                      Function<BaseInformationRecords.BaseInformation, String> referenceBases,
+                      Supplier<AddTrueGenotypeHelper> helperFactory,
+                      int numThreads, int batchSize, LabeledRecordWriter dest) throws IOException {
+        final ThreadLocal<AddTrueGenotypeHelper> helper = ThreadLocal.withInitial(helperFactory);
+        // at most maxPending batches are read ahead of the writer:
+        final int maxPending = 2 * numThreads;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory("add-true-genotypes"));
+        ObjectArrayFIFOQueue<Future<ObjectArrayList<BaseInformationRecords.BaseInformation>>> pending = new ObjectArrayFIFOQueue<>();
         try {
-            BaseInformationRecords.BaseInformation rec;
-            boolean keep;
-            while (true){
-                synchronized(this) {
-                    if (!iter.hasNext()){
-                        break;
-                    }
-                    rec = iter.next();
-                }
-                keep = addTrueGenotypeHelper.addTrueGenotype(rec);
-                synchronized(this) {
-                    if (keep) {
-                        dest.appendEntry(addTrueGenotypeHelper.labeledEntry());
+            Batch batch = new Batch(batchSize);
+            for (BaseInformationRecords.BaseInformation rec : source) {
+                batch.add(rec, referenceBases.apply(rec));
+                if (batch.size() == batchSize) {
+                    final Batch records = batch;
+                    pending.enqueue(executor.submit(() -> records.label(helper.get())));
+                    batch = new Batch(batchSize);
+                    while (pending.size() >= maxPending) {
+                        write(pending.dequeue(), dest);
                     }
-                    recordsLabeled++;
-                    recordLogger.lightUpdate();
                 }
-
-
-
             }
-            dest.setCustomProperties(addTrueGenotypeHelper.getStatProperties());
-            dest.close();
-            synchronized (this) {
-                addTrueGenotypeHelper.printStats();
+            if (batch.size() > 0) {
+                final Batch records = batch;
+                pending.enqueue(executor.submit(() -> records.label(helper.get())));
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            while (!pending.isEmpty()) {
+                write(pending.dequeue(), dest);
+            }
+        } finally {
+            executor.shutdownNow();
         }
     }
 
+    /**
+     * Records to label together, with the reference base at their position.
+     */
+    private static final class Batch {
+        private final ObjectArrayList<BaseInformationRecords.BaseInformation> records;
+        private final ObjectArrayList<String> referenceBases;
 
-    RecordReader source;
-    ProgressLogger recordLogger;
-
-    int recordsLabeled;
-    Iterator<BaseInformationRecords.BaseInformation> iter;
-    List<SequenceBaseInformationWriter> writers = new ArrayList<SequenceBaseInformationWriter>();
-
+        Batch(int capacity) {
+            records = new ObjectArrayList<>(capacity);
+            referenceBases = new ObjectArrayList<>(capacity);
+        }
 
+        void add(BaseInformationRecords.BaseInformation record, String referenceBase) {
+            records.add(record);
+            referenceBases.add(referenceBase);
+        }
 
+        int size() {
+            return records.size();
+        }
 
-    public void finish(){
-        recordLogger.done();
-        for(SequenceBaseInformationWriter writer : writers){
-            System.out.println(writer.toString());
+        /**
+         * Label the records with a helper of the current thread.
+         *
+         * @return the labeled records to keep, in input order.
+         */
+        ObjectArrayList<BaseInformationRecords.BaseInformation> label(AddTrueGenotypeHelper addTrueGenotypeHelper) {
+            ObjectArrayList<BaseInformationRecords.BaseInformation> kept = new ObjectArrayList<>(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                BaseInformationRecords.BaseInformation rec = records.get(i);
+                if (addTrueGenotypeHelper.addTrueGenotype(addTrueGenotypeHelper.willKeep(rec.getPosition(),
+                        rec.getReferenceId(), referenceBases.get(i)), rec)) {
+                    kept.add(addTrueGenotypeHelper.labeledEntry());
+                }
+            }
+            return kept;
         }
+    }
 
+    private static void write(Future<ObjectArrayList<BaseInformationRecords.BaseInformation>> labeled,
+                              LabeledRecordWriter dest) throws IOException {
+        try {
+            for (BaseInformationRecords.BaseInformation entry : labeled.get()) {
+                dest.appendEntry(entry);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for labeled records.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to label records.", e.getCause());
+        }
+    }
 
+    /**
+     * Return the largest number of bytes used so far in each heap memory pool, summed over pools.
+     */
+    private static long peakHeapUsed() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
     }
 
-    @Override
-    public AddTrueGenotypesArguments createArguments() {
-        return new AddTrueGenotypesArguments();
+    /**
+     * Combine the statistics of the helpers of each thread.
+     */
+    private static Properties mergeStatProperties(List<AddTrueGenotypeHelper> helpers) {
+        Properties merged = new Properties();
+        for (AddTrueGenotypeHelper addTrueGenotypeHelper : helpers) {
+            Properties properties = addTrueGenotypeHelper.getStatProperties();
+            for (String key : properties.stringPropertyNames()) {
+                String value = properties.getProperty(key);
+                if (SUMMED_STATS.contains(key) && merged.containsKey(key)) {
+                    value = Long.toString(Long.parseLong(merged.getProperty(key)) + Long.parseLong(value));
+                }
+                merged.setProperty(key, value);
+            }
+        }
+        return merged;
     }
 
     @Override
-    public void execute() {
-        //use run instead
+    public AddTrueGenotypesMultiThreadedArguments createArguments() {
+        return new AddTrueGenotypesMultiThreadedArguments();
     }
 
 }
@@ -0,0 +1,18 @@
+package org.campagnelab.dl.genotype.tools;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+/**
+ * Arguments for AddTrueGenotypesMultiThreaded.
+ */
+@Parameters(commandDescription = "Add calls from mapped vcf to sbi/sbip files, labeling records with several threads.")
+
+public class AddTrueGenotypesMultiThreadedArguments extends AddTrueGenotypesArguments {
+
+    @Parameter(names = {"--num-threads"}, description = "Number of threads used to label records. Defaults to the number of available processors.")
+    public int numThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"--batch-size"}, description = "Number of records handed to a labeling thread at a time.")
+    public int batchSize = 1000;
+}
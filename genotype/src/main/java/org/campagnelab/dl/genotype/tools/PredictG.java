@@ -9,9 +9,11 @@ import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.apache.commons.io.FilenameUtils;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
 import org.campagnelab.dl.framework.performance.AreaUnderTheROCCurve;
+import org.campagnelab.dl.framework.performance.StreamingAreaUnderTheROCCurve;
 import org.campagnelab.dl.framework.tools.Predict;
 import org.campagnelab.dl.framework.tools.PredictArguments;
 import org.campagnelab.dl.genotype.helpers.GenotypeHelper;
+import org.campagnelab.dl.genotype.output.VCFWriter;
 import org.campagnelab.dl.genotype.performance.BEDHelper;
 import org.campagnelab.dl.genotype.performance.StatsAccumulator;
 import org.campagnelab.dl.genotype.predictions.GenotypePrediction;
@@ -19,7 +21,6 @@ import org.campagnelab.dl.somatic.util.GenomicSitesVisited;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.campagnelab.goby.predictions.FormatIndelVCF;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
@@ -40,8 +41,12 @@ public class PredictG extends Predict<BaseInformationRecords.BaseInformation> {
     private AreaUnderTheROCCurve aucLossCalculator;
     private double auc;
     private double[] confidenceInterval95;
-    private PrintWriter vcfWriter;
+    private VCFWriter vcfWriter;
     private String[] orderStats;
+    /**
+     * Alternate alleles of the site being written, reused across sites.
+     */
+    private final SortedSet<String> sortedAltSet = new ObjectAVLTreeSet<>();
 
 
     @Override
@@ -72,26 +77,27 @@ public class PredictG extends Predict<BaseInformationRecords.BaseInformation> {
         final String bedBasename = String.format("%s-%s-%s", modelTime, modelPrefix, testSetBasename);
 
         try {
-            vcfWriter = new PrintWriter(new FileWriter(vcfFilename));
+            vcfWriter = new VCFWriter(vcfFilename, args().bgzip, args().compressionThreads);
         } catch (IOException e) {
             throw new RuntimeException("Unable to create VCF output file.", e);
         }
-
+        String bedFilename = bedBasename + "-observed-regions.bed";
         if (args().outputFormat == PredictGArguments.OutputFormat.VCF) {
-            vcfWriter.append(String.format(VCF_HEADER,
+            vcfWriter.writeHeader(String.format(VCF_HEADER,
                     VersionUtils.getImplementationVersion(PredictG.class),
                     args().modelPath, args().modelName, FilenameUtils.getBaseName(args().testSet)));
             try {
-                bedHelper = new BEDHelper(bedBasename);
+                bedHelper = new BEDHelper(bedBasename, args().bgzip, args().compressionThreads);
             } catch (IOException e) {
                 throw new RuntimeException("Unable to create bed file(s) to record observed regions.", e);
             }
+            bedFilename = bedHelper.getObservedRegionsFilename();
         } else {
             resutsWriter.append("index\tpredictionCorrect01\ttrueGenotypeCall\tpredictedGenotypeCall\tprobabilityIsCalled\tcorrectness\tregion\tisVariant").append("\n");
         }
 
 
-        System.out.printf("Writing VCF and BED files: \n%s\n%s%n", vcfFilename, bedBasename + "-observed-regions.bed");
+        System.out.printf("Writing VCF and BED files: \n%s\n%s%n", vcfWriter.getFilename(), bedFilename);
 
     }
 
@@ -101,7 +107,8 @@ public class PredictG extends Predict<BaseInformationRecords.BaseInformation> {
         stats.setNumVariantsExpected(args().numVariantsExpected);
         stats.initializeStats();
         orderStats = stats.createOutputHeader();
-        aucLossCalculator = new AreaUnderTheROCCurve(args().numRecordsForAUC);
+        aucLossCalculator = args().aucBins > 0 ? new StreamingAreaUnderTheROCCurve(args().aucBins) :
+                new AreaUnderTheROCCurve(args().numRecordsForAUC);
     }
 
 
@@ -129,8 +136,6 @@ public class PredictG extends Predict<BaseInformationRecords.BaseInformation> {
             "##FORMAT=<ID=P,Number=1,Type=Float,Description=\"Model proability.\">\n" +
             "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t%s\n";
 
-    private static final String VCF_LINE = "%s\t%d\t.\t%s\t%s\t.\t.\t.\tGT:MC:P\t%s:%s:%f\n";
-
     @Override
     protected String[] createOutputHeader() {
 
@@ -153,7 +158,11 @@ public class PredictG extends Predict<BaseInformationRecords.BaseInformation> {
         if (bedHelper != null) {
             bedHelper.close();
         }
-        vcfWriter.close();
+        try {
+            vcfWriter.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to close VCF output file.", e);
+        }
     }
 
     public PredictGArguments args() {
@@ -211,28 +220,32 @@ public class PredictG extends Predict<BaseInformationRecords.BaseInformation> {
                     format = new FormatIndelVCF(fullPred.predictedFrom, fullPred.predictedAlleles(), fullPred.predictedFrom.charAt(0));
 
                     //get max allele length for bed file
-                    int maxLength = format.toVCF.stream().map(a -> a.length()).max(Integer::compareTo).orElse(0);
-                    maxLength = Math.max(maxLength, format.fromVCF.length());
+                    int maxLength = format.fromVCF.length();
+                    for (String allele : format.toVCF) {
+                        maxLength = Math.max(maxLength, allele.length());
+                    }
 
                     //make an alt-allele-only set for coding
-                    SortedSet<String> sortedAltSet = new ObjectAVLTreeSet<String>(format.toVCF);
+                    sortedAltSet.clear();
+                    sortedAltSet.addAll(format.toVCF);
                     sortedAltSet.remove(format.fromVCF);
 
-                    //generate alt column from alt set
-                    final Optional<String> optional = sortedAltSet.stream().reduce((s, s2) -> s + "," + s2);
-                    String altField = optional.isPresent() ? optional.get() : ".";
-
-                    //generate to column (format) from formatted predicted set
-                    final Optional<String> toColumnOpt = format.toVCF.stream().reduce((s, s2) -> s + "/" + s2);
-                    String toColumn = toColumnOpt.isPresent() ? toColumnOpt.get() : "./.";
-
                     if (!genomicSitesVisited.wasVisited(record.getReferenceIndex(), record.getPosition())) {
                         if (sortedAltSet.size() >= 1) {
                             // only append to VCF if there is at least one alternate allele:
                             // NB: VCF format is one-based.
-                            vcfWriter.printf(VCF_LINE, record.getReferenceId(), record.getPosition() + 1,
-                                    format.fromVCF, altField, codeGT(format.toVCF, format.fromVCF, sortedAltSet), toColumn,
-                                    fullPred.overallProbability);
+                            // line fields: "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t%s\n";
+                            vcfWriter.append(record.getReferenceId()).tab().append(record.getPosition() + 1)
+                                    .append("\t.\t").append(format.fromVCF).tab()
+                                    .append(sortedAltSet, ',').append("\t.\t.\t.\tGT:MC:P\t")
+                                    .append(codeGT(format.toVCF, format.fromVCF, sortedAltSet)).append(':');
+                            if (format.toVCF.isEmpty()) {
+                                vcfWriter.append("./.");
+                            } else {
+                                vcfWriter.append(format.toVCF, '/');
+                            }
+                            vcfWriter.append(':').append(fullPred.overallProbability, 6);
+                            vcfWriter.endRecord(record.getReferenceId(), record.getPosition() + 1, format.fromVCF);
                         }
                         genomicSitesVisited.visit(record.getReferenceIndex(), record.getPosition());
                         // NB: bed format is zero-based.
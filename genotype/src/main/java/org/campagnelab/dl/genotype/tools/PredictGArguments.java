@@ -37,4 +37,12 @@ public class PredictGArguments extends PredictArguments {
             "used to filter exome results where some off-target hits are expected with very low coverage (e.g., 10). Sites with" +
             "at least the number of reads mapping are reported. Default 0 (no coverage filter)" )
     int minimumCoverage=0;
+
+    @Parameter(names = {"--bgzip"}, description = "Compress the VCF and BED outputs with block gzip (.gz) and index " +
+            "them with tabix (.gz.tbi), so that they can be queried by region as soon as prediction completes.")
+    boolean bgzip;
+
+    @Parameter(names = {"--compression-threads"}, description = "Number of threads that compress each VCF and BED " +
+            "output with --bgzip.")
+    int compressionThreads = 1;
 }
\ No newline at end of file
@@ -6,13 +6,13 @@ import org.apache.commons.io.FilenameUtils;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
 import org.campagnelab.dl.framework.tools.Predict;
 import org.campagnelab.dl.framework.tools.PredictArguments;
+import org.campagnelab.dl.genotype.output.VCFWriter;
 import org.campagnelab.dl.genotype.performance.BEDHelper;
 import org.campagnelab.dl.genotype.performance.StatsAccumulator;
 import org.campagnelab.dl.genotype.predictions.SegmentPrediction;
 import org.campagnelab.dl.varanalysis.protobuf.SegmentInformationRecords;
 import org.campagnelab.goby.predictions.FormatIndelVCF;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
@@ -25,8 +25,12 @@ import java.util.*;
 public class PredictGS extends Predict<SegmentInformationRecords.SegmentInformation> {
 
     private BEDHelper bedHelper;
-    private PrintWriter vcfWriter;
-    private PrintWriter vcfIndelsWriter;
+    private VCFWriter vcfWriter;
+    private VCFWriter vcfIndelsWriter;
+    /**
+     * Alternate alleles of the line being written, reused across lines.
+     */
+    private final SortedSet<String> sortedAltSet = new ObjectAVLTreeSet<>();
 
     private static final String VCF_HEADER = "##fileformat=VCFv4.1\n" +
             "##VariationAnalysis=%s\n" +
@@ -37,7 +41,6 @@ public class PredictGS extends Predict<SegmentInformationRecords.SegmentInformat
             "##FORMAT=<ID=P,Number=1,Type=Float,Description=\"Model proability.\">\n" +
             "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t%s\n";
 
-    private static final String VCF_LINE = "%s\t%d\t.\t%s\t%s\t.\t.\t.\tGT:MC:P\t%s:%s:%f\n";
     private String[] orderStats;
     protected StatsAccumulator stats;
     int linesWithNoAnchor = 0;
@@ -97,8 +100,12 @@ public class PredictGS extends Predict<SegmentInformationRecords.SegmentInformat
     @Override
     protected void reportStatistics(String prefix) {
         System.out.println("Number of lines with gaps but no anchor base: " + linesWithNoAnchor);
-        if (Objects.nonNull(this.vcfIndelsWriter)) this.vcfIndelsWriter.close();
-        if (Objects.nonNull(this.vcfWriter)) this.vcfWriter.close();
+        try {
+            if (Objects.nonNull(this.vcfIndelsWriter)) this.vcfIndelsWriter.close();
+            if (Objects.nonNull(this.vcfWriter)) this.vcfWriter.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to close VCF output file.", e);
+        }
         if (Objects.nonNull(this.bedHelper)) this.bedHelper.close();
     }
 
@@ -168,56 +175,49 @@ public class PredictGS extends Predict<SegmentInformationRecords.SegmentInformat
                 line.get(0).getKey().getReferenceAllele().charAt(0));
        
         //make an alt-allele-only set for coding
-        SortedSet<String> sortedAltSet = new ObjectAVLTreeSet<String>(format.toVCF);
+        sortedAltSet.clear();
+        sortedAltSet.addAll(format.toVCF);
         sortedAltSet.remove(format.fromVCF);
 
-        //generate alt column from alt set
-        final Optional<String> optional = sortedAltSet.stream().reduce((s, s2) -> s + "," + s2);
-        String altField = optional.isPresent() && !optional.get().isEmpty()? optional.get() : ".";
-
-        //generate to column (format) from formatted predicted set
-        final Optional<String> toColumnOpt = format.toVCF.stream().reduce((s, s2) -> s + ((s2.isEmpty())? "" :"/" + s2));
-        String toColumn = toColumnOpt.isPresent() ? toColumnOpt.get() : "./.";
-
         //get max allele length for bed file
-        int maxLength = format.toVCF.stream().map(a -> a.length()).max(Integer::compareTo).orElse(0);
-        maxLength = Math.max(maxLength, format.fromVCF.length());
+        int maxLength = format.fromVCF.length();
+        for (String allele : format.toVCF) {
+            maxLength = Math.max(maxLength, allele.length());
+        }
         //TODO: if the reference is null?
-        if (format.fromVCF.isEmpty() || altField.isEmpty()) {
+        if (format.fromVCF.isEmpty()) {
             return;
         }
         String predicted = PredictG.codeGT(format.toVCF, ".".equals(format.fromVCF)? "" : format.fromVCF, sortedAltSet);
-        if (args().splitIndels && line.isIndel()) {
-            // line fields: "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t%s\n";
-            vcfIndelsWriter.printf(VCF_LINE, //"%s\t%d\t.\t%s\t%s\t.\t.\t.\tGT:MC:P\t%s:%s:%f\n";
-                    fullPred.getReferenceId(), //Chromosome
-                    linePosition + 1, // VCFs are 1-based
-                    //ID
-                    format.fromVCF, //ref
-                    altField, //ALT
-                    //QUAL
-                    //FILTER
-                    //INFO
-                    predicted,
-                    toColumn,
-                    fullPred.getGenotypes().probabilities[line.get(0).getValue()]
-            );
+        final double probability = fullPred.getGenotypes().probabilities[line.get(0).getValue()];
+        VCFWriter writer = args().splitIndels && line.isIndel() ? vcfIndelsWriter : vcfWriter;
+        // line fields: "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t%s\n";
+        writer.append(fullPred.getReferenceId()).tab()
+                .append(linePosition + 1) // VCFs are 1-based
+                .append("\t.\t")
+                .append(format.fromVCF).tab();
+        //generate alt column from alt set
+        if (sortedAltSet.isEmpty() || (sortedAltSet.size() == 1 && sortedAltSet.first().isEmpty())) {
+            writer.append('.');
         } else {
-            // line fields: "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t%s\n";
-            vcfWriter.printf(VCF_LINE, //"%s\t%d\t.\t%s\t%s\t.\t.\t.\tGT:MC:P\t%s:%s:%f\n";
-                    fullPred.getReferenceId(), //Chromosome
-                    linePosition + 1, // VCFs are 1-based
-                    //ID
-                    format.fromVCF, //ref
-                    altField, //ALT
-                    //QUAL
-                    //FILTER
-                    //INFO
-                    predicted,
-                    toColumn,
-                    fullPred.getGenotypes().probabilities[line.get(0).getValue()]
-            );
+            writer.append(sortedAltSet, ',');
+        }
+        writer.append("\t.\t.\t.\tGT:MC:P\t").append(predicted).append(':');
+        //generate to column (format) from formatted predicted set, skipping empty alleles after the first
+        boolean first = true;
+        for (String allele : format.toVCF) {
+            if (first) {
+                writer.append(allele);
+                first = false;
+            } else if (!allele.isEmpty()) {
+                writer.append('/').append(allele);
+            }
+        }
+        if (first) {
+            writer.append("./.");
         }
+        writer.append(':').append(probability, 6);
+        writer.endRecord(fullPred.getReferenceId(), linePosition + 1, format.fromVCF);
 
         bedHelper.add(fullPred.getReferenceId(), linePosition, linePosition + maxLength, fullPred.index,
                 stats);
@@ -236,7 +236,7 @@ public class PredictGS extends Predict<SegmentInformationRecords.SegmentInformat
         final String bedBasename = String.format("%s-%s-%s", modelTime, modelPrefix, testSetBasename);
 
         try {
-            bedHelper = new BEDHelper(bedBasename);
+            bedHelper = new BEDHelper(bedBasename, args().bgzip, args().compressionThreads);
         } catch (IOException e) {
             throw new RuntimeException("Unable to create bed file(s) to record observed regions.", e);
         }
@@ -247,8 +247,8 @@ public class PredictGS extends Predict<SegmentInformationRecords.SegmentInformat
             final String vcfIndelsFilename = String.format("%s-%s-%s-segments-indels.vcf", modelTime, modelPrefix, testSetBasename);
 
             try {
-                vcfWriter = new PrintWriter(new FileWriter(vcfSnpsFilename));
-                vcfWriter.append(String.format(VCF_HEADER,
+                vcfWriter = new VCFWriter(vcfSnpsFilename, args().bgzip, args().compressionThreads);
+                vcfWriter.writeHeader(String.format(VCF_HEADER,
                         VersionUtils.getImplementationVersion(PredictGS.class),
                         args().modelPath, args().modelName, FilenameUtils.getBaseName(args().testSet)));
             } catch (IOException e) {
@@ -256,29 +256,29 @@ public class PredictGS extends Predict<SegmentInformationRecords.SegmentInformat
             }
 
             try {
-                vcfIndelsWriter = new PrintWriter(new FileWriter(vcfIndelsFilename));
-                vcfIndelsWriter.append(String.format(VCF_HEADER,
+                vcfIndelsWriter = new VCFWriter(vcfIndelsFilename, args().bgzip, args().compressionThreads);
+                vcfIndelsWriter.writeHeader(String.format(VCF_HEADER,
                         VersionUtils.getImplementationVersion(PredictGS.class),
                         args().modelPath, args().modelName, FilenameUtils.getBaseName(args().testSet)));
             } catch (IOException e) {
                 throw new RuntimeException("Unable to create VCF output file.", e);
             }
-            System.out.printf("Writing VCFs and BED files: \n%s\n%s\n%s%n", vcfSnpsFilename,
-                    vcfIndelsFilename, bedBasename + "-observed-regions.bed");
+            System.out.printf("Writing VCFs and BED files: \n%s\n%s\n%s%n", vcfWriter.getFilename(),
+                    vcfIndelsWriter.getFilename(), bedHelper.getObservedRegionsFilename());
 
 
         } else {
             final String vcfFilename = String.format("%s-%s-%s-segments.vcf", modelTime, modelPrefix, testSetBasename);
             try {
-                vcfWriter = new PrintWriter(new FileWriter(vcfFilename));
-                vcfWriter.append(String.format(VCF_HEADER,
+                vcfWriter = new VCFWriter(vcfFilename, args().bgzip, args().compressionThreads);
+                vcfWriter.writeHeader(String.format(VCF_HEADER,
                         VersionUtils.getImplementationVersion(PredictGS.class),
                         args().modelPath, args().modelName, FilenameUtils.getBaseName(args().testSet)));
             } catch (IOException e) {
                 throw new RuntimeException("Unable to create VCF output file.", e);
             }
-            System.out.printf("Writing VCF and BED files: \n%s\n%s%n", vcfFilename,
-                    bedBasename + "-observed-regions.bed");
+            System.out.printf("Writing VCF and BED files: \n%s\n%s%n", vcfWriter.getFilename(),
+                    bedHelper.getObservedRegionsFilename());
         }
     }
 
@@ -128,6 +128,30 @@ public class SBISimulator extends AbstractTool<SBISimulatorArguments> {
     MutableString referenceContext=new MutableString();
     // format of count creation instruction is from/to=10+12
     private BaseInformationRecords.BaseInformation makeRecord(int refIndex, String refId, int position, String genotype, String... countCreations) {
+        referenceContext.setLength(0);
+        int contextStart = Math.max(0, (position - (args().genomicContextLength - 1) / 2));
+        int genomeRefIndex=genome.getReferenceIndex(refId);
+        genome.getRange(genomeRefIndex, contextStart,
+                args().genomicContextLength,
+                referenceContext);
+        BaseInformationRecords.BaseInformation record = makeRecord(refIndex, refId, position, genotype,
+                referenceContext.toString(), countCreations);
+        if (args().genomicContextLength==1) {
+            assert record.getReferenceBase().charAt(0)==referenceContext.charAt(0):
+                    String.format("reference base must match with context, base: %s context:  %s",record.getReferenceBase(),
+                    referenceContext);
+        }
+        return record;
+    }
+
+    /**
+     * Make a synthetic record for one sample.
+     *
+     * @param genomicContext  the genomic sequence around the position.
+     * @param countCreations  one instruction per count, in the format from/to=forward+reverse, e.g. A/T=10+12.
+     */
+    public static BaseInformationRecords.BaseInformation makeRecord(int refIndex, String refId, int position, String genotype,
+                                                                    String genomicContext, String... countCreations) {
         BaseInformationRecords.BaseInformation.Builder builder = BaseInformationRecords.BaseInformation.newBuilder();
         builder.setTrueGenotype(genotype);
         builder.setReferenceIndex(refIndex);
@@ -158,25 +182,13 @@ public class SBISimulator extends AbstractTool<SBISimulatorArguments> {
             }
             sample.addCounts(countBuilder);
         }
-        referenceContext.setLength(0);
-        int contextStart = Math.max(0, (position - (args().genomicContextLength - 1) / 2));
-        int genomeRefIndex=genome.getReferenceIndex(refId);
-        genome.getRange(genomeRefIndex, contextStart,
-                args().genomicContextLength,
-                referenceContext);
-
-        if (args().genomicContextLength==1) {
-            assert referenceBase.charAt(0)==referenceContext.charAt(0):
-                    String.format("reference base must match with context, base: %s context:  %s",referenceBase,
-                    referenceContext);
-        }
-        builder.setGenomicSequenceContext(referenceContext.toString());
+        builder.setGenomicSequenceContext(genomicContext);
         sample.setFormattedCounts(FormatterCountHelper.format(sample));
         builder.addSamples(sample);
         return builder.build();
     }
 
-    private void populateWithFrequencies(BaseInformationRecords.CountInfo.Builder countBuilder) {
+    private static void populateWithFrequencies(BaseInformationRecords.CountInfo.Builder countBuilder) {
         BaseInformationRecords.NumberWithFrequency.Builder builderN = BaseInformationRecords.NumberWithFrequency.newBuilder();
         builderN.setFrequency(1);
         builderN.setNumber(1);
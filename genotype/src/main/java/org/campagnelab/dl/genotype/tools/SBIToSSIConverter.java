@@ -1,13 +1,18 @@
 package org.campagnelab.dl.genotype.tools;
 
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.logging.ProgressLogger;
+import org.apache.commons.io.FileUtils;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
 import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
+import org.campagnelab.dl.framework.utils.DaemonThreadFactory;
 import org.campagnelab.dl.genotype.learning.architecture.graphs.GenotypeSegmentsLSTM;
 import org.campagnelab.dl.genotype.learning.domains.GenotypeDomainDescriptor;
 import org.campagnelab.dl.genotype.mappers.NumDistinctAllelesLabelMapper;
 import org.campagnelab.dl.genotype.segments.*;
+import org.campagnelab.dl.genotype.storage.SegmentReader;
 import org.campagnelab.dl.somatic.storage.RecordReader;
+import org.campagnelab.dl.somatic.storage.SbiChunkIndex;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.campagnelab.dl.varanalysis.protobuf.SegmentInformationRecords;
 import org.campagnelab.goby.baseinfo.BasenameUtils;
@@ -18,27 +23,38 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Properties;
-import java.util.function.Consumer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
-import java.util.stream.StreamSupport;
 
 
 /**
  * Tool to convert from SBI to SSI format.
+ * <p>
+ * With --parallel, the input is cut in partitions of whole chunks, using the chunk index of the SBI file. Partitions
+ * are converted concurrently, each to its own SSI shard, and the shards are appended to the output in genomic order.
+ * The boundary between two partitions is moved to the first segment break found after the first chunk of the next
+ * partition: a valid record that is on another reference, or further than the gap, from the previous valid record.
+ * Both partitions find the same break, since they apply the rule to the same records, so each segment is built by
+ * exactly one partition.
  *
  * @author manuele
  */
 public class SBIToSSIConverter extends AbstractTool<SBIToSSIConverterArguments> {
 
     static private Logger LOG = LoggerFactory.getLogger(SBIToSSIConverter.class);
-    private static SequenceSegmentInformationWriter writer;
-    private static Function<Segment, Segment> processSegmentFunction;
-    private static FillInFeaturesFunction fillInFeaturesFunction;
-    private static ThreadLocal<SegmentHelper> segmentHelper;
+    private static final int PROGRESS_UPDATE_INTERVAL = 10000;
 
-    // any genomic site that has strictly more indel supporting reads than the below threshold will be marked has candidateIndel.
-    private static int candidateIndelThreshold = 0;
+    private GenotypeDomainDescriptor domainDescriptor;
+    private SegmentLabelMapper labelMapper;
+    private SbiChunkIndex index;
+    private String inputPath;
+    private long numRecords;
+    private ProgressLogger pg;
 
     public static void main(String[] args) {
         SBIToSSIConverter tool = new SBIToSSIConverter();
@@ -56,28 +72,12 @@ public class SBIToSSIConverter extends AbstractTool<SBIToSSIConverterArguments>
         if (args().inputFile.isEmpty()) {
             System.err.println("You must provide input SBI files.");
         }
-        Consumer<SegmentInformationRecords.SegmentInformation> segmentConsumer = segment -> {
-
-            writer.appendEntry(segment);
-
-        };
-
-        segmentHelper = new ThreadLocal<SegmentHelper>() {
-            @Override
-            protected SegmentHelper initialValue() {
-                SegmentHelper helper = new SegmentHelper(processSegmentFunction, fillInFeaturesFunction, segmentConsumer,
-                        args().getStrategy(),
-                        args().collectStatistics);
-                helper.setSamplingRate(args().samplingRate);
-                return helper;
-            }
-        };
-        int gap = args().gap;
-        GenotypeDomainDescriptor domainDescriptor = null;
+        inputPath = new File(args().inputFile).getAbsolutePath();
         try {
-            RecordReader sbiReader = new RecordReader(new File(args().inputFile).getAbsolutePath());
+            RecordReader sbiReader = new RecordReader(inputPath);
 
             Properties sbiProperties = sbiReader.getProperties();
+            numRecords = Math.min(args().readN, sbiReader.numRecords());
             Properties domainProperties = new Properties();
             domainProperties.put("net.architecture.classname", GenotypeSegmentsLSTM.class.getCanonicalName());
             domainProperties.put(NumDistinctAllelesLabelMapper.PLOIDY_PROPERTY, Integer.toString(args().ploidy));
@@ -86,82 +86,196 @@ public class SBIToSSIConverter extends AbstractTool<SBIToSSIConverterArguments>
             domainProperties.put("indelSequenceLength", "1");
 
             domainDescriptor = new GenotypeDomainDescriptor(domainProperties, sbiProperties);
+            sbiReader.close();
         } catch (IOException e) {
             System.err.println("Unable to initialized genotype domain descriptor.");
             e.printStackTrace();
         }
+        labelMapper = new SegmentLabelMapper(args().ploidy);
 
-
-        FeatureMapper featureMapper = domainDescriptor.getFeatureMapper("input");
-        //LabelMapper labelMapper=domainDescriptor.getFeatureMapper("input");
-        if (args().snpOnly) {
-            processSegmentFunction = new SnpOnlyPostProcessSegmentFunction();
-        } else {
-            processSegmentFunction = new WithIndelsPostProcessSegmentFunction();
-
-        }
-        SegmentLabelMapper labelMapper = new SegmentLabelMapper(args().ploidy);
-
-
-        fillInFeaturesFunction = new MyFillInFeaturesFunction(featureMapper, labelMapper, arguments);
-
+        String outputBasename = args().ssiPrefix != null ? args().ssiPrefix :
+                BasenameUtils.getBasename(args().inputFile, FileExtensionHelper.COMPACT_SEQUENCE_BASE_INFORMATION);
         try {
-            if (args().ssiPrefix != null)
-                writer = new SequenceSegmentInformationWriter(args().ssiPrefix);
-            else
-                writer = new SequenceSegmentInformationWriter(BasenameUtils.getBasename(args().inputFile,
-                        FileExtensionHelper.COMPACT_SEQUENCE_BASE_INFORMATION));
+            SequenceSegmentInformationWriter writer = new SequenceSegmentInformationWriter(outputBasename);
             Properties props = new Properties();
             labelMapper.writeMap(props);
             writer.appendProperties(props);
-            RecordReader sbiReader = new RecordReader(new File(args().inputFile).getAbsolutePath());
-            ProgressLogger pg = new ProgressLogger(LOG);
+            pg = new ProgressLogger(LOG);
             pg.displayFreeMemory = true;
-            pg.expectedUpdates = sbiReader.getTotalRecords();
+            pg.expectedUpdates = numRecords;
             pg.itemsName = "records";
             pg.start();
-            final int[] totalRecords = {0};
-
-            StreamSupport.stream(sbiReader.spliterator(), args().parallel).limit(args().readN).forEach(sbiRecord -> {
-                try {
-                    manageRecord(sbiRecord, gap);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                pg.lightUpdate();
-                totalRecords[0]++;
-            });
-
-            System.out.printf("Total record managed: %d %n", totalRecords[0]);
+            List<SegmentHelper> helpers = new ObjectArrayList<>();
+            if (args().parallel) {
+                // only partitions need the chunk index:
+                index = SbiChunkIndex.getOrBuild(inputPath);
+                convertInParallel(partition(4 * Math.max(1, args().numThreads)), outputBasename, writer, helpers);
+            } else {
+                helpers.add(convert(0, 0, numRecords, writer));
+            }
             pg.stop();
-            closeOutput();
+            System.out.printf("Total record managed: %d %n", pg.count);
+            writer.close();
+            if (!helpers.isEmpty()) {
+                for (int i = 1; i < helpers.size(); i++) {
+                    helpers.get(0).addCounts(helpers.get(i));
+                }
+                helpers.get(0).printStats();
+            }
         } catch (IOException e) {
             System.err.println("Failed to parse " + args().inputFile);
             e.printStackTrace();
         }
-
     }
 
-    private boolean hasCandidateIndel(BaseInformationRecords.BaseInformation baseInformation) {
-        return SegmentUtil.hasCandidateIndel(baseInformation, candidateIndelThreshold);
+    /**
+     * Split the chunks that hold the records to convert into at most numPartitions ranges with about the same number
+     * of records.
+     *
+     * @return the first chunk of each partition, followed by the end chunk of the last partition.
+     */
+    private int[] partition(int numPartitions) {
+        int endChunk = 0;
+        while (endChunk < index.numChunks() && index.numRecords(0, endChunk) < numRecords) {
+            endChunk++;
+        }
+        numPartitions = Math.max(1, Math.min(numPartitions, endChunk));
+        int[] firstChunks = new int[numPartitions + 1];
+        int chunk = 0;
+        for (int p = 1; p < numPartitions; p++) {
+            final long target = numRecords * p / numPartitions;
+            while (chunk < endChunk && index.numRecords(0, chunk) < target) {
+                chunk++;
+            }
+            firstChunks[p] = Math.max(chunk, firstChunks[p - 1] + 1);
+        }
+        firstChunks[numPartitions] = endChunk;
+        return firstChunks;
     }
 
-    private String trimTrueGenotype(String trueGenotype) {
-        int secondBaseIndex = trueGenotype.indexOf("|");
-        final String trimmed = trueGenotype.charAt(0) + "|" + trueGenotype.charAt(secondBaseIndex - 1);
-        return trimmed;
+    private void convertInParallel(int[] firstChunks, String outputBasename, SequenceSegmentInformationWriter writer,
+                                   List<SegmentHelper> helpers) throws IOException {
+        final int numPartitions = firstChunks.length - 1;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, args().numThreads),
+                new DaemonThreadFactory("sbi-to-ssi"));
+        try {
+            List<Future<SegmentHelper>> partitions = new ObjectArrayList<>(numPartitions);
+            for (int p = 0; p < numPartitions; p++) {
+                final int firstChunk = firstChunks[p];
+                final int endChunk = firstChunks[p + 1];
+                final String shardBasename = shardBasename(outputBasename, p);
+                partitions.add(executor.submit(() -> {
+                    SequenceSegmentInformationWriter shardWriter = new SequenceSegmentInformationWriter(shardBasename);
+                    // the reader starts with the first chunk that starts after the start offset:
+                    SegmentHelper helper = convert(firstChunk == 0 ? 0 : index.chunkStart(firstChunk) - 1,
+                            index.numRecords(0, firstChunk), Math.min(numRecords, index.numRecords(0, endChunk)),
+                            shardWriter);
+                    shardWriter.close();
+                    return helper;
+                }));
+            }
+            // append shards in partition order while the next partitions are converted:
+            for (int p = 0; p < numPartitions; p++) {
+                helpers.add(partitions.get(p).get());
+                final String shardBasename = shardBasename(outputBasename, p);
+                try (SegmentReader shardReader = new SegmentReader(shardBasename)) {
+                    for (SegmentInformationRecords.SegmentInformation segment : shardReader) {
+                        writer.appendEntry(segment);
+                    }
+                }
+                FileUtils.deleteQuietly(new File(shardBasename + ".ssi"));
+                FileUtils.deleteQuietly(new File(shardBasename + ".ssip"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while converting partitions.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to convert partition.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
-    private void manageRecord(BaseInformationRecords.BaseInformation record, int gap) throws IOException {
+    private static String shardBasename(String outputBasename, int partition) {
+        return String.format("%s-part%d", outputBasename, partition);
+    }
 
-        if (this.isValid(record)) {
-            final SegmentHelper segmentHelper = SBIToSSIConverter.segmentHelper.get();
-            if (!this.isSameSegment(record, gap)) {
-                segmentHelper.newSegment(record);
-            } else {
-                segmentHelper.add(record);
+    /**
+     * Convert the segments that start in records firstRecord (inclusive) to rangeEnd (exclusive), reading the file
+     * from the start offset. When the range does not start with the first record of the file, its first records are
+     * skipped when they continue a segment started in the previous partition. The last segment is completed with the
+     * records that follow the range.
+     *
+     * @param start       offset where the reader starts, just before the chunk that holds firstRecord.
+     * @param firstRecord index of the first record read from the start offset.
+     * @return the helper that built the segments, with its statistics.
+     */
+    private SegmentHelper convert(long start, long firstRecord, long rangeEnd,
+                                  SequenceSegmentInformationWriter writer) throws IOException {
+        final FeatureMapper featureMapper;
+        // domain descriptors are not thread-safe, and feature mappers keep per-record state:
+        synchronized (domainDescriptor) {
+            featureMapper = domainDescriptor.newFeatureMapper("input");
+        }
+        final FillInFeaturesFunction fillInFeaturesFunction = new MyFillInFeaturesFunction(featureMapper, labelMapper, args());
+        final Function<Segment, Segment> processSegmentFunction = args().snpOnly ? new SnpOnlyPostProcessSegmentFunction() :
+                new WithIndelsPostProcessSegmentFunction();
+        SegmentHelper helper = new SegmentHelper(processSegmentFunction, fillInFeaturesFunction, writer::appendEntry,
+                args().getStrategy(), args().collectStatistics);
+        helper.setSamplingRate(args().samplingRate);
+
+        final int gap = args().gap;
+        long recordIndex = firstRecord;
+        boolean skipping = firstRecord > 0;
+        BaseInformationRecords.BaseInformation lastValid = null;
+        BaseInformationRecords.BaseInformation lastValidAfterRange = null;
+        int numProcessed = 0;
+        try (RecordReader reader = new RecordReader(inputPath, start, new File(inputPath).length())) {
+            for (BaseInformationRecords.BaseInformation record = reader.nextRecord();
+                 record != null && recordIndex < numRecords; record = reader.nextRecord(), recordIndex++) {
+                final boolean valid = isValid(record);
+                if (recordIndex < rangeEnd && ++numProcessed == PROGRESS_UPDATE_INTERVAL) {
+                    updateProgress(numProcessed);
+                    numProcessed = 0;
+                }
+                if (!valid) {
+                    continue;
+                }
+                if (recordIndex >= rangeEnd) {
+                    // the next partition starts at the first segment break after its first chunk starts:
+                    if (lastValidAfterRange != null && !isSameSegment(lastValidAfterRange, record, gap)) {
+                        break;
+                    }
+                    lastValidAfterRange = record;
+                }
+                if (skipping) {
+                    // records that continue a segment of the previous partition:
+                    if (lastValid == null || isSameSegment(lastValid, record, gap)) {
+                        lastValid = record;
+                        continue;
+                    }
+                    skipping = false;
+                    lastValid = null;
+                }
+                if (lastValid == null || !isSameSegment(lastValid, record, gap)) {
+                    helper.newSegment(record);
+                } else {
+                    helper.add(record);
+                }
+                lastValid = record;
             }
         }
+        updateProgress(numProcessed);
+        if (lastValid != null && !skipping) {
+            helper.close();
+        }
+        return helper;
+    }
+
+    private void updateProgress(int numProcessed) {
+        synchronized (pg) {
+            pg.update(numProcessed);
+        }
     }
 
     /**
@@ -184,40 +298,16 @@ public class SBIToSSIConverter extends AbstractTool<SBIToSSIConverterArguments>
     }
 
     /**
-     * Checks if the record belongs to the current segment.
+     * Checks if the record belongs to the segment whose last valid record is previous.
      *
+     * @param previous
      * @param record
      * @param gap
      * @return
      */
-    private boolean isSameSegment(BaseInformationRecords.BaseInformation record, int gap) {
-        if (segmentHelper == null) {
-            return false;
-        }
-        final boolean valid = (record.getPosition() - segmentHelper.get().getCurrentLocation() <= gap) &&
-                record.getReferenceIndex() == segmentHelper.get().getCurrentReferenceIndex();
-    /*if (!valid) {
-        System.out.printf("not valid, actual gap=%d%n",record.getPosition() - segmentList.getCurrentLocation());
-    }*/
-        return valid;
-
+    private boolean isSameSegment(BaseInformationRecords.BaseInformation previous,
+                                  BaseInformationRecords.BaseInformation record, int gap) {
+        return (record.getPosition() - previous.getPosition() <= gap) &&
+                record.getReferenceIndex() == previous.getReferenceIndex();
     }
-
-    /**
-     * Closes the list and serializes the output SSI.
-     */
-    private void closeOutput() throws IOException {
-        segmentHelper.get().close();
-        try {
-            writer.close();
-        } catch (IOException e) {
-            System.err.println("Failed to close the SSI file");
-            e.printStackTrace();
-        } finally {
-            writer = null;
-        }
-        segmentHelper.get().printStats();
-    }
-
-
 }
@@ -26,6 +26,9 @@ public class SBIToSSIConverterArguments implements ToolArguments {
     @Parameter(names = {"--parallel"}, description = "Enable parallel processing of the input SBI.")
     public boolean parallel = false;
 
+    @Parameter(names = {"--num-threads"}, description = "Number of threads used to convert the input when --parallel is set. Defaults to the number of processors.")
+    public int numThreads = Runtime.getRuntime().availableProcessors();
+
     @Parameter(names = {"-o", "--output-basename"}, description = "Prefix for the output saved file. If not specified, the input basename is used.")
     public String ssiPrefix = null;
 
@@ -0,0 +1,77 @@
+package org.campagnelab.dl.genotype.helpers;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArraySet;
+import org.campagnelab.goby.util.Variant;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check lookups in the index of true genotypes.
+ */
+public class TrueGenotypeIndexTest {
+
+    @Test
+    public void lookupByChromosomeAndPosition() {
+        PositionIndex<String> index = new PositionIndex<>();
+        // positions are given out of order:
+        index.put("1", IntArrayList.wrap(new int[]{500, 3, 42, 0, 1000000}),
+                ObjectArrayList.wrap(new String[]{"1:500", "1:3", "1:42", "1:0", "1:1000000"}));
+        index.put("X", IntArrayList.wrap(new int[]{42, 7}), ObjectArrayList.wrap(new String[]{"X:42", "X:7"}));
+        index.put("Y", new IntArrayList(), new ObjectArrayList<>());
+        assertEquals(3, index.numChromosomes());
+        assertEquals(7, index.size());
+
+        for (int position : new int[]{0, 3, 42, 500, 1000000}) {
+            assertEquals("1:" + position, index.get("1", position));
+        }
+        assertEquals("X:7", index.get("X", 7));
+        assertEquals("X:42", index.get("X", 42));
+    }
+
+    @Test
+    public void missingPositions() {
+        PositionIndex<String> index = new PositionIndex<>();
+        index.put("1", IntArrayList.wrap(new int[]{10, 20, 30}), ObjectArrayList.wrap(new String[]{"a", "b", "c"}));
+        index.put("Y", new IntArrayList(), new ObjectArrayList<>());
+        for (int position : new int[]{-1, 0, 9, 11, 25, 31, Integer.MAX_VALUE}) {
+            assertNull("no value at position " + position, index.get("1", position));
+        }
+        // a position indexed on another chromosome, an unknown chromosome and a chromosome without values:
+        assertNull(index.get("2", 10));
+        assertNull(index.get("Y", 10));
+    }
+
+    @Test
+    public void reindexedChromosomeReplacesValues() {
+        PositionIndex<String> index = new PositionIndex<>();
+        index.put("1", IntArrayList.wrap(new int[]{10, 20}), ObjectArrayList.wrap(new String[]{"a", "b"}));
+        index.put("1", IntArrayList.wrap(new int[]{30}), ObjectArrayList.wrap(new String[]{"c"}));
+        assertEquals(1, index.size());
+        assertNull(index.get("1", 10));
+        assertEquals("c", index.get("1", 30));
+    }
+
+    @Test
+    public void upperCasedAlleles() {
+        Set<Variant.FromTo> trueAlleles = new ObjectArraySet<>();
+        trueAlleles.add(new Variant.FromTo("a", "a"));
+        trueAlleles.add(new Variant.FromTo("cggg", "C-gg"));
+        trueAlleles.add(new Variant.FromTo("T", "G"));
+        TrueGenotypeIndex.upperCase(trueAlleles);
+        Set<String> fromTos = new ObjectArraySet<>();
+        for (Variant.FromTo allele : trueAlleles) {
+            fromTos.add(allele.getFrom() + ">" + allele.getTo());
+        }
+        assertEquals(3, fromTos.size());
+        assertTrue(fromTos.contains("A>A"));
+        assertTrue(fromTos.contains("CGGG>C-GG"));
+        assertTrue(fromTos.contains("T>G"));
+    }
+}
@@ -0,0 +1,123 @@
+package org.campagnelab.dl.genotype.output;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Write block gzip VCF files and check their content and tabix index.
+ */
+public class VCFWriterTest {
+    private static final String HEADER = "##fileformat=VCFv4.1\n#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample\n";
+
+    @Test
+    public void formatsLikePrintf() throws IOException {
+        String filename = "test-results/format.vcf";
+        FileUtils.forceMkdir(new File("test-results"));
+        double[] values = {0, 1, 0.5, 0.1234564, 0.9999999, -0.25, -1e-9, 12345.678901, Double.NaN};
+        StringBuilder expected = new StringBuilder();
+        try (VCFWriter writer = new VCFWriter(filename, false, 1)) {
+            for (double value : values) {
+                writer.append(value, 6).tab().append(-42).tab().append(Long.MAX_VALUE);
+                writer.endRecord("1", 1, "A");
+                expected.append(String.format("%f\t%d\t%d\n", value, -42, Long.MAX_VALUE));
+            }
+        }
+        assertEquals(expected.toString(), new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void writesIndexedBGZF() throws IOException {
+        String filename = "test-results/indexed.vcf";
+        FileUtils.forceMkdir(new File("test-results"));
+        StringBuilder expected = new StringBuilder(HEADER);
+        final int numRecords = 20000;
+        try (VCFWriter writer = new VCFWriter(filename, true, 2)) {
+            assertEquals(filename + ".gz", writer.getFilename());
+            writer.writeHeader(HEADER);
+            for (int i = 0; i < numRecords; i++) {
+                final String referenceId = i < numRecords / 2 ? "chr1" : "chr2";
+                final int position = 1 + 37 * (i % (numRecords / 2));
+                writer.append(referenceId).tab().append(position).append("\t.\tA\t")
+                        .append(Arrays.asList("C", "T"), ',').append("\t.\t.\t.\tGT:MC:P\t0/1:A/C:")
+                        .append(0.5, 6);
+                writer.endRecord(referenceId, position, "A");
+                expected.append(String.format("%s\t%d\t.\tA\tC,T\t.\t.\t.\tGT:MC:P\t0/1:A/C:%f\n", referenceId,
+                        position, 0.5));
+            }
+        }
+        final byte[] compressed = Files.readAllBytes(Paths.get(filename + ".gz"));
+        // more than one block, and the end-of-file block:
+        assertTrue(expected.length() > BGZFOutputStream.MAX_BLOCK_INPUT);
+        assertArrayEquals(BGZFOutputStream.EOF_BLOCK,
+                Arrays.copyOfRange(compressed, compressed.length - BGZFOutputStream.EOF_BLOCK.length, compressed.length));
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertEquals(expected.toString(), IOUtils.toString(input, StandardCharsets.UTF_8));
+        }
+
+        ByteBuffer index;
+        try (InputStream input = new GZIPInputStream(new FileInputStream(GenomicTextWriter.indexFilename(filename + ".gz")))) {
+            index = ByteBuffer.wrap(IOUtils.toByteArray(input)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        assertEquals('T', index.get());
+        assertEquals('B', index.get());
+        assertEquals('I', index.get());
+        assertEquals(1, index.get());
+        assertEquals(2, index.getInt());
+        // VCF format, sequence, begin and end columns, meta character and lines to skip:
+        assertEquals(2, index.getInt());
+        assertEquals(1, index.getInt());
+        assertEquals(2, index.getInt());
+        assertEquals(0, index.getInt());
+        assertEquals('#', index.getInt());
+        assertEquals(0, index.getInt());
+        assertEquals("chr1\0chr2\0".length(), index.getInt());
+        byte[] names = new byte[10];
+        index.get(names);
+        assertEquals("chr1\0chr2\0", new String(names, StandardCharsets.US_ASCII));
+        // skip the bins of chr1 to its linear index:
+        final int numBins = index.getInt();
+        for (int bin = 0; bin < numBins; bin++) {
+            index.getInt();
+            final int numChunks = index.getInt();
+            index.position(index.position() + numChunks * 2 * Long.BYTES);
+        }
+        final int numWindows = index.getInt();
+        assertEquals(1 + (37 * (numRecords / 2 - 1)) / (1 << 14), numWindows);
+        final long firstWindow = index.getLong();
+        assertEquals("chr1\t1\t", readAt(compressed, firstWindow, 7));
+        final long secondWindow = index.getLong();
+        // first record of the second window, at zero-based position 16384 or more:
+        final int firstInSecondWindow = 1 + 37 * ((1 << 14) / 37 + 1);
+        assertEquals("chr1\t" + firstInSecondWindow + "\t", readAt(compressed, secondWindow, 11));
+    }
+
+    /**
+     * Read text of a BGZF file at a virtual offset.
+     */
+    private static String readAt(byte[] compressed, long virtualOffset, int length) throws IOException {
+        final int address = (int) (virtualOffset >>> 16);
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressed, address,
+                compressed.length - address))) {
+            IOUtils.skipFully(input, virtualOffset & 0xffff);
+            byte[] text = new byte[length];
+            IOUtils.readFully(input, text);
+            return new String(text, StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.campagnelab.dl.genotype.segments;
 
 
+import com.google.common.collect.Iterables;
 import org.campagnelab.dl.genotype.segments.splitting.NoSplitStrategy;
 import org.campagnelab.dl.genotype.segments.splitting.SingleCandidateIndelSplitStrategy;
 import org.campagnelab.dl.genotype.tools.SBIToSSIConverterArguments;
@@ -8,10 +9,12 @@ import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.campagnelab.dl.varanalysis.protobuf.SegmentInformationRecords;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class SegmentHelperTest {
     String expectedSnps =
@@ -131,6 +134,79 @@ public class SegmentHelperTest {
 
     }
 
+    @Test
+    // trio: every sample of the segment has the bases mapped once per record
+    public void testHelperSamplesShareBases() {
+        Function<Segment, Segment> function = new WithIndelsPostProcessSegmentFunction();
+        SBIToSSIConverterArguments args = new SBIToSSIConverterArguments();
+        args.mapFeatures = false;
+        args.mapLabels = false;
+        FillInFeaturesFunction fillInFeatures = new MyFillInFeaturesFunction(null, null, args);
+        int[] numSegments = {0};
+        Consumer<SegmentInformationRecords.SegmentInformation> segmentConsumer = segmentInfoo -> {
+            assertEquals(3, segmentInfoo.getSampleCount());
+            assertEquals(6, segmentInfoo.getLength());
+            for (int sampleIndex = 0; sampleIndex < 3; sampleIndex++) {
+                assertEquals(segmentInfoo.getSample(0).getBaseList(), segmentInfoo.getSample(sampleIndex).getBaseList());
+            }
+            assertEquals(expectedHomInsertionCC, Segment.showGenotypes(segmentInfoo));
+            numSegments[0]++;
+        };
+        SegmentHelper helper = new SegmentHelper(function, fillInFeatures, segmentConsumer, new NoSplitStrategy(),
+                false);
+        int refIndex = 0;
+        int position = 0;
+        helper.add(trio(makeRecord(refIndex, position, "A/A", "A/A=12+10")));
+        helper.add(trio(makeRecord(refIndex, position + 1, "A/T", "A/A=20+12", "A/T=10+23")));
+        helper.add(trio(makeRecord(refIndex, position + 2, "ACCA/ACCA", "A--A/ACCA=2+5", "A--A/ACCA=2+5")));
+        helper.close();
+        assertEquals(1, numSegments[0]);
+    }
+
+    @Test
+    public void testActualLength() {
+        Segment segment = new Segment(null, makeRecord(0, 0, "A/A", "A/A=12+10"));
+        segment.add(makeRecord(0, 1, "A/T", "A/A=20+12", "A/T=10+23"));
+        segment.add(makeRecord(0, 2, "ACCA/ACCA", "A--A/ACCA=2+5", "A--A/ACCA=2+5"));
+        assertEquals(3, segment.actualLength());
+        // the indel is replaced by one record per offset:
+        new WithIndelsPostProcessSegmentFunction().apply(segment);
+        assertEquals(6, segment.actualLength());
+        assertEquals(Iterables.size(segment.getAllRecords()), segment.actualLength());
+        segment.removeWhere(record -> record.getPosition() == 2);
+        assertEquals(2, segment.actualLength());
+        assertEquals(Iterables.size(segment.getAllRecords()), segment.actualLength());
+    }
+
+    @Test
+    public void testRecordAt() {
+        Segment segment = new Segment(null, makeRecord(0, 0, "A/A", "A/A=12+10"));
+        segment.add(makeRecord(0, 1, "A/T", "A/A=20+12", "A/T=10+23"));
+        segment.add(makeRecord(0, 2, "ACCA/ACCA", "A--A/ACCA=2+5", "A--A/ACCA=2+5"));
+        new WithIndelsPostProcessSegmentFunction().apply(segment);
+        assertEquals(1, segment.getRecordAt(1).getPosition());
+        assertEquals("A/T", segment.getRecordAt(1).getTrueGenotype());
+        // the indel is hidden, so the first record at its position is the copy at offset 0:
+        assertEquals(segment.getAfterRecords().get(2).get(0), segment.getRecordAt(2));
+        assertNull(segment.getRecordAt(3));
+
+        Segment parent = new Segment(null, makeRecord(0, 0, "A/A", "A/A=12+10"));
+        parent.add(makeRecord(0, 1, "A/T", "A/A=20+12", "A/T=10+23"));
+        parent.add(makeRecord(0, 2, "ACCA/ACCA", "A--A/ACCA=2+5", "A--A/ACCA=2+5"));
+        // the sub-segment around the indel starts one position before it:
+        List<SingleCandidateIndelSegment> subSegments = new SingleCandidateIndelSplitStrategy(1, 0, false).apply(parent);
+        assertEquals(1, subSegments.size());
+        Segment subSegment = new WithIndelsPostProcessSegmentFunction().apply(subSegments.get(0));
+        assertEquals(5, subSegment.actualLength());
+        assertEquals(Iterables.size(subSegment.getAllRecords()), subSegment.actualLength());
+        assertNull(subSegment.getRecordAt(0));
+        assertEquals(subSegment.getAfterRecords().get(2).get(0), subSegment.getRecordAt(2));
+    }
+
+    private static BaseInformationRecords.BaseInformation trio(BaseInformationRecords.BaseInformation record) {
+        return record.toBuilder().addSamples(record.getSamples(0)).addSamples(record.getSamples(0)).build();
+    }
+
     @Test
     // homozygous deletion
     public void testHelperHomDeletion() {
@@ -0,0 +1,98 @@
+package org.campagnelab.dl.genotype.tools;
+
+import it.unimi.dsi.fastutil.objects.ObjectArraySet;
+import org.campagnelab.dl.genotype.helpers.AddTrueGenotypeHelper;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.campagnelab.goby.util.Variant;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check that records labeled on parallel threads are the records the sequential tool writes, in the same order.
+ */
+public class AddTrueGenotypesMultiThreadedTest {
+    private static final int NUM_RECORDS = 1000;
+
+    @Test
+    public void matchesSequentialLabeling() throws IOException {
+        List<BaseInformationRecords.BaseInformation> records = new ArrayList<>();
+        for (int position = 0; position < NUM_RECORDS; position++) {
+            records.add(SBISimulator.makeRecord(0, position < NUM_RECORDS / 2 ? "1" : "2", position, "A/A",
+                    "ACGTACGTACG", "A/A=10+12", "A/T=3+" + position % 5, "A/C=0+1"));
+        }
+        // the sequential tool labels every record with one helper:
+        List<BaseInformationRecords.BaseInformation> expected = new ArrayList<>();
+        AddTrueGenotypeHelper sequential = new FakeTruthHelper();
+        for (BaseInformationRecords.BaseInformation record : records) {
+            if (sequential.addTrueGenotype(sequential.willKeep(record.getPosition(), record.getReferenceId(), "A"),
+                    record)) {
+                expected.add(sequential.labeledEntry());
+            }
+        }
+        assertTrue(expected.size() < NUM_RECORDS);
+        assertTrue(expected.stream().anyMatch(record -> record.getSamples(0).getIsVariant()));
+
+        for (int numThreads : new int[]{1, 4}) {
+            for (int batchSize : new int[]{1, 7, 2 * NUM_RECORDS}) {
+                List<FakeTruthHelper> helpers = Collections.synchronizedList(new ArrayList<>());
+                List<BaseInformationRecords.BaseInformation> labeled = new ArrayList<>();
+                AddTrueGenotypesMultiThreaded.label(records, record -> "A", () -> {
+                    FakeTruthHelper helper = new FakeTruthHelper();
+                    helpers.add(helper);
+                    return helper;
+                }, numThreads, batchSize, labeled::add);
+                assertEquals(expected, labeled);
+                assertTrue(helpers.size() <= numThreads);
+                for (FakeTruthHelper helper : helpers) {
+                    assertFalse("a helper was used by more than one thread", helper.shared);
+                }
+            }
+        }
+    }
+
+    /**
+     * A helper with a fixed truth: a heterozygous A/T variant every seventh position, and reference sites kept at
+     * two positions out of three.
+     */
+    private static class FakeTruthHelper extends AddTrueGenotypeHelper {
+        private Thread owner;
+        private boolean shared;
+
+        @Override
+        public WillKeepI willKeep(int position, String referenceId, String referenceBase) {
+            if (owner == null) {
+                owner = Thread.currentThread();
+            }
+            shared |= owner != Thread.currentThread();
+            final boolean variant = position % 7 == 0;
+            final Set<Variant.FromTo> trueAlleles = new ObjectArraySet<>();
+            trueAlleles.add(new Variant.FromTo(referenceBase, referenceBase));
+            if (variant) {
+                trueAlleles.add(new Variant.FromTo(referenceBase, "T"));
+            }
+            return new WillKeep(position, referenceId, referenceBase) {
+                @Override
+                public boolean isVariant() {
+                    return variant;
+                }
+
+                @Override
+                public boolean isKeep() {
+                    return variant || position % 3 != 1;
+                }
+
+                @Override
+                public Set<Variant.FromTo> getTrueAlleles() {
+                    return trueAlleles;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.campagnelab.dl.genotype.tools;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.genotype.storage.SegmentReader;
+import org.campagnelab.dl.somatic.storage.RecordWriter;
+import org.campagnelab.dl.varanalysis.protobuf.SegmentInformationRecords;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that converting an SBI file in several partitions writes the same segments as converting it in one.
+ */
+public class SBIToSSIConverterTest {
+    private static final int RECORDS_PER_CHUNK = 50;
+    /**
+     * Number of valid records of each segment. Segments longer than a chunk span at least one chunk boundary.
+     */
+    private static final int[] SEGMENT_LENGTHS = {7, 120, 3, 60, 1, 45, 200, 12, 49, 50, 51, 2, 130, 9, 75, 33, 150};
+
+    @Test
+    public void sameSegmentsWithPartitions() throws IOException {
+        final String input = "test-results/sbi-to-ssi/input";
+        FileUtils.deleteQuietly(new File("test-results/sbi-to-ssi"));
+        FileUtils.forceMkdir(new File("test-results/sbi-to-ssi"));
+        IntArrayList expectedStarts = writeSegments(input);
+
+        List<SegmentInformationRecords.SegmentInformation> expected = convert(input, "test-results/sbi-to-ssi/one");
+        assertEquals(SEGMENT_LENGTHS.length, expected.size());
+        IntArrayList starts = new IntArrayList();
+        for (SegmentInformationRecords.SegmentInformation segment : expected) {
+            starts.add(segment.getStartPosition().getLocation());
+        }
+        assertEquals(expectedStarts, starts);
+
+        // four partitions, then twelve partitions of less than two chunks each:
+        for (String numThreads : new String[]{"1", "3"}) {
+            List<SegmentInformationRecords.SegmentInformation> segments = convert(input,
+                    "test-results/sbi-to-ssi/threads" + numThreads, "--parallel", "--num-threads", numThreads);
+            assertEquals("segments converted with " + numThreads + " threads", expected, segments);
+        }
+    }
+
+    /**
+     * Write the segments, separated by a gap that holds a record without counts, in chunks of RECORDS_PER_CHUNK
+     * records. The second half of the segments is on another reference, starting again at position 0.
+     *
+     * @return the start position of each segment.
+     */
+    private static IntArrayList writeSegments(String basename) throws IOException {
+        IntArrayList starts = new IntArrayList();
+        int numRecords = 0;
+        int longestSpanningSegment = 0;
+        try (RecordWriter writer = new RecordWriter(basename + ".sbi", RECORDS_PER_CHUNK)) {
+            int position = 0;
+            for (int s = 0; s < SEGMENT_LENGTHS.length; s++) {
+                final int referenceIndex = s < SEGMENT_LENGTHS.length / 2 ? 0 : 1;
+                if (s == SEGMENT_LENGTHS.length / 2) {
+                    position = 0;
+                }
+                starts.add(position);
+                if (numRecords / RECORDS_PER_CHUNK != (numRecords + SEGMENT_LENGTHS[s] - 1) / RECORDS_PER_CHUNK) {
+                    longestSpanningSegment = Math.max(longestSpanningSegment, SEGMENT_LENGTHS[s]);
+                }
+                for (int i = 0; i < SEGMENT_LENGTHS[s]; i++) {
+                    writer.writeRecord(SBISimulator.makeRecord(referenceIndex, "chr" + (referenceIndex + 1),
+                            position++, "A/T", "A", "A/A=10+12", "A/T=" + (i % 7) + "+3"));
+                    numRecords++;
+                }
+                // a record without counts, then a gap larger than one base:
+                writer.writeRecord(SBISimulator.makeRecord(referenceIndex, "chr" + (referenceIndex + 1),
+                        position++, "A", "A", "A/A=0+0"));
+                numRecords++;
+                position += 5;
+            }
+        }
+        assertTrue("a segment must span a chunk boundary", longestSpanningSegment > RECORDS_PER_CHUNK);
+        return starts;
+    }
+
+    private static List<SegmentInformationRecords.SegmentInformation> convert(String input, String output,
+                                                                               String... options) throws IOException {
+        String[] args = new String[4 + options.length];
+        args[0] = "-i";
+        args[1] = input + ".sbi";
+        args[2] = "-o";
+        args[3] = output;
+        System.arraycopy(options, 0, args, 4, options.length);
+        SBIToSSIConverter tool = new SBIToSSIConverter();
+        tool.parseArguments(args, "SBIToSSIConverter", tool.createArguments());
+        tool.execute();
+        List<SegmentInformationRecords.SegmentInformation> segments = new ArrayList<>();
+        try (SegmentReader reader = new SegmentReader(output)) {
+            for (SegmentInformationRecords.SegmentInformation segment : reader) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+}
@@ -10,7 +10,7 @@ import java.util.List;
  * Created by fac2003 on 10/17/16.
  */
 public class QuickConcatArguments implements ToolArguments {
-    @Parameter(required = true, variableArity = true, names = {"-i", "--input-files"}, description = "Input files in .bsi/.bsip format.")
+    @Parameter(required = true, variableArity = true, names = {"-i", "--input-files"}, description = "Input files in .sbi/.sbip or .ssi/.ssip format.")
     public List<String> inputFiles = new ArrayList<>();
 
      @Parameter(required = true, names = {"-o", "--output-prefix"}, description = "Prefix for the output filenames.")
@@ -21,4 +21,7 @@ public class QuickConcatArguments implements ToolArguments {
 
     @Parameter(names={"-f","--force"}, description = "Force override the output if it already exists.")
     public    boolean force=false;
+
+    @Parameter(names = "--merge-sorted", description = "Merge inputs sorted by genomic position into a sorted output, instead of concatenating them. Slower, since records are decoded and encoded again.")
+    public boolean mergeSorted = false;
 }
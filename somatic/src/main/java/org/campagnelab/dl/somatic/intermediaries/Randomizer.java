@@ -1,92 +1,295 @@
 package org.campagnelab.dl.somatic.intermediaries;
 
 
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.util.XorShift1024StarRandom;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.framework.utils.DaemonThreadFactory;
 import org.campagnelab.dl.somatic.storage.RecordReader;
 import org.campagnelab.dl.somatic.storage.RecordWriter;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Collections;
-import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- *
- *
- * the randomizer object iterates over a parquet file and randomizes the order of records in batches
- *
+ * The randomizer shuffles all the records of an .sbi file, with bounded memory. Records are first scattered at random
+ * into temporary bucket files, each small enough to be shuffled in memory. Buckets are then loaded, shuffled and
+ * appended to the output one after the other. Any record can end up anywhere in the output, so records from distant
+ * genomic regions are mixed.
+ * <p>
+ * Chunks of the bucket files are compressed by several threads while records are scattered, and the next buckets are
+ * loaded and shuffled in the background while the current one is written. The memory budget bounds the number of
+ * records held in memory across both phases.
+ * <p>
+ * At most a fixed number of bucket files are open at once. When more buckets would be needed to fit the budget, the
+ * records are scattered into that many buckets, and each bucket too large to shuffle in memory is in turn shuffled by
+ * scattering it into smaller buckets.
+ * <p>
  * Created by rct66 on 5/18/16.
+ *
  * @author rct66
  */
-public class Randomizer extends Intermediary{
-    public static final int MAX_ELEMENTS = 20000;
+public class Randomizer extends Intermediary {
+    /**
+     * Number of records read to estimate the average size of a record.
+     */
+    private static final int SIZE_SAMPLE = 1000;
+    /**
+     * Ratio of the heap used by a parsed record to its serialized size.
+     */
+    private static final int IN_MEMORY_OVERHEAD = 4;
+    private static final int MAX_RECORDS_PER_WRITE = 10000;
+    /**
+     * Maximum number of bucket files written at once.
+     */
+    private static final int MAX_BUCKETS = 256;
     static private Logger LOG = LoggerFactory.getLogger(Randomizer.class);
 
+    private final long memoryBudget;
+    private final int numThreads;
+    private final Random random;
+    private final int maxBuckets;
+
+    /**
+     * Create a randomizer that uses a quarter of the maximum heap and all available processors.
+     */
+    public Randomizer() {
+        this(Runtime.getRuntime().maxMemory() / 4, Runtime.getRuntime().availableProcessors(), new XorShift1024StarRandom());
+    }
+
+    /**
+     * @param memoryBudget number of bytes of heap that records may use.
+     * @param numThreads   number of threads used to compress and load buckets.
+     * @param random       random generator used to assign records to buckets and shuffle them.
+     */
+    public Randomizer(long memoryBudget, int numThreads, Random random) {
+        this(memoryBudget, numThreads, random, MAX_BUCKETS);
+    }
 
-    public static void main (String[] args) throws IOException{
+    /**
+     * @param maxBuckets maximum number of bucket files written at once, at least 2.
+     */
+    Randomizer(long memoryBudget, int numThreads, Random random, int maxBuckets) {
+        this.memoryBudget = memoryBudget;
+        this.numThreads = Math.max(1, numThreads);
+        this.random = random;
+        this.maxBuckets = Math.max(2, maxBuckets);
+    }
 
+    public static void main(String[] args) throws IOException {
+        Randomizer randomizer = args.length > 2 ?
+                new Randomizer(Long.parseLong(args[2]) * 1024 * 1024, Runtime.getRuntime().availableProcessors(), new XorShift1024StarRandom()) :
+                new Randomizer();
         //randomize
-        new Randomizer().executeOver(args[0],args[1]);
+        randomizer.executeOver(args[0], args[1]);
     }
 
     public void execute(String inPath, String outPath, int blockSize, int pageSize) throws IOException {
+        File workingDir = new File(outPath).getAbsoluteFile().getParentFile();
+        File tmpDir = Files.createTempDirectory(workingDir.toPath(), "randomizer").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory("randomizer"));
         try {
-            RecordReader reader = new RecordReader(inPath);
-            RecordWriter writer = new RecordWriter(outPath);
-            Random rand = new XorShift1024StarRandom();
-
-            //set up logger
-            ProgressLogger pgRead = new ProgressLogger(LOG);
-            pgRead.itemsName = "read";
-            pgRead.expectedUpdates = reader.getTotalRecords();
-            pgRead.displayFreeMemory = true;
-            pgRead.start();
-
-            List<BaseInformationRecords.BaseInformation> recList = new ObjectArrayList<BaseInformationRecords.BaseInformation>(MAX_ELEMENTS+1);
-            int i = 0;
-            for (BaseInformationRecords.BaseInformation rec : reader) {
-                recList.add(rec);
-                pgRead.lightUpdate();
-                i++;
-                if (i >= MAX_ELEMENTS){
-                    shuffle(recList,rand,writer);
-                    recList.clear();
-                    i = 0;
-                }
-
+            final long numRecords;
+            final long recordBytes;
+            try (RecordReader reader = new RecordReader(inPath)) {
+                numRecords = reader.getTotalRecords();
+                recordBytes = estimateRecordBytes(reader);
+            }
+            // the bucket being written and the buckets loading in the background must fit in the budget:
+            final long recordsPerBucket = Math.max(1, memoryBudget / (recordBytes * (numThreads + 1)));
+            try (RecordWriter writer = new RecordWriter(outPath)) {
+                shuffle(inPath, numRecords, tmpDir, writer, recordsPerBucket, recordBytes, executor);
             }
-            shuffle(recList,rand,writer);
-            pgRead.stop();
-            reader.close();
-            writer.close();
+        } finally {
+            executor.shutdownNow();
+            FileUtils.deleteDirectory(tmpDir);
+        }
+    }
 
+    /**
+     * Shuffle the records of a file and append them to the output, through buckets written in a directory.
+     *
+     * @param recordsPerBucket the largest number of records shuffled in memory.
+     */
+    private void shuffle(String inPath, long numRecords, File dir, RecordWriter writer, long recordsPerBucket,
+                         long recordBytes, ExecutorService executor) throws IOException {
+        final int numBuckets = (int) Math.min(maxBuckets, numRecords / recordsPerBucket + 1);
+        // while scattering, each bucket holds a batch being filled and a chunk being compressed:
+        final int recordsPerWrite = (int) Math.max(1, Math.min(MAX_RECORDS_PER_WRITE,
+                memoryBudget / (2L * numBuckets * recordBytes)));
+        LOG.info(String.format("Shuffling %d records with %d buckets of about %d records.", numRecords, numBuckets,
+                numRecords / numBuckets));
 
+        long[] bucketSizes = scatter(inPath, dir, numRecords, numBuckets, recordsPerWrite, executor);
+        gather(writer, dir, bucketSizes, recordsPerBucket, recordBytes, executor);
+    }
 
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Estimate the heap used by one record from the serialized size of the first records.
+     */
+    private long estimateRecordBytes(RecordReader reader) {
+        long totalSize = 0;
+        int count = 0;
+        for (BaseInformationRecords.BaseInformation rec : reader) {
+            totalSize += rec.getSerializedSize();
+            if (++count == SIZE_SAMPLE) {
+                break;
+            }
+        }
+        return Math.max(1, IN_MEMORY_OVERHEAD * totalSize / Math.max(1, count));
+    }
+
+    /**
+     * Write each record of the input to a random bucket. Batches of records are appended to the bucket writers by the
+     * executor, so that chunks of different buckets are compressed in parallel. Batches of the same bucket are
+     * written in order, one at a time.
+     *
+     * @return the number of records written to each bucket.
+     */
+    private long[] scatter(String inPath, File tmpDir, long numRecords, int numBuckets, int recordsPerWrite,
+                           ExecutorService executor) throws IOException {
+        RecordWriter[] bucketWriters = new RecordWriter[numBuckets];
+        ObjectArrayList<BaseInformationRecords.BaseInformation>[] batches = new ObjectArrayList[numBuckets];
+        Future<?>[] lastWrites = new Future<?>[numBuckets];
+        long[] bucketSizes = new long[numBuckets];
+        for (int i = 0; i < numBuckets; i++) {
+            bucketWriters[i] = new RecordWriter(bucketPath(tmpDir, i), recordsPerWrite);
+            batches[i] = new ObjectArrayList<>(recordsPerWrite);
+        }
+        ObjectArrayFIFOQueue<Future<?>> pending = new ObjectArrayFIFOQueue<>();
+        ProgressLogger pgRead = new ProgressLogger(LOG);
+        pgRead.itemsName = "read";
+        pgRead.expectedUpdates = numRecords;
+        pgRead.displayFreeMemory = true;
+        pgRead.start();
+        try (RecordReader reader = new RecordReader(inPath)) {
+            for (BaseInformationRecords.BaseInformation rec : reader) {
+                final int bucket = random.nextInt(numBuckets);
+                batches[bucket].add(rec);
+                bucketSizes[bucket]++;
+                if (batches[bucket].size() == recordsPerWrite) {
+                    submitWrite(bucket, batches, bucketWriters, lastWrites, pending, executor);
+                    while (pending.size() >= 2 * numThreads) {
+                        waitFor(pending.dequeue());
+                    }
+                }
+                pgRead.lightUpdate();
+            }
+        }
+        for (int bucket = 0; bucket < numBuckets; bucket++) {
+            if (!batches[bucket].isEmpty()) {
+                submitWrite(bucket, batches, bucketWriters, lastWrites, pending, executor);
+            }
+        }
+        while (!pending.isEmpty()) {
+            waitFor(pending.dequeue());
         }
+        pgRead.stop();
+        for (RecordWriter bucketWriter : bucketWriters) {
+            bucketWriter.close();
+        }
+        return bucketSizes;
     }
 
-    private void shuffle(List<BaseInformationRecords.BaseInformation> recList, Random rand, RecordWriter writer) throws IOException {
-        //System.out.println(rec.getSamples(0).getFormattedCounts());
-        Collections.shuffle(recList,rand);
+    private void submitWrite(int bucket, ObjectArrayList<BaseInformationRecords.BaseInformation>[] batches,
+                             RecordWriter[] bucketWriters, Future<?>[] lastWrites,
+                             ObjectArrayFIFOQueue<Future<?>> pending, ExecutorService executor) {
+        final ObjectArrayList<BaseInformationRecords.BaseInformation> batch = batches[bucket];
+        final RecordWriter writer = bucketWriters[bucket];
+        final Future<?> previous = lastWrites[bucket];
+        batches[bucket] = new ObjectArrayList<>(batch.size());
+        lastWrites[bucket] = executor.submit(() -> {
+            // keep the order of the batches of a bucket, so that the output only depends on the random seed:
+            if (previous != null) {
+                waitFor(previous);
+            }
+            for (BaseInformationRecords.BaseInformation rec : batch) {
+                writer.writeRecord(rec);
+            }
+            return null;
+        });
+        pending.enqueue(lastWrites[bucket]);
+    }
 
-        //set up logger2
+    /**
+     * Shuffle the buckets and append them to the output. The executor loads and shuffles the next buckets while the
+     * current one is written. Buckets with more than recordsPerBucket records are shuffled through smaller buckets
+     * instead, and no bucket is loaded ahead of them.
+     */
+    private void gather(RecordWriter writer, File tmpDir, long[] bucketSizes, long recordsPerBucket, long recordBytes,
+                        ExecutorService executor) throws IOException {
+        final int numBuckets = bucketSizes.length;
         ProgressLogger pgWrite = new ProgressLogger(LOG);
-        pgWrite.itemsName = "write";
-        pgWrite.expectedUpdates = MAX_ELEMENTS;
+        pgWrite.itemsName = "buckets";
+        pgWrite.expectedUpdates = numBuckets;
         pgWrite.displayFreeMemory = true;
         pgWrite.start();
-        for ( BaseInformationRecords.BaseInformation recWrite : recList){
-            writer.writeRecord(recWrite);
-            pgWrite.lightUpdate();
+        ObjectArrayFIFOQueue<Future<ObjectArrayList<BaseInformationRecords.BaseInformation>>> loading = new ObjectArrayFIFOQueue<>();
+        int nextBucket = 0;
+        for (int bucket = 0; bucket < numBuckets; bucket++) {
+            if (bucketSizes[bucket] > recordsPerBucket) {
+                File splitDir = new File(tmpDir, "split" + bucket);
+                FileUtils.forceMkdir(splitDir);
+                shuffle(bucketPath(tmpDir, bucket), bucketSizes[bucket], splitDir, writer, recordsPerBucket,
+                        recordBytes, executor);
+                FileUtils.deleteDirectory(splitDir);
+                nextBucket = bucket + 1;
+            } else {
+                while (nextBucket < numBuckets && loading.size() < numThreads && bucketSizes[nextBucket] <= recordsPerBucket) {
+                    final String path = bucketPath(tmpDir, nextBucket);
+                    final long size = bucketSizes[nextBucket];
+                    // each bucket gets its own generator, seeded in bucket order to keep the output reproducible:
+                    final Random bucketRandom = new XorShift1024StarRandom(random.nextLong());
+                    loading.enqueue(executor.submit(() -> loadShuffled(path, size, bucketRandom)));
+                    nextBucket++;
+                }
+                for (BaseInformationRecords.BaseInformation rec : waitFor(loading.dequeue())) {
+                    writer.writeRecord(rec);
+                }
+            }
+            new File(bucketPath(tmpDir, bucket) + ".sbi").delete();
+            pgWrite.update();
         }
         pgWrite.stop();
     }
 
+    private ObjectArrayList<BaseInformationRecords.BaseInformation> loadShuffled(String path, long size, Random random) throws IOException {
+        ObjectArrayList<BaseInformationRecords.BaseInformation> records = new ObjectArrayList<>((int) size);
+        if (size > 0) {
+            try (RecordReader bucketReader = new RecordReader(path)) {
+                for (BaseInformationRecords.BaseInformation rec : bucketReader) {
+                    records.add(rec);
+                }
+            }
+        }
+        Collections.shuffle(records, random);
+        return records;
+    }
+
+    private static String bucketPath(File tmpDir, int bucket) {
+        return new File(tmpDir, "bucket" + bucket).getPath();
+    }
+
+    private static <T> T waitFor(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while shuffling records.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to shuffle records.", e.getCause());
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package org.campagnelab.dl.somatic.learning.domains;
 
+import org.campagnelab.dl.framework.domains.prediction.BatchInterpretation;
 import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
 import org.campagnelab.dl.somatic.learning.domains.predictions.IsMutatedBasePrediction;
 import org.campagnelab.dl.somatic.learning.domains.predictions.IsMutatedPrediction;
@@ -51,22 +52,39 @@ public class IsBaseMutatedInterpreter extends IsSomaticMutationInterpreter imple
 
     @Override
     public IsMutatedBasePrediction interpret(BaseInformationRecords.BaseInformation record, INDArray output) {
+        int predictionIndex = 0;
+        return prediction(record, output.getDouble(predictionIndex, 0), getArgMaxIndex(output, predictionIndex));
+    }
+
+    /**
+     * Store the probability that each example is not mutated in probability, and the index of the largest output
+     * (0: not mutated, 1+: sorted base index + 1) in predictedIndex.
+     */
+    @Override
+    public void interpret(float[] output, int numExamples, int numColumns, BatchInterpretation results) {
+        results.argMax(output, numColumns, numColumns);
+        for (int example = 0; example < numExamples; example++) {
+            results.probability[example] = output[example * numColumns];
+        }
+    }
+
+    @Override
+    public IsMutatedBasePrediction prediction(BaseInformationRecords.BaseInformation record, BatchInterpretation results,
+                                              int exampleIndex) {
+        return prediction(record, results.probability[exampleIndex], results.predictedIndex[exampleIndex]);
+    }
+
+    private IsMutatedBasePrediction prediction(BaseInformationRecords.BaseInformation record,
+                                               double probabilityNotMutated, int argMaxIndex) {
         IsMutatedBasePrediction prediction = new IsMutatedBasePrediction();
         prediction.inspectRecord(record);
-        int predictionIndex = 0;
 
         prediction.trueLabelYes = record.getMutated() ? 1.0 : 0.0;
-        double probabilityNotMutated = output.getDouble(predictionIndex, 0);
-        prediction.predictedLabelNo = probabilityNotMutated;
-        prediction.predictedLabelYes = 1 - probabilityNotMutated;
-
-        // represent the allele as 0, 1, according to index in sorted counts:
         prediction.predictedLabelNo = probabilityNotMutated;
         prediction.predictedLabelYes = 1 - probabilityNotMutated;
 
-        int argMaxIndex = getArgMaxIndex(output, predictionIndex);
-
         assert argMaxIndex != -1 : "argMaxIndex must be set";
+        // represent the allele as 0, 1, according to index in sorted counts:
         prediction.sortedBaseIndex = argMaxIndex - 1;
         // determine the base allele for called somatic allele:
         final List<BaseInformationRecords.CountInfo> counts = record.getSamples(record.getSamplesCount() - 1).getCountsList();
@@ -1,6 +1,7 @@
 package org.campagnelab.dl.somatic.learning.domains;
 
-import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.domains.prediction.BatchInterpretation;
+import org.campagnelab.dl.framework.domains.prediction.BatchPredictionInterpreter;
 import org.campagnelab.dl.somatic.learning.domains.predictions.SomaticFrequencyPrediction;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -8,7 +9,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 /**
  * Created by fac2003 on 11/12/16.
  */
-public class SomaticFrequencyInterpreter implements PredictionInterpreter<BaseInformationRecords.BaseInformation, SomaticFrequencyPrediction> {
+public class SomaticFrequencyInterpreter implements BatchPredictionInterpreter<BaseInformationRecords.BaseInformation, SomaticFrequencyPrediction> {
     @Override
     public SomaticFrequencyPrediction interpret(INDArray trueLabels, INDArray output, int exampleIndex) {
         SomaticFrequencyPrediction pred = new SomaticFrequencyPrediction();
@@ -19,12 +20,32 @@ public class SomaticFrequencyInterpreter implements PredictionInterpreter<BaseIn
 
     @Override
     public SomaticFrequencyPrediction interpret(BaseInformationRecords.BaseInformation record, INDArray output) {
+        return prediction(record, output.getFloat(0));
+    }
+
+    /**
+     * Store the predicted frequency of each example in probability.
+     */
+    @Override
+    public void interpret(float[] output, int numExamples, int numColumns, BatchInterpretation results) {
+        for (int example = 0; example < numExamples; example++) {
+            results.probability[example] = output[example * numColumns];
+        }
+    }
+
+    @Override
+    public SomaticFrequencyPrediction prediction(BaseInformationRecords.BaseInformation record,
+                                                 BatchInterpretation results, int exampleIndex) {
+        return prediction(record, results.probability[exampleIndex]);
+    }
+
+    private SomaticFrequencyPrediction prediction(BaseInformationRecords.BaseInformation record, float predictedValue) {
         SomaticFrequencyPrediction pred = new SomaticFrequencyPrediction();
         // set trueValue to 0 if the record is not mutated. We need this to calculate rmse.
         if (record != null) {
             pred.trueValue = record.hasFrequencyOfMutation() || record.hasMutated() ? record.getFrequencyOfMutation() : null;
         }
-        pred.predictedValue = output.getFloat(0);
+        pred.predictedValue = predictedValue;
         return pred;
     }
 }
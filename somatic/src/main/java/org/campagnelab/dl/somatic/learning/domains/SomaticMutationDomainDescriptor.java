@@ -151,6 +151,13 @@ public class SomaticMutationDomainDescriptor extends DomainDescriptor<BaseInform
         if (cachedFeatureMappers.containsKey(inputName)) {
             return cachedFeatureMappers.get(inputName);
         }
+        FeatureMapper result = newFeatureMapper(inputName);
+        cachedFeatureMappers.put(inputName, result);
+        return result;
+    }
+
+    @Override
+    public FeatureMapper newFeatureMapper(String inputName) {
         FeatureMapper result;
         if (args().featureMapperClassname != null) {
             assert "input".equals(inputName) : "Only one input supported by this domain.";
@@ -174,9 +181,7 @@ public class SomaticMutationDomainDescriptor extends DomainDescriptor<BaseInform
                 throw new RuntimeException(e);
             }
         }
-        cachedFeatureMappers.put(inputName, result);
         return result;
-
     }
 
     @Override
@@ -213,6 +218,12 @@ public class SomaticMutationDomainDescriptor extends DomainDescriptor<BaseInform
         }
     }
 
+    @Override
+    public LabelMapper newLabelMapper(String outputName) {
+        // getLabelMapper(outputName) already creates a new instance for each call:
+        return getLabelMapper(outputName);
+    }
+
     @Override
     public LabelMapper getLabelMapper(String outputName, int sampleIndex) {
         // TODO: extend mappers to use sample indices and use sampleIndex to configure mapper.
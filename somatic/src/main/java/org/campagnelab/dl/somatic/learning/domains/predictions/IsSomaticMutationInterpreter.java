@@ -1,13 +1,14 @@
 package org.campagnelab.dl.somatic.learning.domains.predictions;
 
-import org.campagnelab.dl.framework.domains.prediction.PredictionInterpreter;
+import org.campagnelab.dl.framework.domains.prediction.BatchInterpretation;
+import org.campagnelab.dl.framework.domains.prediction.BatchPredictionInterpreter;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 /**
  * Created by fac2003 on 11/12/16.
  */
-public class IsSomaticMutationInterpreter implements PredictionInterpreter<BaseInformationRecords.BaseInformation, IsMutatedPrediction> {
+public class IsSomaticMutationInterpreter implements BatchPredictionInterpreter<BaseInformationRecords.BaseInformation, IsMutatedPrediction> {
 
 
     @Override
@@ -27,4 +28,25 @@ public class IsSomaticMutationInterpreter implements PredictionInterpreter<BaseI
         pred.predictedLabelYes = (float) output.getDouble(0, 0);
         return pred;
     }
+
+    /**
+     * Store the probability that each example is mutated in probability, and that it is not in score.
+     */
+    @Override
+    public void interpret(float[] output, int numExamples, int numColumns, BatchInterpretation results) {
+        for (int example = 0; example < numExamples; example++) {
+            results.probability[example] = output[example * numColumns];
+            results.score[example] = output[example * numColumns + 1];
+        }
+    }
+
+    @Override
+    public IsMutatedPrediction prediction(BaseInformationRecords.BaseInformation record, BatchInterpretation results,
+                                          int exampleIndex) {
+        IsMutatedPrediction pred = new IsMutatedPrediction();
+        pred.inspectRecord(record);
+        pred.predictedLabelNo = results.score[exampleIndex];
+        pred.predictedLabelYes = results.probability[exampleIndex];
+        return pred;
+    }
 }
@@ -1,6 +1,7 @@
 package org.campagnelab.dl.somatic.mappers;
 
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.framework.mappers.BulkFeatureMapper;
 import org.campagnelab.dl.framework.mappers.FeatureNameMapper;
 import org.campagnelab.dl.framework.mappers.MappedDimensions;
 import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
@@ -16,7 +17,7 @@ import java.util.Collections;
  *
  * @author Fabien Campagne
  */
-public abstract class AbstractFeatureMapper<T extends BaseInformationRecords.BaseInformationOrBuilder> implements FeatureNameMapper<T> {
+public abstract class AbstractFeatureMapper<T extends BaseInformationRecords.BaseInformationOrBuilder> implements FeatureNameMapper<T>, BulkFeatureMapper<T> {
     public static final int MAX_GENOTYPES = 5;
     public static final int N_GENOTYPE_INDEX = 6;
     private float[] buffer;
@@ -90,21 +91,44 @@ public abstract class AbstractFeatureMapper<T extends BaseInformationRecords.Bas
     protected ObjectArrayList<? extends GenotypeCount> getAllCounts(BaseInformationRecords.BaseInformationOrBuilder record,
                                                                     boolean isTumor, boolean sort) {
         ObjectArrayList<? extends GenotypeCount> cached = getCachedResult(isTumor, sort);
-        if (cached != null && record.equals(recordCached[isTumor ? 1 : 0][sort ? 1 : 0])) {
+        // the same record instance is passed for each feature, identity is enough to validate the cache:
+        if (cached != null && record == recordCached[isTumor ? 1 : 0][sort ? 1 : 0]) {
             return cached;
         } else {
+            // another mapper may already have calculated the same counts for this record:
+            final RecordCountsCache shared = RecordCountsCache.forRecord(record);
+            cached = shared.get(countsKey(), isTumor, sort);
+            if (cached == null) {
+                cached = calculateAllCounts(record, isTumor, sort);
+                shared.put(countsKey(), isTumor, sort, cached);
+            }
+            putInCache(record, cached, isTumor, sort);
+            return cached;
+        }
+    }
 
-            assert oneSampleHasTumor(record.getSamplesList()) : "at least one sample must have hasTumor=true.";
+    private ObjectArrayList<? extends GenotypeCount> calculateAllCounts(BaseInformationRecords.BaseInformationOrBuilder record,
+                                                                        boolean isTumor, boolean sort) {
+        assert oneSampleHasTumor(record.getSamplesList()) : "at least one sample must have hasTumor=true.";
 
-            for (int i = 0; i < record.getSamplesCount(); i++) {
-                if (isTumor != record.getSamples(i).getIsTumor()) continue;
-                // a subclass is expected to override getGenotypeCountFactory to provide its own type for Genotype counts:
-                cached = getAllCounts(record, getGenotypeCountFactory(), isTumor, sort);
-                putInCache(record, cached, isTumor, sort);
-                return cached;
-            }
-            throw new InternalError("At least one sample matching isTumor, and one matching not isTumor must be found.");
+        for (int i = 0; i < record.getSamplesCount(); i++) {
+            if (isTumor != record.getSamples(i).getIsTumor()) continue;
+            // a subclass is expected to override getGenotypeCountFactory to provide its own type for Genotype counts:
+            return getAllCounts(record, getGenotypeCountFactory(), isTumor, sort);
         }
+        throw new InternalError("At least one sample matching isTumor, and one matching not isTumor must be found.");
+    }
+
+    /**
+     * Identify the kind of counts this mapper derives from records. Mappers that return the same key share the counts
+     * calculated for a record, so they must create the same type of GenotypeCount and initialize counts in the same
+     * way. The default key is the class of the mapper: counts are only shared between instances of the same class.
+     * GenotypeCountFeatureMapper and ReadIndexCountFeatureMapper define the kinds of counts shared across classes.
+     *
+     * @return a key compared by identity.
+     */
+    protected Object countsKey() {
+        return getClass();
     }
 
     private void putInCache(BaseInformationRecords.BaseInformationOrBuilder record, ObjectArrayList<? extends GenotypeCount> cached, boolean isTumor, boolean sort) {
@@ -144,6 +144,7 @@ public class DensityMapper extends NoMaskFeatureMapper<BaseInformationRecords.Ba
         return bins[featureIndex];
     }
 
+    @Override
     public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int offset, int indexOfRecord) {
         // do not copy if inputs is bins (call from mapFeatures above)
         if (inputs != bins) {
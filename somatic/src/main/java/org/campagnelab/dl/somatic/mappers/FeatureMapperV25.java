@@ -80,6 +80,11 @@ public class FeatureMapperV25 extends NamingConcatFeatureMapper<BaseInformationR
         delegate.mapFeatures(record, inputs, indexOfRecord);
     }
 
+    @Override
+    public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int offset, int indexOfRecord) {
+        delegate.mapFeatures(record, inputs, offset, indexOfRecord);
+    }
+
     @Override
     public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
         return delegate.produceFeature(record, featureIndex);
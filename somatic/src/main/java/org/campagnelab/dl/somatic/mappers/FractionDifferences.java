@@ -1,8 +1,6 @@
 package org.campagnelab.dl.somatic.mappers;
 
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
-import org.campagnelab.dl.somatic.genotypes.BaseGenotypeCountFactory;
-import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -12,7 +10,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * @author Remi Torracinta, rct66
  */
 
-public class FractionDifferences extends AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
+public class FractionDifferences extends GenotypeCountFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
         implements FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> {
 
 
@@ -79,20 +77,5 @@ public class FractionDifferences extends AbstractFeatureMapper<BaseInformationRe
         return Math.max(0,(normalize(germCounts,totalCountsGerm) - normalize(somCounts,totalCountsSom))*direction);
     }
 
-    @Override
-    protected GenotypeCountFactory getGenotypeCountFactory() {
-        return new BaseGenotypeCountFactory() {
-
-            @Override
-            public GenotypeCount create() {
-                return new GenotypeCount();
-            }
-        };
-    }
-
-
-    @Override
-    protected void initializeCount(BaseInformationRecords.CountInfo sampleCounts, GenotypeCount count) {
-    }
 }
 
@@ -2,8 +2,6 @@ package org.campagnelab.dl.somatic.mappers;
 
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
-import org.campagnelab.dl.somatic.genotypes.BaseGenotypeCountFactory;
-import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -15,7 +13,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * @author Fabien Campagne
  */
 
-public class FractionDifferences2 extends AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
+public class FractionDifferences2 extends GenotypeCountFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
         implements FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> {
 
 
@@ -87,20 +85,5 @@ public class FractionDifferences2 extends AbstractFeatureMapper<BaseInformationR
         return  (float) (Math.max(0f,(somaticFrequency - germFrequency)) * somaticCount);
     }
 
-    @Override
-    protected GenotypeCountFactory getGenotypeCountFactory() {
-        return new BaseGenotypeCountFactory() {
-
-            @Override
-            public GenotypeCount create() {
-                return new GenotypeCount();
-            }
-        };
-    }
-
-
-    @Override
-    protected void initializeCount(BaseInformationRecords.CountInfo sampleCounts, GenotypeCount count) {
-    }
 }
 
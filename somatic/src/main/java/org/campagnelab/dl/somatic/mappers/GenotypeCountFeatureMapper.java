@@ -0,0 +1,30 @@
+package org.campagnelab.dl.somatic.mappers;
+
+import org.campagnelab.dl.somatic.genotypes.BaseGenotypeCountFactory;
+import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+/**
+ * Base class for feature mappers that calculate features from plain GenotypeCount instances. All subclasses derive the
+ * same counts from a record, so they share them through RecordCountsCache. Subclasses that need another type of
+ * count or initialize counts differently should extend AbstractFeatureMapper instead.
+ */
+public abstract class GenotypeCountFeatureMapper<T extends BaseInformationRecords.BaseInformationOrBuilder>
+        extends AbstractFeatureMapper<T> {
+    private static final GenotypeCountFactory FACTORY = new BaseGenotypeCountFactory();
+
+    @Override
+    protected final GenotypeCountFactory getGenotypeCountFactory() {
+        return FACTORY;
+    }
+
+    @Override
+    protected final void initializeCount(BaseInformationRecords.CountInfo sampleCounts, GenotypeCount count) {
+        // nothing to do, getAllCounts already sets the counts.
+    }
+
+    @Override
+    protected final Object countsKey() {
+        return GenotypeCount.class;
+    }
+}
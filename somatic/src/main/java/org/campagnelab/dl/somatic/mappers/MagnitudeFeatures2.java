@@ -1,8 +1,6 @@
 package org.campagnelab.dl.somatic.mappers;
 
 import org.campagnelab.dl.framework.mappers.FeatureCalculator;
-import org.campagnelab.dl.somatic.genotypes.BaseGenotypeCountFactory;
-import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -12,7 +10,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * @author Fabien Campagne
  */
 
-public class MagnitudeFeatures2 extends AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
+public class MagnitudeFeatures2 extends GenotypeCountFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
         implements FeatureCalculator<BaseInformationRecords.BaseInformationOrBuilder>
        {
 
@@ -126,15 +124,4 @@ public class MagnitudeFeatures2 extends AbstractFeatureMapper<BaseInformationRec
         }
     }
 
-    @Override
-    protected void initializeCount(BaseInformationRecords.CountInfo sampleCounts, GenotypeCount count) {
-        // nothing to do, already done in the base class.
-    }
-
-    @Override
-    protected GenotypeCountFactory getGenotypeCountFactory() {
-
-        return new BaseGenotypeCountFactory();
-
-    }
 }
@@ -1,8 +1,6 @@
 package org.campagnelab.dl.somatic.mappers;
 
 import org.campagnelab.dl.framework.mappers.FeatureCalculator;
-import org.campagnelab.dl.somatic.genotypes.BaseGenotypeCountFactory;
-import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -32,7 +30,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * @author Fabien Campagne, Remi Torracinta
  */
 
-public class MagnitudeFeatures3 extends AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
+public class MagnitudeFeatures3 extends GenotypeCountFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
         implements FeatureCalculator<BaseInformationRecords.BaseInformationOrBuilder> {
 
 
@@ -132,15 +130,4 @@ public class MagnitudeFeatures3 extends AbstractFeatureMapper<BaseInformationRec
         }
     }
 
-    @Override
-    protected void initializeCount(BaseInformationRecords.CountInfo sampleCounts, GenotypeCount count) {
-        // nothing to do, already done in the base class.
-    }
-
-    @Override
-    protected GenotypeCountFactory getGenotypeCountFactory() {
-
-        return new BaseGenotypeCountFactory();
-
-    }
 }
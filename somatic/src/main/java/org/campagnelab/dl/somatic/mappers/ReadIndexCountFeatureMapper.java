@@ -0,0 +1,31 @@
+package org.campagnelab.dl.somatic.mappers;
+
+import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
+import org.campagnelab.dl.somatic.utils.ProtoPredictor;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+/**
+ * Base class for feature mappers that calculate features from ReadIndexWithCounts instances, which add the read
+ * indices of each genotype to its counts. All subclasses share these counts through RecordCountsCache.
+ */
+public abstract class ReadIndexCountFeatureMapper<T extends BaseInformationRecords.BaseInformationOrBuilder>
+        extends AbstractFeatureMapper<T> {
+    private static final GenotypeCountFactory FACTORY = ReadIndexWithCounts::new;
+
+    @Override
+    protected final GenotypeCountFactory getGenotypeCountFactory() {
+        return FACTORY;
+    }
+
+    @Override
+    protected final void initializeCount(BaseInformationRecords.CountInfo sampleCounts, GenotypeCount count) {
+        ReadIndexWithCounts myCounts = (ReadIndexWithCounts) count;
+        myCounts.set(ProtoPredictor.expandFreq(sampleCounts.getReadIndicesForwardStrandList()),
+                ProtoPredictor.expandFreq(sampleCounts.getReadIndicesReverseStrandList()));
+    }
+
+    @Override
+    protected final Object countsKey() {
+        return ReadIndexWithCounts.class;
+    }
+}
@@ -1,9 +1,7 @@
 package org.campagnelab.dl.somatic.mappers;
 
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
-import org.campagnelab.dl.somatic.genotypes.BaseGenotypeCountFactory;
-import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
-import org.campagnelab.dl.somatic.utils.ProtoPredictor;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -13,7 +11,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  *
  * @author Fabien Campagne
  */
-public class ReadIndexFeatures extends AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
+public class ReadIndexFeatures extends ReadIndexCountFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
         implements FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> {
 
     public static final int NUM_GENOTYPES = 5;
@@ -55,6 +53,19 @@ public class ReadIndexFeatures extends AbstractFeatureMapper<BaseInformationReco
         }
     }
 
+    /**
+     * Write all features at once, retrieving the germline and tumor counts only once per record.
+     */
+    @Override
+    public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int offset, int indexOfRecord) {
+        final ObjectArrayList<? extends GenotypeCount> germlineCounts = getAllCounts(record, false);
+        final ObjectArrayList<? extends GenotypeCount> tumorCounts = getAllCounts(record, true);
+        for (int genotypeIndex = 0; genotypeIndex < MAX_GENOTYPES; genotypeIndex++) {
+            inputs[offset + genotypeIndex] = normalize(((ReadIndexWithCounts) germlineCounts.get(genotypeIndex)).getDistinctReadIndices(), sumReadIndex);
+            inputs[offset + MAX_GENOTYPES + genotypeIndex] = normalize(((ReadIndexWithCounts) tumorCounts.get(genotypeIndex)).getDistinctReadIndices(), sumReadIndex);
+        }
+    }
+
     public float produceFeature(BaseInformationRecords.BaseInformationOrBuilder record, int featureIndex) {
         return normalize(produceFeatureInternal(record, featureIndex), sumReadIndex);
     }
@@ -95,22 +106,4 @@ public class ReadIndexFeatures extends AbstractFeatureMapper<BaseInformationReco
 
     }
 
-    @Override
-    protected void initializeCount(BaseInformationRecords.CountInfo sampleCounts, GenotypeCount count) {
-        ReadIndexWithCounts myCounts = (ReadIndexWithCounts) count;
-        myCounts.set(ProtoPredictor.expandFreq(sampleCounts.getReadIndicesForwardStrandList()),
-                ProtoPredictor.expandFreq(sampleCounts.getReadIndicesReverseStrandList()));
-    }
-
-    @Override
-    protected GenotypeCountFactory getGenotypeCountFactory() {
-
-        return new BaseGenotypeCountFactory() {
-            @Override
-            public GenotypeCount create() {
-                return new ReadIndexWithCounts();
-            }
-        };
-    }
-
 }
@@ -1,9 +1,6 @@
 package org.campagnelab.dl.somatic.mappers;
 
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
-import org.campagnelab.dl.somatic.genotypes.BaseGenotypeCountFactory;
-import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
-import org.campagnelab.dl.somatic.utils.ProtoPredictor;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -13,7 +10,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  *
  * @author Fabien Campagne
  */
-public class ReadIndexFeaturesFix extends AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
+public class ReadIndexFeaturesFix extends ReadIndexCountFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
         implements FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
       {
 
@@ -106,22 +103,4 @@ public class ReadIndexFeaturesFix extends AbstractFeatureMapper<BaseInformationR
 
     }
 
-    @Override
-    protected void initializeCount(BaseInformationRecords.CountInfo sampleCounts, GenotypeCount count) {
-        ReadIndexWithCounts myCounts = (ReadIndexWithCounts) count;
-        myCounts.set(ProtoPredictor.expandFreq(sampleCounts.getReadIndicesForwardStrandList()),
-                ProtoPredictor.expandFreq(sampleCounts.getReadIndicesReverseStrandList()));
-    }
-
-    @Override
-    protected GenotypeCountFactory getGenotypeCountFactory() {
-
-        return new BaseGenotypeCountFactory() {
-            @Override
-            public GenotypeCount create() {
-                return new ReadIndexWithCounts();
-            }
-        };
-    }
-
 }
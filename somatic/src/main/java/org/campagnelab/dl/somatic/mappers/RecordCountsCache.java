@@ -0,0 +1,55 @@
+package org.campagnelab.dl.somatic.mappers;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectArrayMap;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+import java.util.Arrays;
+
+/**
+ * Genotype counts derived from the record being mapped, shared by the feature mappers that run on the current thread.
+ * The mappers of a concat chain map the same record one after the other, so the counts built, sorted and trimmed by
+ * the first mapper are reused by the next ones. The cache is cleared as soon as another record is seen. Records are
+ * compared by identity, which takes constant time, where equals would compare the whole protobuf message.
+ */
+class RecordCountsCache {
+    private static final ThreadLocal<RecordCountsCache> CACHE = ThreadLocal.withInitial(RecordCountsCache::new);
+
+    private BaseInformationRecords.BaseInformationOrBuilder record;
+    /**
+     * Counts kind -> lists of counts, indexed by isTumor and sort.
+     */
+    private final Reference2ObjectArrayMap<Object, ObjectArrayList<? extends GenotypeCount>[]> counts = new Reference2ObjectArrayMap<>();
+
+    /**
+     * Return the cache of the current thread, cleared if it holds counts for another record.
+     */
+    static RecordCountsCache forRecord(BaseInformationRecords.BaseInformationOrBuilder record) {
+        final RecordCountsCache cache = CACHE.get();
+        if (cache.record != record) {
+            cache.record = record;
+            for (ObjectArrayList<? extends GenotypeCount>[] lists : cache.counts.values()) {
+                Arrays.fill(lists, null);
+            }
+        }
+        return cache;
+    }
+
+    ObjectArrayList<? extends GenotypeCount> get(Object countsKey, boolean isTumor, boolean sort) {
+        final ObjectArrayList<? extends GenotypeCount>[] lists = counts.get(countsKey);
+        return lists == null ? null : lists[index(isTumor, sort)];
+    }
+
+    void put(Object countsKey, boolean isTumor, boolean sort, ObjectArrayList<? extends GenotypeCount> list) {
+        ObjectArrayList<? extends GenotypeCount>[] lists = counts.get(countsKey);
+        if (lists == null) {
+            lists = new ObjectArrayList[4];
+            counts.put(countsKey, lists);
+        }
+        lists[index(isTumor, sort)] = list;
+    }
+
+    private static int index(boolean isTumor, boolean sort) {
+        return (isTumor ? 2 : 0) + (sort ? 1 : 0);
+    }
+}
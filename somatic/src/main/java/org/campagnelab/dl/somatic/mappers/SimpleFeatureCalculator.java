@@ -1,8 +1,6 @@
 package org.campagnelab.dl.somatic.mappers;
 
 import org.campagnelab.dl.framework.mappers.FeatureCalculator;
-import org.campagnelab.dl.somatic.genotypes.BaseGenotypeCountFactory;
-import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -32,7 +30,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * @author Fabien Campagne
  */
 
-public class SimpleFeatureCalculator extends AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
+public class SimpleFeatureCalculator extends GenotypeCountFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
 
         implements FeatureCalculator<BaseInformationRecords.BaseInformationOrBuilder> {
 
@@ -91,6 +89,7 @@ public class SimpleFeatureCalculator extends AbstractFeatureMapper<BaseInformati
     }
 
 
+    @Override
     public void mapFeatures(BaseInformationRecords.BaseInformationOrBuilder record, float[] inputs, int offset, int indexOfRecord) {
         assert normalized : "prepareToNormalize must be called before mapFeatures.";
         for (int featureIndex = 0; featureIndex < numberOfFeatures(); featureIndex++) {
@@ -180,15 +179,4 @@ public class SimpleFeatureCalculator extends AbstractFeatureMapper<BaseInformati
 
     }
 
-    @Override
-    protected void initializeCount(BaseInformationRecords.CountInfo sampleCounts, GenotypeCount count) {
-        // nothing to do, already done in the base class.
-    }
-
-    @Override
-    protected GenotypeCountFactory getGenotypeCountFactory() {
-
-        return new BaseGenotypeCountFactory();
-
-    }
 }
@@ -2,8 +2,6 @@ package org.campagnelab.dl.somatic.mappers;
 
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.campagnelab.dl.framework.mappers.FeatureMapper;
-import org.campagnelab.dl.somatic.genotypes.BaseGenotypeCountFactory;
-import org.campagnelab.dl.somatic.genotypes.GenotypeCountFactory;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
@@ -18,7 +16,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
  * <p>
  * Created by fac2003 on 6/10/16.
  */
-public class SortedGenotypeAgreementMapper extends AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
+public class SortedGenotypeAgreementMapper extends GenotypeCountFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>
         implements FeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> {
 
     private static final int MAX_GENOTYPES = 5;
@@ -58,13 +56,4 @@ public class SortedGenotypeAgreementMapper extends AbstractFeatureMapper<BaseInf
         return genotypeIndexSample0 == genotypeIndexSample1 ? 1f : .0f;
     }
 
-    @Override
-    protected void initializeCount(BaseInformationRecords.CountInfo sampleCounts, GenotypeCount count) {
-        // do nothing. We already have the genotype index in the count.
-    }
-
-    @Override
-    protected GenotypeCountFactory getGenotypeCountFactory() {
-        return new BaseGenotypeCountFactory();
-    }
 }
@@ -71,7 +71,7 @@ public abstract class AbstractFeatureMapperTrio<T extends BaseInformationRecords
     protected ObjectArrayList<? extends GenotypeCount> getAllCounts(BaseInformationRecords.BaseInformationOrBuilder record,
                                                                     int sampleIndex, boolean sort) {
         ObjectArrayList<? extends GenotypeCount> cached = getCachedResult(sampleIndex, sort);
-        if (cached != null && record.equals(recordCached[sampleIndex][sort ? 1 : 0])) {
+        if (cached != null && record == recordCached[sampleIndex][sort ? 1 : 0]) {
             return cached;
         } else {
 
@@ -0,0 +1,207 @@
+package org.campagnelab.dl.somatic.storage;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+
+import java.io.IOException;
+
+/**
+ * A lazily decoded view of a serialized {@link BaseInformationRecords.BaseInformation}. Wrapping the bytes of a
+ * record only decodes its reference index and position, and finds where each sample starts. Samples are parsed the
+ * first time they are requested, and the genotype counts of a sample can be read as primitive values without
+ * parsing the sample at all. Code that only needs a few fields of each record therefore avoids building the CountInfo
+ * messages, their read index and quality lists, and their strings.
+ * <p>
+ * Views are flyweights: a reader wraps the next record in the same view, so a view must not be kept after the next
+ * record is read. Call {@link #toRecord()} to keep a record.
+ * <p>
+ * Views are only read by {@link DownSampler} so far. Feature mappers, training and prediction still read parsed
+ * records. The view does not implement BaseInformationOrBuilder: that interface returns samples and counts as parsed
+ * messages, so a view implementing it would have to parse the parts it is meant to skip.
+ */
+public final class BaseInformationView {
+    private byte[] buffer;
+    private int offset;
+    private int length;
+    /**
+     * The parsed record, when the view wraps a record instead of bytes, or once toRecord was called.
+     */
+    private BaseInformationRecords.BaseInformation record;
+
+    private int referenceIndex;
+    private int position;
+    private final IntArrayList sampleOffsets = new IntArrayList();
+    private final IntArrayList sampleLengths = new IntArrayList();
+    private final ObjectArrayList<BaseInformationRecords.SampleInfo> samples = new ObjectArrayList<>();
+    private int countsSample = -1;
+    private final IntArrayList forwardCounts = new IntArrayList();
+    private final IntArrayList reverseCounts = new IntArrayList();
+
+    /**
+     * Wrap the bytes of a serialized record. The bytes must not change while the view is used.
+     */
+    public BaseInformationView wrap(byte[] buffer, int offset, int length) throws IOException {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.record = null;
+        referenceIndex = 0;
+        position = 0;
+        sampleOffsets.clear();
+        sampleLengths.clear();
+        samples.clear();
+        countsSample = -1;
+        CodedInputStream input = CodedInputStream.newInstance(buffer, offset, length);
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case BaseInformationRecords.BaseInformation.REFERENCEINDEX_FIELD_NUMBER:
+                    referenceIndex = input.readInt32();
+                    break;
+                case BaseInformationRecords.BaseInformation.POSITION_FIELD_NUMBER:
+                    position = input.readInt32();
+                    break;
+                case BaseInformationRecords.BaseInformation.SAMPLES_FIELD_NUMBER:
+                    final int sampleLength = input.readRawVarint32();
+                    sampleOffsets.add(offset + input.getTotalBytesRead());
+                    sampleLengths.add(sampleLength);
+                    samples.add(null);
+                    input.skipRawBytes(sampleLength);
+                    break;
+                default:
+                    input.skipField(tag);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Wrap a record that was already parsed.
+     */
+    public BaseInformationView wrap(BaseInformationRecords.BaseInformation record) {
+        this.buffer = null;
+        this.record = record;
+        referenceIndex = record.getReferenceIndex();
+        position = record.getPosition();
+        sampleOffsets.clear();
+        sampleLengths.clear();
+        samples.clear();
+        samples.addAll(record.getSamplesList());
+        countsSample = -1;
+        return this;
+    }
+
+    public int getReferenceIndex() {
+        return referenceIndex;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getSamplesCount() {
+        return samples.size();
+    }
+
+    /**
+     * Return a sample, parsing it the first time it is requested.
+     */
+    public BaseInformationRecords.SampleInfo getSamples(int sampleIndex) {
+        BaseInformationRecords.SampleInfo sample = samples.get(sampleIndex);
+        if (sample == null) {
+            try {
+                sample = BaseInformationRecords.SampleInfo.parseFrom(CodedInputStream.newInstance(buffer,
+                        sampleOffsets.getInt(sampleIndex), sampleLengths.getInt(sampleIndex)));
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to parse sample " + sampleIndex, e);
+            }
+            samples.set(sampleIndex, sample);
+        }
+        return sample;
+    }
+
+    public int getCountsCount(int sampleIndex) {
+        decodeCounts(sampleIndex);
+        return forwardCounts.size();
+    }
+
+    public int getGenotypeCountForwardStrand(int sampleIndex, int countIndex) {
+        decodeCounts(sampleIndex);
+        return forwardCounts.getInt(countIndex);
+    }
+
+    public int getGenotypeCountReverseStrand(int sampleIndex, int countIndex) {
+        decodeCounts(sampleIndex);
+        return reverseCounts.getInt(countIndex);
+    }
+
+    /**
+     * Return the whole record, parsed from the wrapped bytes the first time it is requested. The record does not
+     * depend on the view, and can be kept after the view wraps another record.
+     */
+    public BaseInformationRecords.BaseInformation toRecord() {
+        if (record == null) {
+            try {
+                record = BaseInformationRecords.BaseInformation.parseFrom(CodedInputStream.newInstance(buffer, offset, length));
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to parse record", e);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Decode the strand counts of one sample into primitive lists, reading only the count fields of each CountInfo.
+     */
+    private void decodeCounts(int sampleIndex) {
+        if (countsSample == sampleIndex) {
+            return;
+        }
+        forwardCounts.clear();
+        reverseCounts.clear();
+        if (buffer == null || samples.get(sampleIndex) != null) {
+            // the sample is already parsed:
+            for (BaseInformationRecords.CountInfo counts : samples.get(sampleIndex).getCountsList()) {
+                forwardCounts.add(counts.getGenotypeCountForwardStrand());
+                reverseCounts.add(counts.getGenotypeCountReverseStrand());
+            }
+        } else {
+            try {
+                CodedInputStream input = CodedInputStream.newInstance(buffer, sampleOffsets.getInt(sampleIndex),
+                        sampleLengths.getInt(sampleIndex));
+                int tag;
+                while ((tag = input.readTag()) != 0) {
+                    if (WireFormat.getTagFieldNumber(tag) == BaseInformationRecords.SampleInfo.COUNTS_FIELD_NUMBER) {
+                        final int limit = input.pushLimit(input.readRawVarint32());
+                        int forward = 0;
+                        int reverse = 0;
+                        int countsTag;
+                        while ((countsTag = input.readTag()) != 0) {
+                            switch (WireFormat.getTagFieldNumber(countsTag)) {
+                                case BaseInformationRecords.CountInfo.GENOTYPECOUNTFORWARDSTRAND_FIELD_NUMBER:
+                                    forward = input.readInt32();
+                                    break;
+                                case BaseInformationRecords.CountInfo.GENOTYPECOUNTREVERSESTRAND_FIELD_NUMBER:
+                                    reverse = input.readInt32();
+                                    break;
+                                default:
+                                    input.skipField(countsTag);
+                            }
+                        }
+                        input.popLimit(limit);
+                        forwardCounts.add(forward);
+                        reverseCounts.add(reverse);
+                    } else {
+                        input.skipField(tag);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to decode the counts of sample " + sampleIndex, e);
+            }
+        }
+        countsSample = sampleIndex;
+    }
+}
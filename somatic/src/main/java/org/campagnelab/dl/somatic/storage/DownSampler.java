@@ -1,20 +1,34 @@
 package org.campagnelab.dl.somatic.storage;
 
 
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.logging.ProgressLogger;
-import it.unimi.dsi.util.XoRoShiRo128PlusRandom;
 import org.apache.commons.io.FilenameUtils;
+import org.campagnelab.dl.framework.utils.DaemonThreadFactory;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
-import java.util.Random;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
 
 
 /**
  *
- * Simple downsampler to create an sbi with some proportion of input records.
+ * Simple downsampler to create sbi files with some proportions of the input records, in one pass over the input.
+ * Whether a record is kept depends only on the seed, its site and its index in the input, so runs with the same seed
+ * produce the same outputs, whatever the number of threads, and the records kept at one rate are also kept at any
+ * larger rate. Records of the same site are kept or dropped independently.
+ * With more than one thread, or when the chunk index of the input is up to date, chunks of the input are decoded and
+ * sampled in parallel, and memory is bounded by the records selected in 2 x numThreads chunks. Otherwise the input is
+ * read sequentially, without building the chunk index. Each output is written by its own thread, in the order of the
+ * input.
  * Created by rct66 on 2/2/16.
  *
  * @author rct66
@@ -22,58 +36,273 @@ import java.util.Random;
 public class DownSampler {
 
     private static final Logger LOG = LoggerFactory.getLogger(DownSampler.class);
+    /**
+     * Number of records sampled at a time when the input is read sequentially.
+     */
+    private static final int BATCH_SIZE = 10000;
 
-    String path;
-    static int actualCount = 0;
-    private boolean makeDebug = true;
-    private RecordWriter makeDebugWriter;
-    Random rand = new XoRoShiRo128PlusRandom();
-    Float rate;
+    private final String path;
+    private final float[] rates;
+    private final long seed;
+    private final int numThreads;
 
     public static void main(String[] args) throws IOException {
-        if (args.length<1) {
-            System.err.println("usage: printer <parquet-file> [focus-ref-index focus-position]");
+        if (args.length < 2) {
+            System.err.println("usage: downsampler <sbi-file> <rate>[,<rate>...] [seed [num-threads]]");
             System.exit(1);
         }
-        DownSampler protobufPrinter = new DownSampler(args[0],args[1]);
-
-        protobufPrinter.downs();
-        System.out.println("actual count: " + actualCount);
+        String[] tokens = args[1].split(",");
+        float[] rates = new float[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            rates[i] = Float.parseFloat(tokens[i]);
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        int numThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        DownSampler downSampler = new DownSampler(args[0], rates, seed, numThreads);
 
+        long[] counts = downSampler.downs();
+        for (int i = 0; i < rates.length; i++) {
+            System.out.printf("actual count at rate %s: %d%n", Float.toString(rates[i]), counts[i]);
+        }
     }
 
 
-
-
     public DownSampler(String path, String rate) throws IOException {
+        this(path, new float[]{Float.parseFloat(rate)}, 0, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param path       the .sbi file to down-sample.
+     * @param rates      the proportion of records to keep in each output.
+     * @param seed       seed of the record selection.
+     * @param numThreads number of threads that decode the input.
+     */
+    public DownSampler(String path, float[] rates, long seed, int numThreads) {
         this.path = path;
-        this.rate = Float.parseFloat(rate);
-        if (makeDebug){
-            String debugPath = FilenameUtils.getFullPath(path) + FilenameUtils.getBaseName(path) + "_" + rate.toString() + ".sbi";
-            makeDebugWriter = new RecordWriter(debugPath);
-        }
+        this.rates = rates.clone();
+        this.seed = seed;
+        this.numThreads = Math.max(1, numThreads);
     }
 
+    /**
+     * Return the path of the output written for a rate.
+     */
+    public static String outputPath(String path, float rate) {
+        return FilenameUtils.getFullPath(path) + FilenameUtils.getBaseName(path) + "_" + Float.toString(rate) + ".sbi";
+    }
 
-    public void downs() {
+    /**
+     * Write one output per rate.
+     *
+     * @return the number of records written at each rate.
+     */
+    public long[] downs() {
         ProgressLogger recordLogger = new ProgressLogger(LOG);
+        ExecutorService decoders = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory("downsampler-decode"));
+        ExecutorService[] writerThreads = new ExecutorService[rates.length];
+        RecordWriter[] writers = new RecordWriter[rates.length];
         try {
-            RecordReader reader = new RecordReader(path);
-            System.out.println(reader.getTotalRecords());
-            recordLogger.expectedUpdates = reader.getTotalRecords();
-            for (BaseInformationRecords.BaseInformation base : reader) {
-                if (rand.nextFloat() <= rate){
-                    makeDebugWriter.writeRecord(base);
-                    actualCount++;
-                }
-                recordLogger.lightUpdate();
+            // decoding chunks in parallel needs the chunk index, but building it takes one more pass over the input:
+            final SbiChunkIndex index = numThreads > 1 || SbiChunkIndex.isUpToDate(path) ? SbiChunkIndex.getOrBuild(path) : null;
+            // selection only needs the site of each record, so records are only parsed when they are kept:
+            final boolean lazy = RawRecordReader.canRead(path);
+            Properties properties;
+            final long numRecords;
+            try (RecordReader reader = new RecordReader(path)) {
+                properties = reader.getProperties();
+                numRecords = reader.getTotalRecords();
+            }
+            for (int i = 0; i < rates.length; i++) {
+                writers[i] = new RecordWriter(outputPath(path, rates[i]));
+                Properties outputProperties = new Properties();
+                outputProperties.putAll(properties);
+                outputProperties.put("downSampler.rate", Float.toString(rates[i]));
+                outputProperties.put("downSampler.seed", Long.toString(seed));
+                outputProperties.put("downSampler.input.numRecords", Long.toString(numRecords));
+                writers[i].setCustomProperties(outputProperties);
+                writerThreads[i] = Executors.newSingleThreadExecutor(new DaemonThreadFactory("downsampler-write"));
+            }
+            recordLogger.expectedUpdates = numRecords;
+            recordLogger.itemsName = "records";
+            recordLogger.start();
 
+            long[] counts = new long[rates.length];
+            Future<?>[] lastWrites = new Future[rates.length];
+            if (index == null) {
+                try (RecordViews views = new RecordViews(path, 0, new File(path).length(), lazy)) {
+                    for (long firstRecord = 0; firstRecord < numRecords; firstRecord += BATCH_SIZE) {
+                        final long batchSize = Math.min(BATCH_SIZE, numRecords - firstRecord);
+                        write(sample(views, firstRecord, batchSize, path), counts, lastWrites, writers, writerThreads);
+                        recordLogger.update(batchSize);
+                    }
+                }
+            } else {
+                ObjectArrayFIFOQueue<Future<List<BaseInformationRecords.BaseInformation>[]>> pending = new ObjectArrayFIFOQueue<>();
+                int nextChunk = 0;
+                int chunk = 0;
+                while (chunk < index.numChunks()) {
+                    while (nextChunk < index.numChunks() && pending.size() < 2 * numThreads) {
+                        final int chunkToSample = nextChunk++;
+                        pending.enqueue(decoders.submit(() -> sample(index, chunkToSample, lazy)));
+                    }
+                    write(pending.dequeue().get(), counts, lastWrites, writers, writerThreads);
+                    recordLogger.update(index.numRecords(chunk, chunk + 1));
+                    chunk++;
+                }
+            }
+            for (int i = 0; i < rates.length; i++) {
+                if (lastWrites[i] != null) {
+                    lastWrites[i].get();
+                }
+                writers[i].close();
+                writers[i] = null;
             }
-            makeDebugWriter.close();
+            recordLogger.done();
+            return counts;
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while down-sampling " + path, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to down-sample " + path, e.getCause());
+        } finally {
+            decoders.shutdownNow();
+            for (int i = 0; i < rates.length; i++) {
+                if (writerThreads[i] != null) {
+                    writerThreads[i].shutdownNow();
+                }
+                if (writers[i] != null) {
+                    try {
+                        writers[i].close();
+                    } catch (IOException e) {
+                        LOG.warn("Unable to close " + outputPath(path, rates[i]), e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Hand the records selected for each rate to the writer thread of the output.
+     */
+    private static void write(List<BaseInformationRecords.BaseInformation>[] selected, long[] counts, Future<?>[] lastWrites,
+                              RecordWriter[] writers, ExecutorService[] writerThreads)
+            throws InterruptedException, ExecutionException {
+        for (int i = 0; i < selected.length; i++) {
+            counts[i] += selected[i].size();
+            if (selected[i].isEmpty()) {
+                continue;
+            }
+            // one batch waits to be written per output, to bound memory when writing is the bottleneck:
+            if (lastWrites[i] != null) {
+                lastWrites[i].get();
+            }
+            final RecordWriter writer = writers[i];
+            final List<BaseInformationRecords.BaseInformation> batch = selected[i];
+            lastWrites[i] = writerThreads[i].submit(() -> {
+                for (BaseInformationRecords.BaseInformation record : batch) {
+                    writer.writeRecord(record);
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Decode one chunk and select its records for each rate.
+     *
+     * @param lazy true to read views of the records and only parse the records that are selected.
+     */
+    private List<BaseInformationRecords.BaseInformation>[] sample(SbiChunkIndex index, int chunk, boolean lazy) throws IOException {
+        try (RecordViews views = new RecordViews(path, index.chunkStart(chunk), index.chunkStart(chunk + 1), lazy)) {
+            return sample(views, index.numRecords(0, chunk), index.numRecords(chunk, chunk + 1),
+                    String.format("Chunk %d of %s", chunk, path));
         }
     }
 
+    /**
+     * Select the next numRecords records of views for each rate.
+     *
+     * @param firstRecord index in the input of the next record of views.
+     * @param source      description of the records read, for error messages.
+     */
+    @SuppressWarnings("unchecked")
+    private List<BaseInformationRecords.BaseInformation>[] sample(RecordViews views, long firstRecord, long numRecords,
+                                                                  String source) throws IOException {
+        List<BaseInformationRecords.BaseInformation>[] selected = new List[rates.length];
+        for (int i = 0; i < rates.length; i++) {
+            selected[i] = new ObjectArrayList<>();
+        }
+        for (long recordIndex = firstRecord; recordIndex < firstRecord + numRecords; recordIndex++) {
+            BaseInformationView view = views.next();
+            if (view == null) {
+                throw new IllegalStateException(String.format("%s ended %d records before the expected count.",
+                        source, firstRecord + numRecords - recordIndex));
+            }
+            final double value = uniform(seed, view.getReferenceIndex(), view.getPosition(), recordIndex);
+            BaseInformationRecords.BaseInformation record = null;
+            for (int i = 0; i < rates.length; i++) {
+                if (value < rates[i]) {
+                    if (record == null) {
+                        record = view.toRecord();
+                    }
+                    selected[i].add(record);
+                }
+            }
+        }
+        return selected;
+    }
 
-}
\ No newline at end of file
+    /**
+     * Map a record to a value in [0,1). Values are uniformly distributed over records, and only depend on the seed,
+     * the site of the record and its index in the input, so that records of the same site get independent values.
+     */
+    static double uniform(long seed, int referenceIndex, int position, long recordIndex) {
+        final long site = ((long) referenceIndex << 32) | (position & 0xFFFFFFFFL);
+        final long hash = HashCommon.murmurHash3(seed ^ HashCommon.murmurHash3(HashCommon.murmurHash3(site) + recordIndex));
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Views of the records of the chunks that start in a range of the input. Records are read as views when the
+     * input can be read lazily, and otherwise parsed by a RecordReader and wrapped in a view.
+     */
+    private static class RecordViews implements Closeable {
+        private final RawRecordReader rawReader;
+        private final RecordReader reader;
+        private final BaseInformationView view = new BaseInformationView();
+
+        RecordViews(String path, long start, long end, boolean lazy) throws IOException {
+            if (lazy) {
+                rawReader = new RawRecordReader(path, start, end);
+                reader = null;
+            } else {
+                rawReader = null;
+                // starting one byte before the chunk makes sure the reader finds its delimiter:
+                reader = new RecordReader(path, start == 0 ? 0 : start - 1,
+                        end >= new File(path).length() ? end : end - 1);
+            }
+        }
+
+        /**
+         * @return the view of the next record, or null when there are no more records.
+         */
+        BaseInformationView next() throws IOException {
+            if (rawReader != null) {
+                return rawReader.nextRecord();
+            }
+            final BaseInformationRecords.BaseInformation record = reader.nextRecord();
+            return record == null ? null : view.wrap(record);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (rawReader != null) {
+                rawReader.close();
+            } else {
+                reader.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package org.campagnelab.dl.somatic.storage;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.io.FastBufferedReader;
+import it.unimi.dsi.io.LineIterator;
+import it.unimi.dsi.lang.MutableString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Sites of a gold standard annotation file, indexed by reference and position. The annotation file is TSV with
+ * columns chromosome, one-based position, and optionally the mutated bases and the frequency of the mutation. Each
+ * reference keeps its zero-based positions in a sorted int array, next to parallel arrays of the index of the mutated
+ * bases in a table of distinct bases, and of the frequencies, so that a lookup is a binary search and the index holds
+ * 12 bytes per site.
+ * <p>
+ * The index is stored in a .gsi sidecar file next to the annotation file. The sidecar is built the first time it is
+ * needed, rebuilt when the annotation file is more recent, and otherwise memory-mapped: loading it reads only the
+ * reference names and the table of bases, whatever the number of sites.
+ * <p>
+ * Sidecar layout (big-endian): magic, number of references, then for each reference its name and number of sites,
+ * then the table of distinct mutated bases, then for each reference its positions, base indices (-1 when absent) and
+ * frequencies (NaN when absent). Strings are written as their length in bytes followed by their UTF-8 bytes.
+ */
+public class GoldStandardIndex {
+    static private Logger LOG = LoggerFactory.getLogger(GoldStandardIndex.class);
+    private static final int MAGIC = 0x651D0001;
+
+    private final Object2IntOpenHashMap<String> referenceIndices = new Object2IntOpenHashMap<>();
+    private final ObjectArrayList<String> bases = new ObjectArrayList<>();
+    private final IntBuffer[] positions;
+    private final IntBuffer[] baseIndices;
+    private final FloatBuffer[] frequencies;
+    private final ByteBuffer buffer;
+    private long numSites;
+
+    /**
+     * An annotated site.
+     */
+    public static class Annotation {
+        public final int position;
+        /**
+         * Mutated bases, or null when the annotation file does not provide them.
+         */
+        public final String toBase;
+        /**
+         * True proportion of the somatic variation among cells, between 0 and 1. Null if this information is not
+         * available.
+         */
+        public final Float frequency;
+
+        Annotation(int position, String toBase, Float frequency) {
+            this.position = position;
+            this.toBase = toBase;
+            this.frequency = frequency;
+        }
+    }
+
+    private GoldStandardIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Buffer does not hold a valid gold standard index.");
+        }
+        ByteBuffer header = buffer.duplicate();
+        header.position(4);
+        final int numReferences = header.getInt();
+        final int[] numReferenceSites = new int[numReferences];
+        referenceIndices.defaultReturnValue(-1);
+        for (int i = 0; i < numReferences; i++) {
+            referenceIndices.put(readString(header), i);
+            numReferenceSites[i] = header.getInt();
+        }
+        final int numBases = header.getInt();
+        for (int i = 0; i < numBases; i++) {
+            bases.add(readString(header));
+        }
+        positions = new IntBuffer[numReferences];
+        baseIndices = new IntBuffer[numReferences];
+        frequencies = new FloatBuffer[numReferences];
+        int offset = header.position();
+        for (int i = 0; i < numReferences; i++) {
+            final int numBytes = numReferenceSites[i] * Integer.BYTES;
+            positions[i] = slice(offset, numBytes).asIntBuffer();
+            offset += numBytes;
+            baseIndices[i] = slice(offset, numBytes).asIntBuffer();
+            offset += numBytes;
+            frequencies[i] = slice(offset, numBytes).asFloatBuffer();
+            offset += numBytes;
+            numSites += numReferenceSites[i];
+        }
+    }
+
+    /**
+     * @return the number of annotated sites.
+     */
+    public long numSites() {
+        return numSites;
+    }
+
+    /**
+     * Return the annotation of a site, or null when the site is not annotated.
+     *
+     * @param referenceId name of the reference sequence.
+     * @param position    zero-based position.
+     */
+    public Annotation get(String referenceId, int position) {
+        final int reference = referenceIndices.getInt(referenceId);
+        if (reference == -1) {
+            return null;
+        }
+        final int index = find(positions[reference], position);
+        if (index < 0) {
+            return null;
+        }
+        final int baseIndex = baseIndices[reference].get(index);
+        final float frequency = frequencies[reference].get(index);
+        return new Annotation(position, baseIndex == -1 ? null : bases.get(baseIndex),
+                Float.isNaN(frequency) ? null : frequency);
+    }
+
+    /**
+     * Return true when a site is annotated.
+     *
+     * @param referenceId name of the reference sequence.
+     * @param position    zero-based position.
+     */
+    public boolean contains(String referenceId, int position) {
+        final int reference = referenceIndices.getInt(referenceId);
+        return reference != -1 && find(positions[reference], position) >= 0;
+    }
+
+    private static int find(IntBuffer sortedPositions, int position) {
+        int low = 0;
+        int high = sortedPositions.limit() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int value = sortedPositions.get(middle);
+            if (value < position) {
+                low = middle + 1;
+            } else if (value > position) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    public static String indexFilename(String annotationPath) {
+        return annotationPath + ".gsi";
+    }
+
+    /**
+     * Load the index of an annotation file, building and saving it first if the sidecar file is missing or older
+     * than the annotation file.
+     *
+     * @param annotationPath path to the TSV annotation file.
+     * @return the index.
+     */
+    public static GoldStandardIndex getOrBuild(String annotationPath) throws IOException {
+        if (isUpToDate(annotationPath)) {
+            return load(annotationPath);
+        }
+        GoldStandardIndex index = build(annotationPath);
+        try {
+            index.save(annotationPath);
+        } catch (IOException e) {
+            LOG.warn("Unable to save gold standard index to " + indexFilename(annotationPath) + ", the index will be rebuilt next time.", e);
+        }
+        return index;
+    }
+
+    /**
+     * Return true when the sidecar index of an annotation file exists and is not older than the annotation file.
+     */
+    public static boolean isUpToDate(String annotationPath) {
+        File indexFile = new File(indexFilename(annotationPath));
+        return indexFile.exists() && indexFile.lastModified() >= new File(annotationPath).lastModified();
+    }
+
+    /**
+     * Build the index by parsing the annotation file. Lines that start with # are ignored. When a site is annotated
+     * more than once, the last annotation is kept.
+     */
+    public static GoldStandardIndex build(String annotationPath) throws IOException {
+        LOG.info("Building gold standard index for " + annotationPath);
+        Map<String, Sites> sitesPerReference = new Object2ObjectLinkedOpenHashMap<>();
+        Object2IntOpenHashMap<String> baseIndices = new Object2IntOpenHashMap<>();
+        baseIndices.defaultReturnValue(-1);
+        ObjectArrayList<String> bases = new ObjectArrayList<>();
+        try (FastBufferedReader reader = new FastBufferedReader(new FileReader(annotationPath))) {
+            LineIterator lines = new LineIterator(reader);
+            while (lines.hasNext()) {
+                MutableString line = lines.next();
+                if (line.startsWith("#") || line.length() == 0) {
+                    continue;
+                }
+                String tokens[] = line.toString().split("\t");
+                final String chromosome = tokens[0];
+                // convert to zero-based position used by goby/variationanalysis:
+                final int position = Integer.parseInt(tokens[1]) - 1;
+                int baseIndex = -1;
+                if (tokens.length >= 3) {
+                    baseIndex = baseIndices.getInt(tokens[2]);
+                    if (baseIndex == -1) {
+                        baseIndex = bases.size();
+                        baseIndices.put(tokens[2], baseIndex);
+                        bases.add(tokens[2]);
+                    }
+                }
+                final float frequency = tokens.length >= 4 ? Float.parseFloat(tokens[3]) : Float.NaN;
+                sitesPerReference.computeIfAbsent(chromosome, name -> new Sites()).add(position, baseIndex, frequency);
+            }
+        } catch (FileNotFoundException e) {
+            throw new FileNotFoundException("Unable to find annotation filename:" + annotationPath);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(MAGIC);
+            output.writeInt(sitesPerReference.size());
+            for (Map.Entry<String, Sites> entry : sitesPerReference.entrySet()) {
+                entry.getValue().sortAndRemoveDuplicates();
+                writeString(output, entry.getKey());
+                output.writeInt(entry.getValue().positions.size());
+            }
+            output.writeInt(bases.size());
+            for (String base : bases) {
+                writeString(output, base);
+            }
+            for (Sites sites : sitesPerReference.values()) {
+                for (int i = 0; i < sites.positions.size(); i++) {
+                    output.writeInt(sites.positions.getInt(i));
+                }
+                for (int i = 0; i < sites.baseIndices.size(); i++) {
+                    output.writeInt(sites.baseIndices.getInt(i));
+                }
+                for (int i = 0; i < sites.frequencies.size(); i++) {
+                    output.writeFloat(sites.frequencies.getFloat(i));
+                }
+            }
+        }
+        return new GoldStandardIndex(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    public void save(String annotationPath) throws IOException {
+        try (OutputStream output = new FastBufferedOutputStream(new FileOutputStream(indexFilename(annotationPath)))) {
+            ByteBuffer content = buffer.duplicate();
+            content.clear();
+            byte[] chunk = new byte[1 << 16];
+            while (content.hasRemaining()) {
+                final int length = Math.min(chunk.length, content.remaining());
+                content.get(chunk, 0, length);
+                output.write(chunk, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Map the sidecar index of an annotation file in memory.
+     */
+    public static GoldStandardIndex load(String annotationPath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(indexFilename(annotationPath), "r");
+             FileChannel channel = file.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Gold standard index is too large to be mapped: " + indexFilename(annotationPath));
+            }
+            // the mapping stays valid after the channel is closed:
+            return new GoldStandardIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new IOException("File is not a valid gold standard index: " + indexFilename(annotationPath), e);
+        }
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length);
+        return slice.slice();
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer input) {
+        byte[] bytes = new byte[input.getInt()];
+        input.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sites of one reference, in the order of the annotation file until sorted.
+     */
+    private static class Sites {
+        IntArrayList positions = new IntArrayList();
+        IntArrayList baseIndices = new IntArrayList();
+        FloatArrayList frequencies = new FloatArrayList();
+
+        void add(int position, int baseIndex, float frequency) {
+            positions.add(position);
+            baseIndices.add(baseIndex);
+            frequencies.add(frequency);
+        }
+
+        /**
+         * Sort the sites by position, keeping only the last annotation of each position.
+         */
+        void sortAndRemoveDuplicates() {
+            final int size = positions.size();
+            final int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            // ties are broken by the order of the annotation file, so that the last annotation ends up last:
+            Arrays.quickSort(0, size, new AbstractIntComparator() {
+                @Override
+                public int compare(int a, int b) {
+                    final int byPosition = Integer.compare(positions.getInt(order[a]), positions.getInt(order[b]));
+                    return byPosition != 0 ? byPosition : Integer.compare(order[a], order[b]);
+                }
+            }, (a, b) -> {
+                final int swap = order[a];
+                order[a] = order[b];
+                order[b] = swap;
+            });
+            IntArrayList sortedPositions = new IntArrayList(size);
+            IntArrayList sortedBaseIndices = new IntArrayList(size);
+            FloatArrayList sortedFrequencies = new FloatArrayList(size);
+            for (int i = 0; i < size; i++) {
+                final int site = order[i];
+                if (i + 1 < size && positions.getInt(order[i + 1]) == positions.getInt(site)) {
+                    continue;
+                }
+                sortedPositions.add(positions.getInt(site));
+                sortedBaseIndices.add(baseIndices.getInt(site));
+                sortedFrequencies.add(frequencies.getFloat(site));
+            }
+            positions = sortedPositions;
+            baseIndices = sortedBaseIndices;
+            frequencies = sortedFrequencies;
+        }
+    }
+}
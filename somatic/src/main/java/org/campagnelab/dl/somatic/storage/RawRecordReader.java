@@ -0,0 +1,149 @@
+package org.campagnelab.dl.somatic.storage;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import org.campagnelab.goby.compression.FastBufferedMessageChunksReader;
+import org.campagnelab.goby.compression.GZipChunkCodec;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the records of an .sbi file as {@link BaseInformationView}s, without parsing them. Chunks are read with
+ * Goby's chunk reader, decompressed into a buffer reused for the whole file, and records are wrapped in a single
+ * view, so that reading a record allocates nothing beyond the parts of the record that are used.
+ * <p>
+ * Only gzip compressed chunks can be read this way. Check {@link #canRead(String)} and use a {@link RecordReader}
+ * for other files.
+ */
+public class RawRecordReader implements Closeable, Iterable<BaseInformationView> {
+    private static final int RECORDS_FIELD_NUMBER = 1;
+
+    private final String sbiPath;
+    private final FastBufferedMessageChunksReader chunks;
+    private byte[] chunk = new byte[1 << 16];
+    private CodedInputStream records;
+    private final BaseInformationView view = new BaseInformationView();
+
+    public RawRecordReader(String sbiPath) throws IOException {
+        this(sbiPath, 0, new File(sbiPath).length());
+    }
+
+    /**
+     * Read the chunks that start at or after the start offset, and before the end offset.
+     *
+     * @param sbiPath path to the .sbi file.
+     * @param start   offset where a chunk starts, as recorded in the {@link SbiChunkIndex}.
+     * @param end     offset where a later chunk starts, or the length of the file.
+     */
+    public RawRecordReader(String sbiPath, long start, long end) throws IOException {
+        this.sbiPath = sbiPath;
+        // the chunk reader skips to the first delimiter found in its range and reads the chunks that start in the
+        // range. Starting one byte before the chunk makes sure its delimiter is found, see RecordSpliterator:
+        final long length = new File(sbiPath).length();
+        this.chunks = new FastBufferedMessageChunksReader(start == 0 ? 0 : start - 1, end >= length ? length : end - 1,
+                new FastBufferedInputStream(new FileInputStream(sbiPath)));
+    }
+
+    /**
+     * Return true when the chunks of an .sbi file can be read by this reader, that is when the first chunk is gzip
+     * compressed, or when the file has no chunk.
+     */
+    public static boolean canRead(String sbiPath) throws IOException {
+        try (RawRecordReader reader = new RawRecordReader(sbiPath)) {
+            return !reader.chunks.hasNext(null, 0) || reader.chunks.getChunkCodec() instanceof GZipChunkCodec;
+        }
+    }
+
+    /**
+     * Wrap the next record in the view of this reader.
+     *
+     * @return the view, or null when there are no more records.
+     */
+    public BaseInformationView nextRecord() throws IOException {
+        while (records == null || records.isAtEnd()) {
+            if (!readChunk()) {
+                return null;
+            }
+        }
+        final int tag = records.readTag();
+        if (WireFormat.getTagFieldNumber(tag) != RECORDS_FIELD_NUMBER) {
+            records.skipField(tag);
+            return nextRecord();
+        }
+        final int length = records.readRawVarint32();
+        final int offset = records.getTotalBytesRead();
+        records.skipRawBytes(length);
+        return view.wrap(chunk, offset, length);
+    }
+
+    private boolean readChunk() throws IOException {
+        records = null;
+        // with no current collection, the chunk reader loads the next chunk:
+        if (!chunks.hasNext(null, 0)) {
+            return false;
+        }
+        final byte[] compressed = chunks.getCompressedBytes();
+        if (!(chunks.getChunkCodec() instanceof GZipChunkCodec)) {
+            throw new IOException(String.format("Chunks compressed with %s cannot be read as views in %s",
+                    chunks.getChunkCodec().name(), sbiPath));
+        }
+        int chunkLength = 0;
+        try (GZIPInputStream uncompressed = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            int read;
+            while ((read = uncompressed.read(chunk, chunkLength, chunk.length - chunkLength)) >= 0) {
+                chunkLength += read;
+                if (chunkLength == chunk.length) {
+                    byte[] larger = new byte[chunk.length * 2];
+                    System.arraycopy(chunk, 0, larger, 0, chunkLength);
+                    chunk = larger;
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException("Unable to decompress a chunk of " + sbiPath, e);
+        }
+        records = CodedInputStream.newInstance(chunk, 0, chunkLength);
+        records.setSizeLimit(Integer.MAX_VALUE);
+        return true;
+    }
+
+    /**
+     * Iterate the records. The same view is returned for every record.
+     */
+    @Override
+    public Iterator<BaseInformationView> iterator() {
+        return new Iterator<BaseInformationView>() {
+            BaseInformationView next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = nextRecord();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public BaseInformationView next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                BaseInformationView result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunks.close();
+    }
+}
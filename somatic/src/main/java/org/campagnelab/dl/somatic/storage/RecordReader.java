@@ -123,28 +123,23 @@ public class RecordReader implements Closeable, RecordIterable<BaseInformationRe
     }
 
     /**
-     * Creates a {@link Spliterator} over the elements described by this
-     * {@code Iterable}.
+     * Creates a {@link Spliterator} over the records of this reader's .sbi file. The spliterator splits on chunk
+     * boundaries and reports the exact number of records of each split, using the chunk index of the file. The
+     * index saved next to the file is used when it is up to date. Otherwise the index is built in memory from the
+     * chunk headers of the file, and nothing is written: call {@link SbiChunkIndex#getOrBuild(String)} to save it.
+     * The spliterator reads the file with its own readers and does not change the position of this reader.
      *
-     * @return a {@code Spliterator} over the elements described by this
-     * {@code Iterable}.
-     * @implSpec The default implementation creates an
-     * <em><a href="Spliterator.html#binding">early-binding</a></em>
-     * spliterator from the iterable's {@code Iterator}.  The spliterator
-     * inherits the <em>fail-fast</em> properties of the iterable's iterator.
-     * @implNote The default implementation should usually be overridden.  The
-     * spliterator returned by the default implementation has poor splitting
-     * capabilities, is unsized, and does not report any spliterator
-     * characteristics. Implementing classes can nearly always provide a
-     * better implementation.
-     * @since 1.8
+     * @return a {@code Spliterator} over the records of the file.
      */
     @Override
     public Spliterator<BaseInformationRecords.BaseInformation> spliterator() {
-        long length = new File(this.reader.getSourceSbiPath()).length();
-        int maxSplits = Runtime.getRuntime().availableProcessors() -1;
-        System.out.println("Max number of spliterator: " + maxSplits);
-        return new RecordSpliterator(reader.getSourceSbiPath(), 0, length, length, maxSplits);
+        final String sbiPath = reader.getSourceSbiPath();
+        try {
+            return new RecordSpliterator(sbiPath, SbiChunkIndex.isUpToDate(sbiPath) ? SbiChunkIndex.load(sbiPath)
+                    : SbiChunkIndex.build(sbiPath));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to obtain the chunk index of " + reader.getSourceSbiPath(), e);
+        }
     }
 
     public Properties getProperties() {
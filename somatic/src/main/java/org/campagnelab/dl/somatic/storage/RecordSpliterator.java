@@ -7,33 +7,39 @@ import java.util.Spliterator;
 import java.util.function.Consumer;
 
 /**
- * Spliterator for {@link BaseInformationRecords.BaseInformation}
+ * Spliterator for {@link BaseInformationRecords.BaseInformation}. Splits are aligned on the compressed chunks of the
+ * .sbi file, as recorded in its {@link SbiChunkIndex}, so that each split decompresses whole chunks and knows exactly
+ * how many records it covers. The spliterator is SIZED and SUBSIZED. A reader is only opened when the traversal of a
+ * split starts.
  *
  * @author manuele
  */
 public class RecordSpliterator implements Spliterator<BaseInformationRecords.BaseInformation> {
 
-    private final RecordReader reader;
-    private final long startIndex; // the index of the first byte to read
     private final String sourceSBI;
-    private int maxSplits;
-    private long endIndex; // the index of the last byte to read
-    private final long maxLength; //length in bytes of the input SBI
-    private final long minLength; // minimun number of bytes assigned to a single spliterator
+    private final SbiChunkIndex index;
+    private int firstChunk;
+    private final int endChunk; // exclusive
+    private RecordReader reader;
+    private boolean started;
+    private long remaining;
 
-    public RecordSpliterator(String sourceSBI, long startIndex, long endIndex, long maxLength, int maxSplits) {
+    /**
+     * Create a spliterator over all the records of an .sbi file.
+     *
+     * @param sourceSBI path to the .sbi file.
+     * @param index     chunk index of the .sbi file.
+     */
+    public RecordSpliterator(String sourceSBI, SbiChunkIndex index) {
+        this(sourceSBI, index, 0, index.numChunks());
+    }
+
+    private RecordSpliterator(String sourceSBI, SbiChunkIndex index, int firstChunk, int endChunk) {
         this.sourceSBI = sourceSBI;
-        try {
-            this.reader = new RecordReader(sourceSBI, startIndex, endIndex);
-            System.out.println(Thread.currentThread().getId() +  " - New Record Reader");
-        } catch (IOException e) {
-            throw new RuntimeException("unable to open the source sbi " + sourceSBI);
-        }
-        this.maxLength = maxLength;
-        this.minLength = (maxLength / 10);
-        this.startIndex = startIndex;
-        this.endIndex = endIndex;
-        this.maxSplits = maxSplits;
+        this.index = index;
+        this.firstChunk = firstChunk;
+        this.endChunk = endChunk;
+        this.remaining = index.numRecords(firstChunk, endChunk);
     }
 
     /**
@@ -52,130 +58,77 @@ public class RecordSpliterator implements Spliterator<BaseInformationRecords.Bas
     public boolean tryAdvance(Consumer<? super BaseInformationRecords.BaseInformation> action) {
         if (action == null)
             throw new NullPointerException();
+        if (remaining == 0) {
+            close();
+            return false;
+        }
+        if (!started) {
+            open();
+        }
+        BaseInformationRecords.BaseInformation record = reader.nextRecord();
+        if (record == null) {
+            throw new IllegalStateException(String.format("Chunks %d-%d of %s ended %d records before the count recorded in the chunk index.",
+                    firstChunk, endChunk, sourceSBI, remaining));
+        }
+        remaining--;
+        action.accept(record);
+        return true;
+    }
 
-        BaseInformationRecords.BaseInformation record = null;
-        record = reader.nextRecord();
-        if (record != null) {
-            action.accept(record);
-            return true;
+    private void open() {
+        // the reader skips to the first chunk delimiter found in the range and reads the chunks that start in the
+        // range. Starting one byte before the chunk makes sure its delimiter is found:
+        final long start = firstChunk == 0 ? 0 : index.chunkStart(firstChunk) - 1;
+        final long end = endChunk == index.numChunks() ? index.chunkStart(endChunk) : index.chunkStart(endChunk) - 1;
+        started = true;
+        try {
+            reader = new RecordReader(sourceSBI, start, end);
+        } catch (IOException e) {
+            throw new RuntimeException("unable to open the source sbi " + sourceSBI, e);
         }
-        return false;
+    }
 
+    private void close() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // reader is only read from
+            }
+            reader = null;
+        }
     }
 
     /**
-     * If this spliterator can be partitioned, returns a Spliterator
-     * covering elements, that will, upon return from this method, not
-     * be covered by this Spliterator.
-     * <p>
-     * <p>If this Spliterator is {@link #ORDERED}, the returned Spliterator
-     * must cover a strict prefix of the elements.
-     * <p>
-     * <p>Unless this Spliterator covers an infinite number of elements,
-     * repeated calls to {@code trySplit()} must eventually return {@code null}.
-     * Upon non-null return:
-     * <ul>
-     * <li>the value reported for {@code estimateSize()} before splitting,
-     * must, after splitting, be greater than or equal to {@code estimateSize()}
-     * for this and the returned Spliterator; and</li>
-     * <li>if this Spliterator is {@code SUBSIZED}, then {@code estimateSize()}
-     * for this spliterator before splitting must be equal to the sum of
-     * {@code estimateSize()} for this and the returned Spliterator after
-     * splitting.</li>
-     * </ul>
-     * <p>
-     * <p>This method may return {@code null} for any reason,
-     * including emptiness, inability to split after traversal has
-     * commenced, data structure constraints, and efficiency
-     * considerations.
+     * Split off the first half of the remaining chunks. Returns null when traversal has started or when fewer than
+     * two chunks remain.
      *
-     * @return a {@code Spliterator} covering some portion of the
-     * elements, or {@code null} if this spliterator cannot be split
-     * @apiNote An ideal {@code trySplit} method efficiently (without
-     * traversal) divides its elements exactly in half, allowing
-     * balanced parallel computation.  Many departures from this ideal
-     * remain highly effective; for example, only approximately
-     * splitting an approximately balanced tree, or for a tree in
-     * which leaf nodes may contain either one or two elements,
-     * failing to further split these nodes.  However, large
-     * deviations in balance and/or overly inefficient {@code
-     * trySplit} mechanics typically result in poor parallel
-     * performance.
+     * @return a {@code Spliterator} covering a prefix of the chunks, or {@code null} if this spliterator cannot be
+     * split
      */
     @Override
     public Spliterator<BaseInformationRecords.BaseInformation> trySplit() {
-        if (maxSplits == 0 ) {
-          return null;
-        }
-        if (((endIndex - startIndex < 0) || (endIndex - startIndex < 100000000)))
-            return null;
-        long splitPosition = ((endIndex - startIndex) / 2) + this.startIndex; //we try to split halfway
-        long readPosition = this.reader.getCurrentReadPosition();
-        if (splitPosition < readPosition) {
-            //if we passed the current position of the reader, we don't further split
+        if (started || endChunk - firstChunk < 2) {
             return null;
         }
-        Spliterator<BaseInformationRecords.BaseInformation> newSp = new RecordSpliterator(sourceSBI, splitPosition, endIndex, maxLength, (maxSplits -1)/2);
-        this.maxSplits = (maxSplits -1)/2;
-        this.endIndex = splitPosition - 1;
-        this.reader.readUpTo(endIndex);
-        return newSp;
-    }
-
-    private void recalculateEndIndex() {
-        this.endIndex = startIndex + Math.round(this.endIndex / 2);
+        final int splitChunk = (firstChunk + endChunk) >>> 1;
+        RecordSpliterator prefix = new RecordSpliterator(sourceSBI, index, firstChunk, splitChunk);
+        // this spliterator continues with the suffix:
+        firstChunk = splitChunk;
+        remaining = index.numRecords(firstChunk, endChunk);
+        return prefix;
     }
 
     /**
-     * Returns an estimate of the number of elements that would be
-     * encountered by a {@link #forEachRemaining} traversal, or returns {@link
-     * Long#MAX_VALUE} if infinite, unknown, or too expensive to compute.
-     * <p>
-     * <p>If this Spliterator is {@link #SIZED} and has not yet been partially
-     * traversed or split, or this Spliterator is {@link #SUBSIZED} and has
-     * not yet been partially traversed, this estimate must be an accurate
-     * count of elements that would be encountered by a complete traversal.
-     * Otherwise, this estimate may be arbitrarily inaccurate, but must decrease
-     * as specified across invocations of {@link #trySplit}.
-     *
-     * @return the estimated size, or {@code Long.MAX_VALUE} if infinite,
-     * unknown, or too expensive to compute.
-     * @apiNote Even an inexact estimate is often useful and inexpensive to compute.
-     * For example, a sub-spliterator of an approximately balanced binary tree
-     * may return a value that estimates the number of elements to be half of
-     * that of its parent; if the root Spliterator does not maintain an
-     * accurate count, it could estimate size to be the power of two
-     * corresponding to its maximum depth.
+     * Returns the exact number of records that a complete traversal would still encounter.
      */
     @Override
     public long estimateSize() {
-        //how many bytes we would read
-        long est = (this.endIndex - this.startIndex) * this.reader.getTotalRecords();
-        return est > 0 ? est : 0L;
+        return remaining;
     }
 
-    /**
-     * Returns a set of characteristics of this Spliterator and its
-     * elements. The result is represented as ORed values from {@link
-     * #ORDERED}, {@link #DISTINCT}, {@link #SORTED}, {@link #SIZED},
-     * {@link #NONNULL}, {@link #IMMUTABLE}, {@link #CONCURRENT},
-     * {@link #SUBSIZED}.  Repeated calls to {@code characteristics()} on
-     * a given spliterator, prior to or in-between calls to {@code trySplit},
-     * should always return the same result.
-     * <p>
-     * <p>If a Spliterator reports an inconsistent set of
-     * characteristics (either those returned from a single invocation
-     * or across multiple invocations), no guarantees can be made
-     * about any computation using this Spliterator.
-     *
-     * @return a representation of characteristics
-     * @apiNote The characteristics of a given spliterator before splitting
-     * may differ from the characteristics after splitting.  For specific
-     * examples see the characteristic values {@link #SIZED}, {@link #SUBSIZED}
-     * and {@link #CONCURRENT}.
-     */
     @Override
     public int characteristics() {
-        return ORDERED | IMMUTABLE | NONNULL;
+        return ORDERED | IMMUTABLE | NONNULL | SIZED | SUBSIZED;
     }
 }
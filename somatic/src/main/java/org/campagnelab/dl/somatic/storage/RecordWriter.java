@@ -7,6 +7,7 @@ import org.campagnelab.goby.baseinfo.SequenceBaseInformationWriter;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Properties;
 
 /**
  * A writer for base information records in protobuf format.
@@ -30,6 +31,13 @@ public class RecordWriter implements Closeable {
         writer.appendEntry(record);
     }
 
+    /**
+     * Set properties to store in the .sbip file, in addition to those the writer collects.
+     */
+    public void setCustomProperties(Properties properties) {
+        writer.setCustomProperties(properties);
+    }
+
     public static String addParqExtension(String path) {
         return FilenameUtils.removeExtension(path) + ".parquet";
     }
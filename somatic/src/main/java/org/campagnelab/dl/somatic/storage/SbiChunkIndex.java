@@ -0,0 +1,255 @@
+package org.campagnelab.dl.somatic.storage;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.campagnelab.goby.compression.ChunkCodecHelper;
+import org.campagnelab.goby.compression.GZipChunkCodec;
+import org.campagnelab.goby.compression.MessageChunksWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Offsets of the compressed chunks of an .sbi file, and the number of records stored before each chunk. The index is
+ * stored in a .sbic sidecar file next to the .sbi file. It is built from the chunk headers of the .sbi file, without
+ * parsing records, and rebuilt when the .sbi file is more recent than the sidecar. Only {@link #getOrBuild(String)}
+ * and {@link #save(String)} write the sidecar, and they replace it atomically, so that concurrent builders of the same
+ * index never leave a partial file.
+ */
+public class SbiChunkIndex {
+    static private Logger LOG = LoggerFactory.getLogger(SbiChunkIndex.class);
+    private static final int MAGIC = 0x5B1C0001;
+    /**
+     * Field number of the records of a BaseInformationCollection.
+     */
+    private static final int RECORDS_FIELD_NUMBER = 1;
+    /**
+     * Offset of the first byte of each chunk. The last element is the length of the .sbi file.
+     */
+    private final LongArrayList chunkStarts;
+    /**
+     * Number of records stored before each chunk. The last element is the total number of records.
+     */
+    private final LongArrayList recordsBefore;
+
+    private SbiChunkIndex(LongArrayList chunkStarts, LongArrayList recordsBefore) {
+        this.chunkStarts = chunkStarts;
+        this.recordsBefore = recordsBefore;
+    }
+
+    /**
+     * @return the number of chunks in the .sbi file.
+     */
+    public int numChunks() {
+        return chunkStarts.size() - 1;
+    }
+
+    /**
+     * @return the total number of records in the .sbi file.
+     */
+    public long numRecords() {
+        return recordsBefore.getLong(recordsBefore.size() - 1);
+    }
+
+    /**
+     * Return the offset of the first byte of a chunk. When chunkIndex is numChunks(), return the length of the file.
+     */
+    public long chunkStart(int chunkIndex) {
+        return chunkStarts.getLong(chunkIndex);
+    }
+
+    /**
+     * Return the number of records stored in chunks firstChunk (inclusive) to endChunk (exclusive).
+     */
+    public long numRecords(int firstChunk, int endChunk) {
+        return recordsBefore.getLong(endChunk) - recordsBefore.getLong(firstChunk);
+    }
+
+    public static String indexFilename(String sbiPath) {
+        return sbiPath + "c";
+    }
+
+    /**
+     * Load the index of an .sbi file, building and saving it first if the sidecar file is missing or older than the
+     * .sbi file.
+     *
+     * @param sbiPath path to the .sbi file.
+     * @return the chunk index.
+     */
+    public static SbiChunkIndex getOrBuild(String sbiPath) throws IOException {
+        if (isUpToDate(sbiPath)) {
+            return load(sbiPath);
+        }
+        SbiChunkIndex index = build(sbiPath);
+        try {
+            index.save(sbiPath);
+        } catch (IOException e) {
+            LOG.warn("Unable to save chunk index to " + indexFilename(sbiPath) + ", the index will be rebuilt next time.", e);
+        }
+        return index;
+    }
+
+    /**
+     * Return true when the sidecar index of an .sbi file exists and is not older than the .sbi file.
+     */
+    public static boolean isUpToDate(String sbiPath) {
+        File indexFile = new File(indexFilename(sbiPath));
+        return indexFile.exists() && indexFile.lastModified() >= new File(sbiPath).lastModified();
+    }
+
+    /**
+     * Build the index of .sbi files concatenated without decompression. Chunks keep their size, so the chunks of
+     * each file are shifted by the offset where the file starts in the concatenation.
+     *
+     * @param indices index of each concatenated file, in order.
+     * @param offsets offset of the first byte of each file in the concatenation.
+     * @param length  length of the concatenation.
+     * @return the index of the concatenation.
+     */
+    public static SbiChunkIndex concatenate(List<SbiChunkIndex> indices, long[] offsets, long length) {
+        LongArrayList chunkStarts = new LongArrayList();
+        LongArrayList recordsBefore = new LongArrayList();
+        long numRecords = 0;
+        for (int i = 0; i < indices.size(); i++) {
+            final SbiChunkIndex index = indices.get(i);
+            for (int chunk = 0; chunk < index.numChunks(); chunk++) {
+                chunkStarts.add(offsets[i] + index.chunkStart(chunk));
+                recordsBefore.add(numRecords + index.numRecords(0, chunk));
+            }
+            numRecords += index.numRecords();
+        }
+        chunkStarts.add(numRecords > 0 ? length : 0);
+        recordsBefore.add(numRecords);
+        return new SbiChunkIndex(chunkStarts, recordsBefore);
+    }
+
+    /**
+     * Build the index by reading the chunk headers of the .sbi file. Each chunk is a delimiter, a codec byte, the
+     * length of the compressed collection and the collection itself. The records of gzip compressed chunks are
+     * counted from their tags in the uncompressed stream; chunks of other codecs are read with a RecordReader.
+     */
+    public static SbiChunkIndex build(String sbiPath) throws IOException {
+        LOG.info("Building chunk index for " + sbiPath);
+        LongArrayList chunkStarts = new LongArrayList();
+        LongArrayList recordsBefore = new LongArrayList();
+        final long length = new File(sbiPath).length();
+        try (DataInputStream input = new DataInputStream(new FastBufferedInputStream(new FileInputStream(sbiPath)))) {
+            long position = 0;
+            long numRecords = 0;
+            byte[] compressed = new byte[1 << 16];
+            while (position < length) {
+                for (int i = 0; i < MessageChunksWriter.DELIMITER_LENGTH; i++) {
+                    if (input.readByte() != (byte) 0xFF) {
+                        throw new IOException(String.format("Chunk delimiter not found at offset %d of %s", position, sbiPath));
+                    }
+                }
+                final byte codecCode = input.readByte();
+                final int compressedLength = input.readInt();
+                if (compressedLength == 0) {
+                    // end of file marker:
+                    break;
+                }
+                if (compressed.length < compressedLength) {
+                    compressed = new byte[compressedLength];
+                }
+                input.readFully(compressed, 0, compressedLength);
+                final long chunkEnd = position + MessageChunksWriter.DELIMITER_LENGTH + 1
+                        + MessageChunksWriter.SIZE_OF_MESSAGE_LENGTH + compressedLength;
+                chunkStarts.add(position);
+                recordsBefore.add(numRecords);
+                if (ChunkCodecHelper.withRegistrationCode(codecCode) instanceof GZipChunkCodec) {
+                    numRecords += countRecords(compressed, compressedLength);
+                } else {
+                    numRecords += countRecords(sbiPath, position, chunkEnd);
+                }
+                position = chunkEnd;
+            }
+            chunkStarts.add(chunkStarts.isEmpty() ? 0 : length);
+            recordsBefore.add(numRecords);
+        }
+        return new SbiChunkIndex(chunkStarts, recordsBefore);
+    }
+
+    /**
+     * Count the records of a gzip compressed collection, skipping over them without parsing.
+     */
+    private static long countRecords(byte[] compressed, int length) throws IOException {
+        try (GZIPInputStream uncompressed = new GZIPInputStream(new ByteArrayInputStream(compressed, 0, length))) {
+            CodedInputStream collection = CodedInputStream.newInstance(uncompressed);
+            collection.setSizeLimit(Integer.MAX_VALUE);
+            long numRecords = 0;
+            int tag;
+            while ((tag = collection.readTag()) != 0) {
+                if (WireFormat.getTagFieldNumber(tag) == RECORDS_FIELD_NUMBER) {
+                    numRecords++;
+                }
+                collection.skipField(tag);
+            }
+            return numRecords;
+        }
+    }
+
+    /**
+     * Count the records of the chunk that starts at chunkStart with a reader restricted to this chunk.
+     */
+    private static long countRecords(String sbiPath, long chunkStart, long chunkEnd) throws IOException {
+        // the reader reads the chunks whose delimiter it finds in its range, see RecordSpliterator:
+        try (RecordReader reader = new RecordReader(sbiPath, chunkStart == 0 ? 0 : chunkStart - 1, chunkEnd - 1)) {
+            long numRecords = 0;
+            for (BaseInformationRecords.BaseInformation record : reader) {
+                numRecords++;
+            }
+            return numRecords;
+        }
+    }
+
+    /**
+     * Save the index next to the .sbi file. The index is written to a temporary file that then replaces the sidecar.
+     */
+    public void save(String sbiPath) throws IOException {
+        final Path indexPath = Paths.get(indexFilename(sbiPath)).toAbsolutePath();
+        final Path tmpPath = Files.createTempFile(indexPath.getParent(), indexPath.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new FastBufferedOutputStream(
+                    Files.newOutputStream(tmpPath)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(numChunks());
+                for (int i = 0; i < chunkStarts.size(); i++) {
+                    output.writeLong(chunkStarts.getLong(i));
+                    output.writeLong(recordsBefore.getLong(i));
+                }
+            }
+            Files.move(tmpPath, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    public static SbiChunkIndex load(String sbiPath) throws IOException {
+        try (DataInputStream input = new DataInputStream(new FastBufferedInputStream(
+                new FileInputStream(indexFilename(sbiPath))))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("File is not a valid sbi chunk index: " + indexFilename(sbiPath));
+            }
+            int numChunks = input.readInt();
+            LongArrayList chunkStarts = new LongArrayList(numChunks + 1);
+            LongArrayList recordsBefore = new LongArrayList(numChunks + 1);
+            for (int i = 0; i <= numChunks; i++) {
+                chunkStarts.add(input.readLong());
+                recordsBefore.add(input.readLong());
+            }
+            return new SbiChunkIndex(chunkStarts, recordsBefore);
+        }
+    }
+}
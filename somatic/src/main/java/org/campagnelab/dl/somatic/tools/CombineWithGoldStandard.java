@@ -1,22 +1,16 @@
 package org.campagnelab.dl.somatic.tools;
 
-import it.unimi.dsi.fastutil.ints.Int2ObjectAVLTreeMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectArrayMap;
-import it.unimi.dsi.io.FastBufferedReader;
-import it.unimi.dsi.io.LineIterator;
-import it.unimi.dsi.lang.MutableString;
 import it.unimi.dsi.logging.ProgressLogger;
 import it.unimi.dsi.util.XorShift1024StarRandom;
 import org.apache.commons.compress.utils.IOUtils;
 import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
+import org.campagnelab.dl.somatic.storage.GoldStandardIndex;
 import org.campagnelab.dl.somatic.storage.RecordReader;
 import org.campagnelab.dl.somatic.storage.RecordWriter;
 import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Random;
 
@@ -24,6 +18,8 @@ import java.util.Random;
  * Combine a raw SBI with gold standard annotations to set isMutated flag. TSV format is chromosome\tposition\t[toBases]\t[somaticFrequency]
  * where toBases is optional and contain the mutated bases (SNP or indel genotype of the mutation). somaticFrequency, also
  * optional contains the true proportion of somatic cells with the mutation in the sample.
+ * The annotations are indexed in a sidecar file the first time they are used (see {@link GoldStandardIndex}), so
+ * that later runs against the same gold standard map the index instead of parsing the TSV again.
  * Created by fac2003 on 11/22/16.
  */
 public class CombineWithGoldStandard extends AbstractTool<CombineWithGoldStandardArguments> {
@@ -42,7 +38,12 @@ public class CombineWithGoldStandard extends AbstractTool<CombineWithGoldStandar
 
     @Override
     public void execute() {
-        loadAnnotations(args().annotationFilename);
+        try {
+            annotations = GoldStandardIndex.getOrBuild(args().annotationFilename);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to load annotations from " + args().annotationFilename, e);
+        }
+        LOG.info(String.format("Loaded %d annotated sites.", annotations.numSites()));
         RecordWriter outputWriters = null;
         try {
             outputWriters = new RecordWriter(args().outputFilename);
@@ -85,51 +86,14 @@ public class CombineWithGoldStandard extends AbstractTool<CombineWithGoldStandar
         }
     }
 
-    class Mutation {
-        String from;
-        String to;
-        int position;
-    }
-
-    Object2ObjectArrayMap<String, Int2ObjectAVLTreeMap<Annotation>> annotations = new Object2ObjectArrayMap<>();
-
-    class Annotation {
-        int position;
-        String toBase;
-        // true proportion of the somatic variation among cells. May be null if this information is not available.
-        // the frequency is between 0 and 1.
-        Float frequency;
-    }
-
-    private void loadAnnotations(String annotationFilename) {
-        try {
-            LineIterator lines = new LineIterator(new FastBufferedReader(new FileReader(annotationFilename)));
-            for (MutableString line : lines.allLines()) {
-               if (line.startsWith("#")) continue;
-                String tokens[] = line.toString().split("\t");
-                final String chromosome = tokens[0];
-                int position = Integer.parseInt(tokens[1]);
-                // convert to zero-based position used by goby/variationanalysis:
-                position -= 1;
-                Int2ObjectAVLTreeMap<Annotation> perPositionMap = annotations.getOrDefault(chromosome, new Int2ObjectAVLTreeMap<>());                Annotation a = new Annotation();
-                a.position = position;
-                a.toBase = tokens.length >= 3 ? tokens[2] : null;
-                a.frequency = tokens.length >= 4 ? Float.parseFloat(tokens[3]) : null;
-                perPositionMap.put(position, a);
-                annotations.put(chromosome, perPositionMap);
-            }
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException("Unable to find annotation filename:" + annotationFilename, e);
-
-        }
-    }
+    private GoldStandardIndex annotations;
 
     private BaseInformationRecords.BaseInformation annotate(BaseInformationRecords.BaseInformation record) {
-        if (!isAnnotated(record.getReferenceId(), record.getPosition())) {
+        GoldStandardIndex.Annotation a = annotations.get(record.getReferenceId(), record.getPosition());
+        if (a == null) {
             return record;
         }
         final BaseInformationRecords.BaseInformation.Builder builder = record.toBuilder();
-        Annotation a=getAnnotation(record.getReferenceId(), record.getPosition());
         if (a.toBase!=null) {
             builder.setMutatedBase(a.toBase);
         }
@@ -138,11 +102,4 @@ public class CombineWithGoldStandard extends AbstractTool<CombineWithGoldStandar
         }
         return builder.setMutated(true).build();
     }
-
-    private boolean isAnnotated(String referenceId, int position) {
-        return annotations.getOrDefault(referenceId, new Int2ObjectAVLTreeMap<Annotation>()).getOrDefault(position, null)!=null;
-    }
-    private Annotation getAnnotation(String referenceId, int position) {
-        return annotations.getOrDefault(referenceId, new Int2ObjectAVLTreeMap<Annotation>()).get(position);
-    }
 }
@@ -3,6 +3,7 @@ package org.campagnelab.dl.somatic.tools;
 import org.campagnelab.dl.framework.domains.prediction.BinaryClassPrediction;
 import org.campagnelab.dl.framework.domains.prediction.Prediction;
 import org.campagnelab.dl.framework.performance.AreaUnderTheROCCurve;
+import org.campagnelab.dl.framework.performance.StreamingAreaUnderTheROCCurve;
 import org.campagnelab.dl.framework.tools.Predict;
 import org.campagnelab.dl.framework.tools.PredictArguments;
 import org.campagnelab.dl.somatic.learning.domains.predictions.IsMutatedBasePrediction;
@@ -40,7 +41,8 @@ public class PredictS extends Predict<BaseInformationRecords.BaseInformation> {
 
     @Override
     protected void initializeStats(String prefix) {
-        aucLossCalculator = new AreaUnderTheROCCurve(args().numRecordsForAUC);
+        aucLossCalculator = args().aucBins > 0 ? new StreamingAreaUnderTheROCCurve(args().aucBins) :
+                new AreaUnderTheROCCurve(args().numRecordsForAUC);
     }
 
     private boolean aucCalculated = false;
@@ -1,5 +1,7 @@
 package org.campagnelab.dl.somatic.tools;
 
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectList;
 import it.unimi.dsi.logging.ProgressLogger;
@@ -8,24 +10,34 @@ import org.apache.commons.io.FilenameUtils;
 import org.campagnelab.dl.framework.tools.arguments.AbstractTool;
 import org.campagnelab.dl.somatic.intermediaries.QuickConcatArguments;
 import org.campagnelab.dl.somatic.storage.RecordReader;
-import org.campagnelab.goby.baseinfo.SequenceBaseInformationReader;
-import org.campagnelab.goby.baseinfo.SequenceBaseInformationWriter;
+import org.campagnelab.dl.somatic.storage.RecordWriter;
+import org.campagnelab.dl.somatic.storage.SbiChunkIndex;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.campagnelab.dl.varanalysis.protobuf.SegmentInformationRecords;
+import org.campagnelab.goby.baseinfo.SequenceSegmentInformationReader;
+import org.campagnelab.goby.baseinfo.SequenceSegmentInformationWriter;
 import org.campagnelab.goby.compression.MessageChunksWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.nio.channels.FileChannel;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Properties;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
- * A utility to quickly concatenate a list of .sbi files. Concatenation does not decompress each file and simply
- * concatenates the bytes and add up the number of records.
+ * A utility to quickly concatenate a list of .sbi or .ssi files. Concatenation does not decompress each file and
+ * simply concatenates the bytes. Properties of the inputs are merged: record counts are added up, and the minimum and
+ * maximum of each statistic are combined. When every .sbi input has a chunk index, the chunk index of the output is
+ * derived from the input indices, so that the output can be split in parallel without another pass.
+ * <p>
+ * With --merge-sorted, inputs sorted by genomic position (such as the shards written by parallel tools) are merged
+ * record by record, so that the output is sorted too.
  */
 public class QuickConcat extends AbstractTool<QuickConcatArguments> {
     static private Logger LOG = LoggerFactory.getLogger(QuickConcat.class);
+    private static final String NUM_RECORDS = "numRecords";
 
     @Override
     public QuickConcatArguments createArguments() {
@@ -48,11 +60,10 @@ public class QuickConcat extends AbstractTool<QuickConcatArguments> {
 
 
     /**
-     * This version does a quick concat. It does NO filtering. It gathers no stats,
-     * but, will quickly concat multiple files together using NIO.
-     * It should be noted that this method is >MUCH< faster.
+     * This version does a quick concat. It does NO filtering, but will quickly concat multiple files together using
+     * NIO. It should be noted that this method is >MUCH< faster than decoding the records.
      * Copy all of the input files except the last MessageChunksWriter.DELIMITER_LENGTH
-     * bytes of the first n-1 input files and the entire last input file
+     * bytes of the first n-1 non-empty input files and the entire last non-empty input file
      * to the output file.
      *
      * @param inputFilenames
@@ -60,88 +71,100 @@ public class QuickConcat extends AbstractTool<QuickConcatArguments> {
      * @throws IOException
      */
     private void performQuickConcat(String[] inputFilenames, String outputBasename) {
-        if (outputBasename.endsWith(".sbi")) {
+        final String extension = extension(inputFilenames);
+        if (outputBasename.endsWith(extension)) {
             outputBasename = FilenameUtils.removeExtension(outputBasename);
         }
         System.out.println("quick concatenating files");
-        inputFilenames = reorderFilenames(inputFilenames);
+        inputFilenames = reorderFilenames(inputFilenames, extension);
 
-        File outputFile = new File(outputBasename);
-        if (!args().force) {
-            if (outputFile.exists()) {
-                System.err.println("The output file already exists. Please delete it before running concat.");
-                return;
-            }
-            try {
-                outputFile.createNewFile();
-            } catch (IOException e) {
-                throw new RuntimeException("Unable to create destination file", e);
+        File outputFile = new File(outputBasename + extension);
+        if (!args().force && outputFile.exists()) {
+            System.err.println("The output file already exists. Please delete it before running concat.");
+            return;
+        }
+
+        // properties are read from the property files, the data files are opened once, to be copied:
+        ObjectList<Properties> properties = new ObjectArrayList<>();
+        ObjectList<String> nonEmptyFilenames = new ObjectArrayList<>();
+        for (final String inputFilename : inputFilenames) {
+            Properties inputProperties = readProperties(inputFilename + "p");
+            properties.add(inputProperties);
+            // do not try to concat an empty file:
+            if (!"0".equals(inputProperties.getProperty(NUM_RECORDS))) {
+                nonEmptyFilenames.add(inputFilename);
             }
         }
+        if (nonEmptyFilenames.isEmpty() && inputFilenames.length > 0) {
+            // the last file still provides an empty, well-formed output:
+            nonEmptyFilenames.add(inputFilenames[inputFilenames.length - 1]);
+        }
+        final Properties merged = mergeProperties(properties);
+        if (args().mergeSorted) {
+            mergeSorted(nonEmptyFilenames, outputBasename, extension);
+        } else {
+            concatenate(nonEmptyFilenames, outputFile, extension);
+        }
+        try (OutputStream output = new FileOutputStream(outputBasename + extension + "p")) {
+            merged.store(output, "merged by QuickConcat");
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write properties", e);
+        }
+    }
 
+    private void concatenate(ObjectList<String> inputFilenames, File outputFile, String extension) {
         //set up logger
         ProgressLogger progressLogger = new ProgressLogger(LOG);
         progressLogger.itemsName = "files";
-        progressLogger.expectedUpdates = inputFilenames.length;
+        progressLogger.expectedUpdates = inputFilenames.size();
         progressLogger.displayFreeMemory = true;
         progressLogger.start();
         FileChannel input = null;
         FileChannel output = null;
         long bufferSize = arguments.copyBufferSize;
-
-        ObjectList<Properties> properties = new ObjectArrayList<>();
-        for (final String inputFilename : inputFilenames) {
-            try {
-                SequenceBaseInformationReader reader = new SequenceBaseInformationReader(inputFilename);
-                properties.add(reader.getProperties());
-                reader.close();
-            } catch (IOException e) {
-                throw new RuntimeException("Unable to open " + inputFilename, e);
-            }
-        }
-
+        final boolean indexOutput = ".sbi".equals(extension) && inputFilenames.stream().allMatch(SbiChunkIndex::isUpToDate);
+        List<SbiChunkIndex> indices = new ObjectArrayList<>();
+        long[] offsets = new long[inputFilenames.size()];
         try {
-            SequenceBaseInformationWriter.writeProperties(outputBasename, properties);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException("Unable to write properties", e);
-        }
-
-        try {
-            output = new FileOutputStream(outputFile + ".sbi").getChannel();
-            int lastFileNumToCopy = inputFilenames.length - 1;
+            output = new FileOutputStream(outputFile).getChannel();
+            int lastFileNumToCopy = inputFilenames.size() - 1;
             int curFileNum = 0;
             for (final String inputFilename : inputFilenames) {
-                RecordReader reader=new RecordReader(inputFilename);
-                // do not try to concat an empty file:
-                if (reader.getTotalRecords()>0) {
-
-                    System.out.printf("Reading from %s%n", inputFilename);
-                    input = new FileInputStream(inputFilename).getChannel();
-                    long bytesToCopy = input.size();
-                    if (curFileNum++ < lastFileNumToCopy) {
-                        // Compact-reads files end with a delimiter (8 x 0xff)
-                        // followed by a 4 byte int 0 (4 x 0x00). Strip
-                        // these on all but the last file.
-                        bytesToCopy -= (MessageChunksWriter.DELIMITER_LENGTH + 1 + MessageChunksWriter.SIZE_OF_MESSAGE_LENGTH);
-                    }
+                System.out.printf("Reading from %s%n", inputFilename);
+                input = new FileInputStream(inputFilename).getChannel();
+                long bytesToCopy = input.size();
+                offsets[curFileNum] = output.position();
+                if (curFileNum++ < lastFileNumToCopy) {
+                    // Compact-reads files end with a delimiter (8 x 0xff)
+                    // followed by a 4 byte int 0 (4 x 0x00). Strip
+                    // these on all but the last file.
+                    bytesToCopy -= (MessageChunksWriter.DELIMITER_LENGTH + 1 + MessageChunksWriter.SIZE_OF_MESSAGE_LENGTH);
+                }
+                if (indexOutput) {
+                    indices.add(SbiChunkIndex.load(inputFilename));
+                }
 
-                    // Copy the file about 10 megabytes at a time. It would probably
-                    // be marginally faster to jugit st tell NIO to copy the ENTIRE file
-                    // in one go, but with very large files Java will freeze until the
-                    // entire chunck is copied so this makes for a more responsive program
-                    // should you want to ^C in the middle of the copy. Also, with the single
-                    // transferTo() you might not see any file size changes in the output file
-                    // until the entire copy is complete.
-                    long position = 0;
-                    while (position < bytesToCopy) {
-                        long bytesToCopyThisTime = Math.min(bufferSize, bytesToCopy - position);
-                        position += input.transferTo(position, bytesToCopyThisTime, output);
-                    }
-                    input.close();
-                    input = null;
-                    progressLogger.update();
+                // Copy the file about 10 megabytes at a time. It would probably
+                // be marginally faster to just tell NIO to copy the ENTIRE file
+                // in one go, but with very large files Java will freeze until the
+                // entire chunck is copied so this makes for a more responsive program
+                // should you want to ^C in the middle of the copy. Also, with the single
+                // transferTo() you might not see any file size changes in the output file
+                // until the entire copy is complete.
+                long position = 0;
+                while (position < bytesToCopy) {
+                    long bytesToCopyThisTime = Math.min(bufferSize, bytesToCopy - position);
+                    position += input.transferTo(position, bytesToCopyThisTime, output);
                 }
-                reader.close();
+                input.close();
+                input = null;
+                progressLogger.update();
+            }
+            final long length = output.position();
+            output.close();
+            output = null;
+            if (indexOutput) {
+                SbiChunkIndex.concatenate(indices, offsets, length).save(outputFile.getPath());
             }
             System.out.printf("Concatenated %d files.%n", lastFileNumToCopy + 1);
             progressLogger.stop();
@@ -153,7 +176,152 @@ public class QuickConcat extends AbstractTool<QuickConcatArguments> {
         }
     }
 
-    private String[] reorderFilenames(String[] inputFilenames) {
+    /**
+     * Merge inputs sorted by genomic position into a sorted output. Records at the same position are written in the
+     * order of the inputs.
+     */
+    private void mergeSorted(ObjectList<String> inputFilenames, String outputBasename, String extension) {
+        ProgressLogger progressLogger = new ProgressLogger(LOG);
+        progressLogger.itemsName = "records";
+        progressLogger.displayFreeMemory = true;
+        progressLogger.start();
+        try {
+            if (".sbi".equals(extension)) {
+                List<RecordReader> readers = new ObjectArrayList<>();
+                try {
+                    for (String inputFilename : inputFilenames) {
+                        readers.add(new RecordReader(inputFilename));
+                    }
+                    RecordWriter writer = new RecordWriter(outputBasename);
+                    mergeSorted(readers.stream().map(RecordReader::iterator).collect(Collectors.toList()),
+                            Comparator.comparingInt(BaseInformationRecords.BaseInformation::getReferenceIndex)
+                                    .thenComparingInt(BaseInformationRecords.BaseInformation::getPosition),
+                            record -> {
+                                try {
+                                    writer.writeRecord(record);
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                                progressLogger.lightUpdate();
+                            });
+                    writer.close();
+                } finally {
+                    readers.forEach(IOUtils::closeQuietly);
+                }
+            } else {
+                List<SequenceSegmentInformationReader> readers = new ObjectArrayList<>();
+                try {
+                    for (String inputFilename : inputFilenames) {
+                        readers.add(new SequenceSegmentInformationReader(inputFilename));
+                    }
+                    SequenceSegmentInformationWriter writer = new SequenceSegmentInformationWriter(outputBasename);
+                    mergeSorted(readers.stream().map(SequenceSegmentInformationReader::iterator).collect(Collectors.toList()),
+                            Comparator.comparingInt(
+                            (SegmentInformationRecords.SegmentInformation segment) -> segment.getStartPosition().getReferenceIndex())
+                                    .thenComparingInt(segment -> segment.getStartPosition().getLocation()),
+                            segment -> {
+                                writer.appendEntry(segment);
+                                progressLogger.lightUpdate();
+                            });
+                    writer.close();
+                } finally {
+                    readers.forEach(IOUtils::closeQuietly);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Unable to merge", e);
+        }
+        progressLogger.stop();
+        System.out.printf("Merged %d files.%n", inputFilenames.size());
+    }
+
+    /**
+     * k-way merge of sorted sequences, with a heap of the sequences ordered by their next element.
+     */
+    static <T> void mergeSorted(List<Iterator<T>> iterators, Comparator<T> order, Consumer<T> output) {
+        final List<T> heads = new ObjectArrayList<>(iterators.size());
+        IntHeapPriorityQueue queue = new IntHeapPriorityQueue(new AbstractIntComparator() {
+            @Override
+            public int compare(int a, int b) {
+                final int comparison = order.compare(heads.get(a), heads.get(b));
+                return comparison != 0 ? comparison : Integer.compare(a, b);
+            }
+        });
+        for (int i = 0; i < iterators.size(); i++) {
+            final Iterator<T> iterator = iterators.get(i);
+            heads.add(iterator.hasNext() ? iterator.next() : null);
+            if (heads.get(i) != null) {
+                queue.enqueue(i);
+            }
+        }
+        while (!queue.isEmpty()) {
+            final int i = queue.firstInt();
+            output.accept(heads.get(i));
+            final Iterator<T> iterator = iterators.get(i);
+            if (iterator.hasNext()) {
+                heads.set(i, iterator.next());
+                queue.changed();
+            } else {
+                heads.set(i, null);
+                queue.dequeueInt();
+            }
+        }
+    }
+
+    /**
+     * Merge the properties of concatenated files. Record counts are added up, the minimum and maximum of statistics
+     * are combined, and other properties keep the value of the first file that defines them.
+     */
+    public static Properties mergeProperties(List<Properties> properties) {
+        Properties merged = new Properties();
+        for (Properties inputProperties : properties) {
+            for (String key : inputProperties.stringPropertyNames()) {
+                final String value = inputProperties.getProperty(key);
+                final String previous = merged.getProperty(key);
+                if (previous == null) {
+                    merged.setProperty(key, value);
+                } else if (key.endsWith(NUM_RECORDS)) {
+                    merged.setProperty(key, Long.toString(Long.parseLong(previous) + Long.parseLong(value)));
+                } else if (key.endsWith(".min")) {
+                    // keep the original text of the value, to preserve its format:
+                    merged.setProperty(key, Double.parseDouble(value) < Double.parseDouble(previous) ? value : previous);
+                } else if (key.endsWith(".max")) {
+                    merged.setProperty(key, Double.parseDouble(value) > Double.parseDouble(previous) ? value : previous);
+                } else if (!previous.equals(value)) {
+                    LOG.warn(String.format("Property %s differs between inputs (%s, %s), keeping the first value.",
+                            key, previous, value));
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static Properties readProperties(String filename) {
+        Properties properties = new Properties();
+        try (InputStream input = new FileInputStream(filename)) {
+            properties.load(input);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read properties from " + filename, e);
+        }
+        return properties;
+    }
+
+    /**
+     * Return the extension shared by all input files: .sbi or .ssi.
+     */
+    private static String extension(String[] inputFilenames) {
+        String extension = null;
+        for (String inputFilename : inputFilenames) {
+            final String inputExtension = inputFilename.endsWith(".ssi") ? ".ssi" : ".sbi";
+            if (extension != null && !extension.equals(inputExtension)) {
+                throw new IllegalArgumentException("Input files must all be .sbi files or all be .ssi files.");
+            }
+            extension = inputExtension;
+        }
+        return extension == null ? ".sbi" : extension;
+    }
+
+    private String[] reorderFilenames(String[] inputFilenames, String extension) {
         Integer[] order = new Integer[inputFilenames.length];
         int index = 0;
         boolean hasOrder = false;
@@ -162,7 +330,7 @@ public class QuickConcat extends AbstractTool<QuickConcatArguments> {
             if ((tokens.length >= 2)) {
                 try {
                     String lastToken = tokens[tokens.length - 1];
-                    lastToken = lastToken.replace(".sbi", "");
+                    lastToken = lastToken.replace(extension, "");
                     int value = Integer.parseInt(lastToken);
                     order[index] = value;
                     hasOrder |= true;
@@ -176,17 +344,17 @@ public class QuickConcat extends AbstractTool<QuickConcatArguments> {
             }
         }
         if (hasOrder) {
-            System.out.println("Filenames follow pattern *-int.sbi. Concat will be in the increasing order of the integer values.");
+            System.out.printf("Filenames follow pattern *-int%s. Concat will be in the increasing order of the integer values.%n", extension);
             Comparator<? super String> compareFilenames = new Comparator<String>() {
                 @Override
                 public int compare(String filename1, String filename2) {
                     String[] tokens1 = filename1.split("[\\-]");
                     String[] tokens2 = filename2.split("[\\-]");
                     String lastToken1 = tokens1[tokens1.length - 1];
-                    lastToken1 = lastToken1.replace(".sbi", "");
+                    lastToken1 = lastToken1.replace(extension, "");
 
                     String lastToken2 = tokens2[tokens2.length - 1];
-                    lastToken2 = lastToken2.replace(".sbi", "");
+                    lastToken2 = lastToken2.replace(extension, "");
 
                     int value1 = Integer.parseInt(lastToken1);
                     int value2 = Integer.parseInt(lastToken2);
@@ -197,7 +365,7 @@ public class QuickConcat extends AbstractTool<QuickConcatArguments> {
             Arrays.sort(inputFilenames, compareFilenames);
             System.out.println("Sorted filename order:" + ObjectArrayList.wrap(inputFilenames).toString());
         } else {
-            System.out.println("Filenames do not follow the pattern *-int.sbi, concat in the order provided on the command line.");
+            System.out.printf("Filenames do not follow the pattern *-int%s, concat in the order provided on the command line.%n", extension);
         }
         return inputFilenames;
     }
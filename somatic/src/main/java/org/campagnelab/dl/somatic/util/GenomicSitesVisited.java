@@ -1,22 +1,152 @@
 package org.campagnelab.dl.somatic.util;
 
-import it.unimi.dsi.fastutil.longs.Long2BooleanAVLTreeMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+
+import java.io.*;
+import java.util.Arrays;
 
 /**
- * A data structure to remember which genomic sites have already been visited.
+ * A data structure to remember which genomic sites have already been visited. Each chromosome has a bitmap with one
+ * bit per position, split in pages of 64k positions. Pages are only allocated when a site they cover is visited, so
+ * sparse regions cost nothing and dense regions cost one bit per position. Sets of visited sites, for instance those
+ * of several prediction shards, can be merged with union and stored with save.
  */
 
 public class GenomicSitesVisited {
-    Long2BooleanAVLTreeMap visitedSites = new Long2BooleanAVLTreeMap();
+    private static final int MAGIC = 0x6E5E0001;
+    private static final int PAGE_BITS = 16;
+    private static final int WORDS_PER_PAGE = (1 << PAGE_BITS) / Long.SIZE;
 
-    public void visit(int referenceIndex, int position) {
-        long value = (((long)(referenceIndex+1))| (((long)(position+1)) << 32));
-        visitedSites.put(value, true);
+    /**
+     * referenceIndex+1 -> pages of the chromosome, indexed by (position+1) >>> PAGE_BITS. Positions and reference
+     * indices are shifted by one, so that -1 can be visited, as with the previous implementation.
+     */
+    private final Int2ObjectOpenHashMap<long[][]> chromosomes = new Int2ObjectOpenHashMap<>();
 
+    public void visit(int referenceIndex, int position) {
+        final long site = position + 1L;
+        final int pageIndex = (int) (site >>> PAGE_BITS);
+        long[][] pages = chromosomes.get(referenceIndex + 1);
+        if (pages == null || pageIndex >= pages.length) {
+            pages = pages == null ? new long[pageIndex + 1][] :
+                    Arrays.copyOf(pages, Math.max(pageIndex + 1, pages.length + (pages.length >> 1)));
+            chromosomes.put(referenceIndex + 1, pages);
+        }
+        if (pages[pageIndex] == null) {
+            pages[pageIndex] = new long[WORDS_PER_PAGE];
+        }
+        final int bit = (int) (site & ((1 << PAGE_BITS) - 1));
+        pages[pageIndex][bit >>> 6] |= 1L << bit;
     }
 
     public boolean wasVisited(int referenceIndex, int position) {
-        long value = ((long)(referenceIndex+1)) | ((long)(position+1) << 32);
-        return visitedSites.containsKey(value);
+        final long site = position + 1L;
+        final int pageIndex = (int) (site >>> PAGE_BITS);
+        final long[][] pages = chromosomes.get(referenceIndex + 1);
+        if (pages == null || pageIndex >= pages.length || pages[pageIndex] == null) {
+            return false;
+        }
+        final int bit = (int) (site & ((1 << PAGE_BITS) - 1));
+        return (pages[pageIndex][bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Add the sites visited in another set to this set.
+     */
+    public void union(GenomicSitesVisited other) {
+        for (Int2ObjectMap.Entry<long[][]> entry : other.chromosomes.int2ObjectEntrySet()) {
+            final long[][] otherPages = entry.getValue();
+            long[][] pages = chromosomes.get(entry.getIntKey());
+            if (pages == null || pages.length < otherPages.length) {
+                pages = pages == null ? new long[otherPages.length][] : Arrays.copyOf(pages, otherPages.length);
+                chromosomes.put(entry.getIntKey(), pages);
+            }
+            for (int pageIndex = 0; pageIndex < otherPages.length; pageIndex++) {
+                final long[] otherPage = otherPages[pageIndex];
+                if (otherPage == null) {
+                    continue;
+                }
+                if (pages[pageIndex] == null) {
+                    pages[pageIndex] = otherPage.clone();
+                } else {
+                    final long[] page = pages[pageIndex];
+                    for (int word = 0; word < WORDS_PER_PAGE; word++) {
+                        page[word] |= otherPage[word];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the number of sites visited.
+     */
+    public long size() {
+        long size = 0;
+        for (long[][] pages : chromosomes.values()) {
+            for (long[] page : pages) {
+                if (page != null) {
+                    for (long word : page) {
+                        size += Long.bitCount(word);
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Write the visited sites to a file. Only allocated pages are written.
+     */
+    public void save(String filename) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new FastBufferedOutputStream(new FileOutputStream(filename)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(chromosomes.size());
+            for (Int2ObjectMap.Entry<long[][]> entry : chromosomes.int2ObjectEntrySet()) {
+                final long[][] pages = entry.getValue();
+                int numPages = 0;
+                for (long[] page : pages) {
+                    numPages += page == null ? 0 : 1;
+                }
+                output.writeInt(entry.getIntKey());
+                output.writeInt(pages.length);
+                output.writeInt(numPages);
+                for (int pageIndex = 0; pageIndex < pages.length; pageIndex++) {
+                    if (pages[pageIndex] != null) {
+                        output.writeInt(pageIndex);
+                        for (long word : pages[pageIndex]) {
+                            output.writeLong(word);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public static GenomicSitesVisited load(String filename) throws IOException {
+        GenomicSitesVisited visited = new GenomicSitesVisited();
+        try (DataInputStream input = new DataInputStream(new FastBufferedInputStream(new FileInputStream(filename)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("File is not a valid set of visited sites: " + filename);
+            }
+            final int numChromosomes = input.readInt();
+            for (int i = 0; i < numChromosomes; i++) {
+                final int key = input.readInt();
+                final long[][] pages = new long[input.readInt()][];
+                final int numPages = input.readInt();
+                for (int p = 0; p < numPages; p++) {
+                    final long[] page = new long[WORDS_PER_PAGE];
+                    pages[input.readInt()] = page;
+                    for (int word = 0; word < WORDS_PER_PAGE; word++) {
+                        page[word] = input.readLong();
+                    }
+                }
+                visited.chromosomes.put(key, pages);
+            }
+        }
+        return visited;
     }
 }
@@ -15,10 +15,12 @@ public class BayesCalibrator extends CalcCalibrator {
 
     @Override
     public float calibrateProb(float prob) {
-        double mutGreater = plantedMutSet.subSet(prob,1.1f).size() + 1;
-        double unMutGreater = unMutSet.subSet(prob,1.1f).size() + 1;
-        double  pMGreater = mutGreater/plantedMutSet.size();
-        double  pUGreater = unMutGreater/ unMutSet.size();
+        final CalibrationTable plantedMutTable = plantedMutTable();
+        final CalibrationTable unMutTable = unMutTable();
+        double mutGreater = plantedMutTable.count(prob,1.1f) + 1;
+        double unMutGreater = unMutTable.count(prob,1.1f) + 1;
+        double  pMGreater = mutGreater/plantedMutTable.size();
+        double  pUGreater = unMutGreater/ unMutTable.size();
         double bayes = pMGreater* priorMutRate /pUGreater;
         return (float) bayes;
     }
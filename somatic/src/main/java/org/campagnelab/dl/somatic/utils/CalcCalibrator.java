@@ -18,35 +18,102 @@ public abstract class CalcCalibrator {
      */
     FloatAVLTreeSet plantedMutSet = new FloatAVLTreeSet();
     FloatAVLTreeSet unMutSet = new FloatAVLTreeSet();
+    /**
+     * Sorted arrays with the content of the two sets, used to calibrate. Built when statistics are saved or loaded,
+     * or when calibrating after new observations.
+     */
+    private volatile CalibrationTable plantedMutTable;
+    private volatile CalibrationTable unMutTable;
+    /**
+     * True when the sets hold every observation saved with the model, false when only the tables were loaded.
+     */
+    private boolean setsLoaded = true;
     int totalExamples;
     String modelPath;
     String prefix;
 
     public void observe(float modelProb, boolean isMut){
+        loadSets();
         totalExamples++;
         if (isMut) {
             plantedMutSet.add(modelProb);
         } else {
             unMutSet.add(modelProb);
         }
+        plantedMutTable = null;
+        unMutTable = null;
     }
 
     //call to save stats to disk
     public void save() throws IOException {
+        loadSets();
         File mutFile =  new File(modelPath + "/" + prefix + "mutSet");
         File unMutFile = new File(modelPath + "/" + prefix + "unMutSet");
         mutFile.createNewFile();
         unMutFile.createNewFile();
         BinIO.storeObject(plantedMutSet,mutFile);
         BinIO.storeObject(unMutSet,unMutFile);
+        buildTables();
+        plantedMutTable.save(new File(modelPath + "/" + prefix + "mutTable"));
+        unMutTable.save(new File(modelPath + "/" + prefix + "unMutTable"));
     }
 
-    //call to load stats from disk
+    //call to load stats from disk. When calibration tables were saved, only the tables are loaded: the sets are
+    //loaded when observations are added or saved.
     public void load() throws IOException, ClassNotFoundException {
+        File mutTableFile = new File(modelPath + "/" + prefix + "mutTable");
+        File unMutTableFile = new File(modelPath + "/" + prefix + "unMutTable");
+        if (mutTableFile.exists() && unMutTableFile.exists()) {
+            plantedMutTable = CalibrationTable.load(mutTableFile);
+            unMutTable = CalibrationTable.load(unMutTableFile);
+            setsLoaded = false;
+            return;
+        }
+        readSets();
+        buildTables();
+    }
+
+    private void readSets() throws IOException, ClassNotFoundException {
         File mutFile =  new File(modelPath + "/" + prefix + "mutSet");
         File unMutFile = new File(modelPath + "/" + prefix + "unMutSet");
         plantedMutSet = (FloatAVLTreeSet)BinIO.loadObject(mutFile);
         unMutSet = (FloatAVLTreeSet)BinIO.loadObject(unMutFile);
+        setsLoaded = true;
+    }
+
+    /**
+     * Load the sets saved with the model, unless they are already loaded.
+     */
+    private void loadSets() {
+        if (setsLoaded) {
+            return;
+        }
+        try {
+            readSets();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Unable to load calibration sets from " + modelPath, e);
+        }
+    }
+
+    private synchronized void buildTables() {
+        if (plantedMutTable == null || unMutTable == null) {
+            plantedMutTable = new CalibrationTable(plantedMutSet);
+            unMutTable = new CalibrationTable(unMutSet);
+        }
+    }
+
+    protected CalibrationTable plantedMutTable() {
+        if (plantedMutTable == null) {
+            buildTables();
+        }
+        return plantedMutTable;
+    }
+
+    protected CalibrationTable unMutTable() {
+        if (unMutTable == null) {
+            buildTables();
+        }
+        return unMutTable;
     }
 
     public CalcCalibrator(String modelPath, String prefix, boolean loadStats) throws IOException, ClassNotFoundException {
@@ -0,0 +1,77 @@
+package org.campagnelab.dl.somatic.utils;
+
+import it.unimi.dsi.fastutil.floats.FloatCollection;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Sorted model probabilities observed on a calibration set, stored as a primitive array. Counting the probabilities
+ * in a range takes two binary searches. Tables are immutable, so one table can be used by several threads.
+ */
+public class CalibrationTable {
+    private static final int MAGIC = 0xCA11B001;
+    private final float[] sorted;
+
+    public CalibrationTable(FloatCollection probabilities) {
+        sorted = probabilities.toFloatArray();
+        Arrays.sort(sorted);
+    }
+
+    private CalibrationTable(float[] sorted) {
+        this.sorted = sorted;
+    }
+
+    public int size() {
+        return sorted.length;
+    }
+
+    /**
+     * Count the probabilities p such that from <= p < to.
+     */
+    public int count(float from, float to) {
+        return Math.max(0, lowerBound(to) - lowerBound(from));
+    }
+
+    /**
+     * Return the index of the first probability that is not smaller than value.
+     */
+    private int lowerBound(float value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (sorted[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public void save(File file) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new FastBufferedOutputStream(new FileOutputStream(file)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(sorted.length);
+            for (float value : sorted) {
+                output.writeFloat(value);
+            }
+        }
+    }
+
+    public static CalibrationTable load(File file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new FastBufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("File is not a valid calibration table: " + file);
+            }
+            float[] sorted = new float[input.readInt()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = input.readFloat();
+            }
+            return new CalibrationTable(sorted);
+        }
+    }
+}
@@ -13,8 +13,9 @@ public class FDREstimator extends CalcCalibrator {
 
     @Override
     public float calibrateProb(float prob) {
-        double unMutGreater = unMutSet.subSet(prob,1.1f).size();
-        double unMutTotal = unMutSet.size();
+        final CalibrationTable unMutTable = unMutTable();
+        double unMutGreater = unMutTable.count(prob,1.1f);
+        double unMutTotal = unMutTable.size();
         double FDR = unMutGreater/(unMutTotal);
         return (float) FDR;
     }
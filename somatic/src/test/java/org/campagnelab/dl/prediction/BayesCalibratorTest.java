@@ -1,5 +1,6 @@
 package org.campagnelab.dl.prediction;
 
+import org.apache.commons.io.FileUtils;
 import org.campagnelab.dl.somatic.utils.BayesCalibrator;
 import org.junit.Test;
 
@@ -41,4 +42,32 @@ public class BayesCalibratorTest {
 
     };
 
+    @Test
+    public void observationsAfterLoadAddToSavedOnes() throws Exception {
+        String modelDir = "test-results/testModelRoundTrip";
+        FileUtils.deleteQuietly(new File(modelDir));
+        new File(modelDir).mkdirs();
+        BayesCalibrator first = new BayesCalibrator(modelDir, "best", false);
+        BayesCalibrator all = new BayesCalibrator(modelDir, "all", false);
+        for (int i = 0; i < 10; i++) {
+            first.observe(i / 10f, i % 2 == 0);
+            all.observe(i / 10f, i % 2 == 0);
+        }
+        first.save();
+
+        // load the saved tables, add observations and save again:
+        BayesCalibrator second = new BayesCalibrator(modelDir, "best", true);
+        for (int i = 0; i < 10; i++) {
+            second.observe(i / 10f + 0.05f, i % 3 == 0);
+            all.observe(i / 10f + 0.05f, i % 3 == 0);
+        }
+        second.save();
+
+        BayesCalibrator loaded = new BayesCalibrator(modelDir, "best", true);
+        for (float prob = 0; prob <= 1; prob += 0.025f) {
+            assertEquals(all.calibrateProb(prob), loaded.calibrateProb(prob), 0);
+            assertEquals(all.calibrateProb(prob), second.calibrateProb(prob), 0);
+        }
+    }
+
 }
\ No newline at end of file
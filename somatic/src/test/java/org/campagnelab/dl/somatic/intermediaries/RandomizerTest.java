@@ -0,0 +1,77 @@
+package org.campagnelab.dl.somatic.intermediaries;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.util.XorShift1024StarRandom;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.somatic.storage.RecordReader;
+import org.campagnelab.dl.somatic.storage.RecordWriter;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RandomizerTest {
+    private static final int NUM_RECORDS = 5000;
+    private static String input = "test-results/randomizer/sorted";
+    private static String output = "test-results/randomizer/shuffled";
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteQuietly(new File("test-results/randomizer"));
+        FileUtils.forceMkdir(new File("test-results/randomizer"));
+        try (RecordWriter writer = new RecordWriter(input)) {
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                BaseInformationRecords.BaseInformation.Builder builder = BaseInformationRecords.BaseInformation.newBuilder();
+                builder.setMutated(false);
+                builder.setPosition(i);
+                builder.setReferenceIndex(0);
+                writer.writeRecord(builder.build());
+            }
+        }
+    }
+
+    @Test
+    public void shuffleAcrossBuckets() throws Exception {
+        // a small budget forces many buckets:
+        new Randomizer(16 * 1024, 3, new XorShift1024StarRandom(1)).executeOver(input, output);
+        checkShuffled(readPositions());
+    }
+
+    @Test
+    public void splitLargeBuckets() throws Exception {
+        // with four buckets at most, the buckets are split again until they fit in the budget:
+        new Randomizer(16 * 1024, 3, new XorShift1024StarRandom(1), 4).executeOver(input, output);
+        checkShuffled(readPositions());
+    }
+
+    private static IntArrayList readPositions() throws IOException {
+        IntArrayList positions = new IntArrayList();
+        try (RecordReader reader = new RecordReader(output)) {
+            for (BaseInformationRecords.BaseInformation record : reader) {
+                positions.add(record.getPosition());
+            }
+        }
+        return positions;
+    }
+
+    private static void checkShuffled(IntArrayList positions) {
+        assertEquals(NUM_RECORDS, positions.size());
+        // the first records of the output come from the whole input, not only from its beginning:
+        int maxOfFirstRecords = 0;
+        for (int i = 0; i < 100; i++) {
+            maxOfFirstRecords = Math.max(maxOfFirstRecords, positions.getInt(i));
+        }
+        assertTrue(maxOfFirstRecords >= NUM_RECORDS / 2);
+        int[] sorted = positions.toIntArray();
+        Arrays.sort(sorted);
+        for (int i = 0; i < NUM_RECORDS; i++) {
+            assertEquals(i, sorted[i]);
+        }
+    }
+}
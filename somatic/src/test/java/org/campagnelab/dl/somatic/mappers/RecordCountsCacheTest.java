@@ -0,0 +1,80 @@
+package org.campagnelab.dl.somatic.mappers;
+
+import org.campagnelab.dl.somatic.storage.RecordReader;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Check that mappers which share genotype counts through RecordCountsCache calculate the same features as mappers
+ * that calculate their own counts.
+ */
+public class RecordCountsCacheTest {
+    private static final String SBI = "sample_data/protobuf/concat_genotypes_test_proto_mutated.sbi";
+
+    @SuppressWarnings("unchecked")
+    private static final Supplier<AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>>[] MAPPERS = new Supplier[]{
+            () -> new SimpleFeatureCalculator(true),
+            () -> new SimpleFeatureCalculator(false),
+            MagnitudeFeatures2::new,
+            MagnitudeFeatures3::new,
+            FractionDifferences::new,
+            FractionDifferences2::new,
+            FractionDifferences3::new,
+            FractionDifferences4::new,
+            SortedGenotypeAgreementMapper::new,
+            ReadIndexFeatures::new,
+            ReadIndexFeaturesFix::new
+    };
+
+    @Test
+    public void sharedCountsGiveSameFeatures() throws IOException {
+        int numRecords = 0;
+        // mappers that run one after the other on each record, as in a concat chain, and share counts:
+        AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>[] chain = createMappers();
+        try (RecordReader reader = new RecordReader(SBI)) {
+            for (BaseInformationRecords.BaseInformation record : reader) {
+                float[][] shared = new float[MAPPERS.length][];
+                for (int i = 0; i < MAPPERS.length; i++) {
+                    shared[i] = map(chain[i], record);
+                }
+                // new mappers given distinct copies of the record calculate their own counts:
+                AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>[] alone = createMappers();
+                for (int i = 0; i < MAPPERS.length; i++) {
+                    assertArrayEquals(chain[i].getClass().getSimpleName() + " at record " + numRecords,
+                            map(alone[i], record.toBuilder().build()), shared[i], 0f);
+                }
+                numRecords++;
+            }
+        }
+        assertTrue(numRecords > 0);
+    }
+
+    @Test
+    public void mappersOfSameKindShareCounts() {
+        assertSame(new SimpleFeatureCalculator().countsKey(), new FractionDifferences4().countsKey());
+        assertSame(new ReadIndexFeatures().countsKey(), new ReadIndexFeaturesFix().countsKey());
+        assertNotSame(new SimpleFeatureCalculator().countsKey(), new ReadIndexFeatures().countsKey());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>[] createMappers() {
+        AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder>[] mappers = new AbstractFeatureMapper[MAPPERS.length];
+        for (int i = 0; i < MAPPERS.length; i++) {
+            mappers[i] = MAPPERS[i].get();
+        }
+        return mappers;
+    }
+
+    private static float[] map(AbstractFeatureMapper<BaseInformationRecords.BaseInformationOrBuilder> mapper,
+                               BaseInformationRecords.BaseInformationOrBuilder record) {
+        float[] features = new float[mapper.numberOfFeatures()];
+        mapper.prepareToNormalize(record, 0);
+        mapper.mapFeatures(record, features, 0, 0);
+        return features;
+    }
+}
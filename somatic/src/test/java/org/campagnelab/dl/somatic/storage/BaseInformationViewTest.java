@@ -0,0 +1,42 @@
+package org.campagnelab.dl.somatic.storage;
+
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class BaseInformationViewTest {
+    private static final String SBI = "sample_data/protobuf/concat_genotypes_test_proto_mutated.sbi";
+
+    @Test
+    public void viewsMatchParsedRecords() throws IOException {
+        assertTrue(RawRecordReader.canRead(SBI));
+        int numRecords = 0;
+        try (RecordReader records = new RecordReader(SBI); RawRecordReader views = new RawRecordReader(SBI)) {
+            Iterator<BaseInformationView> iterator = views.iterator();
+            for (BaseInformationRecords.BaseInformation record : records) {
+                assertTrue(iterator.hasNext());
+                BaseInformationView view = iterator.next();
+                assertEquals(record.getReferenceIndex(), view.getReferenceIndex());
+                assertEquals(record.getPosition(), view.getPosition());
+                assertEquals(record.getSamplesCount(), view.getSamplesCount());
+                for (int sampleIndex = 0; sampleIndex < record.getSamplesCount(); sampleIndex++) {
+                    final BaseInformationRecords.SampleInfo sample = record.getSamples(sampleIndex);
+                    assertEquals(sample.getCountsCount(), view.getCountsCount(sampleIndex));
+                    for (int i = 0; i < sample.getCountsCount(); i++) {
+                        assertEquals(sample.getCounts(i).getGenotypeCountForwardStrand(), view.getGenotypeCountForwardStrand(sampleIndex, i));
+                        assertEquals(sample.getCounts(i).getGenotypeCountReverseStrand(), view.getGenotypeCountReverseStrand(sampleIndex, i));
+                    }
+                    assertEquals(sample, view.getSamples(sampleIndex));
+                }
+                assertEquals(record, view.toRecord());
+                numRecords++;
+            }
+            assertFalse(iterator.hasNext());
+            assertEquals(records.getTotalRecords(), numRecords);
+        }
+    }
+}
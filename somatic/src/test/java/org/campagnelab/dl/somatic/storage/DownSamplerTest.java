@@ -0,0 +1,106 @@
+package org.campagnelab.dl.somatic.storage;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DownSamplerTest {
+    private static final int NUM_RECORDS = 5000;
+
+    @Test
+    public void nestedAndReproducible() throws IOException {
+        final String input = "test-results/downsampler/input.sbi";
+        FileUtils.deleteQuietly(new File("test-results/downsampler"));
+        FileUtils.forceMkdir(new File("test-results/downsampler"));
+        writeRecords(input);
+        final float[] rates = {0.1f, 0.5f};
+
+        long[] counts = new DownSampler(input, rates, 42, 1).downs();
+        assertFalse("one thread reads the input sequentially, without a chunk index",
+                new File(SbiChunkIndex.indexFilename(input)).exists());
+        LongOpenHashSet small = sites(DownSampler.outputPath(input, rates[0]));
+        LongOpenHashSet large = sites(DownSampler.outputPath(input, rates[1]));
+        assertEquals(counts[0], numRecords(DownSampler.outputPath(input, rates[0])));
+        assertEquals(counts[1], numRecords(DownSampler.outputPath(input, rates[1])));
+        // within about five standard deviations of the expected counts:
+        assertEquals(NUM_RECORDS * rates[0], counts[0], 0.03 * NUM_RECORDS);
+        assertEquals(NUM_RECORDS * rates[1], counts[1], 0.03 * NUM_RECORDS);
+        assertEquals(counts[0], small.size());
+        assertEquals(counts[1], large.size());
+        assertTrue(large.containsAll(small));
+        assertTrue(large.size() > small.size());
+
+        // more threads select the same records:
+        long[] parallelCounts = new DownSampler(input, rates, 42, 4).downs();
+        assertEquals(counts[0], parallelCounts[0]);
+        assertEquals(counts[1], parallelCounts[1]);
+        assertEquals(small, sites(DownSampler.outputPath(input, rates[0])));
+        assertEquals(large, sites(DownSampler.outputPath(input, rates[1])));
+
+        // another seed selects other records:
+        new DownSampler(input, rates, 43, 1).downs();
+        assertNotEquals(small, sites(DownSampler.outputPath(input, rates[0])));
+    }
+
+    @Test
+    public void recordsOfOneSiteAreSampledIndependently() throws IOException {
+        final String input = "test-results/downsampler-site/input.sbi";
+        FileUtils.deleteQuietly(new File("test-results/downsampler-site"));
+        FileUtils.forceMkdir(new File("test-results/downsampler-site"));
+        try (RecordWriter writer = new RecordWriter(input, 100)) {
+            for (int i = 0; i < 1000; i++) {
+                BaseInformationRecords.BaseInformation.Builder builder = BaseInformationRecords.BaseInformation.newBuilder();
+                builder.setMutated(false);
+                builder.setReferenceIndex(0);
+                builder.setReferenceId("1");
+                builder.setPosition(7);
+                writer.writeRecord(builder.build());
+            }
+        }
+        long[] counts = new DownSampler(input, new float[]{0.5f}, 42, 1).downs();
+        assertEquals(500, counts[0], 80);
+        assertEquals(counts[0], new DownSampler(input, new float[]{0.5f}, 42, 4).downs()[0]);
+    }
+
+    /**
+     * Write records at consecutive sites of two references, in chunks of 100 records so that the input is decoded
+     * by several threads.
+     */
+    private static void writeRecords(String path) throws IOException {
+        try (RecordWriter writer = new RecordWriter(path, 100)) {
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                BaseInformationRecords.BaseInformation.Builder builder = BaseInformationRecords.BaseInformation.newBuilder();
+                builder.setMutated(false);
+                builder.setReferenceIndex(i < NUM_RECORDS / 2 ? 0 : 1);
+                builder.setReferenceId(i < NUM_RECORDS / 2 ? "1" : "2");
+                builder.setPosition(i % (NUM_RECORDS / 2));
+                writer.writeRecord(builder.build());
+            }
+        }
+    }
+
+    private long numRecords(String path) throws IOException {
+        try (RecordReader reader = new RecordReader(path)) {
+            return reader.getTotalRecords();
+        }
+    }
+
+    private LongOpenHashSet sites(String path) throws IOException {
+        LongOpenHashSet sites = new LongOpenHashSet();
+        try (RecordReader reader = new RecordReader(path)) {
+            for (BaseInformationRecords.BaseInformation record : reader) {
+                sites.add(((long) record.getReferenceIndex() << 32) | record.getPosition());
+            }
+        }
+        return sites;
+    }
+}
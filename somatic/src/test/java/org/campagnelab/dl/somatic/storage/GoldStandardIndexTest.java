@@ -0,0 +1,47 @@
+package org.campagnelab.dl.somatic.storage;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class GoldStandardIndexTest {
+
+    @Test
+    public void buildSaveAndMap() throws IOException {
+        final String annotations = "test-results/gold-standard/annotations.tsv";
+        FileUtils.write(new File(annotations), "#chromosome\tposition\n" +
+                "chr2\t100\tA\t0.5\n" +
+                "chr1\t30\n" +
+                "chr1\t10\tTG\n" +
+                "chr1\t20\tC\t0.25\n" +
+                "chr1\t10\tT\n", StandardCharsets.UTF_8);
+        new File(GoldStandardIndex.indexFilename(annotations)).delete();
+
+        GoldStandardIndex built = GoldStandardIndex.getOrBuild(annotations);
+        assertTrue(GoldStandardIndex.isUpToDate(annotations));
+        GoldStandardIndex mapped = GoldStandardIndex.load(annotations);
+        for (GoldStandardIndex index : new GoldStandardIndex[]{built, mapped}) {
+            assertEquals(4, index.numSites());
+            // positions are zero-based, and the last annotation of a site is kept:
+            GoldStandardIndex.Annotation a = index.get("chr1", 9);
+            assertEquals("T", a.toBase);
+            assertNull(a.frequency);
+            a = index.get("chr1", 19);
+            assertEquals("C", a.toBase);
+            assertEquals(0.25f, a.frequency, 0);
+            a = index.get("chr1", 29);
+            assertNull(a.toBase);
+            assertNull(a.frequency);
+            assertEquals(0.5f, index.get("chr2", 99).frequency, 0);
+            assertTrue(index.contains("chr2", 99));
+            assertFalse(index.contains("chr1", 10));
+            assertFalse(index.contains("chr1", 99));
+            assertNull(index.get("chr3", 9));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.campagnelab.dl.somatic.storage;
+
+import org.campagnelab.dl.varanalysis.protobuf.BaseInformationRecords;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Spliterator;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RecordSpliteratorTest {
+    private static final String FILENAME = "test-data/reader/c1_genotypes_test_proto_VN";
+
+    @Test
+    public void readRecordsWithParallelStream() throws Exception {
+        final boolean hadIndex = new File(SbiChunkIndex.indexFilename(FILENAME + ".sbi")).exists();
+        try (RecordReader reader = new RecordReader(FILENAME)) {
+            Spliterator<BaseInformationRecords.BaseInformation> spliterator = reader.spliterator();
+            assertEquals("Exact size", 12185, spliterator.getExactSizeIfKnown());
+            long numRecordsRead = StreamSupport.stream(spliterator, true).mapToLong(record -> 1).sum();
+            assertEquals("Records read", 12185, numRecordsRead);
+        }
+        if (!hadIndex) {
+            assertFalse("the spliterator must not write a chunk index",
+                    new File(SbiChunkIndex.indexFilename(FILENAME + ".sbi")).exists());
+        }
+    }
+}
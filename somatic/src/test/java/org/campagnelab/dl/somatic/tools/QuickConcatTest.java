@@ -0,0 +1,87 @@
+package org.campagnelab.dl.somatic.tools;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import org.apache.commons.io.FileUtils;
+import org.campagnelab.dl.somatic.intermediaries.QuickConcatArguments;
+import org.campagnelab.dl.somatic.storage.RecordReader;
+import org.campagnelab.dl.somatic.storage.SbiChunkIndex;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+public class QuickConcatTest {
+
+    @Test
+    public void mergeProperties() {
+        Properties first = new Properties();
+        first.setProperty("numRecords", "10");
+        first.setProperty("stats.baseQuality.forward.min", "2.0");
+        first.setProperty("stats.baseQuality.forward.max", "40.0");
+        first.setProperty("genotypes.ploidy", "2");
+        Properties second = new Properties();
+        second.setProperty("numRecords", "5");
+        second.setProperty("stats.baseQuality.forward.min", "0.0");
+        second.setProperty("stats.baseQuality.forward.max", "1.2E2");
+        second.setProperty("genotypes.ploidy", "2");
+        Properties merged = QuickConcat.mergeProperties(Arrays.asList(first, second));
+        assertEquals("15", merged.getProperty("numRecords"));
+        assertEquals("0.0", merged.getProperty("stats.baseQuality.forward.min"));
+        assertEquals("1.2E2", merged.getProperty("stats.baseQuality.forward.max"));
+        assertEquals("2", merged.getProperty("genotypes.ploidy"));
+    }
+
+    @Test
+    public void mergeSorted() {
+        List<Iterator<Integer>> inputs = new ObjectArrayList<>();
+        inputs.add(Arrays.asList(1, 4, 9).iterator());
+        inputs.add(Arrays.<Integer>asList().iterator());
+        inputs.add(Arrays.asList(2, 3, 4, 10).iterator());
+        IntArrayList merged = new IntArrayList();
+        QuickConcat.mergeSorted(inputs, Integer::compare, value -> merged.add(value.intValue()));
+        assertEquals(IntArrayList.wrap(new int[]{1, 2, 3, 4, 4, 9, 10}), merged);
+    }
+
+    @Test
+    public void concatenateWithIndex() throws IOException {
+        final String input = "sample_data/protobuf/concat_genotypes_test_proto_mutated";
+        ObjectArrayList<String> inputFiles = new ObjectArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            final String copy = "test-results/quick-concat-" + i;
+            FileUtils.copyFile(new File(input + ".sbi"), new File(copy + ".sbi"));
+            FileUtils.copyFile(new File(input + ".sbip"), new File(copy + ".sbip"));
+            SbiChunkIndex.getOrBuild(copy + ".sbi");
+            inputFiles.add(copy + ".sbi");
+        }
+        QuickConcat tool = new QuickConcat();
+        tool.arguments = new QuickConcatArguments();
+        tool.arguments.inputFiles = inputFiles;
+        tool.arguments.outputFile = "test-results/quick-concat";
+        tool.arguments.force = true;
+        tool.execute();
+
+        final long numRecords;
+        try (RecordReader reader = new RecordReader(input + ".sbi")) {
+            numRecords = reader.getTotalRecords();
+        }
+        try (RecordReader reader = new RecordReader("test-results/quick-concat.sbi")) {
+            assertEquals(2 * numRecords, reader.getTotalRecords());
+        }
+        // the index derived from the inputs matches the index built from the output:
+        SbiChunkIndex derived = SbiChunkIndex.load("test-results/quick-concat.sbi");
+        SbiChunkIndex built = SbiChunkIndex.build("test-results/quick-concat.sbi");
+        assertEquals(built.numChunks(), derived.numChunks());
+        assertEquals(2 * numRecords, derived.numRecords());
+        for (int chunk = 0; chunk <= built.numChunks(); chunk++) {
+            assertEquals(built.chunkStart(chunk), derived.chunkStart(chunk));
+            assertEquals(built.numRecords(0, chunk), derived.numRecords(0, chunk));
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package org.campagnelab.dl.somatic.util;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
+import java.io.File;
+
 import static org.junit.Assert.*;
 
 public class GenomicSitesVisitedTest {
@@ -18,4 +21,28 @@ public class GenomicSitesVisitedTest {
         assertFalse(vis.wasVisited(0, 0xFFFF));
         assertTrue(vis.wasVisited(0xFFFF, 0));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUnionAndSave() throws Exception {
+        GenomicSitesVisited first = new GenomicSitesVisited();
+        GenomicSitesVisited second = new GenomicSitesVisited();
+        first.visit(0, 12);
+        first.visit(3, 250_000_000);
+        second.visit(0, 65535);
+        second.visit(0, 12);
+        second.visit(-1, -1);
+        first.union(second);
+        assertEquals(4, first.size());
+
+        FileUtils.forceMkdir(new File("test-results"));
+        first.save("test-results/visited-sites.bin");
+        GenomicSitesVisited loaded = GenomicSitesVisited.load("test-results/visited-sites.bin");
+        assertEquals(4, loaded.size());
+        assertTrue(loaded.wasVisited(0, 12));
+        assertTrue(loaded.wasVisited(0, 65535));
+        assertTrue(loaded.wasVisited(3, 250_000_000));
+        assertTrue(loaded.wasVisited(-1, -1));
+        assertFalse(loaded.wasVisited(3, 250_000_001));
+        assertFalse(loaded.wasVisited(2, 12));
+    }
+}